@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import com.codahale.metrics.MetricRegistry;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a Prometheus scrape of a registry with many tagged series, one in ten of them timers.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrometheusSerializerBenchmark {
+
+  @Param({"20000"})
+  public int seriesCount;
+
+  private PrometheusSerializer serializer;
+
+  @Setup
+  public void setUp() {
+    MetricRegistry registry = new TracingMetricRegistry(
+        () -> ReservoirType.HDR_HISTOGRAM.newReservoir(15000));
+    TagEncodedMetricName base = TagEncodedMetricName.decode("benchmark.series");
+    for (int i = 0; i < seriesCount; i++) {
+      String name = base.withTags("id", Integer.toString(i), "kind", "k" + i % 16).toString();
+      if (i % 10 == 0) {
+        registry.timer(name).update(i, TimeUnit.MICROSECONDS);
+      } else {
+        registry.counter(name).inc(i);
+      }
+    }
+    serializer = new PrometheusSerializer(registry, Collections.singletonMap("host", "bench"));
+  }
+
+  @Benchmark
+  public int serialize() {
+    return serializer.serialize();
+  }
+}
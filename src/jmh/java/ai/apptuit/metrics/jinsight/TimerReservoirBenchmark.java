@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Timer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Timer update cost for each {@link ReservoirType}, single threaded and contended.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimerReservoirBenchmark {
+
+  @Param({"EXPONENTIALLY_DECAYING", "HDR_HISTOGRAM", "SKETCH"})
+  public String reservoirType;
+
+  private Timer timer;
+
+  @Setup
+  public void setUp() {
+    timer = new Timer(ReservoirType.valueOf(reservoirType).newReservoir(15000));
+  }
+
+  private void update() {
+    timer.update(ThreadLocalRandom.current().nextLong(1_000, 10_000_000), TimeUnit.NANOSECONDS);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void timerUpdate01Threads() {
+    update();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void timerUpdate08Threads() {
+    update();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void timerUpdate64Threads() {
+    update();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of metric updates on a plain {@link MetricRegistry} versus a {@link TracingMetricRegistry}
+ * with tracing disabled (the default) and enabled with a ring buffer.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TracingMetricRegistryBenchmark {
+
+  private static final String TRACED =
+      "-D" + TracingMetricRegistry.TRACE_UPDATES_PROPERTY + "=true";
+  private static final String BUFFERED =
+      "-D" + TracingMetricRegistry.TRACE_BUFFER_SIZE_PROPERTY + "=1024";
+
+  private Timer plainTimer;
+  private Counter plainCounter;
+  private Timer tracingTimer;
+  private Counter tracingCounter;
+
+  @Setup
+  public void setUp() {
+    MetricRegistry plain = new MetricRegistry();
+    plainTimer = plain.timer("benchmark.timer");
+    plainCounter = plain.counter("benchmark.counter");
+    MetricRegistry tracing = new TracingMetricRegistry();
+    tracingTimer = tracing.timer("benchmark.timer");
+    tracingCounter = tracing.counter("benchmark.counter");
+  }
+
+  @Benchmark
+  public void plainTimerUpdate() {
+    plainTimer.update(1000, TimeUnit.NANOSECONDS);
+  }
+
+  @Benchmark
+  public void plainCounterInc() {
+    plainCounter.inc();
+  }
+
+  @Benchmark
+  public void untracedTimerUpdate() {
+    tracingTimer.update(1000, TimeUnit.NANOSECONDS);
+  }
+
+  @Benchmark
+  public void untracedCounterInc() {
+    tracingCounter.inc();
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = {TRACED, BUFFERED})
+  public void tracedTimerUpdate() {
+    tracingTimer.update(1000, TimeUnit.NANOSECONDS);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = {TRACED, BUFFERED})
+  public void tracedCounterInc() {
+    tracingCounter.inc();
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the striped {@link ObjectPropertyStore} with the synchronized {@link WeakHashMap} it
+ * replaced, for the begin/end start-time pattern used by the async rule helpers.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectPropertyStoreBenchmark {
+
+  private static final String START_TIME = "start";
+
+  @State(Scope.Benchmark)
+  public static class Stores {
+
+    final ObjectPropertyStore store = new ObjectPropertyStore();
+    final Map<Object, Map<String, Object>> legacy = Collections
+        .synchronizedMap(new WeakHashMap<>());
+  }
+
+  @State(Scope.Thread)
+  public static class Operations {
+
+    final Object[] objects = new Object[1024];
+    int next;
+
+    @Setup
+    public void setUp() {
+      for (int i = 0; i < objects.length; i++) {
+        objects[i] = new Object();
+      }
+    }
+
+    Object nextObject() {
+      return objects[next++ & (objects.length - 1)];
+    }
+  }
+
+  private static long storeBeginEnd(Stores stores, Operations ops) {
+    Object o = ops.nextObject();
+    stores.store.getOrCreate(o).setStartTime(System.nanoTime());
+    ObjectPropertyStore.Properties props = stores.store.get(o);
+    return props != null ? props.removeStartTime() : ObjectPropertyStore.NO_START_TIME;
+  }
+
+  private static Object legacyBeginEnd(Stores stores, Operations ops) {
+    Object o = ops.nextObject();
+    stores.legacy.computeIfAbsent(o, k -> Collections.synchronizedMap(new HashMap<>()))
+        .put(START_TIME, System.nanoTime());
+    Map<String, Object> props = stores.legacy.get(o);
+    return props != null ? props.remove(START_TIME) : null;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long store01Threads(Stores stores, Operations ops) {
+    return storeBeginEnd(stores, ops);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public long store08Threads(Stores stores, Operations ops) {
+    return storeBeginEnd(stores, ops);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public long store64Threads(Stores stores, Operations ops) {
+    return storeBeginEnd(stores, ops);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object weakHashMap01Threads(Stores stores, Operations ops) {
+    return legacyBeginEnd(stores, ops);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Object weakHashMap08Threads(Stores stores, Operations ops) {
+    return legacyBeginEnd(stores, ops);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Object weakHashMap64Threads(Stores stores, Operations ops) {
+    return legacyBeginEnd(stores, ops);
+  }
+}
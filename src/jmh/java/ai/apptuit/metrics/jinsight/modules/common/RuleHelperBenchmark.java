@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.RuleHelper.OperationId;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call cost of the {@link RuleHelper} primitives that every rule helper is built on.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RuleHelperBenchmark {
+
+  private static final String PROPERTY_NAME = "benchmark.property";
+
+  private final RuleHelper helper = new RuleHelper(null);
+  private final OperationId operation = new OperationId("benchmark.operation");
+  private final Object target = new Object();
+  private Timer timer;
+
+  @Setup
+  public void setUp() {
+    timer = RegistryService.getMetricRegistry().timer("benchmark.rulehelper.timer");
+  }
+
+  @Benchmark
+  public void timedOperation() {
+    helper.beginTimedOperation(operation);
+    helper.endTimedOperation(operation, timer);
+  }
+
+  @Benchmark
+  public void sampledTimedOperation(SamplingState sampling) {
+    helper.beginTimedOperation(operation);
+    helper.endTimedOperation(operation, timer);
+  }
+
+  @Benchmark
+  public void nestedReentrantTimedOperation() {
+    helper.beginTimedOperation(operation);
+    helper.beginTimedOperation(operation);
+    helper.endTimedOperation(operation, timer);
+    helper.endTimedOperation(operation, timer);
+  }
+
+  @Benchmark
+  public Object ruleFiring() {
+    //Byteman creates a helper for every rule firing
+    return new RuleHelper(null);
+  }
+
+  @Benchmark
+  public Object setGetObjectProperty() {
+    helper.setObjectProperty(target, PROPERTY_NAME, "value");
+    return helper.getObjectProperty(target, PROPERTY_NAME);
+  }
+
+  @Benchmark
+  public long setRemoveObjectStartTime() {
+    helper.setObjectStartTime(target, System.nanoTime());
+    return helper.removeObjectStartTime(target);
+  }
+
+  /**
+   * Latency is recorded for one in every {@code samplingInterval} operations.
+   */
+  @State(Scope.Benchmark)
+  public static class SamplingState {
+
+    @Param({"4", "64"})
+    public int samplingInterval;
+
+    @Setup
+    public void setUp() {
+      OperationSampler.setSamplingInterval(samplingInterval);
+    }
+
+    @TearDown
+    public void tearDown() {
+      OperationSampler.setSamplingInterval(1);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the hook fired for every row read from a result set, which is tracked or was not
+ * returned by an instrumented execute method.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JdbcRuleHelperBenchmark {
+
+  private final JdbcRuleHelper helper = new JdbcRuleHelper(null);
+  private ResultSet trackedResultSet;
+  private ResultSet untrackedResultSet;
+
+  @Setup
+  public void setUp() {
+    Statement statement = newProxy(Statement.class);
+    trackedResultSet = newProxy(ResultSet.class);
+    untrackedResultSet = newProxy(ResultSet.class);
+    helper.onGetResultSet(statement, trackedResultSet);
+  }
+
+  @Benchmark
+  public void nextTracked() {
+    helper.onResultSetNext(trackedResultSet, true);
+  }
+
+  @Benchmark
+  public void nextUntracked() {
+    helper.onResultSetNext(untrackedResultSet, true);
+  }
+
+  private static <T> T newProxy(Class<T> type) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+        (proxy, method, args) -> method.getName().equals("hashCode") ? 0 : null));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of normalizing a corpus of typical application SQL: prepared statements that are already
+ * normalized, and statements with inlined literals, IN lists, comments and line breaks.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlNormalizerBenchmark {
+
+  private static final String[] PREPARED = {
+      "SELECT id, name, email FROM users WHERE id = ? AND status = ?",
+      "INSERT INTO orders (id, user_id, total, created_at) VALUES (?, ?, ?, ?)",
+      "UPDATE accounts SET balance = balance - ? WHERE id = ? AND version = ?",
+      "SELECT o.id, o.total, i.sku FROM orders o JOIN order_items i ON i.order_id = o.id"
+          + " WHERE o.user_id = ? ORDER BY o.created_at DESC LIMIT ?",
+  };
+
+  private static final String[] INLINED = {
+      "SELECT id, name, email FROM users WHERE id = 18342 AND status = 'ACTIVE'",
+      "INSERT INTO orders (id, user_id, total, created_at) VALUES (981234, 18342, 129.95,"
+          + " '2017-11-02 10:31:07')",
+      "UPDATE accounts SET balance = balance - 25.00 WHERE id = 77 AND version = 12",
+      "SELECT * FROM products WHERE category_id IN (12, 15, 19, 23, 42, 57, 61, 88)"
+          + " AND name LIKE 'Blue%'",
+      "/* report:daily */ SELECT COUNT(*)\n  FROM events\n WHERE type = 'click'\n"
+          + "   AND ts >= 1509580800000 -- last day\n   AND ts < 1509667200000",
+  };
+
+  private int next;
+
+  @Benchmark
+  public String prepared() {
+    next = (next + 1) % PREPARED.length;
+    return SqlNormalizer.normalize(PREPARED[next]);
+  }
+
+  @Benchmark
+  public String inlined() {
+    next = (next + 1) % INLINED.length;
+    return SqlNormalizer.normalize(INLINED[next]);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of mapping SQL text to its id, for a cached statement, also from several threads, and for
+ * a new one.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringUniqueIdServiceBenchmark {
+
+  private static final String SQL = "SELECT id, name, email FROM users WHERE id = ? AND status = ?";
+
+  private final StringUniqueIdService service = new StringUniqueIdService();
+
+  @Setup
+  public void setUp() {
+    service.getUniqueId(SQL);
+  }
+
+  @Benchmark
+  public String cachedId() {
+    return service.getUniqueId(SQL);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public String cachedIdContended() {
+    return service.getUniqueId(SQL);
+  }
+
+  @Benchmark
+  public String computeId() {
+    return service.getIdFromServer(SQL);
+  }
+}
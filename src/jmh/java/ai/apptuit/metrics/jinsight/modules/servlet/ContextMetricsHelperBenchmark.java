@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.servlet;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead {@link ContextMetricsHelper#measure} adds around a synchronous request with an empty
+ * handler.
+ *
+ * @author Rajiv Shivane
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContextMetricsHelperBenchmark {
+
+  private static final ContextMetricsHelper.MeasurableJob NO_OP_JOB = () -> {
+  };
+
+  private ContextMetricsHelper helper;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+
+  @Setup
+  public void setUp() {
+    helper = new ContextMetricsHelper(TagEncodedMetricName.decode("benchmark.servlet"), "/app");
+    request = new HttpServletRequestWrapper(unsupported(HttpServletRequest.class)) {
+      @Override
+      public String getMethod() {
+        return "GET";
+      }
+
+      @Override
+      public boolean isAsyncStarted() {
+        return false;
+      }
+    };
+    response = new HttpServletResponseWrapper(unsupported(HttpServletResponse.class)) {
+      @Override
+      public int getStatus() {
+        return 200;
+      }
+    };
+  }
+
+  private static <T> T unsupported(Class<T> type) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+        (proxy, method, args) -> {
+          throw new UnsupportedOperationException(method.getName());
+        }));
+  }
+
+  @Benchmark
+  public void measure() throws IOException, ServletException {
+    helper.measure(request, response, NO_OP_JOB);
+  }
+}
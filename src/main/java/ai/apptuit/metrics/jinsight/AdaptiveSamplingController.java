@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.jinsight.modules.common.OperationSampler;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adjusts the {@link OperationSampler} interval to keep the time spent on recording latencies
+ * within a fraction of the CPU time used by the process.
+ *
+ * <p>The recording cost is proportional to the number of sampled operations, so an interval that
+ * fits the budget is estimated from the cost observed in the last period. The interval is raised
+ * to that estimate right away, but lowered by at most half per period, so that a short lull in
+ * traffic does not cause a burst of recording when the traffic returns.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class AdaptiveSamplingController {
+
+  private static final Logger LOGGER = Logger.getLogger(AdaptiveSamplingController.class.getName());
+  private static final long ADJUSTMENT_PERIOD_MILLIS = 1000;
+
+  private final double cpuBudget;
+  private final LongSupplier cpuTimeNanos;
+  private final LongSupplier recordingNanos;
+  private long lastCpuTime;
+  private long lastRecordingTime;
+
+  AdaptiveSamplingController(double cpuBudget) {
+    this(cpuBudget, createCpuTimeSupplier(), OperationSampler::getRecordingNanos);
+  }
+
+  AdaptiveSamplingController(double cpuBudget, LongSupplier cpuTimeNanos,
+      LongSupplier recordingNanos) {
+    this.cpuBudget = cpuBudget;
+    this.cpuTimeNanos = cpuTimeNanos;
+    this.recordingNanos = recordingNanos;
+  }
+
+  void start() {
+    OperationSampler.setCostTracked(true);
+    lastCpuTime = cpuTimeNanos.getAsLong();
+    lastRecordingTime = recordingNanos.getAsLong();
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "jinsight-sampling-controller");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::adjustSafely, ADJUSTMENT_PERIOD_MILLIS,
+        ADJUSTMENT_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private void adjustSafely() {
+    try {
+      adjust();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "Error adjusting sampling interval", e);
+    }
+  }
+
+  void adjust() {
+    long cpuTime = cpuTimeNanos.getAsLong();
+    long recordingTime = recordingNanos.getAsLong();
+    long cpuDelta = cpuTime - lastCpuTime;
+    long recordingDelta = recordingTime - lastRecordingTime;
+    lastCpuTime = cpuTime;
+    lastRecordingTime = recordingTime;
+    if (cpuDelta <= 0) {
+      return;
+    }
+
+    int interval = OperationSampler.getSamplingInterval();
+    int next = nextInterval(interval, (double) recordingDelta / cpuDelta, cpuBudget);
+    if (next != interval) {
+      OperationSampler.setSamplingInterval(next);
+      LOGGER.fine(() -> "Sampling interval changed from " + interval + " to " + next);
+    }
+  }
+
+  /**
+   * @param usage fraction of CPU time spent recording latencies at the {@code current} interval
+   */
+  static int nextInterval(int current, double usage, double budget) {
+    double fitting = Math.ceil(current * usage / budget);
+    if (fitting >= current) {
+      return (int) Math.min(fitting, OperationSampler.MAX_SAMPLING_INTERVAL);
+    }
+    return (int) Math.max(Math.max(fitting, 1), current / 2);
+  }
+
+  private static LongSupplier createCpuTimeSupplier() {
+    OperatingSystemMXBean osMxBean = ManagementFactory.getOperatingSystemMXBean();
+    if (osMxBean instanceof com.sun.management.OperatingSystemMXBean) {
+      com.sun.management.OperatingSystemMXBean sunOsMxBean =
+          (com.sun.management.OperatingSystemMXBean) osMxBean;
+      if (sunOsMxBean.getProcessCpuTime() >= 0) {
+        return sunOsMxBean::getProcessCpuTime;
+      }
+    }
+    LOGGER.warning("Process CPU time is not available. "
+        + "Sampling budget will be applied to the wall clock time of all processors.");
+    int processors = Runtime.getRuntime().availableProcessors();
+    return () -> System.nanoTime() * processors;
+  }
+}
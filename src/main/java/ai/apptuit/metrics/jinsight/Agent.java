@@ -16,12 +16,22 @@
 
 package ai.apptuit.metrics.jinsight;
 
+import ai.apptuit.metrics.jinsight.JarCache.JarContent;
+import ai.apptuit.metrics.jinsight.modules.common.RuleScriptGenerator;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -39,12 +49,19 @@ public class Agent {
   private static final Logger LOGGER = Logger.getLogger(Agent.class.getName());
 
   private static final String BYTEMAN_JAR_RESOURCE_NAME = "META-INF/boot/byteman.jar";
-  private static final String BTM_SCRIPTS_RESOURCE_PATH = "META-INF/btm-scripts/jinsight.btm";
+  private static final String BYTEMAN_JAR_HASH_RESOURCE_NAME =
+      BYTEMAN_JAR_RESOURCE_NAME + ".sha256";
+  private static final File JAR_CACHE_DIR = new File(ConfigService.JINSIGHT_HOME, "cache");
+  private static final String BTM_SCRIPTS_RESOURCE_PATH = "META-INF/btm-scripts/";
+  private static final String BTM_MODULE_INDEX_RESOURCE_PATH =
+      BTM_SCRIPTS_RESOURCE_PATH + RuleScriptGenerator.MODULE_INDEX_FILE_NAME;
   private static final String MODULE_LOADER_CLASSNAME =
       "ai.apptuit.metrics.jinsight.ContextualModuleLoader";
+  private static final String RULE_MANAGER_CLASSNAME =
+      "ai.apptuit.metrics.jinsight.RuleModuleActivator";
 
-  private static final String AGENT_PARAMS = "resourcescript:" + BTM_SCRIPTS_RESOURCE_PATH
-      + ",modules:" + MODULE_LOADER_CLASSNAME;
+  private static final String AGENT_PARAMS = "modules:" + MODULE_LOADER_CLASSNAME
+      + ",manager:" + RULE_MANAGER_CLASSNAME;
 
   public static void premain(String agentArgs, Instrumentation instrumentation) throws Exception {
     main0(agentArgs, instrumentation, (a, i) -> {
@@ -68,9 +85,12 @@ public class Agent {
 
   private static void main0(String agentArgs, Instrumentation instrumentation,
       BiConsumer<String, Instrumentation> delegate) {
-    if (ClassLoader.getSystemResource(BTM_SCRIPTS_RESOURCE_PATH) == null) {
-      LOGGER.severe("Could not load " + BTM_SCRIPTS_RESOURCE_PATH + "."
-          + "Agent will not be started.");
+    List<RuleModule> ruleModules;
+    try {
+      ruleModules = loadRuleModules();
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Could not load " + BTM_MODULE_INDEX_RESOURCE_PATH + ".", e);
+      LOGGER.severe("Agent will not be started.");
       return;
     }
 
@@ -81,6 +101,8 @@ public class Agent {
       LOGGER.severe("Agent will not be started.");
       return;
     }
+    ConfigService configService = ConfigService.getInstance();
+    ruleModules = filterDisabledModules(ruleModules, configService);
 
     if (agentArgs != null && agentArgs.trim().length() > 0) {
       agentArgs += "," + AGENT_PARAMS;
@@ -97,7 +119,7 @@ public class Agent {
 
     instrumentation.appendToBootstrapClassLoaderSearch(bytemanJar);
     delegate.accept(agentArgs, instrumentation);
-    ConfigService configService = ConfigService.getInstance();
+    new RuleModuleActivator(instrumentation, ruleModules).start();
     LOGGER.info("JInsight v[" + configService.getAgentVersion() + "] initialized. "
         + "Reporting via: [" + configService.getReportingMode() + "] "
         + "every [" + (configService.getReportingFrequency() / 1000) + "] seconds");
@@ -105,15 +127,31 @@ public class Agent {
 
   private static JarFile createBytemanJar() {
     ClassLoader classLoader = Agent.class.getClassLoader();
-    InputStream bytemanStream = classLoader.getResourceAsStream(BYTEMAN_JAR_RESOURCE_NAME);
-    if (bytemanStream == null) {
+    if (classLoader.getResource(BYTEMAN_JAR_RESOURCE_NAME) == null) {
       return null;
     }
+    JarContent content = () -> {
+      InputStream stream = classLoader.getResourceAsStream(BYTEMAN_JAR_RESOURCE_NAME);
+      if (stream == null) {
+        throw new FileNotFoundException(BYTEMAN_JAR_RESOURCE_NAME);
+      }
+      return stream;
+    };
     try {
-      //TODO Improve. Can we skip extraction if the hash matches?
-      File bytemanJar = File.createTempFile("byteman", ".jar");
-      bytemanJar.deleteOnExit();
-      Files.copy(bytemanStream, bytemanJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      File bytemanJar = null;
+      try {
+        bytemanJar = new JarCache(JAR_CACHE_DIR)
+            .get("byteman", readBytemanJarHash(classLoader), content);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Could not cache byteman.jar in [" + JAR_CACHE_DIR + "]", e);
+      }
+      if (bytemanJar == null) {
+        bytemanJar = File.createTempFile("byteman", ".jar");
+        bytemanJar.deleteOnExit();
+        try (InputStream bytemanStream = content.open()) {
+          Files.copy(bytemanStream, bytemanJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
       return new JarFile(bytemanJar);
     } catch (IOException e) {
       LOGGER.log(Level.SEVERE, "Error extracting byteman.jar.", e);
@@ -121,6 +159,70 @@ public class Agent {
     return null;
   }
 
+  private static List<RuleModule> loadRuleModules() throws IOException {
+    List<RuleModule> modules = new ArrayList<>();
+    for (String indexEntry : readLines(BTM_MODULE_INDEX_RESOURCE_PATH)) {
+      modules.add(RuleModule.parse(BTM_SCRIPTS_RESOURCE_PATH, indexEntry));
+    }
+    return modules;
+  }
+
+  private static List<RuleModule> filterDisabledModules(List<RuleModule> modules,
+      ConfigService configService) {
+    Set<String> disabled = configService.getDisabledModules();
+    if (disabled.isEmpty()) {
+      return modules;
+    }
+    List<RuleModule> enabled = new ArrayList<>();
+    Set<String> known = new HashSet<>();
+    known.add(RegistryService.JVM_MODULE_NAME);
+    for (RuleModule module : modules) {
+      known.add(module.getName());
+      if (configService.isModuleEnabled(module.getName())) {
+        enabled.add(module);
+      }
+    }
+    for (String name : disabled) {
+      if (!known.contains(name)) {
+        LOGGER.warning("Unknown module [" + name + "] in configuration. Known modules: " + known);
+      }
+    }
+    LOGGER.info("Disabled modules: " + disabled);
+    return enabled;
+  }
+
+  private static List<String> readLines(String resourcePath) throws IOException {
+    InputStream stream = ClassLoader.getSystemResourceAsStream(resourcePath);
+    if (stream == null) {
+      throw new FileNotFoundException(resourcePath);
+    }
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (!line.trim().isEmpty()) {
+          lines.add(line);
+        }
+      }
+    }
+    return lines;
+  }
+
+  private static String readBytemanJarHash(ClassLoader classLoader) throws IOException {
+    InputStream hashStream = classLoader.getResourceAsStream(BYTEMAN_JAR_HASH_RESOURCE_NAME);
+    if (hashStream == null) {
+      return null;
+    }
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(hashStream, StandardCharsets.US_ASCII))) {
+      String line = reader.readLine();
+      if (line == null || line.trim().isEmpty()) {
+        return null;
+      }
+      return line.trim().split("\\s+")[0];
+    }
+  }
+
   private static class AgentInitializationException extends RuntimeException {
 
     public AgentInitializationException(Exception e) {
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
+import ai.apptuit.metrics.jinsight.modules.jdbc.StringUniqueIdService;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.RatioGauge;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Metrics about the cost of the agent itself.
+ *
+ * <p>All values are read from counters that the agent maintains anyway, or from sizes of its
+ * internal maps, when the metrics are reported. Rule firings are counted per module by
+ * {@link RuleHelper}, which also estimates the time spent in the primitives helpers call. The
+ * duration of reporting cycles is timed by {@link TimedReporter}, and the evaluation of each gauge
+ * by {@link GaugeSnapshotter}.</p>
+ *
+ * <p>JDBC metric handles are cached by normalized SQL, so the SQL id cache is only looked up when
+ * a handle is created: its hit ratio is that of the ids of handles that were evicted or are kept
+ * for another metric of the same statement.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class AgentMetricSet implements MetricSet {
+
+  static final String AGENT_METRICS_PREFIX = "jinsight.agent.";
+  static final String REPORTER_CYCLE_METRIC = AGENT_METRICS_PREFIX + "reporter.cycle";
+  static final String REPORTER_GAUGE_METRIC = AGENT_METRICS_PREFIX + "reporter.gauge";
+  static final String REPORTER_GAUGE_TIMEOUTS_METRIC = REPORTER_GAUGE_METRIC + ".timeouts";
+  static final String REPORTER_GAUGE_TIME_METRIC = REPORTER_GAUGE_METRIC + ".time.nanos";
+
+  private final Map<String, Metric> metrics = new HashMap<>();
+
+  /**
+   * @param jdbcModuleEnabled whether to include the metrics of the SQL id cache of the jdbc module
+   */
+  AgentMetricSet(TracingMetricRegistry registry, boolean jdbcModuleEnabled) {
+    metrics.put(AGENT_METRICS_PREFIX + "helper.time.nanos",
+        (Gauge<Long>) RuleHelper::getHelperNanos);
+    metrics.put(AGENT_METRICS_PREFIX + "object_properties.size",
+        (Gauge<Integer>) RuleHelper::getObjectPropertyCount);
+    metrics.put(AGENT_METRICS_PREFIX + "registry.metrics",
+        (Gauge<Integer>) () -> registry.getMetrics().size());
+    metrics.put(AGENT_METRICS_PREFIX + "registry.overflowed",
+        (Gauge<Long>) registry::getOverflowedSeries);
+    metrics.put(AGENT_METRICS_PREFIX + "registry.evicted",
+        (Gauge<Long>) registry::getEvictedMetrics);
+    if (jdbcModuleEnabled) {
+      metrics.put(AGENT_METRICS_PREFIX + "sql_id_cache.size",
+          (Gauge<Integer>) StringUniqueIdService::getCacheSize);
+      metrics.put(AGENT_METRICS_PREFIX + "sql_id_cache.hits",
+          (Gauge<Long>) StringUniqueIdService::getCacheHits);
+      metrics.put(AGENT_METRICS_PREFIX + "sql_id_cache.misses",
+          (Gauge<Long>) StringUniqueIdService::getCacheMisses);
+      metrics.put(AGENT_METRICS_PREFIX + "sql_id_cache.hit_ratio", new RatioGauge() {
+        @Override
+        protected Ratio getRatio() {
+          long hits = StringUniqueIdService.getCacheHits();
+          return Ratio.of(hits, hits + StringUniqueIdService.getCacheMisses());
+        }
+      });
+    }
+  }
+
+  @Override
+  public Map<String, Metric> getMetrics() {
+    return Collections.unmodifiableMap(metrics);
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+/**
+ * Marks threads of the agent that the instrumentation must ignore, for e.g. the thread that sends
+ * metrics over HTTP, so that its requests are not reported as those of the application.
+ *
+ * <p>Rule helpers are loaded by a class loader of their own for each class loader that triggers
+ * rules, so the mark is kept here, in a class loaded by the system class loader, where every
+ * helper sees it.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public final class AgentThreads {
+
+  private static final ThreadLocal<Boolean> excluded = new ThreadLocal<>();
+
+  private AgentThreads() {
+  }
+
+  public static void excludeCurrentThread() {
+    excluded.set(Boolean.TRUE);
+  }
+
+  public static boolean isCurrentThreadExcluded() {
+    return excluded.get() != null;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formats numbers as ASCII into byte arrays, without allocating.
+ *
+ * @author Rajiv Shivane
+ */
+final class AsciiNumbers {
+
+  /**
+   * Maximum number of bytes written for a number.
+   */
+  static final int MAX_LENGTH = 32;
+  private static final double MAX_FIXED_POINT_VALUE = 1e15;
+  private static final int MAX_DIGITS = 17;
+  //powers of ten up to 10^22 are exact doubles
+  private static final double[] POWERS_OF_TEN = new double[23];
+  private static final long MAX_EXACT_LONG = 1L << 53;
+  private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE)
+      .getBytes(StandardCharsets.US_ASCII);
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private AsciiNumbers() {
+  }
+
+  /**
+   * @return offset after the last byte written
+   */
+  static int writeLong(byte[] buffer, int offset, long value) {
+    if (value == Long.MIN_VALUE) {
+      System.arraycopy(MIN_LONG, 0, buffer, offset, MIN_LONG.length);
+      return offset + MIN_LONG.length;
+    }
+    if (value < 0) {
+      buffer[offset++] = '-';
+      value = -value;
+    }
+    int digitCount = 1;
+    for (long v = value / 10; v != 0; v /= 10) {
+      digitCount++;
+    }
+    for (int i = offset + digitCount - 1; i >= offset; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    return offset + digitCount;
+  }
+
+  /**
+   * Writes finite values below 10^15 in fixed point, with the fewest significant digits that read
+   * back as the same double. The digits are found by checking that they scale back to the value,
+   * which is exact while they fit in 53 bits and the scale is within the exact powers of ten.
+   * Other values, such as very small or large ones, or ones that need 16 or more digits, fall back
+   * to {@link Double#toString}, which allocates.
+   *
+   * @return offset after the last byte written
+   */
+  static int writeDouble(byte[] buffer, int offset, double value) {
+    if (value == 0) {
+      buffer[offset] = '0';
+      return offset + 1;
+    }
+    double abs = Math.abs(value);
+    if (abs < MAX_FIXED_POINT_VALUE) {
+      int exponent = (int) Math.floor(Math.log10(abs));
+      for (int digits = 1; digits <= MAX_DIGITS; digits++) {
+        int scale = digits - 1 - exponent;
+        if (scale >= POWERS_OF_TEN.length) {
+          break;
+        }
+        long mantissa;
+        double readBack;
+        if (scale >= 0) {
+          mantissa = Math.round(abs * POWERS_OF_TEN[scale]);
+          readBack = mantissa / POWERS_OF_TEN[scale];
+        } else {
+          mantissa = Math.round(abs / POWERS_OF_TEN[-scale]);
+          readBack = mantissa * POWERS_OF_TEN[-scale];
+        }
+        if (mantissa >= MAX_EXACT_LONG) {
+          break;
+        }
+        if (readBack == abs) {
+          if (value < 0) {
+            buffer[offset++] = '-';
+          }
+          return writeDecimal(buffer, offset, mantissa, scale);
+        }
+      }
+    }
+    byte[] bytes = Double.toString(value).getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+    return offset + bytes.length;
+  }
+
+  /**
+   * Writes {@code mantissa / 10^scale} in fixed point.
+   */
+  private static int writeDecimal(byte[] buffer, int offset, long mantissa, int scale) {
+    while (scale > 0 && mantissa % 10 == 0) {
+      mantissa /= 10;
+      scale--;
+    }
+    if (scale <= 0) {
+      offset = writeLong(buffer, offset, mantissa);
+      for (int i = scale; i < 0; i++) {
+        buffer[offset++] = '0';
+      }
+      return offset;
+    }
+    int digitCount = 1;
+    for (long v = mantissa / 10; v != 0; v /= 10) {
+      digitCount++;
+    }
+    int integerDigits = digitCount - scale;
+    if (integerDigits <= 0) {
+      buffer[offset++] = '0';
+      buffer[offset++] = '.';
+      for (int i = integerDigits; i < 0; i++) {
+        buffer[offset++] = '0';
+      }
+      return writeLong(buffer, offset, mantissa);
+    }
+    int end = offset + digitCount + 1;
+    int point = offset + integerDigits;
+    for (int i = end - 1; i >= offset; i--) {
+      if (i == point) {
+        buffer[i] = '.';
+      } else {
+        buffer[i] = (byte) ('0' + mantissa % 10);
+        mantissa /= 10;
+      }
+    }
+    return end;
+  }
+}
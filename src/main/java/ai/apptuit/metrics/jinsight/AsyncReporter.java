@@ -0,0 +1,358 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports metrics to the Apptuit put API from a background thread, so that a slow or unavailable
+ * API does not hold up reporting cycles.
+ *
+ * <p>A reporting cycle only serializes the metrics and queues them. If the queue is full, the
+ * oldest cycle is dropped. The sender thread sends the queued cycles in gzip compressed batches.
+ * While the API is unavailable, batches are written to a {@link SpoolFile} instead, and retried
+ * with exponential backoff. The spool is drained, oldest batch first, once the API recovers and
+ * the queue is empty. Batches in the queue when the reporter is stopped are spooled too, and sent
+ * by the next process that uses the spool.</p>
+ *
+ * <p>The sender thread is started by {@link #start()}. It is excluded from the instrumentation of
+ * {@link HttpURLConnection}, so that the requests of the reporter are not reported as requests of
+ * the application.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class AsyncReporter extends ScheduledReporter implements MetricSet {
+
+  static final String DEFAULT_API_URL = "https://api.apptuit.ai/api/put?sync=false";
+  static final int DEFAULT_QUEUE_CAPACITY = 16;
+  static final int DEFAULT_TIMEOUT_MILLIS = 10_000;
+  static final long DEFAULT_RETRY_DELAY_MILLIS = 1_000;
+  private static final Logger LOGGER = Logger.getLogger(AsyncReporter.class.getName());
+  private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+  private static final long POLL_MILLIS = 1_000;
+  private static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+  private static final byte[] ARRAY_START = {'['};
+  private static final byte[] ARRAY_END = {']'};
+  private static final byte[] SEPARATOR = {','};
+  private static final Clock clock = Clock.defaultClock();
+
+  private final DataPointSerializer serializer;
+  private final BlockingQueue<byte[]> queue;
+  private final URL apiUrl;
+  private final String apiToken;
+  private final SpoolFile spool;
+  private final int timeoutMillis;
+  private final long initialRetryDelayMillis;
+  private final GzipBuffer gzip = new GzipBuffer();
+  private final byte[] drainBuffer = new byte[4096];
+  private Thread sender;
+  private final LongAdder droppedCycles = new LongAdder();
+  private final LongAdder droppedBatches = new LongAdder();
+  private volatile long spooledBytes;
+  private volatile boolean running = true;
+  private long retryDelayMillis;
+  private long nextAttemptNanos;
+
+  AsyncReporter(MetricRegistry registry, URL apiUrl, String apiToken,
+      Map<String, String> globalTags, SpoolFile spool) {
+    this(registry, apiUrl, apiToken, globalTags, spool, DEFAULT_QUEUE_CAPACITY,
+        DEFAULT_TIMEOUT_MILLIS, DEFAULT_RETRY_DELAY_MILLIS);
+  }
+
+  /**
+   * @param spool to keep batches that could not be sent, or {@code null} to drop them
+   */
+  AsyncReporter(MetricRegistry registry, URL apiUrl, String apiToken,
+      Map<String, String> globalTags, SpoolFile spool, int queueCapacity, int timeoutMillis,
+      long initialRetryDelayMillis) {
+    super(registry, "jinsight-async-reporter", MetricFilter.ALL, TimeUnit.SECONDS,
+        TimeUnit.MILLISECONDS);
+    this.serializer = new DataPointSerializer(globalTags);
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.apiUrl = apiUrl;
+    this.apiToken = apiToken;
+    this.spool = spool;
+    this.timeoutMillis = timeoutMillis;
+    this.initialRetryDelayMillis = initialRetryDelayMillis;
+    this.spooledBytes = spool != null ? spool.getUsedBytes() : 0;
+  }
+
+  /**
+   * Starts the thread that sends queued cycles. Reporting cycles are not scheduled, they are driven
+   * by {@link #report()}, for e.g. from a {@link TimedReporter}.
+   */
+  synchronized void start() {
+    if (sender != null || !running) {
+      throw new IllegalStateException("Reporter already started or stopped");
+    }
+    sender = new Thread(this::sendBatches, "jinsight-async-sender");
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  @Override
+  public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+      SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+      SortedMap<String, Timer> timers) {
+    byte[] dataPoints = serializer.serialize(clock.getTime(), gauges, counters, histograms,
+        meters, timers);
+    if (dataPoints.length == 0) {
+      return;
+    }
+    while (!queue.offer(dataPoints)) {
+      if (queue.poll() != null) {
+        droppedCycles.increment();
+      }
+    }
+  }
+
+  /**
+   * Stops the sender, which spools the queued cycles and closes the spool on its way out. If the
+   * sender is still sending when the timeout runs out, it does so once the send completes.
+   */
+  @Override
+  public void stop() {
+    super.stop();
+    Thread sender;
+    synchronized (this) {
+      running = false;
+      sender = this.sender;
+    }
+    if (sender == null) {
+      spoolQueueAndClose();
+      return;
+    }
+    sender.interrupt();
+    try {
+      sender.join(timeoutMillis + POLL_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (sender.isAlive()) {
+      LOGGER.warning("Metrics sender did not stop in time, it spools queued metrics once it does");
+    }
+  }
+
+  @Override
+  public Map<String, Metric> getMetrics() {
+    Map<String, Metric> metrics = new HashMap<>();
+    String prefix = AgentMetricSet.AGENT_METRICS_PREFIX + "reporter.";
+    metrics.put(prefix + "queue.size", (Gauge<Integer>) queue::size);
+    metrics.put(prefix + "queue.dropped", (Gauge<Long>) droppedCycles::sum);
+    metrics.put(prefix + "batches.dropped", (Gauge<Long>) droppedBatches::sum);
+    metrics.put(prefix + "spool.bytes", (Gauge<Long>) () -> spooledBytes);
+    return metrics;
+  }
+
+  private void sendBatches() {
+    AgentThreads.excludeCurrentThread();
+    try {
+      sendBatchesTillStopped();
+    } finally {
+      spoolQueueAndClose();
+    }
+  }
+
+  private void sendBatchesTillStopped() {
+    List<byte[]> batch = new ArrayList<>();
+    while (running) {
+      try {
+        boolean canDrainSpool = spooledBytes > 0 && !isBackingOff();
+        if (nextBatch(batch, canDrainSpool ? 0 : POLL_MILLIS)) {
+          if (isBackingOff() || !send(gzip.getBuffer(), gzip.size())) {
+            spool();
+          }
+        } else if (canDrainSpool) {
+          byte[] payload = spool.peek();
+          if (send(payload, payload.length)) {
+            spool.remove();
+            spooledBytes = spool.getUsedBytes();
+          }
+        }
+      } catch (InterruptedException e) {
+        //stopping
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Error sending metrics", e);
+      }
+    }
+  }
+
+  private void spoolQueueAndClose() {
+    List<byte[]> batch = new ArrayList<>();
+    try {
+      while (nextBatch(batch, 0)) {
+        spool();
+      }
+    } catch (InterruptedException e) {
+      //not thrown without waiting
+      Thread.currentThread().interrupt();
+    } finally {
+      gzip.close();
+      if (spool != null) {
+        try {
+          spool.close();
+        } catch (IOException e) {
+          LOGGER.log(Level.SEVERE, "Error closing metrics spool", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes queued cycles up to the batch size, and compresses them into {@link #gzip}.
+   *
+   * @return {@code false} if no cycle was queued within the wait time
+   */
+  private boolean nextBatch(List<byte[]> batch, long waitMillis) throws InterruptedException {
+    byte[] first = waitMillis > 0 ? queue.poll(waitMillis, TimeUnit.MILLISECONDS) : queue.poll();
+    if (first == null) {
+      return false;
+    }
+    batch.clear();
+    batch.add(first);
+    int batchBytes = first.length;
+    byte[] next;
+    while (batchBytes < MAX_BATCH_BYTES && (next = queue.poll()) != null) {
+      batch.add(next);
+      batchBytes += next.length;
+    }
+    gzip.reset();
+    gzip.write(ARRAY_START);
+    for (int i = 0; i < batch.size(); i++) {
+      if (i > 0) {
+        gzip.write(SEPARATOR);
+      }
+      gzip.write(batch.get(i));
+    }
+    gzip.write(ARRAY_END);
+    gzip.finish();
+    batch.clear();
+    return true;
+  }
+
+  private void spool() {
+    if (spool == null || !spool.append(gzip.getBuffer(), 0, gzip.size())) {
+      droppedBatches.increment();
+      return;
+    }
+    spooledBytes = spool.getUsedBytes();
+  }
+
+  private boolean isBackingOff() {
+    return retryDelayMillis > 0 && System.nanoTime() - nextAttemptNanos < 0;
+  }
+
+  /**
+   * @return {@code true} if the payload was delivered, or rejected by the API in a way that makes
+   *     retrying it pointless
+   */
+  private boolean send(byte[] payload, int length) {
+    try {
+      int status = post(payload, length);
+      if (status / 100 == 2) {
+        onSendSucceeded();
+        return true;
+      }
+      if (status / 100 == 4 && status != 408 && status != 429) {
+        LOGGER.warning("Metrics rejected by [" + apiUrl + "] with status [" + status + "]");
+        droppedBatches.increment();
+        onSendSucceeded();
+        return true;
+      }
+      onSendFailed("status [" + status + "]");
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, e.toString(), e);
+      onSendFailed(e.toString());
+    }
+    return false;
+  }
+
+  private int post(byte[] payload, int length) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) apiUrl.openConnection();
+    try {
+      connection.setConnectTimeout(timeoutMillis);
+      connection.setReadTimeout(timeoutMillis);
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(length);
+      connection.setRequestProperty("Authorization", "Bearer " + apiToken);
+      connection.setRequestProperty("Content-Type", "application/json");
+      connection.setRequestProperty("Content-Encoding", "gzip");
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(payload, 0, length);
+      }
+      int status = connection.getResponseCode();
+      //reading the response to the end lets the connection be reused
+      InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+      if (in != null) {
+        try (InputStream response = in) {
+          while (response.read(drainBuffer) >= 0) {
+            //discard
+          }
+        }
+      }
+      return status;
+    } catch (IOException e) {
+      connection.disconnect();
+      throw e;
+    }
+  }
+
+  private void onSendSucceeded() {
+    if (retryDelayMillis > 0) {
+      LOGGER.info("Sending metrics to [" + apiUrl + "] recovered");
+    }
+    retryDelayMillis = 0;
+  }
+
+  private void onSendFailed(String cause) {
+    if (retryDelayMillis == 0) {
+      LOGGER.warning("Error sending metrics to [" + apiUrl + "]: " + cause
+          + (spool != null ? ". Spooling metrics until it recovers." : ""));
+      retryDelayMillis = initialRetryDelayMillis;
+    } else {
+      retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+    }
+    nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMillis);
+  }
+}
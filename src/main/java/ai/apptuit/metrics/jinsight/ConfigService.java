@@ -29,11 +29,16 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.time.Duration;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
@@ -47,7 +52,29 @@ import java.util.logging.Logger;
 public class ConfigService {
 
   static final String REPORTING_MODE_PROPERTY_NAME = "apptuit.reporting_mode";
+  static final String ASYNC_REPORTING_PROPERTY_NAME = "apptuit.async_reporting";
+  static final String SPOOL_SIZE_PROPERTY_NAME = "apptuit.spool_size_mb";
   static final String REPORTING_FREQ_PROPERTY_NAME = "reporting_frequency";
+  static final String TIMER_RESERVOIR_PROPERTY_NAME = "timer_reservoir";
+  static final String SAMPLING_CPU_BUDGET_PROPERTY_NAME = "sampling_cpu_budget";
+  static final String FULL_REFRESH_FREQ_PROPERTY_NAME = "delta_reporting.full_refresh";
+  static final String GAUGE_TIMEOUT_PROPERTY_NAME = "gauge_timeout";
+  static final String CARDINALITY_LIMIT_PROPERTY_NAME = "cardinality_limit";
+  static final String IDLE_EVICTION_CYCLES_PROPERTY_NAME = "idle_eviction_cycles";
+  static final String RECORDING_DIR_PROPERTY_NAME = "recording.dir";
+  static final String RECORDING_FREQ_PROPERTY_NAME = "recording.frequency";
+  static final String RECORDING_FILE_SIZE_PROPERTY_NAME = "recording.file_size_mb";
+  static final String RECORDING_MAX_SIZE_PROPERTY_NAME = "recording.max_size_mb";
+  static final String SQL_DICTIONARY_FILE_PROPERTY_NAME = "sql_dictionary.file";
+  static final String PROMETHEUS_PORT_PROPERTY_NAME = "prometheus.port";
+  static final String STATSD_HOST_PROPERTY_NAME = "statsd.host";
+  static final String STATSD_PORT_PROPERTY_NAME = "statsd.port";
+  static final String STATSD_PACKET_SIZE_PROPERTY_NAME = "statsd.packet_size";
+  static final String REPORTING_TIER_PROPERTY_PREFIX = "reporting_tiers.";
+  static final String REPORTING_TIER_METRICS_PROPERTY_SUFFIX = ".metrics";
+  static final String REPORTING_TIER_FREQ_PROPERTY_SUFFIX = ".frequency";
+  static final String MODULE_PROPERTY_PREFIX = "jinsight.modules.";
+  static final String MODULE_ENABLED_PROPERTY_SUFFIX = ".enabled";
   private static final Logger LOGGER = Logger.getLogger(ConfigService.class.getName());
   private static final String CONFIG_SYSTEM_PROPERTY = "jinsight.config";
   private static final String DEFAULT_CONFIG_FILE_NAME = "jinsight-config.properties";
@@ -56,17 +83,48 @@ public class ConfigService {
   private static final String GLOBAL_TAGS_PROPERTY_NAME = "global_tags";
   private static final String HOST_TAG_NAME = "host";
 
-  private static final File JINSIGHT_HOME = new File(System.getProperty("user.home"), ".jinsight");
+  static final File JINSIGHT_HOME = new File(System.getProperty("user.home"), ".jinsight");
   private static final File UNIX_JINSIGHT_CONF_DIR = new File("/etc/jinsight/");
   private static final ReportingMode DEFAULT_REPORTING_MODE = ReportingMode.API_PUT;
   private static final String DEFAULT_REPORTING_FREQUENCY = "15s";
+  private static final String DEFAULT_GAUGE_TIMEOUT = "1s";
+  private static final int DEFAULT_CARDINALITY_LIMIT = 1000;
+  private static final int DEFAULT_SPOOL_SIZE_MB = 64;
+  private static final String DEFAULT_RECORDING_FREQUENCY = "10s";
+  private static final String DEFAULT_STATSD_HOST = "localhost";
+  private static final int MIN_STATSD_PACKET_SIZE = 512;
+  private static final int MAX_STATSD_PACKET_SIZE = 65507;
+  private static final int DEFAULT_RECORDING_FILE_SIZE_MB = 4;
+  private static final int DEFAULT_RECORDING_MAX_SIZE_MB = 32;
+  private static final int MAX_SPOOL_SIZE_MB = 1024;
+  private static final ReservoirType DEFAULT_TIMER_RESERVOIR =
+      ReservoirType.EXPONENTIALLY_DECAYING;
 
 
   private static volatile ConfigService singleton = null;
   private final String apiToken;
   private final URL apiUrl;
   private final ReportingMode reportingMode;
+  private final boolean asyncReporting;
+  private final int spoolSizeBytes;
   private final long reportingFrequencyMillis;
+  private final ReservoirType timerReservoirType;
+  private final long fullRefreshFrequencyMillis;
+  private final List<ReportingTierFilter.Tier> reportingTiers;
+  private final long gaugeTimeoutMillis;
+  private final int cardinalityLimit;
+  private final int idleEvictionCycles;
+  private final double samplingCpuBudget;
+  private final File recordingDir;
+  private final long recordingFrequencyMillis;
+  private final long recordingFileSizeBytes;
+  private final long recordingMaxSizeBytes;
+  private final File sqlDictionaryFile;
+  private final int prometheusPort;
+  private final String statsdHost;
+  private final int statsdPort;
+  private final int statsdPacketSize;
+  private final Set<String> disabledModules;
   private final Map<String, String> loadedGlobalTags = new HashMap<>();
   private final String agentVersion;
   private Map<String, String> globalTags = null;
@@ -75,7 +133,29 @@ public class ConfigService {
     this.apiToken = config.getProperty(ACCESS_TOKEN_PROPERTY_NAME);
 
     this.reportingMode = readReportingMode(config);
+    this.asyncReporting = readAsyncReporting(config);
+    this.spoolSizeBytes = readSpoolSize(config);
     this.reportingFrequencyMillis = readReportingFrequency(config);
+    this.timerReservoirType = readTimerReservoirType(config);
+    this.fullRefreshFrequencyMillis = readFullRefreshFrequency(config);
+    this.reportingTiers = readReportingTiers(config);
+    this.gaugeTimeoutMillis = readGaugeTimeout(config);
+    this.cardinalityLimit = readNonNegativeInt(config, CARDINALITY_LIMIT_PROPERTY_NAME,
+        DEFAULT_CARDINALITY_LIMIT);
+    this.idleEvictionCycles = readNonNegativeInt(config, IDLE_EVICTION_CYCLES_PROPERTY_NAME, 0);
+    this.samplingCpuBudget = readSamplingCpuBudget(config);
+    this.recordingDir = readFile(config, RECORDING_DIR_PROPERTY_NAME);
+    this.recordingFrequencyMillis = readRecordingFrequency(config);
+    this.recordingFileSizeBytes = readSizeMb(config, RECORDING_FILE_SIZE_PROPERTY_NAME,
+        DEFAULT_RECORDING_FILE_SIZE_MB);
+    this.recordingMaxSizeBytes = readSizeMb(config, RECORDING_MAX_SIZE_PROPERTY_NAME,
+        DEFAULT_RECORDING_MAX_SIZE_MB);
+    this.sqlDictionaryFile = readFile(config, SQL_DICTIONARY_FILE_PROPERTY_NAME);
+    this.prometheusPort = readPrometheusPort(config);
+    this.statsdHost = config.getProperty(STATSD_HOST_PROPERTY_NAME, DEFAULT_STATSD_HOST).trim();
+    this.statsdPort = readStatsdPort(config);
+    this.statsdPacketSize = readStatsdPacketSize(config);
+    this.disabledModules = readDisabledModules(config);
 
     if (apiToken == null && reportingMode == ReportingMode.API_PUT) {
       throw new ConfigurationException(
@@ -180,6 +260,36 @@ public class ConfigService {
     return DEFAULT_REPORTING_MODE;
   }
 
+  private boolean readAsyncReporting(Properties config) {
+    String configAsync = config.getProperty(ASYNC_REPORTING_PROPERTY_NAME);
+    if (configAsync == null) {
+      return false;
+    }
+    String async = configAsync.trim();
+    if (!"true".equalsIgnoreCase(async) && !"false".equalsIgnoreCase(async)) {
+      LOGGER.severe("Invalid value [" + configAsync + "] for [" + ASYNC_REPORTING_PROPERTY_NAME
+          + "]. Metrics will be reported synchronously.");
+    }
+    return "true".equalsIgnoreCase(async);
+  }
+
+  private int readSpoolSize(Properties config) {
+    String configSize = config.getProperty(SPOOL_SIZE_PROPERTY_NAME);
+    if (configSize != null) {
+      try {
+        int sizeMb = Integer.parseInt(configSize.trim());
+        if (sizeMb >= 0 && sizeMb <= MAX_SPOOL_SIZE_MB) {
+          return sizeMb * 1024 * 1024;
+        }
+      } catch (NumberFormatException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+      LOGGER.severe("Invalid spool size [" + configSize + "]. "
+          + "Using default spool size: [" + DEFAULT_SPOOL_SIZE_MB + "MB]");
+    }
+    return DEFAULT_SPOOL_SIZE_MB * 1024 * 1024;
+  }
+
   private long readReportingFrequency(Properties config) {
     String configFreq = config.getProperty(REPORTING_FREQ_PROPERTY_NAME);
     if (configFreq != null) {
@@ -194,6 +304,241 @@ public class ConfigService {
     return parseDuration(DEFAULT_REPORTING_FREQUENCY);
   }
 
+  private ReservoirType readTimerReservoirType(Properties config) {
+    String configType = config.getProperty(TIMER_RESERVOIR_PROPERTY_NAME);
+    if (configType != null) {
+      try {
+        return ReservoirType.valueOf(configType.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        LOGGER.severe("Un-supported timer reservoir [" + configType + "]. "
+            + "Using default timer reservoir: [" + DEFAULT_TIMER_RESERVOIR + "]");
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+    }
+    return DEFAULT_TIMER_RESERVOIR;
+  }
+
+  private long readFullRefreshFrequency(Properties config) {
+    String configFreq = config.getProperty(FULL_REFRESH_FREQ_PROPERTY_NAME);
+    if (configFreq == null) {
+      return 0;
+    }
+    try {
+      return parseDuration(configFreq);
+    } catch (DateTimeParseException | IllegalArgumentException e) {
+      LOGGER.severe("Invalid full refresh frequency [" + configFreq + "]. "
+          + "Every metric will be reported in every cycle.");
+      LOGGER.log(Level.FINE, e.toString(), e);
+    }
+    return 0;
+  }
+
+  private List<ReportingTierFilter.Tier> readReportingTiers(Properties config) {
+    List<ReportingTierFilter.Tier> tiers = new ArrayList<>();
+    for (String propertyName : config.stringPropertyNames()) {
+      if (!propertyName.startsWith(REPORTING_TIER_PROPERTY_PREFIX)
+          || !propertyName.endsWith(REPORTING_TIER_METRICS_PROPERTY_SUFFIX)) {
+        continue;
+      }
+      String tier = propertyName.substring(REPORTING_TIER_PROPERTY_PREFIX.length(),
+          propertyName.length() - REPORTING_TIER_METRICS_PROPERTY_SUFFIX.length());
+      List<String> patterns = new ArrayList<>();
+      for (String pattern : config.getProperty(propertyName).split(",")) {
+        if (!pattern.trim().isEmpty()) {
+          patterns.add(pattern.trim());
+        }
+      }
+      String freqPropertyName = REPORTING_TIER_PROPERTY_PREFIX + tier
+          + REPORTING_TIER_FREQ_PROPERTY_SUFFIX;
+      String configFreq = config.getProperty(freqPropertyName);
+      long frequency = 0;
+      try {
+        frequency = configFreq != null ? parseDuration(configFreq) : 0;
+      } catch (DateTimeParseException | IllegalArgumentException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+      if (frequency <= 0 || patterns.isEmpty()) {
+        LOGGER.severe("Invalid reporting tier [" + tier + "], it needs a frequency in ["
+            + freqPropertyName + "] and metric name patterns in [" + propertyName + "]. "
+            + "Its metrics will be reported at the reporting frequency.");
+        continue;
+      }
+      tiers.add(new ReportingTierFilter.Tier(tier, frequency, patterns));
+    }
+    //when the patterns of several tiers match a metric, the fastest one reports it
+    tiers.sort(Comparator.comparingLong(ReportingTierFilter.Tier::getFrequencyMillis)
+        .thenComparing(ReportingTierFilter.Tier::getName));
+    return Collections.unmodifiableList(tiers);
+  }
+
+  private long readGaugeTimeout(Properties config) {
+    String configTimeout = config.getProperty(GAUGE_TIMEOUT_PROPERTY_NAME);
+    if (configTimeout != null) {
+      try {
+        return parseDuration(configTimeout);
+      } catch (DateTimeParseException | IllegalArgumentException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+      LOGGER.severe("Invalid gauge timeout [" + configTimeout + "]. "
+          + "Using default gauge timeout: [" + DEFAULT_GAUGE_TIMEOUT + "]");
+    }
+    return parseDuration(DEFAULT_GAUGE_TIMEOUT);
+  }
+
+  private int readNonNegativeInt(Properties config, String propertyName, int defaultValue) {
+    String configValue = config.getProperty(propertyName);
+    if (configValue != null) {
+      try {
+        int value = Integer.parseInt(configValue.trim());
+        if (value >= 0) {
+          return value;
+        }
+      } catch (NumberFormatException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+      LOGGER.severe("Invalid value [" + configValue + "] for [" + propertyName + "]. "
+          + "Using default value: [" + defaultValue + "]");
+    }
+    return defaultValue;
+  }
+
+  private double readSamplingCpuBudget(Properties config) {
+    String configBudget = config.getProperty(SAMPLING_CPU_BUDGET_PROPERTY_NAME);
+    if (configBudget == null) {
+      return 0;
+    }
+    String percent = configBudget.trim();
+    if (percent.endsWith("%")) {
+      percent = percent.substring(0, percent.length() - 1).trim();
+    }
+    try {
+      double budget = Double.parseDouble(percent);
+      if (budget > 0 && budget < 100) {
+        return budget / 100;
+      }
+    } catch (NumberFormatException e) {
+      LOGGER.log(Level.FINE, e.toString(), e);
+    }
+    LOGGER.severe("Invalid sampling CPU budget [" + configBudget + "]. "
+        + "Latency of every operation will be recorded.");
+    return 0;
+  }
+
+  private File readFile(Properties config, String propertyName) {
+    String configFile = config.getProperty(propertyName);
+    if (configFile == null || configFile.trim().isEmpty()) {
+      return null;
+    }
+    return new File(configFile.trim());
+  }
+
+  private long readRecordingFrequency(Properties config) {
+    String configFreq = config.getProperty(RECORDING_FREQ_PROPERTY_NAME);
+    if (configFreq != null) {
+      try {
+        long millis = parseDuration(configFreq);
+        if (millis > 0) {
+          return millis;
+        }
+      } catch (DateTimeParseException | IllegalArgumentException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+      LOGGER.severe("Invalid recording frequency [" + configFreq + "]. "
+          + "Using default recording frequency: [" + DEFAULT_RECORDING_FREQUENCY + "]");
+    }
+    return parseDuration(DEFAULT_RECORDING_FREQUENCY);
+  }
+
+  private long readSizeMb(Properties config, String propertyName, int defaultSizeMb) {
+    String configSize = config.getProperty(propertyName);
+    if (configSize != null) {
+      try {
+        long sizeMb = Long.parseLong(configSize.trim());
+        if (sizeMb > 0) {
+          return sizeMb * 1024 * 1024;
+        }
+      } catch (NumberFormatException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+      LOGGER.severe("Invalid size [" + configSize + "] for [" + propertyName + "]. "
+          + "Using default size: [" + defaultSizeMb + "MB]");
+    }
+    return defaultSizeMb * 1024L * 1024;
+  }
+
+  private int readPrometheusPort(Properties config) {
+    String configPort = config.getProperty(PROMETHEUS_PORT_PROPERTY_NAME);
+    if (configPort == null) {
+      return 0;
+    }
+    try {
+      int port = Integer.parseInt(configPort.trim());
+      if (port > 0 && port <= 65535) {
+        return port;
+      }
+    } catch (NumberFormatException e) {
+      LOGGER.log(Level.FINE, e.toString(), e);
+    }
+    LOGGER.severe("Invalid Prometheus port [" + configPort + "]. "
+        + "Prometheus endpoint will not be started.");
+    return 0;
+  }
+
+  private int readStatsdPort(Properties config) {
+    String configPort = config.getProperty(STATSD_PORT_PROPERTY_NAME);
+    if (configPort == null) {
+      return 0;
+    }
+    try {
+      int port = Integer.parseInt(configPort.trim());
+      if (port > 0 && port <= 65535) {
+        return port;
+      }
+    } catch (NumberFormatException e) {
+      LOGGER.log(Level.FINE, e.toString(), e);
+    }
+    LOGGER.severe("Invalid StatsD port [" + configPort + "]. "
+        + "Metrics will not be reported to StatsD.");
+    return 0;
+  }
+
+  private int readStatsdPacketSize(Properties config) {
+    String configSize = config.getProperty(STATSD_PACKET_SIZE_PROPERTY_NAME);
+    if (configSize != null) {
+      try {
+        int size = Integer.parseInt(configSize.trim());
+        if (size >= MIN_STATSD_PACKET_SIZE && size <= MAX_STATSD_PACKET_SIZE) {
+          return size;
+        }
+      } catch (NumberFormatException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+      LOGGER.severe("Invalid StatsD packet size [" + configSize + "]. "
+          + "Using default packet size: [" + StatsdReporter.DEFAULT_PACKET_SIZE + "]");
+    }
+    return StatsdReporter.DEFAULT_PACKET_SIZE;
+  }
+
+  private Set<String> readDisabledModules(Properties config) {
+    Set<String> modules = new TreeSet<>();
+    for (String propertyName : config.stringPropertyNames()) {
+      if (!propertyName.startsWith(MODULE_PROPERTY_PREFIX)
+          || !propertyName.endsWith(MODULE_ENABLED_PROPERTY_SUFFIX)) {
+        continue;
+      }
+      String module = propertyName.substring(MODULE_PROPERTY_PREFIX.length(),
+          propertyName.length() - MODULE_ENABLED_PROPERTY_SUFFIX.length());
+      String enabled = config.getProperty(propertyName).trim();
+      if ("false".equalsIgnoreCase(enabled)) {
+        modules.add(module);
+      } else if (!"true".equalsIgnoreCase(enabled)) {
+        LOGGER.severe("Invalid value [" + enabled + "] for [" + propertyName + "]. "
+            + "Module [" + module + "] will be enabled.");
+      }
+    }
+    return Collections.unmodifiableSet(modules);
+  }
+
   private long parseDuration(String durationString) {
     long millis = Duration.parse("PT" + durationString.trim()).toMillis();
     if (millis < 0) {
@@ -258,6 +603,21 @@ public class ConfigService {
     return apiUrl;
   }
 
+  /**
+   * @return {@code true} if metrics must be sent to the API from a background thread
+   */
+  boolean isAsyncReporting() {
+    return asyncReporting;
+  }
+
+  /**
+   * @return size of the file that keeps metrics which could not be sent asynchronously, or 0 if
+   *     such metrics must be dropped
+   */
+  int getSpoolSize() {
+    return spoolSizeBytes;
+  }
+
   ReportingMode getReportingMode() {
     return reportingMode;
   }
@@ -266,6 +626,122 @@ public class ConfigService {
     return reportingFrequencyMillis;
   }
 
+  ReservoirType getTimerReservoirType() {
+    return timerReservoirType;
+  }
+
+  /**
+   * @return interval at which every metric is reported, when the cycles in between only report
+   *     the metrics that changed; or 0 if every metric must be reported in every cycle
+   */
+  long getFullRefreshFrequency() {
+    return fullRefreshFrequencyMillis;
+  }
+
+  /**
+   * @return tiers of metrics reported at frequencies of their own, fastest first
+   */
+  List<ReportingTierFilter.Tier> getReportingTiers() {
+    return reportingTiers;
+  }
+
+  /**
+   * @return time a gauge may take to evaluate before its last value is reported instead, or 0 if
+   *     gauges must be evaluated serially by the reporter
+   */
+  long getGaugeTimeout() {
+    return gaugeTimeoutMillis;
+  }
+
+  /**
+   * @return maximum number of tagged series per metric name, or 0 if not limited
+   */
+  int getCardinalityLimit() {
+    return cardinalityLimit;
+  }
+
+  /**
+   * @return number of reporting cycles after which a tagged series that was not updated is
+   *     removed, or 0 if series must never be removed
+   */
+  int getIdleEvictionCycles() {
+    return idleEvictionCycles;
+  }
+
+  /**
+   * @return fraction of the process CPU time that may be spent on recording latencies, or 0 if
+   *     latencies of all operations must be recorded
+   */
+  double getSamplingCpuBudget() {
+    return samplingCpuBudget;
+  }
+
+  /**
+   * @return directory to record metrics to, or {@code null} if recording is disabled
+   */
+  File getRecordingDir() {
+    return recordingDir;
+  }
+
+  File getSqlDictionaryFile() {
+    return sqlDictionaryFile;
+  }
+
+  long getRecordingFrequency() {
+    return recordingFrequencyMillis;
+  }
+
+  /**
+   * @return size at which a new recording file is started
+   */
+  long getRecordingFileSize() {
+    return recordingFileSizeBytes;
+  }
+
+  /**
+   * @return total size of recording files, beyond which the oldest are deleted
+   */
+  long getRecordingMaxSize() {
+    return recordingMaxSizeBytes;
+  }
+
+  /**
+   * @return port of the Prometheus scrape endpoint, or 0 if the endpoint is disabled
+   */
+  int getPrometheusPort() {
+    return prometheusPort;
+  }
+
+  String getStatsdHost() {
+    return statsdHost;
+  }
+
+  /**
+   * @return port of the StatsD agent, or 0 if metrics must not be reported to StatsD
+   */
+  int getStatsdPort() {
+    return statsdPort;
+  }
+
+  /**
+   * @return maximum size of a datagram sent to the StatsD agent
+   */
+  int getStatsdPacketSize() {
+    return statsdPacketSize;
+  }
+
+  /**
+   * @param moduleName name of an instrumentation module, for e.g. {@code jdbc} or {@code jvm}
+   * @return false if the module was disabled with {@code jinsight.modules.<name>.enabled=false}
+   */
+  boolean isModuleEnabled(String moduleName) {
+    return !disabledModules.contains(moduleName);
+  }
+
+  Set<String> getDisabledModules() {
+    return disabledModules;
+  }
+
   public String getAgentVersion() {
     return agentVersion;
   }
@@ -23,6 +23,7 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 import org.jboss.byteman.modules.ModuleSystem;
 import org.jboss.byteman.rule.helper.Helper;
@@ -88,6 +89,11 @@ public class ContextualModuleLoader implements ModuleSystem<ModuleClassLoader> {
 
   public static class ModuleClassLoader extends URLClassLoader {
 
+    private static final String MODULES_PACKAGE = "ai.apptuit.metrics.jinsight.modules.";
+    private static final String COMMON_PACKAGE = MODULES_PACKAGE + "common.";
+    private static final Set<String> SHARED_CLASSES = Collections.singleton(
+        MODULES_PACKAGE + "jdbc.StringUniqueIdService");
+
     public ModuleClassLoader(ClassLoader cl) {
       super(((URLClassLoader) ClassLoader.getSystemClassLoader()).getURLs(), cl);
     }
@@ -102,7 +108,7 @@ public class ContextualModuleLoader implements ModuleSystem<ModuleClassLoader> {
 
     @Override
     public Class<?> loadClass(String name) throws ClassNotFoundException {
-      if (name.startsWith("ai.apptuit.metrics.jinsight.modules.")) {
+      if (name.startsWith(MODULES_PACKAGE) && !isShared(name)) {
         Class<?> clazz = findLoadedClass(name);
         if (clazz != null) {
           return clazz;
@@ -118,5 +124,14 @@ public class ContextualModuleLoader implements ModuleSystem<ModuleClassLoader> {
       }
       return super.loadClass(name);
     }
+
+    /**
+     * Classes that keep state the agent reads or controls, like the sampling interval, helper
+     * costs or the SQL id cache, are loaded once by the system class loader, so that the helpers
+     * of every class loader share them with the agent.
+     */
+    private static boolean isShared(String name) {
+      return name.startsWith(COMMON_PACKAGE) || SHARED_CLASSES.contains(name);
+    }
   }
 }
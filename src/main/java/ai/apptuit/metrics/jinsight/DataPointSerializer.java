@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.SketchReservoir.SketchSnapshot;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serializes the metrics of a reporting cycle as data points of the OpenTSDB put API.
+ *
+ * <p>The output is a comma separated list of JSON data points, without the enclosing array, so
+ * that the output of several cycles can be sent in one batch. Counters are written as a
+ * {@code .count} data point; meters as {@code .count} and {@code .rate} data points, with a
+ * {@code window} tag; histograms as {@code .count}, {@code .min}, {@code .max} and {@code .mean}
+ * data points, and data points of the metric itself with a {@code quantile} tag. Timers are
+ * written as both histograms and meters, with durations in milliseconds. Rates are per
+ * second.</p>
+ *
+ * <p>Snapshots of a {@link SketchReservoir} are also written as {@code .bucket} data points: the
+ * number of values recorded in the snapshot interval in each non-empty exported bucket, with a
+ * {@code bucket} tag holding the upper bound of the bucket. Buckets are the same in every agent,
+ * so unlike quantiles, they can be summed across hosts to compute quantiles of the total.</p>
+ *
+ * <p>The JSON encoding of the name and tags of each metric is cached across cycles, for metrics
+ * that are still reported. Instances are not thread safe.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class DataPointSerializer {
+
+  private static final Logger LOGGER = Logger.getLogger(DataPointSerializer.class.getName());
+  private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+  private static final String[] QUANTILE_TAGS = new String[QUANTILES.length];
+  private static final String[] WINDOW_TAGS = {
+      "\"window\":\"1m\"", "\"window\":\"5m\"", "\"window\":\"15m\""
+  };
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+
+  static {
+    for (int i = 0; i < QUANTILES.length; i++) {
+      QUANTILE_TAGS[i] = "\"quantile\":\"" + QUANTILES[i] + "\"";
+    }
+  }
+
+  private final Map<String, String> globalTags;
+  private final StringBuilder json = new StringBuilder(64 * 1024);
+  private Map<String, EncodedName> encodedNames = new HashMap<>();
+  private Map<String, EncodedName> reportedNames = new HashMap<>();
+  private long timestamp;
+
+  DataPointSerializer(Map<String, String> globalTags) {
+    this.globalTags = new TreeMap<>(globalTags);
+  }
+
+  /**
+   * @param timestamp of the data points, in milliseconds since the epoch
+   * @return the data points in UTF-8, or an empty array if there are none
+   */
+  byte[] serialize(long timestamp, SortedMap<String, Gauge> gauges,
+      SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms,
+      SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+    this.timestamp = timestamp;
+    json.setLength(0);
+    gauges.forEach((name, gauge) -> {
+      Object value;
+      try {
+        value = gauge.getValue();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.FINE, "Error reading gauge [" + name + "]", e);
+        return;
+      }
+      if (value instanceof Number) {
+        writeDataPoint(getEncodedName(name), "", null, ((Number) value).doubleValue());
+      } else if (value instanceof Boolean) {
+        writeDataPoint(getEncodedName(name), "", null, (Boolean) value ? 1 : 0);
+      }
+    });
+    counters.forEach((name, counter) ->
+        writeDataPoint(getEncodedName(name), ".count", null, counter.getCount()));
+    histograms.forEach((name, histogram) -> {
+      EncodedName encodedName = getEncodedName(name);
+      writeDataPoint(encodedName, ".count", null, histogram.getCount());
+      writeSnapshot(encodedName, histogram.getSnapshot(), 1);
+    });
+    meters.forEach((name, meter) -> writeMetered(getEncodedName(name), meter));
+    timers.forEach((name, timer) -> {
+      EncodedName encodedName = getEncodedName(name);
+      writeMetered(encodedName, timer);
+      writeSnapshot(encodedName, timer.getSnapshot(), NANOS_PER_MILLI);
+    });
+
+    //names of metrics that were not reported in this cycle are dropped from the cache
+    Map<String, EncodedName> previous = encodedNames;
+    encodedNames = reportedNames;
+    reportedNames = previous;
+    reportedNames.clear();
+    return json.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private void writeMetered(EncodedName name, Metered metered) {
+    writeDataPoint(name, ".count", null, metered.getCount());
+    writeDataPoint(name, ".rate", WINDOW_TAGS[0], metered.getOneMinuteRate());
+    writeDataPoint(name, ".rate", WINDOW_TAGS[1], metered.getFiveMinuteRate());
+    writeDataPoint(name, ".rate", WINDOW_TAGS[2], metered.getFifteenMinuteRate());
+  }
+
+  private void writeSnapshot(EncodedName name, Snapshot snapshot, double divisor) {
+    writeDataPoint(name, ".min", null, snapshot.getMin() / divisor);
+    writeDataPoint(name, ".max", null, snapshot.getMax() / divisor);
+    writeDataPoint(name, ".mean", null, snapshot.getMean() / divisor);
+    for (int i = 0; i < QUANTILES.length; i++) {
+      writeDataPoint(name, "", QUANTILE_TAGS[i], snapshot.getValue(QUANTILES[i]) / divisor);
+    }
+    if (snapshot instanceof SketchSnapshot) {
+      writeBuckets(name, (SketchSnapshot) snapshot, divisor);
+    }
+  }
+
+  private void writeBuckets(EncodedName name, SketchSnapshot snapshot, double divisor) {
+    //buckets are in ascending order, so the buckets of an exported bucket are adjacent
+    long upperBound = 0;
+    long count = 0;
+    for (int i = 0; i < snapshot.getBucketCount(); i++) {
+      long bound = snapshot.getExportedUpperBound(i);
+      if (bound != upperBound && count > 0) {
+        writeBucket(name, upperBound, count, divisor);
+        count = 0;
+      }
+      upperBound = bound;
+      count += snapshot.getBucketValueCount(i);
+    }
+    if (count > 0) {
+      writeBucket(name, upperBound, count, divisor);
+    }
+  }
+
+  private void writeBucket(EncodedName name, long upperBound, long count, double divisor) {
+    String bucketTag = "\"bucket\":\"" + upperBound / divisor + "\"";
+    writeDataPoint(name, ".bucket", bucketTag, count);
+  }
+
+  private void writeDataPoint(EncodedName name, String suffix, String extraTag, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return;
+    }
+    startDataPoint(name, suffix);
+    json.append(value);
+    endDataPoint(name, extraTag);
+  }
+
+  private void writeDataPoint(EncodedName name, String suffix, String extraTag, long value) {
+    startDataPoint(name, suffix);
+    json.append(value);
+    endDataPoint(name, extraTag);
+  }
+
+  private void startDataPoint(EncodedName name, String suffix) {
+    if (json.length() > 0) {
+      json.append(',');
+    }
+    json.append("{\"metric\":\"").append(name.metric).append(suffix)
+        .append("\",\"timestamp\":").append(timestamp).append(",\"value\":");
+  }
+
+  private void endDataPoint(EncodedName name, String extraTag) {
+    json.append(",\"tags\":{").append(name.tags);
+    if (extraTag != null) {
+      if (!name.tags.isEmpty()) {
+        json.append(',');
+      }
+      json.append(extraTag);
+    }
+    json.append("}}");
+  }
+
+  private EncodedName getEncodedName(String name) {
+    EncodedName encodedName = encodedNames.get(name);
+    if (encodedName == null) {
+      encodedName = new EncodedName(name, globalTags);
+    }
+    reportedNames.put(name, encodedName);
+    return encodedName;
+  }
+
+  static String escape(String s) {
+    StringBuilder sb = null;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\' || c < 0x20) {
+        if (sb == null) {
+          sb = new StringBuilder(s.length() + 8).append(s, 0, i);
+        }
+        if (c == '"' || c == '\\') {
+          sb.append('\\').append(c);
+        } else {
+          sb.append(String.format("\\u%04x", (int) c));
+        }
+      } else if (sb != null) {
+        sb.append(c);
+      }
+    }
+    return sb != null ? sb.toString() : s;
+  }
+
+  /**
+   * JSON encoded name and tags of a metric.
+   */
+  private static class EncodedName {
+
+    private final String metric;
+    private final String tags;
+
+    EncodedName(String registryName, Map<String, String> globalTags) {
+      TagEncodedMetricName name = TagEncodedMetricName.decode(registryName);
+      this.metric = escape(name.getMetricName());
+      Map<String, String> tags = new TreeMap<>(globalTags);
+      tags.putAll(name.getTags());
+      StringBuilder sb = new StringBuilder();
+      tags.forEach((k, v) -> {
+        if (sb.length() > 0) {
+          sb.append(',');
+        }
+        sb.append('"').append(escape(k)).append("\":\"").append(escape(v)).append('"');
+      });
+      this.tags = sb.toString();
+    }
+  }
+}
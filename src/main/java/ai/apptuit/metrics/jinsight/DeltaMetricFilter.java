@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the metrics that changed since they were last reported, so that a reporting cycle only
+ * sends those; with a full refresh of every metric once in a few cycles.
+ *
+ * <p>Counters, meters, timers and histograms count their updates, so a metric is considered
+ * changed when its count differs from the count it was last reported with. This keeps the update
+ * path of the metrics untouched. Meters and timers that did not change are skipped even while
+ * their rates decay: the full refresh brings their rates up to date. Gauges are always selected,
+ * as there is no telling whether they changed without reading them.</p>
+ *
+ * <p>The counts selected in a cycle are only taken as reported once the cycle reports them, so
+ * the changes of a cycle that failed are selected again in the next cycle.</p>
+ *
+ * <p>With a {@link ReportingTierFilter}, the full refresh of each tier is counted in the cycles
+ * that tier is due, so every tier is refreshed at the full refresh frequency, however the
+ * frequencies of the tiers line up.</p>
+ *
+ * <p>The filter keeps state across the calls of a reporting cycle, and must only be used by the
+ * reporter thread. {@link #cycleCompleted(boolean)} must be called at the end of each cycle, before
+ * {@link ReportingTierFilter#cycleCompleted()} is called.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class DeltaMetricFilter implements MetricFilter {
+
+  private static final int REPORTED = 0;
+  private static final int SELECTED = 1;
+  private static final long NOT_REPORTED = Long.MIN_VALUE;
+
+  private final ReportingTierFilter tierFilter;
+  private final int[] fullRefreshCycles;
+  private final int[] cycles;
+  private final List<Map<String, long[]>> reportedCounts = new ArrayList<>();
+
+  /**
+   * @param fullRefreshCycles every metric is selected once in so many cycles
+   */
+  DeltaMetricFilter(int fullRefreshCycles) {
+    this(new int[]{fullRefreshCycles}, null);
+  }
+
+  /**
+   * @param fullRefreshMillis every metric is selected once in so many milliseconds
+   * @param tierFilter the tiers the metrics are reported in
+   */
+  DeltaMetricFilter(long fullRefreshMillis, ReportingTierFilter tierFilter) {
+    this(getFullRefreshCycles(fullRefreshMillis, tierFilter), tierFilter);
+  }
+
+  private DeltaMetricFilter(int[] fullRefreshCycles, ReportingTierFilter tierFilter) {
+    for (int cycles : fullRefreshCycles) {
+      if (cycles < 1) {
+        throw new IllegalArgumentException("Full refresh cycles must be positive");
+      }
+    }
+    this.tierFilter = tierFilter;
+    this.fullRefreshCycles = fullRefreshCycles;
+    this.cycles = new int[fullRefreshCycles.length];
+    for (int i = 0; i < fullRefreshCycles.length; i++) {
+      reportedCounts.add(new HashMap<>());
+    }
+  }
+
+  private static int[] getFullRefreshCycles(long fullRefreshMillis,
+      ReportingTierFilter tierFilter) {
+    if (fullRefreshMillis <= 0) {
+      throw new IllegalArgumentException("Full refresh frequency must be positive");
+    }
+    int[] fullRefreshCycles = new int[tierFilter.getTierCount()];
+    for (int i = 0; i < fullRefreshCycles.length; i++) {
+      long tierCycles = fullRefreshMillis / tierFilter.getFrequencyMillis(i);
+      fullRefreshCycles[i] = (int) Math.max(1, Math.min(Integer.MAX_VALUE, tierCycles));
+    }
+    return fullRefreshCycles;
+  }
+
+  @Override
+  public boolean matches(String name, Metric metric) {
+    if (!(metric instanceof Counting)) {
+      return true;
+    }
+    long count = ((Counting) metric).getCount();
+    Map<String, long[]> tierCounts = reportedCounts.get(getTierIndex(name));
+    long[] counts = tierCounts.get(name);
+    if (counts == null) {
+      tierCounts.put(name, new long[]{NOT_REPORTED, count});
+      return true;
+    }
+    counts[SELECTED] = count;
+    return counts[REPORTED] != count;
+  }
+
+  /**
+   * @param reported false if the metrics selected in the cycle could not be reported
+   */
+  void cycleCompleted(boolean reported) {
+    for (int i = 0; i < cycles.length; i++) {
+      if (tierFilter != null && !tierFilter.isDue(i)) {
+        continue;
+      }
+      if (reported) {
+        for (long[] counts : reportedCounts.get(i).values()) {
+          counts[REPORTED] = counts[SELECTED];
+        }
+      }
+      cycles[i] = (cycles[i] + 1) % fullRefreshCycles[i];
+      if (cycles[i] == 0) {
+        //forgetting the counts selects every metric in the next cycle, and drops removed metrics
+        reportedCounts.get(i).clear();
+      }
+    }
+  }
+
+  int getTrackedMetricCount() {
+    int count = 0;
+    for (Map<String, long[]> tierCounts : reportedCounts) {
+      count += tierCounts.size();
+    }
+    return count;
+  }
+
+  private int getTierIndex(String name) {
+    return tierFilter != null ? tierFilter.getTierIndex(name) : 0;
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates the gauges of a reporting cycle in parallel, each within a time budget.
+ *
+ * <p>Gauges are grouped by the first two segments of their names, which keeps the gauges of a
+ * metric set together. Such gauges often share a cached value, like the thread dump behind the
+ * {@code jvm.thread} gauges, so the gauges of a group are evaluated one after the other, while
+ * the groups are evaluated in parallel.</p>
+ *
+ * <p>The reporter waits for a group as long as the gauge being evaluated is within its budget,
+ * counted from the moment the gauge starts. A gauge that takes longer is left running, and the
+ * gauges of its group are reported with the values of their last evaluation. The group is not
+ * evaluated again till it completes. Groups are handed directly to a thread, and the pool grows
+ * up to {@link #MAX_THREADS} threads, so gauges that hang do not delay other groups. A gauge
+ * still running after {@link #STUCK_BUDGETS} budgets is interrupted.</p>
+ *
+ * <p>Gauges whose evaluation takes more than a hundredth of the budget are reported with their
+ * cost, as {@link AgentMetricSet#REPORTER_GAUGE_TIME_METRIC} tagged with the name of the gauge.
+ * Once reported, the cost of a gauge is reported as long as the gauge exists.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class GaugeSnapshotter {
+
+  static final int DEFAULT_THREADS = 4;
+  static final int MAX_THREADS = 32;
+  static final int STUCK_BUDGETS = 10;
+
+  private static final Logger LOGGER = Logger.getLogger(GaugeSnapshotter.class.getName());
+  private static final Clock clock = Clock.defaultClock();
+  private static final Object NO_VALUE = new Object();
+  private static final long TIMEOUT_LOG_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final ThreadPoolExecutor executor;
+  private final long budgetNanos;
+  private final Timer evaluationTimer;
+  private final Counter timeouts;
+  private Map<String, GaugeState> states = new HashMap<>();
+  private final Map<String, GaugeGroup> groups = new HashMap<>();
+  private boolean rejectionLogged;
+
+  /**
+   * @param evaluationTimer updated with the time taken to evaluate each gauge
+   * @param timeouts incremented for each gauge that did not complete within its budget
+   */
+  GaugeSnapshotter(int threads, long budget, TimeUnit budgetUnit, Timer evaluationTimer,
+      Counter timeouts) {
+    this(threads, Math.max(threads, MAX_THREADS), budget, budgetUnit, evaluationTimer, timeouts);
+  }
+
+  GaugeSnapshotter(int coreThreads, int maxThreads, long budget, TimeUnit budgetUnit,
+      Timer evaluationTimer, Counter timeouts) {
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(coreThreads, maxThreads, 1, TimeUnit.MINUTES,
+        new SynchronousQueue<>(), r -> {
+          Thread thread = new Thread(r, "jinsight-gauge-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.budgetNanos = budgetUnit.toNanos(budget);
+    this.evaluationTimer = evaluationTimer;
+    this.timeouts = timeouts;
+  }
+
+  /**
+   * Must be called from a single thread, the reporter thread.
+   *
+   * @return gauges that return the values evaluated in this cycle, or in an earlier cycle for
+   *     gauges that timed out. Gauges that failed or have not completed an evaluation yet are left
+   *     out.
+   */
+  SortedMap<String, Gauge> snapshot(SortedMap<String, Gauge> gauges) {
+    Map<String, GaugeState> currentStates = new HashMap<>();
+    Map<GaugeGroup, List<GaugeState>> pending = new HashMap<>();
+    for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      String name = entry.getKey();
+      GaugeState state = states.get(name);
+      if (state == null || state.gauge != entry.getValue()) {
+        state = new GaugeState(name, entry.getValue());
+      }
+      currentStates.put(name, state);
+      GaugeGroup group = groups.computeIfAbsent(getGroupName(name), GaugeGroup::new);
+      if (!group.isRunning()) {
+        pending.computeIfAbsent(group, g -> new ArrayList<>()).add(state);
+      }
+    }
+    states = currentStates;
+
+    List<GaugeGroup> submitted = new ArrayList<>();
+    pending.forEach((group, groupGauges) -> {
+      if (group.submit(groupGauges)) {
+        submitted.add(group);
+      }
+    });
+    if (submitted.size() < pending.size()) {
+      rejected(pending.size() - submitted.size());
+    } else {
+      rejectionLogged = false;
+    }
+    for (GaugeGroup group : submitted) {
+      await(group);
+    }
+    Iterator<GaugeGroup> groupIterator = groups.values().iterator();
+    while (groupIterator.hasNext()) {
+      GaugeGroup group = groupIterator.next();
+      if (group.isRunning()) {
+        group.interruptIfStuck();
+      } else if (!pending.containsKey(group)) {
+        groupIterator.remove();
+      }
+    }
+
+    long costThresholdNanos = budgetNanos / 100;
+    SortedMap<String, Gauge> snapshot = new TreeMap<>();
+    for (GaugeState state : currentStates.values()) {
+      Object value = state.value;
+      if (value != NO_VALUE) {
+        snapshot.put(state.name, (Gauge<Object>) () -> value);
+      }
+      long nanos = state.lastNanos;
+      if (state.costName != null || nanos > costThresholdNanos) {
+        if (state.costName == null) {
+          state.costName = getCostMetricName(state.name);
+        }
+        snapshot.put(state.costName, (Gauge<Long>) () -> nanos);
+      }
+    }
+    return snapshot;
+  }
+
+  void stop() {
+    executor.shutdownNow();
+  }
+
+  private void await(GaugeGroup group) {
+    CountDownLatch done = group.done;
+    while (done.getCount() > 0) {
+      GaugeState current = group.current;
+      //till the group starts its first gauge, the budget runs from the submission
+      long start = current != null ? group.currentStart : group.submitted;
+      long remaining = start + budgetNanos - clock.getTick();
+      if (remaining <= 0) {
+        if (current != null) {
+          timedOut(current, clock.getTick() - start);
+        }
+        return;
+      }
+      try {
+        done.await(remaining, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void timedOut(GaugeState state, long elapsedNanos) {
+    timeouts.inc();
+    state.lastNanos = Math.max(state.lastNanos, elapsedNanos);
+    state.unloggedTimeouts++;
+    long now = clock.getTick();
+    if (state.lastTimeoutLog == 0 || now - state.lastTimeoutLog >= TIMEOUT_LOG_INTERVAL_NANOS) {
+      LOGGER.warning("Gauge [" + state.name + "] did not complete in ["
+          + TimeUnit.NANOSECONDS.toMillis(budgetNanos) + "ms] " + state.unloggedTimeouts
+          + " time(s) since last logged. Reporting its last value.");
+      state.unloggedTimeouts = 0;
+      state.lastTimeoutLog = now;
+    }
+  }
+
+  private void rejected(int groupCount) {
+    if (!rejectionLogged) {
+      rejectionLogged = true;
+      LOGGER.warning("All [" + executor.getMaximumPoolSize() + "] gauge threads are busy."
+          + " Reporting last values of [" + groupCount + "] gauge group(s).");
+    }
+  }
+
+  static String getGroupName(String metricName) {
+    int end = metricName.indexOf('[');
+    if (end < 0) {
+      end = metricName.length();
+    }
+    int dot = metricName.indexOf('.');
+    if (dot >= 0 && dot < end) {
+      int secondDot = metricName.indexOf('.', dot + 1);
+      if (secondDot >= 0 && secondDot < end) {
+        end = secondDot;
+      }
+    }
+    return metricName.substring(0, end);
+  }
+
+  static String getCostMetricName(String gaugeName) {
+    TagEncodedMetricName gauge = TagEncodedMetricName.decode(gaugeName);
+    return TagEncodedMetricName.decode(AgentMetricSet.REPORTER_GAUGE_TIME_METRIC)
+        .withTags(gauge.getTags())
+        .withTags("gauge", gauge.getMetricName())
+        .toString();
+  }
+
+  private static class GaugeState {
+
+    private final String name;
+    private final Gauge gauge;
+    private volatile Object value = NO_VALUE;
+    private volatile long lastNanos;
+    private String costName;
+    private long unloggedTimeouts;
+    private long lastTimeoutLog;
+
+    GaugeState(String name, Gauge gauge) {
+      this.name = name;
+      this.gauge = gauge;
+    }
+  }
+
+  private class GaugeGroup implements Runnable {
+
+    private final String name;
+    private List<GaugeState> gauges;
+    private CountDownLatch done = new CountDownLatch(0);
+    private long submitted;
+    private Thread worker;
+    private boolean interrupted;
+    private volatile GaugeState current;
+    private volatile long currentStart;
+
+    GaugeGroup(String name) {
+      this.name = name;
+    }
+
+    boolean isRunning() {
+      return done.getCount() > 0;
+    }
+
+    boolean submit(List<GaugeState> gauges) {
+      this.gauges = gauges;
+      this.current = null;
+      this.interrupted = false;
+      this.submitted = clock.getTick();
+      this.done = new CountDownLatch(1);
+      try {
+        executor.execute(this);
+        return true;
+      } catch (RejectedExecutionException e) {
+        done.countDown();
+        return false;
+      }
+    }
+
+    void interruptIfStuck() {
+      GaugeState stuck;
+      synchronized (this) {
+        stuck = current;
+        if (stuck == null || interrupted
+            || clock.getTick() - currentStart < STUCK_BUDGETS * budgetNanos) {
+          return;
+        }
+        interrupted = true;
+        worker.interrupt();
+      }
+      LOGGER.warning("Interrupting gauge [" + stuck.name + "] of [" + name + "], running for more"
+          + " than [" + TimeUnit.NANOSECONDS.toMillis(STUCK_BUDGETS * budgetNanos) + "ms].");
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (GaugeState state : gauges) {
+          long start = clock.getTick();
+          synchronized (this) {
+            worker = Thread.currentThread();
+            currentStart = start;
+            current = state;
+          }
+          try {
+            state.value = state.gauge.getValue();
+          } catch (RuntimeException e) {
+            state.value = NO_VALUE;
+            LOGGER.log(Level.FINE, "Error evaluating gauge [" + state.name + "]", e);
+          } finally {
+            long elapsed = clock.getTick() - start;
+            state.lastNanos = elapsed;
+            evaluationTimer.update(elapsed, TimeUnit.NANOSECONDS);
+            synchronized (this) {
+              current = null;
+              //an interrupt meant for this gauge must not reach the next one
+              Thread.interrupted();
+            }
+          }
+        }
+      } finally {
+        synchronized (this) {
+          worker = null;
+        }
+        done.countDown();
+      }
+    }
+  }
+}
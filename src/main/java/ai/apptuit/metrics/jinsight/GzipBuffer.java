@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses data in the gzip format into a buffer that is reused for every payload.
+ *
+ * <p>{@link java.util.zip.GZIPOutputStream} allocates a new {@link Deflater}, with its native
+ * memory, for every stream. This class keeps a single deflater and output buffer, and writes the
+ * gzip header and trailer itself. Instances are not thread safe.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class GzipBuffer {
+
+  private static final byte[] HEADER = {
+      0x1f, (byte) 0x8b, //magic
+      Deflater.DEFLATED, 0, //compression method, flags
+      0, 0, 0, 0, //modification time
+      0, 0 //extra flags, operating system
+  };
+  private static final int TRAILER_SIZE = 8;
+
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final CRC32 crc = new CRC32();
+  private byte[] buffer = new byte[64 * 1024];
+  private int length;
+  private long inputSize;
+
+  GzipBuffer() {
+    reset();
+  }
+
+  /**
+   * Discards the compressed data, and starts a new payload.
+   */
+  void reset() {
+    deflater.reset();
+    crc.reset();
+    System.arraycopy(HEADER, 0, buffer, 0, HEADER.length);
+    length = HEADER.length;
+    inputSize = 0;
+  }
+
+  void write(byte[] bytes) {
+    write(bytes, 0, bytes.length);
+  }
+
+  void write(byte[] bytes, int offset, int count) {
+    crc.update(bytes, offset, count);
+    inputSize += count;
+    deflater.setInput(bytes, offset, count);
+    while (!deflater.needsInput()) {
+      deflate();
+    }
+  }
+
+  /**
+   * Completes the payload. Nothing must be written after this, until the next {@link #reset()}.
+   */
+  void finish() {
+    deflater.finish();
+    while (!deflater.finished()) {
+      deflate();
+    }
+    ensureCapacity(TRAILER_SIZE);
+    writeIntLittleEndian((int) crc.getValue());
+    writeIntLittleEndian((int) inputSize);
+  }
+
+  byte[] getBuffer() {
+    return buffer;
+  }
+
+  int size() {
+    return length;
+  }
+
+  /**
+   * Releases the native memory of the deflater. The buffer must not be used after this.
+   */
+  void close() {
+    deflater.end();
+  }
+
+  private void deflate() {
+    ensureCapacity(1024);
+    length += deflater.deflate(buffer, length, buffer.length - length);
+  }
+
+  private void writeIntLittleEndian(int value) {
+    for (int i = 0; i < 4; i++) {
+      buffer[length++] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  private void ensureCapacity(int count) {
+    if (length + count > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A {@link Reservoir} backed by an HdrHistogram {@link Recorder}.
+ *
+ * <p>Updates are wait-free. A snapshot covers the values recorded since the previous snapshot of
+ * the same {@link SnapshotReader}, and is reused until at least half the snapshot interval has
+ * passed, so that a reader sees the same interval for the whole of its reporting cycle. Values
+ * taken from the recorder for one reader are kept for the others until they take a
+ * snapshot.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class HdrHistogramReservoir implements Reservoir {
+
+  private static final int SIGNIFICANT_DIGITS = 2;
+
+  private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+  private final long minRefreshNanos;
+  private final Clock clock;
+  private final Map<SnapshotReader, ReaderState> readers = new HashMap<>();
+
+  HdrHistogramReservoir(long snapshotInterval, TimeUnit unit) {
+    this(snapshotInterval, unit, Clock.defaultClock());
+  }
+
+  HdrHistogramReservoir(long snapshotInterval, TimeUnit unit, Clock clock) {
+    this.minRefreshNanos = unit.toNanos(snapshotInterval) / 2;
+    this.clock = clock;
+    //the main reporter gets every value, even if another reader takes the first snapshot
+    readers.put(SnapshotReader.REPORTER, new ReaderState());
+  }
+
+  @Override
+  public int size() {
+    return getSnapshot().size();
+  }
+
+  @Override
+  public void update(long value) {
+    recorder.recordValue(value < 0 ? 0 : value);
+  }
+
+  @Override
+  public synchronized Snapshot getSnapshot() {
+    ReaderState reader = readers.computeIfAbsent(SnapshotReader.current(), r -> new ReaderState());
+    long now = clock.getTick();
+    if (reader.snapshot == null || now - reader.lastRefresh >= minRefreshNanos) {
+      Histogram interval = recorder.getIntervalHistogram();
+      for (ReaderState other : readers.values()) {
+        if (other == reader) {
+          continue;
+        }
+        if (other.pending == null) {
+          other.pending = interval.copy();
+        } else {
+          other.pending.add(interval);
+        }
+      }
+      if (reader.pending != null) {
+        reader.pending.add(interval);
+        interval = reader.pending;
+        reader.pending = null;
+      }
+      reader.snapshot = new HdrSnapshot(interval);
+      reader.lastRefresh = now;
+    }
+    return reader.snapshot;
+  }
+
+  private static class ReaderState {
+
+    private HdrSnapshot snapshot;
+    private long lastRefresh;
+    //values taken from the recorder by other readers since the last snapshot of this one
+    private Histogram pending;
+  }
+
+  /**
+   * Each lookup of a percentile in a histogram scans its buckets, so the quantiles that reporters
+   * read are looked up together in a single scan, when the first of them is read.
+   */
+  private static class HdrSnapshot extends Snapshot {
+
+    //the quantiles of Snapshot.getMedian(), get75thPercentile() ... get999thPercentile()
+    private static final double[] STANDARD_QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+    private final Histogram histogram;
+    private long[] standardQuantileValues;
+
+    HdrSnapshot(Histogram histogram) {
+      this.histogram = histogram;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+      if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+        throw new IllegalArgumentException(quantile + " is not in [0..1]");
+      }
+      for (int i = 0; i < STANDARD_QUANTILES.length; i++) {
+        if (STANDARD_QUANTILES[i] == quantile) {
+          return getStandardQuantileValues()[i];
+        }
+      }
+      return histogram.getValueAtPercentile(quantile * 100.0);
+    }
+
+    private synchronized long[] getStandardQuantileValues() {
+      if (standardQuantileValues == null) {
+        standardQuantileValues = getValuesAtQuantiles(STANDARD_QUANTILES);
+      }
+      return standardQuantileValues;
+    }
+
+    /**
+     * Same as {@link Histogram#getValueAtPercentile(double)} for each of the ascending
+     * {@code quantiles}.
+     */
+    private long[] getValuesAtQuantiles(double[] quantiles) {
+      long totalCount = histogram.getTotalCount();
+      long[] counts = new long[quantiles.length];
+      for (int i = 0; i < quantiles.length; i++) {
+        double percentile = quantiles[i] * 100.0;
+        counts[i] = Math.max((long) (((percentile / 100.0) * totalCount) + 0.5), 1);
+      }
+      long[] values = new long[quantiles.length];
+      int next = 0;
+      for (HistogramIterationValue value : histogram.recordedValues()) {
+        while (next < quantiles.length && value.getTotalCountToThisValue() >= counts[next]) {
+          values[next++] = value.getValueIteratedTo();
+        }
+        if (next == quantiles.length) {
+          break;
+        }
+      }
+      return values;
+    }
+
+    @Override
+    public long[] getValues() {
+      long[] values = new long[size()];
+      int i = 0;
+      for (HistogramIterationValue value : histogram.recordedValues()) {
+        long v = value.getValueIteratedTo();
+        for (long c = value.getCountAtValueIteratedTo(); c > 0 && i < values.length; c--) {
+          values[i++] = v;
+        }
+      }
+      return values;
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+      return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean() {
+      return histogram.getTotalCount() == 0 ? 0 : histogram.getMean();
+    }
+
+    @Override
+    public long getMin() {
+      return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev() {
+      return histogram.getTotalCount() <= 1 ? 0 : histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+      try (PrintWriter out = new PrintWriter(
+          new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+        for (long value : getValues()) {
+          out.printf("%d%n", value);
+        }
+      }
+    }
+  }
+}
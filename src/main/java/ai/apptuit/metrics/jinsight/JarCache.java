@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+
+/**
+ * Content-addressed cache of jars extracted from the agent jar.
+ *
+ * <p>A jar is stored as {@code <name>-<sha256>.jar} in the cache directory, so JVMs started from
+ * the same agent build share one copy instead of extracting it again. New entries are written to a
+ * temporary file in the cache directory and atomically renamed into place, so a cached entry is
+ * always complete. Cached entries are not re-hashed on lookup: hashing a jar while the agent is
+ * starting runs in the interpreter and costs more than extracting it. Entries that are no longer
+ * readable zip files are extracted again.</p>
+ *
+ * <p>The last modified time of an entry is updated whenever it is used. Entries of the same jar
+ * with another hash are deleted once they have not been used for a week, so that upgrading the
+ * agent does not leave old copies behind, while other agent builds on the host keep theirs.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class JarCache {
+
+  static final String HASH_ALGORITHM = "SHA-256";
+  static final long STALE_ENTRY_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  private static final Logger LOGGER = Logger.getLogger(JarCache.class.getName());
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int HASH_HEX_LENGTH = 64;
+
+  private final File cacheDir;
+
+  JarCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Returns the cached copy of a jar, extracting it if it is not cached yet.
+   *
+   * @param name the name of the jar, without extension
+   * @param hash hex encoded hash of the jar content, or null to compute it while extracting
+   * @param content supplies the jar content if it has to be extracted
+   * @return the cached jar, or null if the cache directory can not be used
+   */
+  File get(String name, String hash, JarContent content) throws IOException {
+    File jar = get0(name, hash, content);
+    if (jar != null) {
+      //marks the entry as used, so that it is not deleted as stale
+      if (!jar.setLastModified(System.currentTimeMillis())) {
+        LOGGER.fine("Could not update last modified time of [" + jar + "]");
+      }
+      deleteStaleEntries(name, jar);
+    }
+    return jar;
+  }
+
+  private File get0(String name, String hash, JarContent content) throws IOException {
+    if (hash != null) {
+      File cached = new File(cacheDir, fileName(name, hash));
+      if (isUsable(cached)) {
+        return cached;
+      }
+    }
+
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+      LOGGER.warning("Could not create cache directory [" + cacheDir + "]");
+      return null;
+    }
+
+    Path tempFile;
+    try {
+      tempFile = Files.createTempFile(cacheDir.toPath(), name, ".tmp");
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Could not write to cache directory [" + cacheDir + "]", e);
+      return null;
+    }
+    try {
+      try (InputStream in = content.open()) {
+        if (hash != null) {
+          Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+          hash = copy(in, tempFile);
+        }
+      }
+      Path target = new File(cacheDir, fileName(name, hash)).toPath();
+      moveIntoPlace(tempFile, target);
+      return target.toFile();
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  static String fileName(String name, String hash) {
+    return name + "-" + hash.toLowerCase(Locale.ROOT) + ".jar";
+  }
+
+  /**
+   * Deletes the entries of other hashes of {@code name}, and temporary files left by extractions
+   * that did not complete, that were not used for {@link #STALE_ENTRY_MILLIS}. Entries of other
+   * agent builds that are still in use on the host are kept.
+   */
+  private void deleteStaleEntries(String name, File current) {
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    long staleBefore = System.currentTimeMillis() - STALE_ENTRY_MILLIS;
+    for (File file : files) {
+      if (file.equals(current) || !isEntryOf(name, file.getName())
+          || file.lastModified() >= staleBefore) {
+        continue;
+      }
+      if (file.delete()) {
+        LOGGER.fine("Deleted stale cache entry [" + file + "]");
+      } else {
+        LOGGER.fine("Could not delete stale cache entry [" + file + "]");
+      }
+    }
+  }
+
+  private static boolean isEntryOf(String name, String fileName) {
+    if (fileName.startsWith(name) && fileName.endsWith(".tmp")) {
+      return true;
+    }
+    String prefix = name + "-";
+    String suffix = ".jar";
+    if (!fileName.startsWith(prefix) || !fileName.endsWith(suffix)
+        || fileName.length() != prefix.length() + HASH_HEX_LENGTH + suffix.length()) {
+      return false;
+    }
+    for (int i = prefix.length(); i < prefix.length() + HASH_HEX_LENGTH; i++) {
+      if (Character.digit(fileName.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void moveIntoPlace(Path tempFile, Path target) throws IOException {
+    try {
+      Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+    } catch (FileAlreadyExistsException e) {
+      //another JVM extracted the same content concurrently
+      if (!isUsable(target.toFile())) {
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+  }
+
+  private static boolean isUsable(File file) {
+    if (!file.isFile()) {
+      return false;
+    }
+    try (ZipFile ignored = new ZipFile(file)) {
+      return true;
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Ignoring unreadable cache entry [" + file + "]", e);
+      return false;
+    }
+  }
+
+  static String hash(InputStream in) throws IOException {
+    return copy(in, null);
+  }
+
+  private static String copy(InputStream in, Path target) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (DigestInputStream din = new DigestInputStream(in, digest);
+        OutputStream out = target != null ? Files.newOutputStream(target) : null) {
+      int read;
+      while ((read = din.read(buffer)) != -1) {
+        if (out != null) {
+          out.write(buffer, 0, read);
+        }
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      //every JRE is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] hexDigits = "0123456789abcdef".toCharArray();
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = hexDigits[(bytes[i] >> 4) & 0xf];
+      chars[2 * i + 1] = hexDigits[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  interface JarContent {
+
+    InputStream open() throws IOException;
+  }
+}
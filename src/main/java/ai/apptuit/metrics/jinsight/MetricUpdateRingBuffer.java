@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.jinsight.TracingMetricRegistry.MetricUpdateListener;
+import ai.apptuit.metrics.jinsight.TracingMetricRegistry.TraceableMetric;
+import com.codahale.metrics.Counting;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded buffer of the most recent metric updates, for debugging instrumentation.
+ *
+ * <p>Writers claim a slot with a single atomic increment and overwrite the oldest entry, so
+ * recording an update neither blocks nor allocates. Readers take a best-effort copy: an entry that
+ * is overwritten while being read may mix two updates.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class MetricUpdateRingBuffer implements MetricUpdateListener {
+
+  private final AtomicLong sequence = new AtomicLong();
+  private final int mask;
+  private final TraceableMetric[] metrics;
+  private final long[] counts;
+  private final long[] timestamps;
+
+  MetricUpdateRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    metrics = new TraceableMetric[size];
+    counts = new long[size];
+    timestamps = new long[size];
+  }
+
+  int capacity() {
+    return metrics.length;
+  }
+
+  @Override
+  public void onUpdate(TraceableMetric metric) {
+    int i = (int) (sequence.getAndIncrement() & mask);
+    timestamps[i] = System.currentTimeMillis();
+    counts[i] = metric instanceof Counting ? ((Counting) metric).getCount() : 0;
+    metrics[i] = metric;
+  }
+
+  /**
+   * @return the buffered updates, oldest first
+   */
+  List<String> getRecentUpdates() {
+    long end = sequence.get();
+    long start = Math.max(0, end - metrics.length);
+    List<String> updates = new ArrayList<>((int) (end - start));
+    for (long seq = start; seq < end; seq++) {
+      int i = (int) (seq & mask);
+      TraceableMetric metric = metrics[i];
+      if (metric == null) {
+        continue;
+      }
+      String metricType = metric.getClass().getSuperclass().getSimpleName();
+      updates.add(Instant.ofEpochMilli(timestamps[i]) + " " + metricType + ":"
+          + metric.getMetricName() + " count=" + counts[i]);
+    }
+    return updates;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the metrics of a registry for Prometheus to scrape, using the HTTP server of the JDK.
+ *
+ * <p>Scrapes are handled one at a time on a single thread, so that they can all share the output
+ * buffer of one {@link PrometheusSerializer}.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class PrometheusExporter {
+
+  static final String METRICS_PATH = "/metrics";
+
+  private static final Logger LOGGER = Logger.getLogger(PrometheusExporter.class.getName());
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final SnapshotReader READER = new SnapshotReader("prometheus");
+
+  private final PrometheusSerializer serializer;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  PrometheusExporter(MetricRegistry registry, Map<String, String> globalTags) {
+    this.serializer = new PrometheusSerializer(registry, globalTags);
+  }
+
+  void start(InetSocketAddress address) throws IOException {
+    server = HttpServer.create(address, 0);
+    server.createContext(METRICS_PATH, this::handle);
+    executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "jinsight-prometheus");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+
+    //the dispatcher thread of the server inherits the daemon status of the thread that starts it
+    Thread starter = new Thread(server::start, "jinsight-prometheus-starter");
+    starter.setDaemon(true);
+    starter.start();
+    try {
+      starter.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      int length = READER.call(serializer::serialize);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      if ("HEAD".equals(method)) {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, length);
+      exchange.getResponseBody().write(serializer.getBuffer(), 0, length);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.FINE, "Error serving metrics", e);
+      throw e;
+    } finally {
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serializes a {@link MetricRegistry} in the Prometheus text exposition format.
+ *
+ * <p>The name and labels of every metric are encoded once, and kept sorted by metric family, so
+ * that series of a family are written together. They are re-encoded only after metrics are added
+ * to or removed from the registry. Output is written to a buffer that is reused across calls, so
+ * serializing a registry whose metrics did not change allocates nothing, other than what gauges
+ * and reservoir snapshots allocate to produce their values.</p>
+ *
+ * <p>Tags of {@link TagEncodedMetricName}s become labels. Counters are exposed as gauges, because
+ * they can be decremented; meters as counters with a {@code _total} suffix; and timers and
+ * histograms as summaries. Timer values are in seconds. Metrics do not keep the sum of their
+ * values, so the {@code _sum} of a summary is estimated as its count times the mean of its
+ * reservoir. When metrics of different types map to the same family name, each type gets its own
+ * family, with the type appended to the name, so that a family is only declared with one type.
+ * Instances are not thread safe.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class PrometheusSerializer {
+
+  private static final Logger LOGGER = Logger.getLogger(PrometheusSerializer.class.getName());
+  private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+  private static final byte[][] QUANTILE_LABELS = new byte[QUANTILES.length][];
+  private static final byte[] COUNT_SUFFIX = ascii("_count");
+  private static final byte[] SUM_SUFFIX = ascii("_sum");
+  private static final byte[] TOTAL_SUFFIX = ascii("_total");
+  private static final byte[] NO_BYTES = new byte[0];
+  private static final byte[] TYPE_PREFIX = ascii("# TYPE ");
+  private static final byte[] NAN = ascii("NaN");
+  private static final byte[] POSITIVE_INFINITY = ascii("+Inf");
+  private static final byte[] NEGATIVE_INFINITY = ascii("-Inf");
+  private static final double NANOS_PER_SECOND = 1_000_000_000d;
+  private static final Comparator<Series> FAMILY_ORDER = Comparator
+      .comparing((Series s) -> s.familyName).thenComparing(s -> s.registryName);
+
+  static {
+    for (int i = 0; i < QUANTILES.length; i++) {
+      QUANTILE_LABELS[i] = ascii("quantile=\"" + QUANTILES[i] + "\"");
+    }
+  }
+
+  private final MetricRegistry registry;
+  private final Map<String, String> globalTags;
+  private Map<String, Series> seriesByName = new HashMap<>();
+  private Series[] series = new Series[0];
+  private volatile boolean registryChanged = true;
+  private byte[] buffer = new byte[64 * 1024];
+  private int length;
+
+  PrometheusSerializer(MetricRegistry registry, Map<String, String> globalTags) {
+    this.registry = registry;
+    this.globalTags = new TreeMap<>(globalTags);
+    registry.addListener(new RegistryChangeListener());
+  }
+
+  /**
+   * @return number of bytes written to {@link #getBuffer()}
+   */
+  int serialize() {
+    if (registryChanged) {
+      encodeSeries();
+    }
+    length = 0;
+    String family = null;
+    for (Series s : series) {
+      int seriesStart = length;
+      try {
+        //family names are shared between series, see encodeSeries()
+        if (s.familyName != family) {
+          family = s.familyName;
+          writeType(s);
+        }
+        writeSeries(s);
+      } catch (RuntimeException e) {
+        length = seriesStart;
+        family = null;
+        LOGGER.log(Level.FINE, "Error serializing metric [" + s.registryName + "]", e);
+      }
+    }
+    return length;
+  }
+
+  byte[] getBuffer() {
+    return buffer;
+  }
+
+  private void encodeSeries() {
+    //cleared before reading the registry, so that concurrent changes are not lost
+    registryChanged = false;
+    Map<String, Series> encoded = new HashMap<>();
+    Map<String, String> typesByFamily = new HashMap<>();
+    Set<String> mixedFamilies = new HashSet<>();
+    List<Series> sorted = new ArrayList<>();
+    registry.getMetrics().forEach((name, metric) -> {
+      Series s = seriesByName.get(name);
+      if (s == null || s.metric != metric) {
+        s = new Series(name, metric, globalTags);
+      }
+      String type = typesByFamily.putIfAbsent(s.baseFamilyName, s.typeName);
+      if (type != null && !type.equals(s.typeName)) {
+        mixedFamilies.add(s.baseFamilyName);
+      }
+      encoded.put(name, s);
+      sorted.add(s);
+    });
+    Map<String, String> families = new HashMap<>();
+    for (Series s : sorted) {
+      String familyName = mixedFamilies.contains(s.baseFamilyName)
+          ? s.baseFamilyName + "_" + s.typeName : s.baseFamilyName;
+      s.setFamily(families.computeIfAbsent(familyName, f -> f));
+    }
+    sorted.sort(FAMILY_ORDER);
+    seriesByName = encoded;
+    series = sorted.toArray(new Series[0]);
+  }
+
+  private void writeType(Series s) {
+    write(TYPE_PREFIX);
+    write(s.family);
+    writeByte(' ');
+    write(s.type);
+    writeByte('\n');
+  }
+
+  private void writeSeries(Series s) {
+    Metric metric = s.metric;
+    if (metric instanceof Gauge) {
+      Object value = ((Gauge) metric).getValue();
+      if (value instanceof Long || value instanceof Integer) {
+        writeSample(s, NO_BYTES, NO_BYTES, ((Number) value).longValue());
+      } else if (value instanceof Number) {
+        writeSample(s, NO_BYTES, NO_BYTES, ((Number) value).doubleValue());
+      } else if (value instanceof Boolean) {
+        writeSample(s, NO_BYTES, NO_BYTES, (Boolean) value ? 1 : 0);
+      }
+    } else if (metric instanceof Counter) {
+      writeSample(s, NO_BYTES, NO_BYTES, ((Counter) metric).getCount());
+    } else if (metric instanceof Meter) {
+      writeSample(s, NO_BYTES, NO_BYTES, ((Meter) metric).getCount());
+    } else if (metric instanceof Timer) {
+      Timer timer = (Timer) metric;
+      writeSummary(s, timer.getSnapshot(), timer.getCount(), NANOS_PER_SECOND);
+    } else if (metric instanceof Histogram) {
+      Histogram histogram = (Histogram) metric;
+      writeSummary(s, histogram.getSnapshot(), histogram.getCount(), 1);
+    }
+  }
+
+  private void writeSummary(Series s, Snapshot snapshot, long count, double divisor) {
+    for (int i = 0; i < QUANTILES.length; i++) {
+      writeSample(s, NO_BYTES, QUANTILE_LABELS[i], snapshot.getValue(QUANTILES[i]) / divisor);
+    }
+    writeSample(s, SUM_SUFFIX, NO_BYTES, snapshot.getMean() * count / divisor);
+    writeSample(s, COUNT_SUFFIX, NO_BYTES, count);
+  }
+
+  private void writeSample(Series s, byte[] suffix, byte[] extraLabel, double value) {
+    write(s.family);
+    write(suffix);
+    writeLabels(s.labels, extraLabel);
+    writeByte(' ');
+    writeDouble(value);
+    writeByte('\n');
+  }
+
+  private void writeSample(Series s, byte[] suffix, byte[] extraLabel, long value) {
+    write(s.family);
+    write(suffix);
+    writeLabels(s.labels, extraLabel);
+    writeByte(' ');
+    writeLong(value);
+    writeByte('\n');
+  }
+
+  private void writeLabels(byte[] labels, byte[] extraLabel) {
+    if (labels.length == 0 && extraLabel.length == 0) {
+      return;
+    }
+    writeByte('{');
+    write(labels);
+    if (labels.length > 0 && extraLabel.length > 0) {
+      writeByte(',');
+    }
+    write(extraLabel);
+    writeByte('}');
+  }
+
+  private void writeDouble(double value) {
+    if (Double.isNaN(value)) {
+      write(NAN);
+    } else if (Double.isInfinite(value)) {
+      write(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+    } else {
+      ensureCapacity(AsciiNumbers.MAX_LENGTH);
+      length = AsciiNumbers.writeDouble(buffer, length, value);
+    }
+  }
+
+  private void writeLong(long value) {
+    ensureCapacity(AsciiNumbers.MAX_LENGTH);
+    length = AsciiNumbers.writeLong(buffer, length, value);
+  }
+
+  private void write(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void writeByte(char c) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) c;
+  }
+
+  private void ensureCapacity(int count) {
+    if (length + count > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+    }
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  static String sanitizeName(String name) {
+    StringBuilder sb = new StringBuilder(name.length() + 1);
+    if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+      sb.append('_');
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+          || (c >= '0' && c <= '9') || c == '_' || c == ':';
+      sb.append(valid ? c : '_');
+    }
+    return sb.toString();
+  }
+
+  static String sanitizeLabelName(String name) {
+    return sanitizeName(name).replace(':', '_');
+  }
+
+  static String escapeLabelValue(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        sb.append('\\').append(c);
+      } else if (c == '\n') {
+        sb.append("\\n");
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A metric of the registry, with its name and labels encoded for the exposition format.
+   */
+  private static class Series {
+
+    private final String registryName;
+    private final Metric metric;
+    private final String baseFamilyName;
+    private final String typeName;
+    private final byte[] labels;
+    private final byte[] type;
+    private String familyName;
+    private byte[] family;
+
+    Series(String registryName, Metric metric, Map<String, String> globalTags) {
+      this.registryName = registryName;
+      this.metric = metric;
+      TagEncodedMetricName name = TagEncodedMetricName.decode(registryName);
+      String baseName = sanitizeName(name.getMetricName());
+      String typeName;
+      if (metric instanceof Meter) {
+        baseName += "_total";
+        typeName = "counter";
+      } else if (metric instanceof Timer || metric instanceof Histogram) {
+        typeName = "summary";
+      } else {
+        typeName = "gauge";
+      }
+      this.baseFamilyName = baseName;
+      this.typeName = typeName;
+      this.type = ascii(typeName);
+
+      Map<String, String> tags = new TreeMap<>(globalTags);
+      tags.putAll(name.getTags());
+      StringBuilder sb = new StringBuilder();
+      tags.forEach((k, v) -> {
+        if (sb.length() > 0) {
+          sb.append(',');
+        }
+        sb.append(sanitizeLabelName(k)).append("=\"").append(escapeLabelValue(v)).append('"');
+      });
+      this.labels = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    void setFamily(String familyName) {
+      if (!familyName.equals(this.familyName)) {
+        this.family = familyName.getBytes(StandardCharsets.UTF_8);
+      }
+      //shared between the series of a family, see serialize()
+      this.familyName = familyName;
+    }
+  }
+
+  private class RegistryChangeListener implements MetricRegistryListener {
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+      registryChanged = true;
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+      registryChanged = true;
+    }
+  }
+}
@@ -18,12 +18,23 @@ package ai.apptuit.metrics.jinsight;
 
 import ai.apptuit.metrics.dropwizard.ApptuitReporter.ReportingMode;
 import ai.apptuit.metrics.dropwizard.ApptuitReporterFactory;
+import ai.apptuit.metrics.jinsight.modules.jdbc.SqlDictionaryExporter;
 import ai.apptuit.metrics.jinsight.modules.jvm.JvmMetricSet;
+import ai.apptuit.metrics.jinsight.recording.MetricRecorder;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Provides access to the MetricRegistry that is pre-configured to use {@link
@@ -34,6 +45,12 @@ import java.util.concurrent.TimeUnit;
  */
 public class RegistryService {
 
+  static final String JVM_MODULE_NAME = "jvm";
+  static final String JDBC_MODULE_NAME = "jdbc";
+  private static final int MAX_SPOOL_FILES = 8;
+
+  private static final Logger LOGGER = Logger.getLogger(RegistryService.class.getName());
+
   private static final RegistryService singleton = new RegistryService();
   private MetricRegistry registry = null;
 
@@ -42,15 +59,143 @@ public class RegistryService {
   }
 
   RegistryService(ConfigService configService, ApptuitReporterFactory factory) {
-    this.registry = new TracingMetricRegistry();
+    long reportingFrequency = configService.getReportingFrequency();
+    ReportingTierFilter tierFilter = createTierFilter(configService);
+    TracingMetricRegistry tracingRegistry = createRegistry(configService, tierFilter);
+    this.registry = tracingRegistry;
+
+    ScheduledReporter reporter = createMainReporter(configService, factory);
+    startTimedReporter(configService, reporter, tierFilter, tracingRegistry);
+    registry.registerAll(new AgentMetricSet(tracingRegistry,
+        configService.isModuleEnabled(JDBC_MODULE_NAME)));
+
+    File recordingDir = configService.getRecordingDir();
+    if (recordingDir != null) {
+      startRecorder(recordingDir, configService);
+    }
 
+    int prometheusPort = configService.getPrometheusPort();
+    if (prometheusPort > 0) {
+      startPrometheusExporter(prometheusPort, configService.getGlobalTags());
+    }
+
+    int statsdPort = configService.getStatsdPort();
+    if (statsdPort > 0) {
+      startStatsdReporter(configService, reportingFrequency);
+    }
+
+    double samplingCpuBudget = configService.getSamplingCpuBudget();
+    if (samplingCpuBudget > 0) {
+      new AdaptiveSamplingController(samplingCpuBudget).start();
+    }
+
+    if (configService.isModuleEnabled(JVM_MODULE_NAME)) {
+      registry.registerAll(new JvmMetricSet());
+    }
+  }
+
+  private static ReportingTierFilter createTierFilter(ConfigService configService) {
+    long reportingFrequency = configService.getReportingFrequency();
+    List<ReportingTierFilter.Tier> tiers = configService.getReportingTiers();
+    if (tiers.isEmpty() || reportingFrequency <= 0) {
+      return null;
+    }
+    LOGGER.info("Reporting tiers: " + tiers + ", other metrics every ["
+        + reportingFrequency + "ms]");
+    return new ReportingTierFilter(reportingFrequency, tiers);
+  }
+
+  /**
+   * @param tierFilter the tiers the metrics are reported in, or {@code null}
+   */
+  private static TracingMetricRegistry createRegistry(ConfigService configService,
+      ReportingTierFilter tierFilter) {
+    ReservoirType reservoirType = configService.getTimerReservoirType();
+    long reportingFrequency = configService.getReportingFrequency();
+    //reservoirs that report an interval need the frequency their timer is reported at
+    return new TracingMetricRegistry(name -> reservoirType.newReservoir(tierFilter != null
+        ? tierFilter.getFrequencyMillis(name) : reportingFrequency),
+        configService.getCardinalityLimit());
+  }
+
+  private ScheduledReporter createMainReporter(ConfigService configService,
+      ApptuitReporterFactory factory) {
     ReportingMode mode = configService.getReportingMode();
+    if (configService.isAsyncReporting() && mode == ReportingMode.API_PUT) {
+      return createAsyncReporter(configService);
+    }
+    if (configService.isAsyncReporting()) {
+      LOGGER.warning("Asynchronous reporting is only supported in reporting mode ["
+          + ReportingMode.API_PUT + "]");
+    }
+    if (configService.getTimerReservoirType() == ReservoirType.SKETCH) {
+      LOGGER.warning("Bucket counts of timer reservoir [" + ReservoirType.SKETCH
+          + "] are only sent with asynchronous reporting");
+    }
+    return createReporter(factory, configService.getGlobalTags(), configService.getApiToken(),
+        configService.getApiUrl(), mode);
+  }
 
-    ScheduledReporter reporter = createReporter(factory, configService.getGlobalTags(),
-        configService.getApiToken(), configService.getApiUrl(), mode);
-    reporter.start(configService.getReportingFrequency(), TimeUnit.MILLISECONDS);
+  private void startTimedReporter(ConfigService configService, ScheduledReporter reporter,
+      ReportingTierFilter tierFilter, TracingMetricRegistry tracingRegistry) {
+    long reportingFrequency = configService.getReportingFrequency();
+    long cycleMillis = tierFilter != null ? tierFilter.getCycleMillis() : reportingFrequency;
+    DeltaMetricFilter deltaFilter = createDeltaFilter(configService, tierFilter, cycleMillis);
+    GaugeSnapshotter gaugeSnapshotter = null;
+    long gaugeTimeout = configService.getGaugeTimeout();
+    if (gaugeTimeout > 0) {
+      gaugeSnapshotter = new GaugeSnapshotter(GaugeSnapshotter.DEFAULT_THREADS, gaugeTimeout,
+          TimeUnit.MILLISECONDS, registry.timer(AgentMetricSet.REPORTER_GAUGE_METRIC),
+          registry.counter(AgentMetricSet.REPORTER_GAUGE_TIMEOUTS_METRIC));
+    }
+    Timer cycleTimer = registry.timer(AgentMetricSet.REPORTER_CYCLE_METRIC);
+    TimedReporter timedReporter = new TimedReporter(registry, reporter, cycleTimer,
+        allOf(tierFilter, deltaFilter), gaugeSnapshotter);
+    //the delta filter reads the tiers that were due in the cycle, before they move on
+    if (deltaFilter != null) {
+      timedReporter.addCycleListener(
+          () -> deltaFilter.cycleCompleted(timedReporter.isLastCycleReported()));
+    }
+    if (tierFilter != null) {
+      timedReporter.addCycleListener(tierFilter::cycleCompleted);
+    }
+    int idleEvictionCycles = configService.getIdleEvictionCycles();
+    if (idleEvictionCycles > 0 && cycleMillis > 0) {
+      //idle cycles are counted in reporting intervals, the reporter may run more often with tiers
+      int evictionCycles = toCycles(idleEvictionCycles * reportingFrequency, cycleMillis);
+      timedReporter.addCycleListener(() -> tracingRegistry.evictIdleMetrics(evictionCycles));
+    }
+    File sqlDictionaryFile = configService.getSqlDictionaryFile();
+    if (sqlDictionaryFile != null && configService.isModuleEnabled(JDBC_MODULE_NAME)) {
+      timedReporter.addCycleListener(new SqlDictionaryExporter(sqlDictionaryFile));
+      LOGGER.info("Exporting SQL ids to [" + sqlDictionaryFile + "]");
+    }
+    timedReporter.start(cycleMillis, TimeUnit.MILLISECONDS);
+  }
 
-    registry.registerAll(new JvmMetricSet());
+  private static DeltaMetricFilter createDeltaFilter(ConfigService configService,
+      ReportingTierFilter tierFilter, long cycleMillis) {
+    long fullRefreshFrequency = configService.getFullRefreshFrequency();
+    if (fullRefreshFrequency <= 0 || cycleMillis <= 0) {
+      return null;
+    }
+    return tierFilter != null ? new DeltaMetricFilter(fullRefreshFrequency, tierFilter)
+        : new DeltaMetricFilter(toCycles(fullRefreshFrequency, cycleMillis));
+  }
+
+  private static int toCycles(long millis, long cycleMillis) {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, millis / cycleMillis));
+  }
+
+  /**
+   * @return a filter that selects the metrics selected by both filters, the filters may be null
+   */
+  private static MetricFilter allOf(MetricFilter first, MetricFilter second) {
+    if (first == null || second == null) {
+      return first != null ? first : second;
+    }
+    //the second filter only sees metrics selected by the first
+    return (name, metric) -> first.matches(name, metric) && second.matches(name, metric);
   }
 
   public static MetricRegistry getMetricRegistry() {
@@ -61,6 +206,80 @@ public class RegistryService {
     return singleton;
   }
 
+  private void startRecorder(File recordingDir, ConfigService configService) {
+    MetricRecorder recorder = new MetricRecorder(registry, recordingDir,
+        configService.getRecordingFileSize(), configService.getRecordingMaxSize());
+    recorder.start(configService.getRecordingFrequency(), TimeUnit.MILLISECONDS);
+    //samples of the last chunk are only written out when the recorder stops
+    Runtime.getRuntime().addShutdownHook(new Thread(recorder::stop, "jinsight-recorder-stop"));
+    LOGGER.info("Recording metrics to [" + recordingDir + "]");
+  }
+
+  private void startStatsdReporter(ConfigService configService, long reportingFrequency) {
+    InetSocketAddress address = new InetSocketAddress(configService.getStatsdHost(),
+        configService.getStatsdPort());
+    if (address.isUnresolved()) {
+      LOGGER.severe("Could not resolve StatsD host [" + configService.getStatsdHost() + "]");
+      return;
+    }
+    try {
+      new StatsdReporter(registry, address, configService.getGlobalTags(),
+          configService.getStatsdPacketSize()).start(reportingFrequency, TimeUnit.MILLISECONDS);
+      LOGGER.info("Reporting metrics to StatsD at [" + address + "]");
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Could not report metrics to StatsD at [" + address + "]", e);
+    }
+  }
+
+  private void startPrometheusExporter(int port, Map<String, String> globalTags) {
+    try {
+      new PrometheusExporter(registry, globalTags).start(new InetSocketAddress(port));
+      LOGGER.info("Serving Prometheus metrics on port [" + port + "] at "
+          + PrometheusExporter.METRICS_PATH);
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Could not start Prometheus endpoint on port [" + port + "]", e);
+    }
+  }
+
+  private ScheduledReporter createAsyncReporter(ConfigService configService) {
+    URL apiUrl = configService.getApiUrl();
+    if (apiUrl == null) {
+      try {
+        apiUrl = new URL(AsyncReporter.DEFAULT_API_URL);
+      } catch (MalformedURLException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    int spoolSize = configService.getSpoolSize();
+    SpoolFile spool = spoolSize > 0 ? openSpool(spoolSize) : null;
+    AsyncReporter reporter = new AsyncReporter(registry, apiUrl, configService.getApiToken(),
+        configService.getGlobalTags(), spool);
+    registry.registerAll(reporter);
+    reporter.start();
+    return reporter;
+  }
+
+  private SpoolFile openSpool(int spoolSize) {
+    File spoolDir = new File(ConfigService.JINSIGHT_HOME, "spool");
+    if (!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+      LOGGER.severe("Could not create spool directory [" + spoolDir + "]. "
+          + "Metrics will be dropped while the API is unavailable.");
+      return null;
+    }
+    //every agent on the host needs a spool of its own, the ones in use are locked
+    for (int i = 0; i < MAX_SPOOL_FILES; i++) {
+      File spoolFile = new File(spoolDir, "metrics-" + i + ".spool");
+      try {
+        return SpoolFile.open(spoolFile, spoolSize);
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+    }
+    LOGGER.severe("Could not open a spool file in [" + spoolDir + "]. "
+        + "Metrics will be dropped while the API is unavailable.");
+    return null;
+  }
+
   private ScheduledReporter createReporter(ApptuitReporterFactory factory,
       Map<String, String> globalTags, String apiToken, URL apiUrl, ReportingMode reportingMode) {
     factory.setRateUnit(TimeUnit.SECONDS);
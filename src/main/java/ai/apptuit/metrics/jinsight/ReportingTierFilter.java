@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the metrics of the reporting tiers that are due in a reporting cycle.
+ *
+ * <p>Each tier reports the metrics whose names match its patterns at a frequency of its own, and
+ * metrics that match no tier are reported at the default reporting frequency. All tiers are
+ * reported by one reporter, which runs a cycle at the frequency of the fastest tier; every other
+ * frequency is rounded to a multiple of it. A metric is selected only in the cycles its tier is
+ * due, so gauges of slower tiers are not even read in the cycles in between.</p>
+ *
+ * <p>Like {@link DeltaMetricFilter}, the filter must only be used by the reporter thread, and
+ * {@link #cycleCompleted()} must be called at the end of each cycle.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class ReportingTierFilter implements MetricFilter {
+
+  private static final int MAX_CACHED_NAMES = 100_000;
+
+  private final Tier[] tiers;
+  private final long cycleMillis;
+  private final int[] tierCycles;
+  private final boolean[] due;
+  private final Map<String, Integer> tierIndexes = new HashMap<>();
+  private long cycle;
+
+  /**
+   * @param tiers tiers in the order they are matched against metric names
+   */
+  ReportingTierFilter(long defaultFrequencyMillis, List<Tier> tiers) {
+    if (defaultFrequencyMillis <= 0) {
+      throw new IllegalArgumentException("Default frequency must be positive");
+    }
+    //the default tier is last, and matches every name
+    List<Tier> allTiers = new ArrayList<>(tiers);
+    allTiers.add(new Tier("default", defaultFrequencyMillis, Collections.singletonList("*")));
+    this.tiers = allTiers.toArray(new Tier[0]);
+
+    long fastest = defaultFrequencyMillis;
+    for (Tier tier : tiers) {
+      fastest = Math.min(fastest, tier.frequencyMillis);
+    }
+    this.cycleMillis = fastest;
+    this.tierCycles = new int[this.tiers.length];
+    for (int i = 0; i < this.tiers.length; i++) {
+      long cycles = Math.round((double) this.tiers[i].frequencyMillis / cycleMillis);
+      tierCycles[i] = (int) Math.max(1, Math.min(Integer.MAX_VALUE, cycles));
+    }
+    this.due = new boolean[this.tiers.length];
+    updateDueTiers();
+  }
+
+  /**
+   * @return interval at which the reporter must run its cycles
+   */
+  long getCycleMillis() {
+    return cycleMillis;
+  }
+
+  @Override
+  public boolean matches(String name, Metric metric) {
+    return due[getTierIndex(name)];
+  }
+
+  void cycleCompleted() {
+    cycle++;
+    updateDueTiers();
+  }
+
+  String getTierName(String metricName) {
+    return tiers[getTierIndex(metricName)].name;
+  }
+
+  int getTierCount() {
+    return tiers.length;
+  }
+
+  boolean isDue(int tierIndex) {
+    return due[tierIndex];
+  }
+
+  /**
+   * @return interval at which the tier is reported, a multiple of {@link #getCycleMillis()}
+   */
+  long getFrequencyMillis(int tierIndex) {
+    return tierCycles[tierIndex] * cycleMillis;
+  }
+
+  /**
+   * Unlike the other methods, can be called from any thread, for e.g. when a metric is created.
+   *
+   * @return interval at which the metric is reported
+   */
+  long getFrequencyMillis(String metricName) {
+    return getFrequencyMillis(findTierIndex(metricName));
+  }
+
+  private void updateDueTiers() {
+    for (int i = 0; i < tiers.length; i++) {
+      due[i] = cycle % tierCycles[i] == 0;
+    }
+  }
+
+  int getTierIndex(String name) {
+    Integer index = tierIndexes.get(name);
+    if (index != null) {
+      return index;
+    }
+    int tierIndex = findTierIndex(name);
+    if (tierIndexes.size() >= MAX_CACHED_NAMES) {
+      //names of removed metrics would otherwise be kept forever
+      tierIndexes.clear();
+    }
+    tierIndexes.put(name, tierIndex);
+    return tierIndex;
+  }
+
+  private int findTierIndex(String name) {
+    for (int i = 0; i < tiers.length - 1; i++) {
+      if (tiers[i].pattern.matcher(name).matches()) {
+        return i;
+      }
+    }
+    return tiers.length - 1;
+  }
+
+  /**
+   * A named set of metric name patterns, reported at a frequency of their own.
+   */
+  static class Tier {
+
+    private final String name;
+    private final long frequencyMillis;
+    private final Pattern pattern;
+
+    /**
+     * @param patterns metric names, where {@code *} matches any sequence of characters
+     */
+    Tier(String name, long frequencyMillis, List<String> patterns) {
+      if (frequencyMillis <= 0) {
+        throw new IllegalArgumentException("Frequency must be positive");
+      }
+      this.name = name;
+      this.frequencyMillis = frequencyMillis;
+      this.pattern = toPattern(patterns);
+    }
+
+    String getName() {
+      return name;
+    }
+
+    long getFrequencyMillis() {
+      return frequencyMillis;
+    }
+
+    private static Pattern toPattern(List<String> patterns) {
+      StringBuilder regex = new StringBuilder();
+      for (String pattern : patterns) {
+        if (regex.length() > 0) {
+          regex.append('|');
+        }
+        String[] literals = pattern.split("\\*", -1);
+        for (int i = 0; i < literals.length; i++) {
+          if (i > 0) {
+            regex.append(".*");
+          }
+          if (!literals[i].isEmpty()) {
+            regex.append(Pattern.quote(literals[i]));
+          }
+        }
+      }
+      return Pattern.compile(regex.toString());
+    }
+
+    @Override
+    public String toString() {
+      return name + " [" + frequencyMillis + "ms]";
+    }
+  }
+}
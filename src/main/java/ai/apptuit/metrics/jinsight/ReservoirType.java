@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reservoir implementations that can be selected for timers with the {@code timer_reservoir}
+ * configuration property.
+ *
+ * @author Rajiv Shivane
+ */
+enum ReservoirType {
+  EXPONENTIALLY_DECAYING {
+    @Override
+    Reservoir newReservoir(long snapshotIntervalMillis) {
+      return new ExponentiallyDecayingReservoir();
+    }
+  },
+  HDR_HISTOGRAM {
+    @Override
+    Reservoir newReservoir(long snapshotIntervalMillis) {
+      return new HdrHistogramReservoir(snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  },
+  SKETCH {
+    @Override
+    Reservoir newReservoir(long snapshotIntervalMillis) {
+      return new SketchReservoir(snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  };
+
+  /**
+   * @param snapshotIntervalMillis how often the reporter takes snapshots of the reservoir
+   */
+  abstract Reservoir newReservoir(long snapshotIntervalMillis);
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The Byteman rules of a single instrumentation module, such as jedis or jdbc.
+ *
+ * <p>A module is only worth activating once the classes its rules target are defined. These
+ * anchor classes are listed with the module in the module index generated at build time. Rules
+ * that apply to overriding methods or to interface implementations are also triggered by any
+ * class whose constant pool refers to an anchor, because such a class is defined before the
+ * anchor it extends.</p>
+ *
+ * @author Rajiv Shivane
+ */
+final class RuleModule {
+
+  private static final String SUBTYPES_PREFIX = "^";
+
+  private final String name;
+  private final String scriptResource;
+  private final Set<String> anchorClasses;
+  private final boolean matchesSubtypes;
+  private final boolean eager;
+  //internal names of the anchors, as they appear in a class file
+  private final Set<String> internalNames;
+  private final byte[][] internalNameBytes;
+
+  private RuleModule(String name, String scriptResource, Set<String> anchorClasses,
+      boolean matchesSubtypes, boolean eager) {
+    this.name = name;
+    this.scriptResource = scriptResource;
+    this.anchorClasses = Collections.unmodifiableSet(anchorClasses);
+    this.matchesSubtypes = matchesSubtypes;
+    this.eager = eager;
+    this.internalNames = new LinkedHashSet<>();
+    for (String anchorClass : anchorClasses) {
+      internalNames.add(anchorClass.replace('.', '/'));
+    }
+    this.internalNameBytes = new byte[internalNames.size()][];
+    int i = 0;
+    for (String internalName : internalNames) {
+      internalNameBytes[i++] = internalName.getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * @param scriptsPath resource path of the directory with the module scripts
+   * @param indexEntry the module name followed by the classes targeted by its rules
+   */
+  static RuleModule parse(String scriptsPath, String indexEntry) {
+    String[] tokens = indexEntry.trim().split("\\s+");
+    String name = tokens[0];
+    Set<String> anchorClasses = new LinkedHashSet<>();
+    boolean matchesSubtypes = false;
+    boolean eager = tokens.length == 1;
+    for (int i = 1; i < tokens.length; i++) {
+      String target = tokens[i];
+      if (target.startsWith(SUBTYPES_PREFIX)) {
+        matchesSubtypes = true;
+        target = target.substring(SUBTYPES_PREFIX.length());
+      }
+      if (target.indexOf('.') < 0) {
+        //unqualified targets match a simple name in any package, so there is no anchor to watch
+        eager = true;
+      }
+      anchorClasses.add(target);
+    }
+    return new RuleModule(name, scriptsPath + name + ".btm", anchorClasses, matchesSubtypes,
+        eager);
+  }
+
+  String getName() {
+    return name;
+  }
+
+  String loadScript() throws IOException {
+    try (InputStream in = ClassLoader.getSystemResourceAsStream(scriptResource)) {
+      if (in == null) {
+        throw new FileNotFoundException(scriptResource);
+      }
+      ByteArrayOutputStream script = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        script.write(buffer, 0, read);
+      }
+      return new String(script.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * @return binary names of the classes targeted by the rules of this module
+   */
+  Set<String> getAnchorClasses() {
+    return anchorClasses;
+  }
+
+  /**
+   * @return true if some rules of this module also apply to subclasses or implementations
+   */
+  boolean matchesSubtypes() {
+    return matchesSubtypes;
+  }
+
+  /**
+   * @return true if the rules of this module must be installed at startup
+   */
+  boolean isEager() {
+    return eager;
+  }
+
+  /**
+   * @param className the binary name of a loaded class
+   */
+  boolean isAnchor(String className) {
+    return anchorClasses.contains(className);
+  }
+
+  /**
+   * @param internalName the internal name of the class being defined, for e.g. {@code
+   * java/lang/String}
+   * @param classfileBuffer the class file of the class being defined
+   * @return true if the rules of this module need to be installed before the class is defined
+   */
+  boolean isTriggeredBy(String internalName, byte[] classfileBuffer) {
+    if (internalNames.contains(internalName)) {
+      return true;
+    }
+    if (!matchesSubtypes || classfileBuffer == null) {
+      return false;
+    }
+    for (byte[] anchor : internalNameBytes) {
+      if (indexOf(classfileBuffer, anchor) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int indexOf(byte[] buffer, byte[] target) {
+    byte first = target[0];
+    int max = buffer.length - target.length;
+    for (int i = 0; i <= max; i++) {
+      if (buffer[i] != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < target.length && buffer[i + j] == target[j]) {
+        j++;
+      }
+      if (j == target.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.byteman.agent.Retransformer;
+
+/**
+ * Installs the rules of a {@link RuleModule} only when a class it instruments is first defined.
+ *
+ * <p>Byteman checks every class it transforms against every installed rule, so rules of modules
+ * whose libraries are not on the classpath are pure overhead. This class is registered as the
+ * Byteman agent manager to get hold of the {@link Retransformer}, and watches class definitions
+ * with a transformer that is not retransformation capable. The JVM calls such transformers
+ * before the Byteman transformer, so the rules of a module are installed in time to be applied
+ * to the anchor class that triggered them.</p>
+ *
+ * <p>A subclass is defined before the anchor class it extends, so a subclass that was still being
+ * loaded when its anchor activated a module missed the rules of the module. For modules with
+ * rules that apply to subtypes, such classes are retransformed shortly after activation. Only the
+ * classes recently defined by the activating thread are candidates, because retransformation
+ * deoptimizes compiled code and must be kept rare.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public class RuleModuleActivator implements ClassFileTransformer {
+
+  private static final Logger LOGGER = Logger.getLogger(RuleModuleActivator.class.getName());
+  private static final long SUBTYPE_RESCAN_DELAY_MILLIS = 500;
+  private static final RuleModule[] NO_MODULES = new RuleModule[0];
+  private static final int RECENT_DEFINITIONS_PER_THREAD = 16;
+  private static final ThreadLocal<RecentDefinitions> RECENT_DEFINITIONS =
+      ThreadLocal.withInitial(RecentDefinitions::new);
+
+  private static volatile Retransformer retransformer;
+
+  private final Instrumentation instrumentation;
+  private volatile RuleModule[] pendingModules;
+  private final List<String> activeModules = new ArrayList<>();
+  private ScheduledExecutorService rescanExecutor;
+
+  RuleModuleActivator(Instrumentation instrumentation, List<RuleModule> modules) {
+    this.instrumentation = instrumentation;
+    this.pendingModules = modules.toArray(NO_MODULES);
+  }
+
+  /**
+   * Called by the Byteman agent, when this class is registered as its manager.
+   */
+  public static void initialize(Retransformer retransformer) {
+    RuleModuleActivator.retransformer = retransformer;
+  }
+
+  /**
+   * Installs the rules of modules that are eager or whose anchor classes are already loaded,
+   * and starts watching class definitions for the rest.
+   */
+  void start() {
+    if (retransformer == null) {
+      throw new IllegalStateException("Byteman agent did not register a manager");
+    }
+
+    //watch before looking at loaded classes, so that no class definition is missed in between
+    instrumentation.addTransformer(this, false);
+    Set<String> loadedClasses = new HashSet<>();
+    for (Class<?> loadedClass : instrumentation.getAllLoadedClasses()) {
+      loadedClasses.add(loadedClass.getName());
+    }
+    for (RuleModule module : pendingModules) {
+      if (module.isEager() || !Collections.disjoint(module.getAnchorClasses(), loadedClasses)) {
+        activate(module, Collections.emptySet());
+      }
+    }
+    if (pendingModules.length == 0) {
+      instrumentation.removeTransformer(this);
+    }
+    LOGGER.fine(() -> "Active rule modules: " + getActiveModules()
+        + ", waiting for: " + getPendingModules());
+  }
+
+  synchronized List<String> getActiveModules() {
+    return new ArrayList<>(activeModules);
+  }
+
+  List<String> getPendingModules() {
+    List<String> names = new ArrayList<>();
+    for (RuleModule module : pendingModules) {
+      names.add(module.getName());
+    }
+    return names;
+  }
+
+  @Override
+  public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+    if (classBeingRedefined != null || className == null) {
+      return null;
+    }
+    RecentDefinitions recentDefinitions = RECENT_DEFINITIONS.get();
+    RuleModule[] modules = pendingModules;
+    for (RuleModule module : modules) {
+      if (module.isTriggeredBy(className, classfileBuffer)) {
+        LOGGER.fine(() -> "Activating rule module [" + module + "] on loading " + className);
+        activate(module, recentDefinitions.getClassNames());
+      }
+    }
+    recentDefinitions.add(className);
+    return null;
+  }
+
+  /**
+   * @param inFlight binary names of classes that may still be loading and missed the rules
+   */
+  private synchronized void activate(RuleModule module, Set<String> inFlight) {
+    int index = indexOf(pendingModules, module);
+    if (index < 0) {
+      return; //activated concurrently
+    }
+    installScript(module);
+    RuleModule[] remaining = new RuleModule[pendingModules.length - 1];
+    System.arraycopy(pendingModules, 0, remaining, 0, index);
+    System.arraycopy(pendingModules, index + 1, remaining, index, remaining.length - index);
+    pendingModules = remaining;
+    activeModules.add(module.getName());
+
+    if (module.matchesSubtypes() && !inFlight.isEmpty()) {
+      getRescanExecutor().schedule(() -> retransformSubtypes(module, inFlight),
+          SUBTYPE_RESCAN_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    if (remaining.length == 0) {
+      instrumentation.removeTransformer(this);
+      if (rescanExecutor != null) {
+        //already scheduled rescans still run after shutdown
+        rescanExecutor.shutdown();
+      }
+    }
+  }
+
+  private ScheduledExecutorService getRescanExecutor() {
+    if (rescanExecutor == null) {
+      rescanExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "jinsight-rule-rescan");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return rescanExecutor;
+  }
+
+  private static int indexOf(RuleModule[] modules, RuleModule module) {
+    for (int i = 0; i < modules.length; i++) {
+      if (modules[i] == module) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void retransformSubtypes(RuleModule module, Set<String> inFlight) {
+    Class<?>[] loadedClasses = instrumentation.getAllLoadedClasses();
+    List<Class<?>> anchors = new ArrayList<>();
+    for (Class<?> loadedClass : loadedClasses) {
+      if (module.isAnchor(loadedClass.getName())) {
+        anchors.add(loadedClass);
+      }
+    }
+    List<Class<?>> subtypes = new ArrayList<>();
+    for (Class<?> loadedClass : loadedClasses) {
+      if (!inFlight.contains(loadedClass.getName()) || anchors.contains(loadedClass)
+          || !instrumentation.isModifiableClass(loadedClass)) {
+        continue;
+      }
+      for (Class<?> anchor : anchors) {
+        if (anchor.isAssignableFrom(loadedClass)) {
+          subtypes.add(loadedClass);
+          break;
+        }
+      }
+    }
+    if (subtypes.isEmpty()) {
+      return;
+    }
+    try {
+      instrumentation.retransformClasses(subtypes.toArray(new Class<?>[0]));
+    } catch (Throwable e) {
+      LOGGER.log(Level.SEVERE, "Error retransforming subtypes for module [" + module + "]", e);
+    }
+    LOGGER.finer(() -> "Retransformed subtypes for module [" + module + "]: " + subtypes);
+  }
+
+  private static void installScript(RuleModule module) {
+    StringWriter output = new StringWriter();
+    try (PrintWriter writer = new PrintWriter(output)) {
+      retransformer.installScript(Collections.singletonList(module.loadScript()),
+          Collections.singletonList(module.getName() + ".btm"), writer);
+    } catch (Exception e) {
+      LOGGER.log(Level.SEVERE, "Error installing rules of module [" + module + "]", e);
+    }
+    LOGGER.finer(() -> "Installed rules of module [" + module + "]: " + output);
+  }
+
+  /**
+   * Names of the last few classes whose definition was started by a thread.
+   */
+  private static class RecentDefinitions {
+
+    private final String[] classNames = new String[RECENT_DEFINITIONS_PER_THREAD];
+    private int next;
+
+    void add(String internalName) {
+      classNames[next] = internalName;
+      next = (next + 1) % classNames.length;
+    }
+
+    Set<String> getClassNames() {
+      Set<String> names = new HashSet<>();
+      for (String internalName : classNames) {
+        if (internalName != null) {
+          names.add(internalName.replace('/', '.'));
+        }
+      }
+      return names;
+    }
+  }
+}
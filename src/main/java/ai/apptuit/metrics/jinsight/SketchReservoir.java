@@ -0,0 +1,367 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link Reservoir} that counts values in buckets of bounded relative width, a quantile sketch
+ * in the manner of DDSketch.
+ *
+ * <p>Values below {@value #SUB_BUCKETS} have a bucket each. Above that, every power of two is
+ * split into {@value #SUB_BUCKETS} buckets of equal width, so a value is off from the midpoint of
+ * its bucket by less than 0.8%. The bucket of a value is found with a few bit operations, and an
+ * update is a single atomic increment of its count. Buckets are allocated in rows of one power of
+ * two, when the first value in the row is recorded.</p>
+ *
+ * <p>Unlike quantiles, bucket counts of several reservoirs can be added up: reporters that know
+ * about {@link SketchSnapshot} export the buckets, so that the quantiles of a timer can be
+ * computed across hosts. To bound the number of series, they export coarser buckets, which split
+ * every power of two into {@value #EXPORTED_SUB_BUCKETS}. Like {@link HdrHistogramReservoir}, a
+ * snapshot covers the values recorded since the previous snapshot of the same
+ * {@link SnapshotReader}, and is reused until at least half the snapshot interval has passed.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class SketchReservoir implements Reservoir {
+
+  static final int SUB_BUCKETS = 64;
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int ROWS = 64 - SUB_BUCKET_BITS;
+  static final int EXPORTED_SUB_BUCKETS = 8;
+  private static final int EXPORTED_SUB_BUCKET_BITS = 3;
+  static final int MAX_VALUES = 1028;
+
+  private final AtomicReferenceArray<AtomicLongArray> rows = new AtomicReferenceArray<>(ROWS);
+  private final long minRefreshNanos;
+  private final Clock clock;
+  private final Map<SnapshotReader, ReaderState> readers = new HashMap<>();
+
+  SketchReservoir(long snapshotInterval, TimeUnit unit) {
+    this(snapshotInterval, unit, Clock.defaultClock());
+  }
+
+  SketchReservoir(long snapshotInterval, TimeUnit unit, Clock clock) {
+    this.minRefreshNanos = unit.toNanos(snapshotInterval) / 2;
+    this.clock = clock;
+    //the main reporter gets every value, even if another reader takes the first snapshot
+    readers.put(SnapshotReader.REPORTER, new ReaderState());
+  }
+
+  @Override
+  public int size() {
+    return getSnapshot().size();
+  }
+
+  @Override
+  public void update(long value) {
+    int index = getBucketIndex(value);
+    AtomicLongArray row = rows.get(index >>> SUB_BUCKET_BITS);
+    if (row == null) {
+      row = createRow(index >>> SUB_BUCKET_BITS);
+    }
+    row.getAndIncrement(index & (SUB_BUCKETS - 1));
+  }
+
+  private AtomicLongArray createRow(int rowIndex) {
+    rows.compareAndSet(rowIndex, null, new AtomicLongArray(SUB_BUCKETS));
+    return rows.get(rowIndex);
+  }
+
+  @Override
+  public synchronized Snapshot getSnapshot() {
+    ReaderState reader = readers.computeIfAbsent(SnapshotReader.current(), r -> new ReaderState());
+    long now = clock.getTick();
+    if (reader.snapshot == null || now - reader.lastRefresh >= minRefreshNanos) {
+      SketchSnapshot drained = drain();
+      for (ReaderState other : readers.values()) {
+        if (other != reader) {
+          other.pending = other.pending == null ? drained : other.pending.merge(drained);
+        }
+      }
+      reader.snapshot = reader.pending == null ? drained : reader.pending.merge(drained);
+      reader.pending = null;
+      reader.lastRefresh = now;
+    }
+    return reader.snapshot;
+  }
+
+  private static class ReaderState {
+
+    private SketchSnapshot snapshot;
+    private long lastRefresh;
+    //counts drained by other readers since the last snapshot of this one
+    private SketchSnapshot pending;
+  }
+
+  /**
+   * Takes the counts recorded since the last drain. Values recorded concurrently are counted in
+   * this drain or the next one, but never lost.
+   */
+  private SketchSnapshot drain() {
+    int[] indexes = new int[SUB_BUCKETS];
+    long[] counts = new long[SUB_BUCKETS];
+    int buckets = 0;
+    for (int r = 0; r < ROWS; r++) {
+      AtomicLongArray row = rows.get(r);
+      if (row == null) {
+        continue;
+      }
+      for (int c = 0; c < SUB_BUCKETS; c++) {
+        if (row.get(c) == 0) {
+          continue;
+        }
+        if (buckets == indexes.length) {
+          indexes = Arrays.copyOf(indexes, buckets * 2);
+          counts = Arrays.copyOf(counts, buckets * 2);
+        }
+        indexes[buckets] = (r << SUB_BUCKET_BITS) | c;
+        counts[buckets] = row.getAndSet(c, 0);
+        buckets++;
+      }
+    }
+    return new SketchSnapshot(Arrays.copyOf(indexes, buckets), Arrays.copyOf(counts, buckets));
+  }
+
+  static int getBucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0 ? 0 : (int) value;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  /**
+   * @return smallest value counted in the bucket
+   */
+  static long getLowerBound(int index) {
+    int row = index >>> SUB_BUCKET_BITS;
+    int column = index & (SUB_BUCKETS - 1);
+    if (row == 0) {
+      return column;
+    }
+    return ((long) SUB_BUCKETS + column) << (row - 1);
+  }
+
+  /**
+   * @return smallest value counted in the next bucket, or {@link Long#MAX_VALUE} for the last one
+   */
+  static long getUpperBound(int index) {
+    if ((index >>> SUB_BUCKET_BITS) >= ROWS - 1 && (index & (SUB_BUCKETS - 1)) == SUB_BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    return getLowerBound(index + 1);
+  }
+
+  /**
+   * @return smallest value counted in the next exported bucket, or {@link Long#MAX_VALUE} for the
+   *     last one. Exported buckets split every power of two into {@value #EXPORTED_SUB_BUCKETS},
+   *     and each of them holds whole buckets.
+   */
+  static long getExportedUpperBound(int index) {
+    long lower = getLowerBound(index);
+    if (lower < EXPORTED_SUB_BUCKETS) {
+      return lower + 1;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(lower)) - EXPORTED_SUB_BUCKET_BITS;
+    long upper = ((lower >>> shift) + 1) << shift;
+    return upper > 0 ? upper : Long.MAX_VALUE;
+  }
+
+  /**
+   * @return value that stands for the values counted in the bucket
+   */
+  static double getRepresentativeValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    return (getLowerBound(index) + (double) getUpperBound(index) - 1) / 2;
+  }
+
+  /**
+   * The non-empty buckets of the values recorded in one snapshot interval, in ascending order.
+   */
+  static class SketchSnapshot extends Snapshot {
+
+    private final int[] indexes;
+    private final long[] counts;
+    private final long totalCount;
+
+    SketchSnapshot(int[] indexes, long[] counts) {
+      this.indexes = indexes;
+      this.counts = counts;
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      this.totalCount = total;
+    }
+
+    int getBucketCount() {
+      return indexes.length;
+    }
+
+    /**
+     * @return smallest value counted in the next bucket, which is the same for every reservoir
+     */
+    long getBucketUpperBound(int bucket) {
+      return getUpperBound(indexes[bucket]);
+    }
+
+    /**
+     * @return smallest value counted in the next exported bucket, see {@link
+     *     SketchReservoir#getExportedUpperBound(int)}
+     */
+    long getExportedUpperBound(int bucket) {
+      return SketchReservoir.getExportedUpperBound(indexes[bucket]);
+    }
+
+    long getBucketValueCount(int bucket) {
+      return counts[bucket];
+    }
+
+    /**
+     * @return a snapshot with the counts of both snapshots
+     */
+    SketchSnapshot merge(SketchSnapshot other) {
+      int[] mergedIndexes = new int[indexes.length + other.indexes.length];
+      long[] mergedCounts = new long[mergedIndexes.length];
+      int i = 0;
+      int j = 0;
+      int merged = 0;
+      while (i < indexes.length || j < other.indexes.length) {
+        if (j == other.indexes.length
+            || (i < indexes.length && indexes[i] < other.indexes[j])) {
+          mergedIndexes[merged] = indexes[i];
+          mergedCounts[merged++] = counts[i++];
+        } else if (i == indexes.length || other.indexes[j] < indexes[i]) {
+          mergedIndexes[merged] = other.indexes[j];
+          mergedCounts[merged++] = other.counts[j++];
+        } else {
+          mergedIndexes[merged] = indexes[i];
+          mergedCounts[merged++] = counts[i++] + other.counts[j++];
+        }
+      }
+      return new SketchSnapshot(Arrays.copyOf(mergedIndexes, merged),
+          Arrays.copyOf(mergedCounts, merged));
+    }
+
+    @Override
+    public double getValue(double quantile) {
+      if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+        throw new IllegalArgumentException(quantile + " is not in [0..1]");
+      }
+      if (totalCount == 0) {
+        return 0;
+      }
+      //rank of the value at the quantile, counted from 0
+      long rank = (long) (quantile * (totalCount - 1));
+      long seen = 0;
+      for (int i = 0; i < indexes.length; i++) {
+        seen += counts[i];
+        if (seen > rank) {
+          return getRepresentativeValue(indexes[i]);
+        }
+      }
+      return getRepresentativeValue(indexes[indexes.length - 1]);
+    }
+
+    /**
+     * @return the values, or {@value SketchReservoir#MAX_VALUES} of them evenly spaced by rank if
+     *     more were recorded
+     */
+    @Override
+    public long[] getValues() {
+      int size = (int) Math.min(totalCount, MAX_VALUES);
+      long[] values = new long[size];
+      long seen = 0;
+      int bucket = 0;
+      for (int v = 0; v < size; v++) {
+        //rank of the v-th value, counted from 0
+        long rank = size == totalCount ? v : (long) ((double) v * (totalCount - 1) / (size - 1));
+        while (seen + counts[bucket] <= rank) {
+          seen += counts[bucket++];
+        }
+        values[v] = (long) getRepresentativeValue(indexes[bucket]);
+      }
+      return values;
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(totalCount, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+      return indexes.length == 0 ? 0 : (long) getRepresentativeValue(indexes[indexes.length - 1]);
+    }
+
+    @Override
+    public double getMean() {
+      if (totalCount == 0) {
+        return 0;
+      }
+      double sum = 0;
+      for (int i = 0; i < indexes.length; i++) {
+        sum += getRepresentativeValue(indexes[i]) * counts[i];
+      }
+      return sum / totalCount;
+    }
+
+    @Override
+    public long getMin() {
+      return indexes.length == 0 ? 0 : (long) getRepresentativeValue(indexes[0]);
+    }
+
+    @Override
+    public double getStdDev() {
+      if (totalCount <= 1) {
+        return 0;
+      }
+      double mean = getMean();
+      double sumOfSquares = 0;
+      for (int i = 0; i < indexes.length; i++) {
+        double diff = getRepresentativeValue(indexes[i]) - mean;
+        sumOfSquares += diff * diff * counts[i];
+      }
+      return Math.sqrt(sumOfSquares / (totalCount - 1));
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+      try (PrintWriter out = new PrintWriter(
+          new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+        for (long value : getValues()) {
+          out.printf("%d%n", value);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import java.util.function.Supplier;
+
+/**
+ * Identifies a consumer of the snapshots of {@link HdrHistogramReservoir} and {@link
+ * SketchReservoir}.
+ *
+ * <p>Snapshots of these reservoirs cover the values recorded since the previous snapshot. Every
+ * reader gets its own interval, so that a Prometheus scrape does not take the values that the next
+ * report to the API would otherwise cover. Reads outside of {@link #run(Runnable)} or {@link
+ * #call(Supplier)} are made by the main reporter.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public final class SnapshotReader {
+
+  static final SnapshotReader REPORTER = new SnapshotReader("reporter");
+
+  private static final ThreadLocal<SnapshotReader> current = new ThreadLocal<>();
+
+  private final String name;
+
+  public SnapshotReader(String name) {
+    this.name = name;
+  }
+
+  static SnapshotReader current() {
+    SnapshotReader reader = current.get();
+    return reader != null ? reader : REPORTER;
+  }
+
+  /**
+   * Runs {@code reads} with the snapshots it takes accounted to this reader.
+   */
+  public void run(Runnable reads) {
+    call(() -> {
+      reads.run();
+      return null;
+    });
+  }
+
+  /**
+   * Calls {@code reads} with the snapshots it takes accounted to this reader.
+   */
+  public <T> T call(Supplier<T> reads) {
+    SnapshotReader previous = current.get();
+    current.set(this);
+    try {
+      return reads.get();
+    } finally {
+      if (previous != null) {
+        current.set(previous);
+      } else {
+        current.remove();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * A FIFO queue of byte records in a memory-mapped file of fixed size.
+ *
+ * <p>Records are appended to a ring buffer that follows a small header with the positions of the
+ * oldest and the next record. When a record does not fit, the oldest records are dropped to make
+ * room for it, so the file never grows beyond its size. A record that does not fit before the end
+ * of the file is written at its start, and the space skipped is marked with a padding record.</p>
+ *
+ * <p>The header is updated after the record it accounts for is written, so records spooled by a
+ * process that exited are read back by the next process that opens the file. The file is locked
+ * while open, as it can only be used by one process. Instances are not thread safe.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class SpoolFile {
+
+  private static final int MAGIC = 0x4a495350; //JISP
+  private static final int MAGIC_OFFSET = 0;
+  private static final int CAPACITY_OFFSET = 4;
+  private static final int HEAD_OFFSET = 8;
+  private static final int TAIL_OFFSET = 16;
+  static final int HEADER_SIZE = 32;
+  private static final int LENGTH_SIZE = 4;
+  private static final int PADDING = -1;
+
+  private final RandomAccessFile file;
+  private final FileLock lock;
+  private final MappedByteBuffer buffer;
+  private final int dataSize;
+  private long head;
+  private long tail;
+  private int recordCount;
+  private long droppedRecords;
+
+  private SpoolFile(RandomAccessFile file, FileLock lock, MappedByteBuffer buffer, int capacity) {
+    this.file = file;
+    this.lock = lock;
+    this.buffer = buffer;
+    this.dataSize = capacity - HEADER_SIZE;
+    if (!readHeader(capacity)) {
+      head = 0;
+      tail = 0;
+      writeHeader(capacity);
+    }
+    recordCount = countRecords();
+  }
+
+  /**
+   * Opens the spool file, creating it if necessary. Records in an existing file of the same size
+   * are preserved.
+   *
+   * @throws IOException if the file cannot be mapped, or is in use by another process
+   */
+  static SpoolFile open(File path, int capacity) throws IOException {
+    if (capacity <= HEADER_SIZE + LENGTH_SIZE) {
+      throw new IllegalArgumentException("Spool capacity too small: " + capacity);
+    }
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      FileChannel channel = file.getChannel();
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        lock = null;
+      }
+      if (lock == null) {
+        throw new IOException("Spool file [" + path + "] is in use");
+      }
+      if (file.length() != capacity) {
+        file.setLength(capacity);
+      }
+      MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, capacity);
+      return new SpoolFile(file, lock, buffer, capacity);
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Appends a record, dropping the oldest records if there is not enough free space.
+   *
+   * @return {@code false} if the record is larger than the spool, and was dropped
+   */
+  boolean append(byte[] bytes, int offset, int count) {
+    int recordSize = LENGTH_SIZE + count;
+    if (recordSize > dataSize) {
+      droppedRecords++;
+      return false;
+    }
+    if (isEmpty()) {
+      rewind();
+    }
+    int padding = getPadding(recordSize);
+    while (dataSize - (tail - head) < padding + recordSize) {
+      removeHead();
+      droppedRecords++;
+      if (isEmpty()) {
+        rewind();
+        padding = 0;
+      }
+    }
+    if (padding >= LENGTH_SIZE) {
+      buffer.putInt(HEADER_SIZE + physical(tail), PADDING);
+    }
+    tail += padding;
+    int position = HEADER_SIZE + physical(tail);
+    buffer.putInt(position, count);
+    ByteBuffer record = buffer.duplicate();
+    record.position(position + LENGTH_SIZE);
+    record.put(bytes, offset, count);
+    tail += recordSize;
+    recordCount++;
+    buffer.putLong(TAIL_OFFSET, tail);
+    return true;
+  }
+
+  /**
+   * Restarts an empty spool at the beginning, so that a record of any size fits without padding.
+   */
+  private void rewind() {
+    head = 0;
+    tail = 0;
+    buffer.putLong(HEAD_OFFSET, head);
+    buffer.putLong(TAIL_OFFSET, tail);
+  }
+
+  private int getPadding(int recordSize) {
+    int untilEnd = dataSize - physical(tail);
+    return recordSize > untilEnd ? untilEnd : 0;
+  }
+
+  /**
+   * @return the oldest record, or {@code null} if the spool is empty
+   */
+  byte[] peek() {
+    if (isEmpty()) {
+      return null;
+    }
+    skipPadding();
+    int position = physical(head);
+    byte[] bytes = new byte[buffer.getInt(HEADER_SIZE + position)];
+    ByteBuffer record = buffer.duplicate();
+    record.position(HEADER_SIZE + position + LENGTH_SIZE);
+    record.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Removes the oldest record, if any.
+   */
+  void remove() {
+    if (!isEmpty()) {
+      removeHead();
+    }
+  }
+
+  boolean isEmpty() {
+    return head == tail;
+  }
+
+  int getRecordCount() {
+    return recordCount;
+  }
+
+  long getUsedBytes() {
+    return tail - head;
+  }
+
+  long getDroppedRecords() {
+    return droppedRecords;
+  }
+
+  void close() throws IOException {
+    buffer.force();
+    try {
+      lock.release();
+    } finally {
+      file.close();
+    }
+  }
+
+  private void removeHead() {
+    skipPadding();
+    int length = buffer.getInt(HEADER_SIZE + physical(head));
+    head += LENGTH_SIZE + length;
+    recordCount--;
+    buffer.putLong(HEAD_OFFSET, head);
+  }
+
+  private void skipPadding() {
+    int position = physical(head);
+    int untilEnd = dataSize - position;
+    if (untilEnd < LENGTH_SIZE || buffer.getInt(HEADER_SIZE + position) == PADDING) {
+      head += untilEnd;
+    }
+  }
+
+  private int physical(long position) {
+    return (int) (position % dataSize);
+  }
+
+  private boolean readHeader(int capacity) {
+    if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(CAPACITY_OFFSET) != capacity) {
+      return false;
+    }
+    head = buffer.getLong(HEAD_OFFSET);
+    tail = buffer.getLong(TAIL_OFFSET);
+    return head >= 0 && tail >= head && tail - head <= dataSize;
+  }
+
+  private void writeHeader(int capacity) {
+    buffer.putInt(MAGIC_OFFSET, MAGIC);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putLong(HEAD_OFFSET, head);
+    buffer.putLong(TAIL_OFFSET, tail);
+  }
+
+  private int countRecords() {
+    long savedHead = head;
+    int count = 0;
+    try {
+      while (head != tail) {
+        skipPadding();
+        int length = buffer.getInt(HEADER_SIZE + physical(head));
+        if (length < 0 || head + LENGTH_SIZE + length > tail) {
+          //corrupt, discard the records
+          savedHead = tail;
+          count = 0;
+          buffer.putLong(HEAD_OFFSET, tail);
+          break;
+        }
+        head += LENGTH_SIZE + length;
+        count++;
+      }
+    } finally {
+      head = savedHead;
+    }
+    return count;
+  }
+}
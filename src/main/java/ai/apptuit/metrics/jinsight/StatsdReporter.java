@@ -0,0 +1,304 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports metrics to a StatsD agent over UDP, in the DogStatsD format.
+ *
+ * <p>Each value is sent as a gauge line, {@code name:value|g|#tag:value,...}, with the tags of
+ * the {@link TagEncodedMetricName} and the global tags as DogStatsD tags. Dropwizard counts are
+ * cumulative, so they are sent as gauges too, which also makes them immune to lost packets.
+ * Counters are sent as {@code .count}; meters as {@code .count} and {@code .m1_rate} per second;
+ * histograms as {@code .count}, {@code .min}, {@code .max}, {@code .mean} and {@code .p50} to
+ * {@code .p999}; and timers as both, with durations in milliseconds.</p>
+ *
+ * <p>Lines are packed into datagrams of at most the configured packet size, which should fit
+ * the MTU of the path to the agent. A single direct buffer and a connected channel are used for
+ * all packets, and the name and tags of each metric are encoded once, so a reporting cycle does
+ * not allocate other than what gauges and reservoir snapshots allocate to produce their
+ * values.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class StatsdReporter extends ScheduledReporter {
+
+  static final int DEFAULT_PACKET_SIZE = 1432;
+  private static final Logger LOGGER = Logger.getLogger(StatsdReporter.class.getName());
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+  private static final SnapshotReader READER = new SnapshotReader("statsd");
+  private static final byte[] GAUGE_TYPE = ascii("|g");
+  private static final byte[] COUNT = ascii(".count");
+  private static final byte[] M1_RATE = ascii(".m1_rate");
+  private static final byte[] MIN = ascii(".min");
+  private static final byte[] MAX = ascii(".max");
+  private static final byte[] MEAN = ascii(".mean");
+  private static final byte[] NO_SUFFIX = new byte[0];
+  private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+  private static final byte[][] QUANTILE_SUFFIXES = {
+      ascii(".p50"), ascii(".p75"), ascii(".p95"), ascii(".p98"), ascii(".p99"), ascii(".p999")
+  };
+
+  private final Map<String, String> globalTags;
+  private final DatagramChannel channel;
+  private final ByteBuffer packet;
+  private final byte[] line;
+  private Map<String, EncodedName> encodedNames = new HashMap<>();
+  private Map<String, EncodedName> reportedNames = new HashMap<>();
+  private long packetsSent;
+  private long linesDropped;
+  private long sendErrors;
+
+  /**
+   * @param packetSize maximum size of a datagram payload
+   * @throws IOException if a channel to the address cannot be opened
+   */
+  StatsdReporter(MetricRegistry registry, InetSocketAddress address,
+      Map<String, String> globalTags, int packetSize) throws IOException {
+    super(registry, "jinsight-statsd-reporter", MetricFilter.ALL, TimeUnit.SECONDS,
+        TimeUnit.MILLISECONDS);
+    this.globalTags = new TreeMap<>(globalTags);
+    this.packet = ByteBuffer.allocateDirect(packetSize);
+    this.line = new byte[packetSize];
+    this.channel = DatagramChannel.open();
+    try {
+      channel.connect(address);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public void report() {
+    READER.run(super::report);
+  }
+
+  @Override
+  public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+      SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+      SortedMap<String, Timer> timers) {
+    packet.clear();
+    gauges.forEach((name, gauge) -> {
+      Object value;
+      try {
+        value = gauge.getValue();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.FINE, "Error reading gauge [" + name + "]", e);
+        return;
+      }
+      if (value instanceof Long || value instanceof Integer) {
+        writeLine(getEncodedName(name), NO_SUFFIX, ((Number) value).longValue());
+      } else if (value instanceof Number) {
+        writeLine(getEncodedName(name), NO_SUFFIX, ((Number) value).doubleValue());
+      } else if (value instanceof Boolean) {
+        writeLine(getEncodedName(name), NO_SUFFIX, (Boolean) value ? 1 : 0);
+      }
+    });
+    counters.forEach((name, counter) ->
+        writeLine(getEncodedName(name), COUNT, counter.getCount()));
+    histograms.forEach((name, histogram) -> {
+      EncodedName encodedName = getEncodedName(name);
+      writeLine(encodedName, COUNT, histogram.getCount());
+      writeSnapshot(encodedName, histogram.getSnapshot(), 1);
+    });
+    meters.forEach((name, meter) -> writeMetered(getEncodedName(name), meter));
+    timers.forEach((name, timer) -> {
+      EncodedName encodedName = getEncodedName(name);
+      writeMetered(encodedName, timer);
+      writeSnapshot(encodedName, timer.getSnapshot(), NANOS_PER_MILLI);
+    });
+    flush();
+
+    Map<String, EncodedName> previous = encodedNames;
+    encodedNames = reportedNames;
+    reportedNames = previous;
+    reportedNames.clear();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, e.toString(), e);
+    }
+  }
+
+  long getPacketsSent() {
+    return packetsSent;
+  }
+
+  long getLinesDropped() {
+    return linesDropped;
+  }
+
+  private void writeMetered(EncodedName name, Metered metered) {
+    writeLine(name, COUNT, metered.getCount());
+    writeLine(name, M1_RATE, metered.getOneMinuteRate());
+  }
+
+  private void writeSnapshot(EncodedName name, Snapshot snapshot, double divisor) {
+    writeLine(name, MIN, snapshot.getMin() / divisor);
+    writeLine(name, MAX, snapshot.getMax() / divisor);
+    writeLine(name, MEAN, snapshot.getMean() / divisor);
+    for (int i = 0; i < QUANTILES.length; i++) {
+      writeLine(name, QUANTILE_SUFFIXES[i], snapshot.getValue(QUANTILES[i]) / divisor);
+    }
+  }
+
+  private void writeLine(EncodedName name, byte[] suffix, long value) {
+    int length = startLine(name, suffix);
+    if (length >= 0) {
+      length = AsciiNumbers.writeLong(line, length, value);
+      endLine(name, length);
+    }
+  }
+
+  private void writeLine(EncodedName name, byte[] suffix, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return;
+    }
+    int length = startLine(name, suffix);
+    if (length >= 0) {
+      length = AsciiNumbers.writeDouble(line, length, value);
+      endLine(name, length);
+    }
+  }
+
+  /**
+   * @return length of the line so far, or -1 if the line cannot fit in a packet
+   */
+  private int startLine(EncodedName name, byte[] suffix) {
+    int maxLength = name.name.length + suffix.length + 1 + AsciiNumbers.MAX_LENGTH
+        + GAUGE_TYPE.length + name.tags.length + 1;
+    if (maxLength > line.length) {
+      linesDropped++;
+      return -1;
+    }
+    System.arraycopy(name.name, 0, line, 0, name.name.length);
+    int length = name.name.length;
+    System.arraycopy(suffix, 0, line, length, suffix.length);
+    length += suffix.length;
+    line[length++] = ':';
+    return length;
+  }
+
+  private void endLine(EncodedName name, int length) {
+    System.arraycopy(GAUGE_TYPE, 0, line, length, GAUGE_TYPE.length);
+    length += GAUGE_TYPE.length;
+    System.arraycopy(name.tags, 0, line, length, name.tags.length);
+    length += name.tags.length;
+    line[length++] = '\n';
+    if (packet.remaining() < length) {
+      flush();
+    }
+    packet.put(line, 0, length);
+  }
+
+  private void flush() {
+    if (packet.position() == 0) {
+      return;
+    }
+    packet.flip();
+    try {
+      channel.write(packet);
+      packetsSent++;
+    } catch (IOException e) {
+      //the agent may not be listening yet, or may be restarting
+      if (sendErrors++ == 0) {
+        LOGGER.log(Level.WARNING, "Error sending metrics to StatsD agent", e);
+      } else {
+        LOGGER.log(Level.FINE, e.toString(), e);
+      }
+    }
+    packet.clear();
+  }
+
+  private EncodedName getEncodedName(String name) {
+    EncodedName encodedName = encodedNames.get(name);
+    if (encodedName == null) {
+      encodedName = new EncodedName(name, globalTags);
+    }
+    reportedNames.put(name, encodedName);
+    return encodedName;
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Replaces the characters that delimit the parts of a DogStatsD line.
+   */
+  static String sanitize(String s, boolean allowColon) {
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      boolean reserved = c == '|' || c == ',' || c == '#' || c == '@' || c == '\n'
+          || (c == ':' && !allowColon);
+      sb.append(reserved ? '_' : c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Name and DogStatsD tags of a metric, encoded for the line format.
+   */
+  private static class EncodedName {
+
+    private final byte[] name;
+    private final byte[] tags;
+
+    EncodedName(String registryName, Map<String, String> globalTags) {
+      TagEncodedMetricName metricName = TagEncodedMetricName.decode(registryName);
+      this.name = sanitize(metricName.getMetricName(), false).getBytes(StandardCharsets.UTF_8);
+      Map<String, String> tags = new TreeMap<>(globalTags);
+      tags.putAll(metricName.getTags());
+      StringBuilder sb = new StringBuilder();
+      tags.forEach((k, v) -> {
+        sb.append(sb.length() == 0 ? "|#" : ",");
+        sb.append(sanitize(k, false)).append(':').append(sanitize(v, true));
+      });
+      this.tags = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the reporting cycles of another {@link ScheduledReporter}, and times each of them.
+ *
+ * <p>The wrapped reporter must not be started, its cycles are driven by this reporter. With a
+ * filter, like {@link DeltaMetricFilter} or {@link ReportingTierFilter}, the wrapped reporter is
+ * only handed the metrics selected for each cycle. With a {@link GaugeSnapshotter}, gauges are
+ * evaluated in parallel before they are handed to the wrapped reporter, so that a slow gauge does
+ * not hold up the cycle.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class TimedReporter extends ScheduledReporter {
+
+  private static final Clock clock = Clock.defaultClock();
+
+  private final ScheduledReporter delegate;
+  private final Timer cycleTimer;
+  private final GaugeSnapshotter gaugeSnapshotter;
+  private final List<Runnable> cycleListeners = new CopyOnWriteArrayList<>();
+  private volatile boolean lastCycleReported;
+
+  TimedReporter(MetricRegistry registry, ScheduledReporter delegate, Timer cycleTimer) {
+    this(registry, delegate, cycleTimer, null, null);
+  }
+
+  /**
+   * @param filter selects the metrics to be reported in each cycle, or {@code null} to report
+   *     every metric in every cycle
+   * @param gaugeSnapshotter evaluates the gauges of each cycle, or {@code null} to let the wrapped
+   *     reporter evaluate them
+   */
+  TimedReporter(MetricRegistry registry, ScheduledReporter delegate, Timer cycleTimer,
+      MetricFilter filter, GaugeSnapshotter gaugeSnapshotter) {
+    super(registry, "jinsight-reporter", filter != null ? filter : MetricFilter.ALL,
+        TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+    this.delegate = delegate;
+    this.cycleTimer = cycleTimer;
+    this.gaugeSnapshotter = gaugeSnapshotter;
+  }
+
+  /**
+   * @param listener called on the reporter thread after each reporting cycle, for e.g. to let
+   *     the filter know that the cycle completed
+   */
+  void addCycleListener(Runnable listener) {
+    cycleListeners.add(listener);
+  }
+
+  @Override
+  public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+      SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+      SortedMap<String, Timer> timers) {
+    long start = clock.getTick();
+    lastCycleReported = false;
+    try {
+      if (gaugeSnapshotter != null) {
+        gauges = gaugeSnapshotter.snapshot(gauges);
+      }
+      delegate.report(gauges, counters, histograms, meters, timers);
+      lastCycleReported = true;
+    } finally {
+      cycleTimer.update(clock.getTick() - start, TimeUnit.NANOSECONDS);
+      cycleListeners.forEach(Runnable::run);
+    }
+  }
+
+  /**
+   * @return false if the wrapped reporter failed the last cycle with an exception. Failures that
+   *     the wrapped reporter handles itself are not seen here.
+   */
+  boolean isLastCycleReported() {
+    return lastCycleReported;
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    if (gaugeSnapshotter != null) {
+      gaugeSnapshotter.stop();
+    }
+    delegate.stop();
+  }
+}
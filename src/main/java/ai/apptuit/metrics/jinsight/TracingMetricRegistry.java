@@ -16,15 +16,33 @@
 
 package ai.apptuit.metrics.jinsight;
 
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.modules.common.SampledTimer;
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
 import com.codahale.metrics.ExponentiallyDecayingReservoir;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
 import com.codahale.metrics.Timer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -32,11 +50,87 @@ import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 /**
+ * A {@link MetricRegistry} whose metrics notify {@link MetricUpdateListener}s on every update.
+ *
+ * <p>Tracing is switched on with the {@value #TRACE_UPDATES_PROPERTY} system property. The switch
+ * is read once into a static final field, so when it is off the JIT folds the listener dispatch
+ * away and updates cost the same as on plain Dropwizard metrics. When it is on, updates are logged
+ * at FINE and, if {@value #TRACE_BUFFER_SIZE_PROPERTY} is set, the most recent updates are kept in
+ * a {@link MetricUpdateRingBuffer}.</p>
+ *
+ * <p>The number of tagged series created for a metric name is capped. Once a name has as many
+ * series as the cardinality limit, further series are folded into an overflow series, with the
+ * value of each tag replaced by {@value #OVERFLOW_TAG_VALUE}. Tagged series that are not updated
+ * for a number of reporting cycles can be evicted with {@link #evictIdleMetrics(int)}, whether or
+ * not the cardinality is capped. As instrumentation caches the metrics it updates, an evicted
+ * metric registers itself again on its next update. Looking up an evicted series by name returns
+ * the evicted instance while it is still referenced, so the cached handle and the registry never
+ * hold two different metrics for one series.</p>
+ *
  * @author Rajiv Shivane
  */
 class TracingMetricRegistry extends MetricRegistry {
 
+  static final String TRACE_UPDATES_PROPERTY = "jinsight.trace.metric_updates";
+  static final String TRACE_BUFFER_SIZE_PROPERTY = "jinsight.trace.ring_buffer_size";
+  static final String OVERFLOW_TAG_VALUE = "__other__";
+
+  private static final boolean TRACE_UPDATES = Boolean.getBoolean(TRACE_UPDATES_PROPERTY);
   private static final Logger metricUpdateTracer = createMetricUpdateTracer();
+  private static final MetricUpdateListener[] NO_LISTENERS = new MetricUpdateListener[0];
+  private static final Logger LOGGER = Logger.getLogger(TracingMetricRegistry.class.getName());
+
+  private final Function<String, Reservoir> timerReservoirs;
+  private final MetricUpdateRingBuffer recentUpdates;
+  private volatile MetricUpdateListener[] listeners = NO_LISTENERS;
+  private final Map<String, Metric> metrics = getMetrics();
+  private final int cardinalityLimit;
+  private final ConcurrentMap<String, SeriesSet> seriesByName = new ConcurrentHashMap<>();
+  private final Map<String, long[]> idleStates = new HashMap<>();
+  private final ConcurrentMap<String, WeakReference<EvictableMetric>> evictedSeries =
+      new ConcurrentHashMap<>();
+  private final AtomicLong overflowedSeries = new AtomicLong();
+  private final AtomicLong evictedMetrics = new AtomicLong();
+
+  TracingMetricRegistry() {
+    this(ExponentiallyDecayingReservoir::new);
+  }
+
+  TracingMetricRegistry(Supplier<Reservoir> timerReservoirSupplier) {
+    this(timerReservoirSupplier, 0);
+  }
+
+  /**
+   * @param cardinalityLimit maximum number of tagged series per metric name, or 0 to not limit
+   *     them
+   */
+  TracingMetricRegistry(Supplier<Reservoir> timerReservoirSupplier, int cardinalityLimit) {
+    this(name -> timerReservoirSupplier.get(), cardinalityLimit);
+  }
+
+  /**
+   * @param timerReservoirs creates the reservoir of the timer with the given series name
+   * @param cardinalityLimit maximum number of tagged series per metric name, or 0 to not limit
+   *     them
+   */
+  TracingMetricRegistry(Function<String, Reservoir> timerReservoirs, int cardinalityLimit) {
+    this.timerReservoirs = timerReservoirs;
+    this.cardinalityLimit = cardinalityLimit;
+    if (!TRACE_UPDATES) {
+      recentUpdates = null;
+      return;
+    }
+    addUpdateListener(TracingMetricRegistry::logUpdate);
+    int bufferSize = Integer.getInteger(TRACE_BUFFER_SIZE_PROPERTY, 0);
+    recentUpdates = bufferSize > 0 ? new MetricUpdateRingBuffer(bufferSize) : null;
+    if (recentUpdates != null) {
+      addUpdateListener(recentUpdates);
+    }
+  }
+
+  static boolean isTracingEnabled() {
+    return TRACE_UPDATES;
+  }
 
   private static Logger createMetricUpdateTracer() {
     Logger logger = Logger.getLogger(TracingMetricRegistry.class.getName() + ".metricUpdates");
@@ -57,7 +151,9 @@ class TracingMetricRegistry extends MetricRegistry {
 
   @Override
   public Timer timer(String name) {
-    return super.timer(name, () -> new TracedTimer(name));
+    String seriesName = getSeriesName(name);
+    return super.timer(seriesName,
+        () -> adoptEvicted(seriesName, Timer.class, () -> new TracedTimer(seriesName)));
   }
 
   @Override
@@ -67,7 +163,9 @@ class TracingMetricRegistry extends MetricRegistry {
 
   @Override
   public Meter meter(String name) {
-    return super.meter(name, () -> new TracedMeter(name));
+    String seriesName = getSeriesName(name);
+    return super.meter(seriesName,
+        () -> adoptEvicted(seriesName, Meter.class, () -> new TracedMeter(seriesName)));
   }
 
   @Override
@@ -77,7 +175,9 @@ class TracingMetricRegistry extends MetricRegistry {
 
   @Override
   public Counter counter(String name) {
-    return super.counter(name, () -> new TracedCounter(name));
+    String seriesName = getSeriesName(name);
+    return super.counter(seriesName,
+        () -> adoptEvicted(seriesName, Counter.class, () -> new TracedCounter(seriesName)));
   }
 
   @Override
@@ -87,7 +187,9 @@ class TracingMetricRegistry extends MetricRegistry {
 
   @Override
   public Histogram histogram(String name) {
-    return super.histogram(name, () -> new TracedHistogram(name));
+    String seriesName = getSeriesName(name);
+    return super.histogram(seriesName,
+        () -> adoptEvicted(seriesName, Histogram.class, () -> new TracedHistogram(seriesName)));
   }
 
   @Override
@@ -100,7 +202,185 @@ class TracingMetricRegistry extends MetricRegistry {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public boolean remove(String name) {
+    boolean removed = super.remove(name);
+    if (removed) {
+      SeriesSet series = seriesByName.get(getBaseName(name));
+      if (series != null) {
+        series.names.remove(name);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Removes the tagged series that were not updated in the last {@code idleCycles} calls. Must be
+   * called from a single thread, once per reporting cycle.
+   *
+   * @return number of series removed
+   */
+  int evictIdleMetrics(int idleCycles) {
+    int evicted = 0;
+    Map<String, long[]> activeStates = new HashMap<>();
+    for (SeriesSet series : seriesByName.values()) {
+      for (String name : series.names) {
+        Metric metric = metrics.get(name);
+        if (!(metric instanceof Counting)) {
+          continue;
+        }
+        long count = ((Counting) metric).getCount();
+        long[] state = idleStates.get(name);
+        if (state == null || state[0] != count) {
+          //a new series, or one that was updated since the last cycle
+          activeStates.put(name, new long[]{count, 0});
+        } else if (++state[1] < idleCycles) {
+          activeStates.put(name, state);
+        } else if (remove(name)) {
+          if (metric instanceof EvictableMetric) {
+            ((EvictableMetric) metric).setEvicted(true);
+            evictedSeries.put(name, new WeakReference<>((EvictableMetric) metric));
+          }
+          evicted++;
+        }
+      }
+    }
+    idleStates.clear();
+    idleStates.putAll(activeStates);
+    evictedSeries.values().removeIf(ref -> ref.get() == null);
+    evictedMetrics.addAndGet(evicted);
+    return evicted;
+  }
+
+  /**
+   * @return number of times a new series was folded into an overflow series
+   */
+  long getOverflowedSeries() {
+    return overflowedSeries.get();
+  }
+
+  long getEvictedMetrics() {
+    return evictedMetrics.get();
+  }
+
+  private String getSeriesName(String name) {
+    if (metrics.containsKey(name)) {
+      return name;
+    }
+    int tagsStart = name.indexOf('[');
+    if (tagsStart < 0) {
+      return name; //not tagged
+    }
+    String baseName = name.substring(0, tagsStart);
+    SeriesSet series = seriesByName.computeIfAbsent(baseName, k -> new SeriesSet());
+    Set<String> names = series.names;
+    if (names.contains(name)) {
+      return name;
+    }
+    //concurrent creation of series can overshoot the limit slightly
+    if (cardinalityLimit <= 0 || names.size() < cardinalityLimit) {
+      names.add(name);
+      return name;
+    }
+    String overflowName = getOverflowName(name);
+    names.add(overflowName);
+    overflowedSeries.incrementAndGet();
+    if (!series.overflowLogged) {
+      series.overflowLogged = true;
+      LOGGER.warning("Metric [" + baseName + "] has more than [" + cardinalityLimit
+          + "] series. Further series are reported as [" + overflowName + "]");
+    }
+    return overflowName;
+  }
+
+  private static String getBaseName(String name) {
+    int tagsStart = name.indexOf('[');
+    return tagsStart < 0 ? name : name.substring(0, tagsStart);
+  }
+
+  private static String getOverflowName(String name) {
+    TagEncodedMetricName metricName = TagEncodedMetricName.decode(name);
+    Map<String, String> tags = new LinkedHashMap<>();
+    for (String tag : metricName.getTags().keySet()) {
+      tags.put(tag, OVERFLOW_TAG_VALUE);
+    }
+    return TagEncodedMetricName.decode(metricName.getMetricName()).withTags(tags).toString();
+  }
+
+  /**
+   * Returns the evicted instance of a series if it is still referenced, so that looking a series up
+   * again does not create a second metric next to the one cached by instrumentation. The returned
+   * instance stays marked as evicted until its next update readmits it.
+   */
+  private <T extends Metric> T adoptEvicted(String name, Class<T> type, Supplier<T> factory) {
+    WeakReference<EvictableMetric> ref = evictedSeries.get(name);
+    EvictableMetric evicted = ref != null ? ref.get() : null;
+    return type.isInstance(evicted) ? type.cast(evicted) : factory.get();
+  }
+
+  private synchronized void readmit(EvictableMetric metric) {
+    if (!metric.isEvicted()) {
+      return; //readmitted concurrently
+    }
+    String name = metric.getMetricName();
+    Metric registered = metrics.get(name);
+    if (registered == null) {
+      try {
+        registered = register(name, metric);
+      } catch (IllegalArgumentException e) {
+        registered = metrics.get(name); //registered concurrently by a lookup of the series
+      }
+    }
+    if (registered != metric) {
+      //the name was taken by a metric that did not come from eviction, e.g. after remove()
+      LOGGER.fine("Could not readmit evicted metric [" + name + "], the name is in use");
+    }
+    seriesByName.computeIfAbsent(getBaseName(name), k -> new SeriesSet()).names.add(name);
+    evictedSeries.remove(name);
+    metric.setEvicted(false);
+  }
+
+  /**
+   * Listeners are only invoked when tracing is enabled, see {@link #isTracingEnabled()}.
+   */
+  synchronized void addUpdateListener(MetricUpdateListener listener) {
+    MetricUpdateListener[] current = listeners;
+    MetricUpdateListener[] updated = Arrays.copyOf(current, current.length + 1);
+    updated[current.length] = listener;
+    listeners = updated;
+  }
+
+  synchronized void removeUpdateListener(MetricUpdateListener listener) {
+    List<MetricUpdateListener> updated = new ArrayList<>(Arrays.asList(listeners));
+    if (updated.remove(listener)) {
+      listeners = updated.toArray(NO_LISTENERS);
+    }
+  }
+
+  /**
+   * @return the most recent updates, oldest first, or an empty list if no ring buffer is
+   *     configured
+   */
+  List<String> getRecentUpdates() {
+    return recentUpdates != null ? recentUpdates.getRecentUpdates() : Collections.emptyList();
+  }
+
   protected void onUpdate(TraceableMetric metric) {
+    if (metric instanceof EvictableMetric && ((EvictableMetric) metric).isEvicted()) {
+      readmit((EvictableMetric) metric);
+    }
+    if (!TRACE_UPDATES) {
+      return;
+    }
+    for (MetricUpdateListener listener : listeners) {
+      listener.onUpdate(metric);
+    }
+  }
+
+  private static void logUpdate(TraceableMetric metric) {
+    if (!metricUpdateTracer.isLoggable(Level.FINE)) {
+      return;
+    }
     String metricType = metric.getClass().getSuperclass().getSimpleName();
     metricUpdateTracer.log(Level.FINE, "Updated " + metricType + ":" + metric.getMetricName());
   }
@@ -111,11 +391,32 @@ class TracingMetricRegistry extends MetricRegistry {
 
   }
 
-  private class TracedTimer extends Timer implements TraceableMetric {
+  interface MetricUpdateListener {
+
+    void onUpdate(TraceableMetric metric);
+
+  }
+
+  private interface EvictableMetric extends TraceableMetric {
+
+    boolean isEvicted();
+
+    void setEvicted(boolean evicted);
+  }
+
+  private static class SeriesSet {
+
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    private volatile boolean overflowLogged;
+  }
+
+  private class TracedTimer extends SampledTimer implements EvictableMetric {
 
     private String metricName;
+    private volatile boolean evicted;
 
     public TracedTimer(String metricName) {
+      super(timerReservoirs.apply(metricName));
       this.metricName = metricName;
     }
 
@@ -125,14 +426,31 @@ class TracingMetricRegistry extends MetricRegistry {
       onUpdate(this);
     }
 
+    @Override
+    public void markUnsampled() {
+      super.markUnsampled();
+      onUpdate(this);
+    }
+
     public String getMetricName() {
       return metricName;
     }
+
+    @Override
+    public boolean isEvicted() {
+      return evicted;
+    }
+
+    @Override
+    public void setEvicted(boolean evicted) {
+      this.evicted = evicted;
+    }
   }
 
-  private class TracedMeter extends Meter implements TraceableMetric {
+  private class TracedMeter extends Meter implements EvictableMetric {
 
     private String metricName;
+    private volatile boolean evicted;
 
     public TracedMeter(String metricName) {
       this.metricName = metricName;
@@ -153,11 +471,22 @@ class TracingMetricRegistry extends MetricRegistry {
     public String getMetricName() {
       return metricName;
     }
+
+    @Override
+    public boolean isEvicted() {
+      return evicted;
+    }
+
+    @Override
+    public void setEvicted(boolean evicted) {
+      this.evicted = evicted;
+    }
   }
 
-  private class TracedCounter extends Counter implements TraceableMetric {
+  private class TracedCounter extends Counter implements EvictableMetric {
 
     private String metricName;
+    private volatile boolean evicted;
 
     public TracedCounter(String metricName) {
       this.metricName = metricName;
@@ -190,11 +519,22 @@ class TracingMetricRegistry extends MetricRegistry {
     public String getMetricName() {
       return metricName;
     }
+
+    @Override
+    public boolean isEvicted() {
+      return evicted;
+    }
+
+    @Override
+    public void setEvicted(boolean evicted) {
+      this.evicted = evicted;
+    }
   }
 
-  private class TracedHistogram extends Histogram implements TraceableMetric {
+  private class TracedHistogram extends Histogram implements EvictableMetric {
 
     private String metricName;
+    private volatile boolean evicted;
 
     public TracedHistogram(String metricName) {
       super(new ExponentiallyDecayingReservoir());
@@ -218,5 +558,15 @@ class TracingMetricRegistry extends MetricRegistry {
     public String getMetricName() {
       return metricName;
     }
+
+    @Override
+    public boolean isEvicted() {
+      return evicted;
+    }
+
+    @Override
+    public void setEvicted(boolean evicted) {
+      this.evicted = evicted;
+    }
   }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+/**
+ * Standard HTTP request methods, used to key metric handles without string concatenation.
+ *
+ * @author Rajiv Shivane
+ */
+public enum HttpMethod {
+  GET, HEAD, POST, PUT, DELETE, CONNECT, OPTIONS, TRACE, PATCH;
+
+  /**
+   * @return the method with the given (case-sensitive) name, or null for non-standard methods
+   */
+  public static HttpMethod lookup(String method) {
+    if (method == null) {
+      return null;
+    }
+    switch (method) {
+      case "GET":
+        return GET;
+      case "HEAD":
+        return HEAD;
+      case "POST":
+        return POST;
+      case "PUT":
+        return PUT;
+      case "DELETE":
+        return DELETE;
+      case "CONNECT":
+        return CONNECT;
+      case "OPTIONS":
+        return OPTIONS;
+      case "TRACE":
+        return TRACE;
+      case "PATCH":
+        return PATCH;
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.RegistryService;
+import com.codahale.metrics.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Caches HTTP request timers tagged by method and status code.
+ *
+ * <p>Standard methods with a status in the 100-599 range resolve to a slot in a flat array indexed
+ * by (method, status), so a hit neither allocates nor hashes. Other methods and statuses fall back
+ * to a map keyed by the formatted tag values.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public final class HttpMetricHandleCache {
+
+  private static final Map<String, HttpMetricHandleCache> SHARED_CACHES =
+      new ConcurrentHashMap<>();
+  private static final int MIN_STATUS = 100;
+  private static final int MAX_STATUS = 599;
+  private static final int STATUS_COUNT = MAX_STATUS - MIN_STATUS + 1;
+
+  private final TagEncodedMetricName rootName;
+  private final AtomicReferenceArray<Timer> timers =
+      new AtomicReferenceArray<>(HttpMethod.values().length * STATUS_COUNT);
+  private final Map<String, Timer> otherTimers = new ConcurrentHashMap<>();
+
+  public HttpMetricHandleCache(TagEncodedMetricName rootName) {
+    this.rootName = rootName;
+  }
+
+  /**
+   * @return the cache for {@code rootName} shared by all modules reporting under that name
+   */
+  public static HttpMetricHandleCache forRootName(TagEncodedMetricName rootName) {
+    return SHARED_CACHES.computeIfAbsent(rootName.toString(),
+        k -> new HttpMetricHandleCache(rootName));
+  }
+
+  public Timer getTimer(String method, int status) {
+    HttpMethod httpMethod = HttpMethod.lookup(method);
+    if (httpMethod == null || status < MIN_STATUS || status > MAX_STATUS) {
+      return otherTimers.computeIfAbsent(status + " " + method, k -> createTimer(method, status));
+    }
+    int index = httpMethod.ordinal() * STATUS_COUNT + (status - MIN_STATUS);
+    Timer timer = timers.get(index);
+    if (timer == null) {
+      timer = createTimer(method, status);
+      if (!timers.compareAndSet(index, null, timer)) {
+        timer = timers.get(index);
+      }
+    }
+    return timer;
+  }
+
+  private Timer createTimer(String method, int status) {
+    TagEncodedMetricName metricName = rootName.withTags(
+        "method", method,
+        "status", String.valueOf(status));
+    return RegistryService.getMetricRegistry().timer(metricName.toString());
+  }
+}
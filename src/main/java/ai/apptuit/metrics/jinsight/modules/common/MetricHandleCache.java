@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.RegistryService;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Caches metrics that carry one variable tag, keyed by the raw value the tag is derived from.
+ *
+ * <p>A hit is a single map lookup on the key. The tagged metric name is only built, and the
+ * registry only consulted, the first time a key is seen. At most {@value #MAX_HANDLES} handles
+ * are cached; when the cache is full, a new key evicts a handle that was not used since the last
+ * sweep, in the manner of the CLOCK algorithm, so that the keys in use stay cached.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public final class MetricHandleCache<K, M extends Metric> {
+
+  static final int MAX_HANDLES = 1000;
+
+  private final ConcurrentMap<K, Handle<K, M>> handles = new ConcurrentHashMap<>();
+  //guarded by itself
+  private final Handle<K, M>[] ring = newRing(MAX_HANDLES);
+  private int ringSize;
+  private int hand;
+  private final TagEncodedMetricName rootName;
+  private final String tagName;
+  private final Function<K, String> tagValueFunction;
+  private final BiFunction<MetricRegistry, String, M> metricFactory;
+
+  private MetricHandleCache(TagEncodedMetricName rootName, String tagName,
+      Function<K, String> tagValueFunction, BiFunction<MetricRegistry, String, M> metricFactory) {
+    this.rootName = rootName;
+    this.tagName = tagName;
+    this.tagValueFunction = tagValueFunction;
+    this.metricFactory = metricFactory;
+  }
+
+  public static MetricHandleCache<String, Timer> timers(TagEncodedMetricName rootName,
+      String tagName) {
+    return timers(rootName, tagName, Function.identity());
+  }
+
+  public static <K> MetricHandleCache<K, Timer> timers(TagEncodedMetricName rootName,
+      String tagName, Function<K, String> tagValueFunction) {
+    return new MetricHandleCache<>(rootName, tagName, tagValueFunction, MetricRegistry::timer);
+  }
+
+  public static MetricHandleCache<String, Meter> meters(TagEncodedMetricName rootName,
+      String tagName) {
+    return new MetricHandleCache<>(rootName, tagName, Function.identity(), MetricRegistry::meter);
+  }
+
+  public static <K> MetricHandleCache<K, Histogram> histograms(TagEncodedMetricName rootName,
+      String tagName, Function<K, String> tagValueFunction) {
+    return new MetricHandleCache<>(rootName, tagName, tagValueFunction,
+        MetricRegistry::histogram);
+  }
+
+  public M get(K key) {
+    if (key == null) {
+      return resolve(null);
+    }
+    Handle<K, M> handle = handles.get(key);
+    if (handle != null) {
+      //only written when it changes, so that hot handles do not bounce between caches
+      if (!handle.referenced) {
+        handle.referenced = true;
+      }
+      return handle.metric;
+    }
+    M metric = resolve(key);
+    synchronized (ring) {
+      handle = handles.get(key);
+      if (handle != null) {
+        return handle.metric;
+      }
+      handle = new Handle<>(key, metric);
+      if (ringSize < ring.length) {
+        ring[ringSize++] = handle;
+      } else {
+        while (ring[hand].referenced) {
+          ring[hand].referenced = false;
+          hand = (hand + 1) % ring.length;
+        }
+        handles.remove(ring[hand].key);
+        ring[hand] = handle;
+        hand = (hand + 1) % ring.length;
+      }
+      handles.put(key, handle);
+    }
+    return metric;
+  }
+
+  int size() {
+    return handles.size();
+  }
+
+  boolean isCached(K key) {
+    return handles.containsKey(key);
+  }
+
+  private M resolve(K key) {
+    String metricName = rootName.withTags(tagName, tagValueFunction.apply(key)).toString();
+    return metricFactory.apply(RegistryService.getMetricRegistry(), metricName);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, M extends Metric> Handle<K, M>[] newRing(int size) {
+    return (Handle<K, M>[]) new Handle[size];
+  }
+
+  private static final class Handle<K, M> {
+
+    private final K key;
+    private final M metric;
+    private volatile boolean referenced;
+
+    Handle(K key, M metric) {
+      this.key = key;
+      this.metric = metric;
+    }
+  }
+}
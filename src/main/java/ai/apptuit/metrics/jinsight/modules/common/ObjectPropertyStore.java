@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Weak-identity map from instrumented objects to their {@link Properties}.
+ *
+ * <p>Keys are compared by identity and held weakly, so instrumentation never keeps an
+ * application object alive. The map is striped by identity hash: lookups are lock-free and
+ * inserts only lock the stripe that owns the key. Entries of collected keys are expunged from
+ * their stripe on the next insert into it.</p>
+ *
+ * @author Rajiv Shivane
+ */
+final class ObjectPropertyStore {
+
+  static final long NO_START_TIME = Long.MIN_VALUE;
+
+  private static final int DEFAULT_STRIPES = 64;
+  private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+  private final Stripe[] stripes;
+  private final int stripeShift;
+
+  ObjectPropertyStore() {
+    this(DEFAULT_STRIPES);
+  }
+
+  ObjectPropertyStore(int stripeCount) {
+    if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+      throw new IllegalArgumentException("Stripe count must be a power of two: " + stripeCount);
+    }
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+    this.stripeShift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+  }
+
+  private static int hash(Object o) {
+    int h = System.identityHashCode(o);
+    return h ^ (h >>> 16);
+  }
+
+  private Stripe stripeFor(int hash) {
+    //high bits pick the stripe, low bits pick the bucket within it
+    return stripes.length == 1 ? stripes[0] : stripes[(hash * 0x9E3779B9) >>> stripeShift];
+  }
+
+  /**
+   * @return the properties of {@code o}, or null if none were ever set
+   */
+  Properties get(Object o) {
+    int hash = hash(o);
+    return stripeFor(hash).get(o, hash);
+  }
+
+  Properties getOrCreate(Object o) {
+    int hash = hash(o);
+    Stripe stripe = stripeFor(hash);
+    Properties properties = stripe.get(o, hash);
+    if (properties != null) {
+      return properties;
+    }
+    return stripe.getOrCreate(o, hash);
+  }
+
+  /**
+   * @return approximate number of objects with properties, including ones not yet expunged
+   */
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.count;
+    }
+    return size;
+  }
+
+  /**
+   * Properties attached to a single object. The start time is kept in a dedicated primitive
+   * slot so that timing an operation across callbacks does not box a {@code Long}.
+   */
+  static final class Properties {
+
+    private static final AtomicLongFieldUpdater<Properties> START_TIME =
+        AtomicLongFieldUpdater.newUpdater(Properties.class, "startTime");
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile long startTime = NO_START_TIME;
+    //copy-on-write array of alternating keys and values, mutated only under the monitor
+    private volatile Object[] named = EMPTY;
+
+    long getStartTime() {
+      return startTime;
+    }
+
+    long setStartTime(long time) {
+      return START_TIME.getAndSet(this, time);
+    }
+
+    boolean setStartTimeIfAbsent(long time) {
+      return START_TIME.compareAndSet(this, NO_START_TIME, time);
+    }
+
+    long removeStartTime() {
+      return START_TIME.getAndSet(this, NO_START_TIME);
+    }
+
+    Object get(String name) {
+      Object[] kv = named;
+      for (int i = 0; i < kv.length; i += 2) {
+        if (name.equals(kv[i])) {
+          return kv[i + 1];
+        }
+      }
+      return null;
+    }
+
+    synchronized Object put(String name, Object value) {
+      Object[] kv = named;
+      for (int i = 0; i < kv.length; i += 2) {
+        if (name.equals(kv[i])) {
+          Object prev = kv[i + 1];
+          Object[] copy = kv.clone();
+          copy[i + 1] = value;
+          named = copy;
+          return prev;
+        }
+      }
+      Object[] copy = new Object[kv.length + 2];
+      System.arraycopy(kv, 0, copy, 0, kv.length);
+      copy[kv.length] = name;
+      copy[kv.length + 1] = value;
+      named = copy;
+      return null;
+    }
+
+    synchronized Object remove(String name) {
+      Object[] kv = named;
+      for (int i = 0; i < kv.length; i += 2) {
+        if (name.equals(kv[i])) {
+          Object prev = kv[i + 1];
+          Object[] copy = new Object[kv.length - 2];
+          System.arraycopy(kv, 0, copy, 0, i);
+          System.arraycopy(kv, i + 2, copy, i, kv.length - i - 2);
+          named = copy;
+          return prev;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class Entry extends WeakReference<Object> {
+
+    private final int hash;
+    private final Properties properties;
+    private volatile Entry next;
+
+    Entry(Object key, int hash, Properties properties, Entry next, ReferenceQueue<Object> queue) {
+      super(key, queue);
+      this.hash = hash;
+      this.properties = properties;
+      this.next = next;
+    }
+  }
+
+  private static final class Stripe {
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private volatile AtomicReferenceArray<Entry> table =
+        new AtomicReferenceArray<>(INITIAL_STRIPE_CAPACITY);
+    //written only under the stripe monitor, read racily by size()
+    private volatile int count;
+
+    Properties get(Object key, int hash) {
+      AtomicReferenceArray<Entry> tab = table;
+      for (Entry e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+        if (e.hash == hash && e.get() == key) {
+          return e.properties;
+        }
+      }
+      return null;
+    }
+
+    synchronized Properties getOrCreate(Object key, int hash) {
+      Properties properties = get(key, hash);
+      if (properties != null) {
+        return properties;
+      }
+      expungeStaleEntries();
+      AtomicReferenceArray<Entry> tab = table;
+      if (count >= tab.length() - (tab.length() >>> 2)) {
+        tab = resize(tab);
+      }
+      int index = hash & (tab.length() - 1);
+      properties = new Properties();
+      tab.set(index, new Entry(key, hash, properties, tab.get(index), queue));
+      count++;
+      return properties;
+    }
+
+    private AtomicReferenceArray<Entry> resize(AtomicReferenceArray<Entry> oldTab) {
+      //Entries are copied rather than relinked, so readers still walking the old table are safe
+      AtomicReferenceArray<Entry> newTab = new AtomicReferenceArray<>(oldTab.length() << 1);
+      int mask = newTab.length() - 1;
+      int live = 0;
+      for (int i = 0; i < oldTab.length(); i++) {
+        for (Entry e = oldTab.get(i); e != null; e = e.next) {
+          Object key = e.get();
+          if (key == null) {
+            continue;
+          }
+          int index = e.hash & mask;
+          newTab.set(index, new Entry(key, e.hash, e.properties, newTab.get(index), queue));
+          live++;
+        }
+      }
+      table = newTab;
+      count = live;
+      return newTab;
+    }
+
+    private void expungeStaleEntries() {
+      for (Reference<?> ref; (ref = queue.poll()) != null; ) {
+        Entry stale = (Entry) ref;
+        AtomicReferenceArray<Entry> tab = table;
+        int index = stale.hash & (tab.length() - 1);
+        Entry prev = null;
+        for (Entry e = tab.get(index); e != null; prev = e, e = e.next) {
+          if (e == stale) {
+            if (prev == null) {
+              tab.set(index, e.next);
+            } else {
+              prev.next = e.next;
+            }
+            count--;
+            break;
+          }
+        }
+      }
+    }
+  }
+}
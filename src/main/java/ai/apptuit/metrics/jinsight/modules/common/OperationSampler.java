@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how often {@link RuleHelper} timed operations record their latency.
+ *
+ * <p>Each thread records the latency of one in every {@link #getSamplingInterval()} operations
+ * it starts. The other operations are only counted, see {@link SampledTimer}. The interval is 1,
+ * i.e. every operation is timed, unless it is changed by a controller that keeps the cost of
+ * recording latencies within a budget. While such a controller is active, the time spent on
+ * recording latencies is accumulated and can be read with {@link #getRecordingNanos()}.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public final class OperationSampler {
+
+  public static final int MAX_SAMPLING_INTERVAL = 1024;
+
+  private static final LongAdder recordingNanos = new LongAdder();
+  private static volatile int samplingInterval = 1;
+  private static volatile boolean costTracked = false;
+
+  private OperationSampler() {
+  }
+
+  public static int getSamplingInterval() {
+    return samplingInterval;
+  }
+
+  /**
+   * @param interval record the latency of one in every {@code interval} operations
+   */
+  public static void setSamplingInterval(int interval) {
+    if (interval < 1 || interval > MAX_SAMPLING_INTERVAL) {
+      throw new IllegalArgumentException("Sampling interval out of range: " + interval);
+    }
+    samplingInterval = interval;
+  }
+
+  /**
+   * Switches accounting of the time spent recording latencies on or off.
+   */
+  public static void setCostTracked(boolean tracked) {
+    costTracked = tracked;
+  }
+
+  static boolean isCostTracked() {
+    return costTracked;
+  }
+
+  static void addRecordingNanos(long nanos) {
+    recordingNanos.add(nanos);
+  }
+
+  /**
+   * @return total nanos spent recording latencies, while cost tracking was switched on
+   */
+  public static long getRecordingNanos() {
+    return recordingNanos.sum();
+  }
+}
@@ -18,34 +18,84 @@ package ai.apptuit.metrics.jinsight.modules.common;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.ObjectPropertyStore.Properties;
 import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import java.util.Collections;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 import org.jboss.byteman.rule.Rule;
 import org.jboss.byteman.rule.helper.Helper;
 
 /**
+ * Base class of the Byteman helpers of all modules.
+ *
+ * <p>Byteman creates a helper instance for every rule firing, so firings are counted per module
+ * in the constructor. The time spent in the primitives that helpers call, to time operations and
+ * to keep properties of objects, is measured for one in every {@value #SELF_TIMING_INTERVAL} calls
+ * on a thread, on average, and scaled up to estimate the total. The work a helper does between
+ * primitives, like normalizing SQL, is not included.</p>
+ *
+ * <p>Every timing primitive is sampled by {@link OperationSampler}, whether the operation is kept
+ * on the operation stack of the thread or spans callbacks on an object.</p>
+ *
  * @author Rajiv Shivane
  */
 public class RuleHelper extends Helper {
 
+  public static final TagEncodedMetricName RULE_FIRINGS_METRIC =
+      TagEncodedMetricName.decode("jinsight.agent.rule.firings");
+
   private static final Logger LOGGER = Logger.getLogger(RuleHelper.class.getName());
 
-  private static final Map<Object, Map<String, Object>> objectProperties = Collections
-      .synchronizedMap(new WeakHashMap<>());
+  public static final long NO_START_TIME = ObjectPropertyStore.NO_START_TIME;
+
+  private static final int SELF_TIMING_INTERVAL = 64;
+  private static final long NOT_SELF_TIMED = Long.MIN_VALUE;
+  private static final ObjectPropertyStore objectProperties = new ObjectPropertyStore();
+  private static final Clock clock = Clock.defaultClock();
+  private static final LongAdder helperNanos = new LongAdder();
+  private static final ClassValue<Counter> firingCounters = new ClassValue<Counter>() {
+    @Override
+    protected Counter computeValue(Class<?> helperClass) {
+      String metric = RULE_FIRINGS_METRIC.withTags("module", getModuleName(helperClass))
+          .toString();
+      return RegistryService.getMetricRegistry().counter(metric);
+    }
+  };
 
   public RuleHelper(Rule rule) {
     super(rule);
+    firingCounters.get(getClass()).inc();
+  }
+
+  /**
+   * @return the module of a helper, i.e. the last segment of its package name
+   */
+  static String getModuleName(Class<?> helperClass) {
+    String className = helperClass.getName();
+    int classStart = className.lastIndexOf('.');
+    int packageStart = className.lastIndexOf('.', classStart - 1);
+    return className.substring(packageStart + 1, classStart);
+  }
+
+  /**
+   * @return estimated nanos spent in the primitives of all helpers so far
+   */
+  public static long getHelperNanos() {
+    return helperNanos.sum() * SELF_TIMING_INTERVAL;
+  }
+
+  /**
+   * @return number of objects that currently have properties or a start time set by helpers
+   */
+  public static int getObjectPropertyCount() {
+    return objectProperties.size();
   }
 
   public String setObjectProperty(Object o, String propertyName, String propertyValue) {
@@ -56,42 +106,246 @@ public class RuleHelper extends Helper {
     return setObjectProperty0(o, propertyName, propertyValue);
   }
 
+  /**
+   * For values that helpers update in place, like counters kept with {@code o}.
+   */
+  public Object setObjectProperty(Object o, String propertyName, Object propertyValue) {
+    return setObjectProperty0(o, propertyName, propertyValue);
+  }
+
   @SuppressWarnings("unchecked")
   private <V> V setObjectProperty0(Object o, String propertyName, V propertyValue) {
-    Map<String, Object> props = objectProperties
-        .computeIfAbsent(o, k -> Collections.synchronizedMap(new HashMap<>()));
-    return (V) props.put(propertyName, propertyValue);
+    long selfStart = beginSelfTiming(OperationContexts.current());
+    V previous = (V) objectProperties.getOrCreate(o).put(propertyName, propertyValue);
+    endSelfTiming(selfStart);
+    return previous;
   }
 
   @SuppressWarnings("unchecked")
   public <V> V getObjectProperty(Object o, String propertyName) {
-    Map<String, Object> props = objectProperties.get(o);
-    if (props == null) {
-      return null;
-    }
-    return (V) props.get(propertyName);
+    long selfStart = beginSelfTiming(OperationContexts.current());
+    Properties props = objectProperties.get(o);
+    V value = props != null ? (V) props.get(propertyName) : null;
+    endSelfTiming(selfStart);
+    return value;
   }
 
   @SuppressWarnings("unchecked")
   public <V> V removeObjectProperty(Object o, String propertyName) {
-    Map<String, Object> props = objectProperties.get(o);
-    if (props == null) {
-      return null;
+    long selfStart = beginSelfTiming(OperationContexts.current());
+    Properties props = objectProperties.get(o);
+    V value = props != null ? (V) props.remove(propertyName) : null;
+    endSelfTiming(selfStart);
+    return value;
+  }
+
+  /**
+   * Records the start time of an operation that spans multiple callbacks on {@code o}.
+   *
+   * @return the previous start time, or {@link #NO_START_TIME}
+   */
+  public long setObjectStartTime(Object o, long startTime) {
+    long selfStart = beginSelfTiming(OperationContexts.current());
+    long previous = objectProperties.getOrCreate(o).setStartTime(startTime);
+    endSelfTiming(selfStart);
+    return previous;
+  }
+
+  /**
+   * @return true if the start time was set, false if {@code o} already had one
+   */
+  public boolean setObjectStartTimeIfAbsent(Object o, long startTime) {
+    long selfStart = beginSelfTiming(OperationContexts.current());
+    boolean set = objectProperties.getOrCreate(o).setStartTimeIfAbsent(startTime);
+    endSelfTiming(selfStart);
+    return set;
+  }
+
+  public long getObjectStartTime(Object o) {
+    long selfStart = beginSelfTiming(OperationContexts.current());
+    Properties props = objectProperties.get(o);
+    long startTime = props != null ? props.getStartTime() : NO_START_TIME;
+    endSelfTiming(selfStart);
+    return startTime;
+  }
+
+  public long removeObjectStartTime(Object o) {
+    long selfStart = beginSelfTiming(OperationContexts.current());
+    long startTime = removeObjectStartTime0(o);
+    endSelfTiming(selfStart);
+    return startTime;
+  }
+
+  private static long removeObjectStartTime0(Object o) {
+    Properties props = objectProperties.get(o);
+    return props != null ? props.removeStartTime() : NO_START_TIME;
+  }
+
+  /**
+   * Begins timing an operation that spans multiple callbacks on {@code o}, which may run on
+   * different threads.
+   */
+  public void beginObjectOperation(Object o) {
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    objectProperties.getOrCreate(o).setStartTime(contexts.nextStartTime());
+    endSelfTiming(selfStart);
+  }
+
+  /**
+   * @return true if the operation was begun, false if {@code o} already had one in progress
+   */
+  public boolean beginObjectOperationIfAbsent(Object o) {
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    boolean begun = objectProperties.getOrCreate(o).setStartTimeIfAbsent(contexts.nextStartTime());
+    endSelfTiming(selfStart);
+    return begun;
+  }
+
+  /**
+   * Ends the operation begun on {@code o}, if there is one. The timer is only looked up if the
+   * operation was begun.
+   */
+  public void endObjectOperation(Object o, Supplier<Timer> timerSupplier) {
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    long startTime = removeObjectStartTime0(o);
+    if (startTime != NO_START_TIME) {
+      record(contexts.elapsedSince(startTime), timerSupplier, contexts);
     }
-    return (V) props.remove(propertyName);
+    endSelfTiming(selfStart);
+  }
+
+  /**
+   * Begins timing an operation that is not kept on the operation stack of the thread. Like the
+   * operations on the stack, only one in every {@link OperationSampler#getSamplingInterval()}
+   * operations reads the clock.
+   *
+   * @return the start time to pass to {@link #endTiming(long, Supplier)}
+   */
+  public long beginTiming() {
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    long startTime = contexts.nextStartTime();
+    endSelfTiming(selfStart);
+    return startTime;
+  }
+
+  public void endTiming(long startTime, Supplier<Timer> timerSupplier) {
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    record(contexts.elapsedSince(startTime), timerSupplier, contexts);
+    endSelfTiming(selfStart);
   }
 
   public void beginTimedOperation(OperationId operationId) {
-    OperationContexts.start(operationId);
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    contexts.push(operationId);
+    endSelfTiming(selfStart);
+  }
+
+  /**
+   * Begins an operation that is only tracked to detect nesting, with
+   * {@link #endUntimedOperation(OperationId)}. The clock is not read.
+   */
+  public void beginUntimedOperation(OperationId operationId) {
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    contexts.pushUntimed(operationId);
+    endSelfTiming(selfStart);
+  }
+
+  /**
+   * @return true if the operation was not begun within another {@code operationId}
+   */
+  public boolean endUntimedOperation(OperationId operationId) {
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    boolean reentrant = contexts.isReentrant(operationId);
+    contexts.pop(operationId);
+    endSelfTiming(selfStart);
+    return !reentrant;
+  }
+
+  /**
+   * Must be called before the operation is ended. Drivers wrapped by a pool, for e.g., begin an
+   * operation within the same operation of the wrapper.
+   *
+   * @return true if the innermost operation is {@code operationId}, and was begun within another
+   *     {@code operationId}
+   */
+  public boolean isReentrantOperation(OperationId operationId) {
+    return OperationContexts.current().isReentrant(operationId);
   }
 
   public void endTimedOperation(OperationId operationId, Timer timer) {
-    endTimedOperation(operationId, () -> timer);
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    record(contexts.pop(operationId), timer, contexts);
+    endSelfTiming(selfStart);
   }
 
   public void endTimedOperation(OperationId operationId,
       Supplier<Timer> timerSupplier) {
-    OperationContexts.stop(operationId, timerSupplier);
+    OperationContexts contexts = OperationContexts.current();
+    long selfStart = beginSelfTiming(contexts);
+    record(contexts.pop(operationId), timerSupplier, contexts);
+    endSelfTiming(selfStart);
+  }
+
+  /**
+   * @return the clock tick to pass to {@link #endSelfTiming(long)} if this call is one of those
+   *     that are measured, or {@link #NOT_SELF_TIMED}
+   */
+  private static long beginSelfTiming(OperationContexts contexts) {
+    return contexts.isSelfTimed() ? clock.getTick() : NOT_SELF_TIMED;
+  }
+
+  private static void endSelfTiming(long selfStart) {
+    if (selfStart != NOT_SELF_TIMED) {
+      helperNanos.add(clock.getTick() - selfStart);
+    }
+  }
+
+  private static void record(long elapsed, Supplier<Timer> timerSupplier,
+      OperationContexts contexts) {
+    if (elapsed != OperationContexts.NOT_TIMED) {
+      //the timer is looked up after the end of the operation, so its cost is tracked too
+      record(elapsed, timerSupplier.get(), contexts);
+    }
+  }
+
+  /**
+   * Operations that were not sampled are counted by a {@link SampledTimer}. Other timers can not
+   * count them, so each sampled operation is recorded once for every operation in the sampling
+   * interval instead.
+   *
+   * <p>While cost tracking is on, the time from the end of a sampled operation to the end of
+   * recording it is accumulated, i.e. looking up the timer, if it is supplied, and updating it.
+   * The clock read at the end stands in for the one at the start of the operation.</p>
+   */
+  private static void record(long elapsed, Timer timer, OperationContexts contexts) {
+    if (elapsed == OperationContexts.NOT_TIMED || timer == null) {
+      return;
+    }
+    if (elapsed == OperationContexts.NOT_SAMPLED) {
+      if (timer instanceof SampledTimer) {
+        ((SampledTimer) timer).markUnsampled();
+      }
+      return;
+    }
+    if (timer instanceof SampledTimer) {
+      timer.update(elapsed, TimeUnit.NANOSECONDS);
+    } else {
+      for (int i = OperationSampler.getSamplingInterval(); i > 0; i--) {
+        timer.update(elapsed, TimeUnit.NANOSECONDS);
+      }
+    }
+    if (OperationSampler.isCostTracked()) {
+      OperationSampler.addRecordingNanos(clock.getTick() - contexts.getLastEndTime());
+    }
   }
 
   protected Timer getTimer(TagEncodedMetricName metricName) {
@@ -113,74 +367,119 @@ public class RuleHelper extends Helper {
     }
   }
 
-  private static class OperationContexts {
-
-    private static final ThreadLocal<Deque<OperationContext>> CONTEXT_STACK = ThreadLocal
-        .withInitial(LinkedList::new);
+  /**
+   * Per-thread stack of in-flight timed operations, kept in parallel arrays so that a
+   * begin/end pair does not allocate once the stack has grown to the thread's nesting depth.
+   *
+   * <p>Only one in every {@link OperationSampler#getSamplingInterval()} operations started by a
+   * thread reads the clock, the others are marked {@link #NOT_SAMPLED}.</p>
+   */
+  private static final class OperationContexts {
+
+    static final long NOT_TIMED = Long.MIN_VALUE;
+    static final long NOT_SAMPLED = Long.MIN_VALUE + 1;
+
+    private static final int INITIAL_DEPTH = 16;
+    private static final ThreadLocal<OperationContexts> CONTEXT_STACK = ThreadLocal
+        .withInitial(OperationContexts::new);
     private static final Clock clock = Clock.defaultClock();
 
-    private static final OperationContext RENTRANT = new OperationContext(new OperationId("NOOP"),
-        clock);
+    //re-entrant frames repeat the id of the frame below them and have no start time
+    private OperationId[] ids = new OperationId[INITIAL_DEPTH];
+    private long[] startTimes = new long[INITIAL_DEPTH];
+    private int depth = 0;
+    private long lastEndTime;
+    private int untilNextSample = 0;
+    private int untilSelfTimed = 0;
 
-    public static void start(OperationId id) {
-      Deque<OperationContext> contexts = CONTEXT_STACK.get();
-      if (!contexts.isEmpty() && lastId() == id) {
-        contexts.push(RENTRANT);
-        return;
-      }
-      contexts.push(new OperationContext(id, clock));
+    static OperationContexts current() {
+      return CONTEXT_STACK.get();
     }
 
-    public static void stop(OperationId id, Supplier<Timer> timerSupplier) {
-      OperationId lastId = lastId();
-      if (lastId != id) {
-        //TODO better error handling
-        LOGGER.severe("Operation Context Mismatch. Expected: " + id + " got " + lastId);
-        return;
+    /**
+     * @return true for one in every {@code SELF_TIMING_INTERVAL} calls on this thread, on average.
+     *     The gap between measured calls is random, so that helpers calling the primitives in a
+     *     fixed order do not always have the same primitive measured.
+     */
+    boolean isSelfTimed() {
+      if (--untilSelfTimed > 0) {
+        return false;
       }
+      untilSelfTimed = 1 + ThreadLocalRandom.current().nextInt(2 * SELF_TIMING_INTERVAL - 1);
+      return true;
+    }
 
-      OperationContext context = CONTEXT_STACK.get().pop();
-      if (context == RENTRANT) {
-        return;
-      }
+    void push(OperationId id) {
+      ensureCapacity();
+      boolean reentrant = depth > 0 && ids[depth - 1] == id;
+      ids[depth] = id;
+      startTimes[depth] = reentrant ? NOT_TIMED : nextStartTime();
+      depth++;
+    }
 
-      Timer timer = timerSupplier.get();
-      if (timer != null) {
-        long t = clock.getTick() - context.getStartTime();
-        timer.update(t, TimeUnit.NANOSECONDS);
+    /**
+     * @return the current time once in every sampling interval, {@link #NOT_SAMPLED} otherwise
+     */
+    long nextStartTime() {
+      if (--untilNextSample > 0) {
+        return NOT_SAMPLED;
       }
+      untilNextSample = OperationSampler.getSamplingInterval();
+      return clock.getTick();
     }
 
-    private static OperationId lastId() {
-      Deque<OperationContext> contexts = CONTEXT_STACK.get();
-      OperationContext prevContext = null;
-      Iterator<OperationContext> iterator = contexts.descendingIterator();
-      while (iterator.hasNext()){
-        prevContext = iterator.next();
-        if (prevContext != RENTRANT) {
-          break;
-        }
+    /**
+     * @return nanos elapsed since {@code startTime}, or {@code startTime} if it is {@link
+     *     #NOT_TIMED} or {@link #NOT_SAMPLED}
+     */
+    long elapsedSince(long startTime) {
+      if (startTime == NOT_TIMED || startTime == NOT_SAMPLED) {
+        return startTime;
       }
-      return prevContext != null ? prevContext.getId() : null;
+      lastEndTime = clock.getTick();
+      return lastEndTime - startTime;
     }
-  }
 
-  private static class OperationContext {
+    /**
+     * @return time at which the last sampled operation of this thread ended
+     */
+    long getLastEndTime() {
+      return lastEndTime;
+    }
 
-    private final OperationId id;
-    private final long startTime;
+    void pushUntimed(OperationId id) {
+      ensureCapacity();
+      ids[depth] = id;
+      startTimes[depth] = NOT_TIMED;
+      depth++;
+    }
 
-    public OperationContext(OperationId id, Clock clock) {
-      this.id = id;
-      this.startTime = clock.getTick();
+    private void ensureCapacity() {
+      if (depth == ids.length) {
+        ids = Arrays.copyOf(ids, depth * 2);
+        startTimes = Arrays.copyOf(startTimes, depth * 2);
+      }
     }
 
-    public OperationId getId() {
-      return id;
+    boolean isReentrant(OperationId id) {
+      return depth > 1 && ids[depth - 1] == id && ids[depth - 2] == id;
     }
 
-    public long getStartTime() {
-      return startTime;
+    /**
+     * @return nanos elapsed since the matching {@link #push(OperationId)}, {@link #NOT_TIMED}
+     *     for re-entrant or mismatched calls, or {@link #NOT_SAMPLED}
+     */
+    long pop(OperationId id) {
+      OperationId lastId = depth > 0 ? ids[depth - 1] : null;
+      if (lastId != id) {
+        //TODO better error handling
+        LOGGER.severe("Operation Context Mismatch. Expected: " + id + " got " + lastId);
+        return NOT_TIMED;
+      }
+
+      depth--;
+      ids[depth] = null;
+      return elapsedSince(startTimes[depth]);
     }
   }
 }
@@ -17,21 +17,44 @@
 package ai.apptuit.metrics.jinsight.modules.common;
 
 import ai.apptuit.metrics.jinsight.modules.common.AbstractRuleSet.RuleInfo;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
+ * Generates the Byteman scripts packaged in the agent jar, one per module. The script of a module
+ * is the concatenation of the {@code .btm} files in the module's source directory and of the
+ * rules of its {@link AbstractRuleSet}s.
+ *
+ * <p>The modules are listed in {@link #MODULE_INDEX_FILE_NAME}, one per line: the module name
+ * followed by the classes its rules target, so that the agent can decide when to install a script
+ * without reading it. Targets whose rules also apply to subclasses or implementations are
+ * prefixed with {@code ^}.</p>
+ *
  * @author Rajiv Shivane
  */
 public class RuleScriptGenerator {
 
+  public static final String MODULE_INDEX_FILE_NAME = "modules.list";
+  private static final String SCRIPT_EXTENSION = ".btm";
+  private static final String CLASS_CLAUSE = "CLASS ";
+  private static final String INTERFACE_CLAUSE = "INTERFACE ";
+
   private final List<AbstractRuleSet> ruleSets = new ArrayList<>();
 
   public RuleScriptGenerator(List<String> helpers) {
@@ -54,34 +77,93 @@ public class RuleScriptGenerator {
     }
   }
 
+  /**
+   * @param args output directory, directory to search for {@code .btm} files, followed by the
+   * class file names of the rule sets
+   */
   public static void main(String[] args) throws IOException {
-    File outputFile = new File(args[0]);
+    File outputDir = new File(args[0]);
+    File scriptsDir = new File(args[1]);
     List<String> helpers = new ArrayList<>(args.length);
-    for (int i = 1; i < args.length; i++) {
+    for (int i = 2; i < args.length; i++) {
       String helper = args[i].replaceAll("\\.class$", "")
           .replaceAll("\\\\", ".")
           .replaceAll("/", ".")
           .replaceAll("^\\.", "");
       helpers.add(helper);
     }
-    //System.out.println(outputFile);
-    //System.out.println(helpers);
-    FileOutputStream fileOutputStream = new FileOutputStream(outputFile, true);
-    PrintStream ps = new PrintStream(new BufferedOutputStream(fileOutputStream), false, "UTF-8");
-    new RuleScriptGenerator(helpers).generateRules(ps);
-    ps.flush();
-    ps.close();
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Could not create " + outputDir);
+    }
+    new RuleScriptGenerator(helpers).generateScripts(outputDir, findScripts(scriptsDir));
+  }
+
+  private static Map<String, List<Path>> findScripts(File scriptsDir) throws IOException {
+    Map<String, List<Path>> scriptsByModule = new TreeMap<>();
+    try (Stream<Path> paths = Files.walk(scriptsDir.toPath())) {
+      paths.filter(path -> path.getFileName().toString().endsWith(SCRIPT_EXTENSION))
+          .sorted()
+          .forEach(path -> scriptsByModule
+              .computeIfAbsent(path.getParent().getFileName().toString(), k -> new ArrayList<>())
+              .add(path));
+    }
+    return scriptsByModule;
   }
 
-  private void generateRules(PrintStream ps) {
+  private static String getModuleName(AbstractRuleSet ruleSet) {
+    String packageName = ruleSet.getClass().getPackage().getName();
+    return packageName.substring(packageName.lastIndexOf('.') + 1);
+  }
+
+  private void generateScripts(File outputDir, Map<String, List<Path>> scriptsByModule)
+      throws IOException {
+    Set<String> modules = new TreeSet<>(scriptsByModule.keySet());
+    ruleSets.forEach(ruleSet -> modules.add(getModuleName(ruleSet)));
+
     AtomicInteger total = new AtomicInteger(0);
-    ruleSets.forEach(ruleSet -> {
-      List<RuleInfo> rules = ruleSet.getRules();
-      rules.forEach(ruleInfo -> ruleInfo.generateRule(ps));
-      System.out.println(ruleSet.getClass().getSimpleName() + ": " + rules.size());
-      total.getAndAdd(rules.size());
-    });
+    List<String> index = new ArrayList<>();
+    for (String module : modules) {
+      ByteArrayOutputStream script = new ByteArrayOutputStream();
+      try (PrintStream ps = new PrintStream(script, false, "UTF-8")) {
+        for (Path path : scriptsByModule.getOrDefault(module, Collections.emptyList())) {
+          Files.copy(path, ps);
+        }
+        ruleSets.stream().filter(ruleSet -> module.equals(getModuleName(ruleSet)))
+            .forEach(ruleSet -> total.getAndAdd(generateRules(ruleSet, ps)));
+      }
+      Files.write(new File(outputDir, module + SCRIPT_EXTENSION).toPath(), script.toByteArray());
+      Set<String> targets = findTargets(new String(script.toByteArray(), StandardCharsets.UTF_8));
+      index.add(module + " " + String.join(" ", targets));
+    }
+    Files.write(new File(outputDir, MODULE_INDEX_FILE_NAME).toPath(), index,
+        StandardCharsets.UTF_8);
+    System.out.println("Modules: " + modules);
     System.out.println("Rules generated: " + total);
   }
 
+  /**
+   * @return the classes and interfaces targeted by the rules in the script, prefixed with {@code
+   * ^} if the rules also apply to their subtypes
+   */
+  static Set<String> findTargets(String script) {
+    Set<String> targets = new LinkedHashSet<>();
+    for (String line : script.split("\\r?\\n")) {
+      line = line.trim();
+      if (line.startsWith(CLASS_CLAUSE)) {
+        targets.add(line.substring(CLASS_CLAUSE.length()).trim().replaceAll("^\\^\\s*", "^"));
+      } else if (line.startsWith(INTERFACE_CLAUSE)) {
+        String target = line.substring(INTERFACE_CLAUSE.length()).trim();
+        targets.add(target.startsWith("^") ? target : "^" + target);
+      }
+    }
+    return targets;
+  }
+
+  private int generateRules(AbstractRuleSet ruleSet, PrintStream ps) {
+    List<RuleInfo> rules = ruleSet.getRules();
+    rules.forEach(ruleInfo -> ruleInfo.generateRule(ps));
+    System.out.println(ruleSet.getClass().getSimpleName() + ": " + rules.size());
+    return rules.size();
+  }
+
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+
+/**
+ * A {@link Timer} that can count an event without recording its duration.
+ *
+ * <p>Events counted with {@link #markUnsampled()} are included in the count and rates of the
+ * timer, but not in its snapshot. So when only a sample of the events are timed, the count and
+ * rates stay exact while the snapshot reflects the latency distribution of the sample.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public class SampledTimer extends Timer {
+
+  private final Meter unsampled = new Meter();
+
+  public SampledTimer(Reservoir reservoir) {
+    super(reservoir);
+  }
+
+  /**
+   * Counts an event whose duration was not measured.
+   */
+  public void markUnsampled() {
+    unsampled.mark();
+  }
+
+  @Override
+  public long getCount() {
+    return super.getCount() + unsampled.getCount();
+  }
+
+  //exponentially weighted rates are linear in the events, so the rates of the two meters add up
+  @Override
+  public double getFifteenMinuteRate() {
+    return super.getFifteenMinuteRate() + unsampled.getFifteenMinuteRate();
+  }
+
+  @Override
+  public double getFiveMinuteRate() {
+    return super.getFiveMinuteRate() + unsampled.getFiveMinuteRate();
+  }
+
+  @Override
+  public double getMeanRate() {
+    return super.getMeanRate() + unsampled.getMeanRate();
+  }
+
+  @Override
+  public double getOneMinuteRate() {
+    return super.getOneMinuteRate() + unsampled.getOneMinuteRate();
+  }
+}
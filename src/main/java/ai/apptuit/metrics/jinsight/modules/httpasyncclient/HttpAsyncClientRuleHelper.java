@@ -17,12 +17,9 @@
 package ai.apptuit.metrics.jinsight.modules.httpasyncclient;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
-import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.HttpMetricHandleCache;
 import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
-import ai.apptuit.metrics.jinsight.modules.httpurlconnection.UrlConnectionRuleHelper;
-import com.codahale.metrics.Clock;
 import com.codahale.metrics.Timer;
-import java.util.concurrent.TimeUnit;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.jboss.byteman.rule.Rule;
@@ -33,9 +30,8 @@ import org.jboss.byteman.rule.Rule;
 public class HttpAsyncClientRuleHelper extends RuleHelper {
 
   public static final TagEncodedMetricName ROOT_NAME = TagEncodedMetricName.decode("http.requests");
-  private static final String START_TIME_PROPERTY_NAME =
-      UrlConnectionRuleHelper.class + ".START_TIME";
-  private static final Clock CLOCK = Clock.defaultClock();
+  private static final HttpMetricHandleCache timers = HttpMetricHandleCache
+      .forRootName(ROOT_NAME);
 
   public HttpAsyncClientRuleHelper(Rule rule) {
     super(rule);
@@ -43,25 +39,11 @@ public class HttpAsyncClientRuleHelper extends RuleHelper {
 
 
   public void onRequestReady(HttpRequest request) {
-    setObjectProperty(request, START_TIME_PROPERTY_NAME, CLOCK.getTick());
+    beginObjectOperation(request);
   }
 
   public void onResponseReceived(HttpRequest request, HttpResponse response) {
-    Long startTime = removeObjectProperty(request, START_TIME_PROPERTY_NAME);
-    if (startTime == null) {
-      return;
-    }
-
-    long t = Clock.defaultClock().getTick() - startTime;
-
-    String method = request.getRequestLine().getMethod();
-    int statusCode = response.getStatusLine().getStatusCode();
-
-    String metricName = ROOT_NAME.withTags(
-        "method", method,
-        "status", "" + statusCode).toString();
-    Timer timer = RegistryService.getMetricRegistry().timer(metricName);
-    timer.update(t, TimeUnit.NANOSECONDS);
-
+    endObjectOperation(request, () -> timers.getTimer(request.getRequestLine().getMethod(),
+        response.getStatusLine().getStatusCode()));
   }
 }
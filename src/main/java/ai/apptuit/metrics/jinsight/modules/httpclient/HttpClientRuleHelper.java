@@ -17,10 +17,8 @@
 package ai.apptuit.metrics.jinsight.modules.httpclient;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.modules.common.HttpMetricHandleCache;
 import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
-import com.codahale.metrics.Timer;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.jboss.byteman.rule.Rule;
@@ -33,7 +31,8 @@ public class HttpClientRuleHelper extends RuleHelper {
   public static final TagEncodedMetricName ROOT_NAME = TagEncodedMetricName.decode("http.requests");
   private static final OperationId EXECUTE_METHOD_OPERATION_ID = new OperationId("ahc.execute");
 
-  private Map<String, Timer> timers = new ConcurrentHashMap<>();
+  private static final HttpMetricHandleCache timers = HttpMetricHandleCache
+      .forRootName(ROOT_NAME);
 
   public HttpClientRuleHelper(Rule rule) {
     super(rule);
@@ -44,16 +43,9 @@ public class HttpClientRuleHelper extends RuleHelper {
   }
 
   public void onExecuteEnd(HttpRequest request, HttpResponse response) {
-    endTimedOperation(EXECUTE_METHOD_OPERATION_ID, () -> {
-      String method = request.getRequestLine().getMethod();
-      String status = "" + response.getStatusLine().getStatusCode();
-      return timers.computeIfAbsent(status + method, s -> {
-        TagEncodedMetricName metricName = ROOT_NAME.withTags(
-            "method", method,
-            "status", status);
-        return getTimer(metricName);
-      });
-    });
+    String method = request.getRequestLine().getMethod();
+    int status = response.getStatusLine().getStatusCode();
+    endTimedOperation(EXECUTE_METHOD_OPERATION_ID, timers.getTimer(method, status));
   }
 
 }
@@ -17,13 +17,11 @@
 package ai.apptuit.metrics.jinsight.modules.httpurlconnection;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.AgentThreads;
+import ai.apptuit.metrics.jinsight.modules.common.HttpMetricHandleCache;
 import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
-import com.codahale.metrics.Clock;
 import com.codahale.metrics.Timer;
 import java.net.HttpURLConnection;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 import org.jboss.byteman.rule.Rule;
 
 /**
@@ -32,11 +30,9 @@ import org.jboss.byteman.rule.Rule;
 public class UrlConnectionRuleHelper extends RuleHelper {
 
   public static final TagEncodedMetricName ROOT_NAME = TagEncodedMetricName.decode("http.requests");
-  private static final String START_TIME_PROPERTY_NAME =
-      UrlConnectionRuleHelper.class + ".START_TIME";
-  private static final Clock CLOCK = Clock.defaultClock();
 
-  private Map<String, Timer> timers = new ConcurrentHashMap<>();
+  private static final HttpMetricHandleCache timers = HttpMetricHandleCache
+      .forRootName(ROOT_NAME);
 
 
   public UrlConnectionRuleHelper(Rule rule) {
@@ -44,25 +40,15 @@ public class UrlConnectionRuleHelper extends RuleHelper {
   }
 
   public void onConnect(HttpURLConnection urlConnection) {
-    setObjectProperty(urlConnection, START_TIME_PROPERTY_NAME, CLOCK.getTick());
-  }
-
-  public void onGetInputStream(HttpURLConnection urlConnection, int statusCode) {
-    Long startTime = removeObjectProperty(urlConnection, START_TIME_PROPERTY_NAME);
-    if (startTime == null) {
+    if (AgentThreads.isCurrentThreadExcluded()) {
+      //not begun, so the response is not recorded either
       return;
     }
+    beginObjectOperation(urlConnection);
+  }
 
-    long t = Clock.defaultClock().getTick() - startTime;
-    String method = urlConnection.getRequestMethod();
-    String status = "" + statusCode;
-    Timer timer = timers.computeIfAbsent(status + method, s -> {
-      TagEncodedMetricName metricName = ROOT_NAME.withTags(
-          "method", method,
-          "status", status);
-      return getTimer(metricName);
-    });
-
-    timer.update(t, TimeUnit.NANOSECONDS);
+  public void onGetInputStream(HttpURLConnection urlConnection, int statusCode) {
+    endObjectOperation(urlConnection,
+        () -> timers.getTimer(urlConnection.getRequestMethod(), statusCode));
   }
 }
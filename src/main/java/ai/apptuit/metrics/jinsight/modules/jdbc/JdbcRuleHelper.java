@@ -18,11 +18,18 @@ package ai.apptuit.metrics.jinsight.modules.jdbc;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.MetricHandleCache;
 import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.sql.DataSource;
 import org.jboss.byteman.rule.Rule;
 
@@ -37,22 +44,53 @@ public class JdbcRuleHelper extends RuleHelper {
       .submetric("ds.getConnection");
   public static final TagEncodedMetricName PREPARE_STATEMENT_NAME = ROOT_NAME
       .submetric("conn.prepareStatement");
+  public static final TagEncodedMetricName PREPARE_CALL_NAME = ROOT_NAME
+      .submetric("conn.prepareCall");
   public static final TagEncodedMetricName EXECUTE_STATEMENT_NAME = ROOT_NAME
       .submetric("ps.execute");
+  public static final TagEncodedMetricName STATEMENT_EXECUTE_NAME = ROOT_NAME
+      .submetric("stmt.execute");
+  public static final TagEncodedMetricName BATCH_SIZE_NAME = ROOT_NAME
+      .submetric("ps.batch.size");
+  public static final TagEncodedMetricName RESULT_SET_ROWS_NAME = ROOT_NAME
+      .submetric("rs.rows");
+  public static final TagEncodedMetricName RESULT_SET_DRAIN_NAME = ROOT_NAME
+      .submetric("rs.drain");
+  public static final String EXECUTION_TYPE_TAG = "type";
 
   private static final Timer GET_CONNECTION_TIMER = createTimer(GET_CONNECTION_NAME);
   private static final Timer PREPARE_STATEMENT_TIMER = createTimer(PREPARE_STATEMENT_NAME);
+  private static final Timer PREPARE_CALL_TIMER = createTimer(PREPARE_CALL_NAME);
 
 
   private static final OperationId GET_CONNECTION_OPERATION = new OperationId(
       GET_CONNECTION_NAME.toString());
   private static final OperationId PREPARE_STATEMENT_OPERATION = new OperationId(
       PREPARE_STATEMENT_NAME.toString());
+  private static final OperationId PREPARE_CALL_OPERATION = new OperationId(
+      PREPARE_CALL_NAME.toString());
+  //shared by statements and prepared statements, for drivers that implement one with the other
   private static final OperationId EXECUTE_STATEMENT_OPERATION = new OperationId(
       EXECUTE_STATEMENT_NAME.toString());
+  private static final OperationId GET_RESULT_SET_OPERATION = new OperationId(
+      "jdbc.stmt.getResultSet");
 
   private static final String PREP_STMT_SQL_QUERY_STRING = "jdbc.ps.sql";
+  private static final String PREP_STMT_BATCH_SIZE = "jdbc.ps.batch";
+  private static final String STMT_SQL_QUERY_STRING = "jdbc.stmt.sql";
+  private static final String RESULT_SET_ROW_COUNT = "jdbc.rs.rows";
   private static final StringUniqueIdService uidService = new StringUniqueIdService();
+  //one cache per execution type, the type is fixed by the rule that fires
+  private static final ConcurrentMap<String, MetricHandleCache<String, Timer>>
+      EXECUTE_STATEMENT_TIMERS = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, MetricHandleCache<String, Timer>>
+      STATEMENT_EXECUTE_TIMERS = new ConcurrentHashMap<>();
+  private static final MetricHandleCache<String, Histogram> BATCH_SIZE_HISTOGRAMS =
+      MetricHandleCache.histograms(BATCH_SIZE_NAME, "sql", uidService::getUniqueId);
+  private static final MetricHandleCache<String, Histogram> RESULT_SET_ROWS_HISTOGRAMS =
+      MetricHandleCache.histograms(RESULT_SET_ROWS_NAME, "sql", uidService::getUniqueId);
+  private static final MetricHandleCache<String, Timer> RESULT_SET_DRAIN_TIMERS =
+      MetricHandleCache.timers(RESULT_SET_DRAIN_NAME, "sql", uidService::getUniqueId);
 
   public JdbcRuleHelper(Rule rule) {
     super(rule);
@@ -82,29 +120,218 @@ public class JdbcRuleHelper extends RuleHelper {
   public void onPrepareStatementExit(Connection connection, String sql, PreparedStatement ps) {
     //TODO add datasource name as a tag
     endTimedOperation(PREPARE_STATEMENT_OPERATION, PREPARE_STATEMENT_TIMER);
-    setObjectProperty(ps, PREP_STMT_SQL_QUERY_STRING, sql);
+    //normalized once here, rather than on every execution
+    setObjectProperty(ps, PREP_STMT_SQL_QUERY_STRING, SqlNormalizer.normalize(sql));
   }
 
   public void onPrepareStatementError(Connection connection) {
     endTimedOperation(PREPARE_STATEMENT_OPERATION, () -> null);
   }
 
+  public void onPrepareCallEntry(Connection connection) {
+    beginTimedOperation(PREPARE_CALL_OPERATION);
+  }
+
+  public void onPrepareCallExit(Connection connection, String sql, PreparedStatement cs) {
+    endTimedOperation(PREPARE_CALL_OPERATION, PREPARE_CALL_TIMER);
+    //callable statements are executed with the prepared statement methods
+    setObjectProperty(cs, PREP_STMT_SQL_QUERY_STRING, SqlNormalizer.normalize(sql));
+  }
+
+  public void onPrepareCallError(Connection connection) {
+    endTimedOperation(PREPARE_CALL_OPERATION, () -> null);
+  }
+
   public void onExecuteStatementEntry(PreparedStatement ps) {
+    //drivers that implement one execute method with another are timed once, by the outer one
     beginTimedOperation(EXECUTE_STATEMENT_OPERATION);
   }
 
-  public void onExecuteStatementExit(PreparedStatement ps) {
-    //TODO add datasource name & execution type (execute/executeUpdate/executeBath) as tags
-    endTimedOperation(EXECUTE_STATEMENT_OPERATION, () -> {
-      String sql = getObjectProperty(ps, PREP_STMT_SQL_QUERY_STRING);
-      String sqlId = uidService.getUniqueId(sql);
-      String metricName = EXECUTE_STATEMENT_NAME.withTags("sql", sqlId).toString();
-      return RegistryService.getMetricRegistry().timer(metricName);
-    });
+  /**
+   * @param executionType name of the execute method, e.g. {@code executeQuery}
+   */
+  public void onExecuteStatementExit(PreparedStatement ps, String executionType) {
+    //TODO add datasource name as a tag
+    //the sql was normalized when the statement was prepared, the timer is only looked up if timed
+    endTimedOperation(EXECUTE_STATEMENT_OPERATION,
+        () -> getTimers(EXECUTE_STATEMENT_TIMERS, EXECUTE_STATEMENT_NAME, executionType)
+            .get(getObjectProperty(ps, PREP_STMT_SQL_QUERY_STRING)));
   }
 
   public void onExecuteStatementError(PreparedStatement ps) {
     endTimedOperation(EXECUTE_STATEMENT_OPERATION, () -> null);
   }
 
+  public void onExecuteQueryExit(PreparedStatement ps, ResultSet rs) {
+    //the result set of a pooled statement wraps the one of the driver statement
+    boolean reentrant = isReentrantOperation(EXECUTE_STATEMENT_OPERATION);
+    onExecuteStatementExit(ps, "executeQuery");
+    if (!reentrant) {
+      trackResultSet(rs, getObjectProperty(ps, PREP_STMT_SQL_QUERY_STRING));
+    }
+  }
+
+  public void onAddBatch(PreparedStatement ps) {
+    AtomicInteger batchSize = getObjectProperty(ps, PREP_STMT_BATCH_SIZE);
+    if (batchSize == null) {
+      //kept with the statement and incremented in place, so a bulk insert does not allocate
+      batchSize = new AtomicInteger();
+      setObjectProperty(ps, PREP_STMT_BATCH_SIZE, batchSize);
+    }
+    batchSize.incrementAndGet();
+  }
+
+  public void onClearBatch(PreparedStatement ps) {
+    AtomicInteger batchSize = getObjectProperty(ps, PREP_STMT_BATCH_SIZE);
+    if (batchSize != null) {
+      batchSize.set(0);
+    }
+  }
+
+  /**
+   * Also records the number of statements added to the batch since the last one, unless the
+   * batch is executed within the execution of another statement.
+   */
+  public void onExecuteBatchExit(PreparedStatement ps, String executionType) {
+    //a pooled statement and the driver statement it wraps both count the batch
+    boolean reentrant = isReentrantOperation(EXECUTE_STATEMENT_OPERATION);
+    onExecuteStatementExit(ps, executionType);
+    AtomicInteger batchSize = getObjectProperty(ps, PREP_STMT_BATCH_SIZE);
+    int size = batchSize != null ? batchSize.getAndSet(0) : 0;
+    if (size > 0 && !reentrant) {
+      String sql = getObjectProperty(ps, PREP_STMT_SQL_QUERY_STRING);
+      BATCH_SIZE_HISTOGRAMS.get(sql).update(size);
+    }
+  }
+
+  public void onExecuteBatchError(PreparedStatement ps) {
+    onExecuteStatementError(ps);
+    //drivers clear the batch even when it fails
+    onClearBatch(ps);
+  }
+
+  public void onStatementExecuteEntry(Statement statement) {
+    beginTimedOperation(EXECUTE_STATEMENT_OPERATION);
+  }
+
+  /**
+   * @param sql as passed by the application, possibly with literal values inlined
+   */
+  public void onStatementExecuteExit(Statement statement, String sql, String executionType) {
+    MetricHandleCache<String, Timer> timers = getTimers(STATEMENT_EXECUTE_TIMERS,
+        STATEMENT_EXECUTE_NAME, executionType);
+    boolean reentrant = isReentrantOperation(EXECUTE_STATEMENT_OPERATION);
+    endTimedOperation(EXECUTE_STATEMENT_OPERATION, () -> timers.get(SqlNormalizer.normalize(sql)));
+    if (!reentrant && "execute".equals(executionType)) {
+      //the result set, if any, is fetched with getResultSet
+      setObjectProperty(statement, STMT_SQL_QUERY_STRING, sql);
+    }
+  }
+
+  public void onStatementExecuteQueryExit(Statement statement, String sql, ResultSet rs) {
+    if (isReentrantOperation(EXECUTE_STATEMENT_OPERATION)) {
+      //not timed, and the result set is tracked by the outer execution
+      endTimedOperation(EXECUTE_STATEMENT_OPERATION, () -> null);
+      return;
+    }
+    //normalized eagerly, as the result set needs it even when the execution is not sampled
+    String normalizedSql = SqlNormalizer.normalize(sql);
+    MetricHandleCache<String, Timer> timers = getTimers(STATEMENT_EXECUTE_TIMERS,
+        STATEMENT_EXECUTE_NAME, "executeQuery");
+    endTimedOperation(EXECUTE_STATEMENT_OPERATION, () -> timers.get(normalizedSql));
+    trackResultSet(rs, normalizedSql);
+  }
+
+  public void onStatementExecuteError(Statement statement) {
+    endTimedOperation(EXECUTE_STATEMENT_OPERATION, () -> null);
+  }
+
+  public void onGetResultSetEntry(Statement statement) {
+    beginUntimedOperation(GET_RESULT_SET_OPERATION);
+  }
+
+  public void onGetResultSet(Statement statement, ResultSet rs) {
+    if (!endUntimedOperation(GET_RESULT_SET_OPERATION)) {
+      //the result set of a pooled statement wraps the one of the driver statement
+      return;
+    }
+    if (rs == null || getObjectProperty(rs, RESULT_SET_ROW_COUNT) != null) {
+      //no result, or the result set was already returned by executeQuery or getResultSet
+      return;
+    }
+    String sql = getObjectProperty(statement, PREP_STMT_SQL_QUERY_STRING);
+    if (sql == null) {
+      String statementSql = getObjectProperty(statement, STMT_SQL_QUERY_STRING);
+      sql = statementSql != null ? SqlNormalizer.normalize(statementSql) : null;
+    }
+    trackResultSet(rs, sql);
+  }
+
+  public void onGetResultSetError(Statement statement) {
+    endUntimedOperation(GET_RESULT_SET_OPERATION);
+  }
+
+  /**
+   * Called for every row, so it only increments the count kept with the result set.
+   */
+  public void onResultSetNext(ResultSet rs, boolean hasRow) {
+    RowCount rowCount = getObjectProperty(rs, RESULT_SET_ROW_COUNT);
+    if (rowCount == null) {
+      return;
+    }
+    if (rowCount.firstNextTick == NO_START_TIME) {
+      rowCount.firstNextTick = beginTiming();
+    }
+    if (hasRow) {
+      rowCount.rows++;
+    }
+  }
+
+  /**
+   * Publishes the rows read and the time taken to read them. Result sets that are only closed
+   * along with their statement or connection are not reported.
+   */
+  public void onResultSetClose(ResultSet rs) {
+    RowCount rowCount = removeObjectProperty(rs, RESULT_SET_ROW_COUNT);
+    if (rowCount == null) {
+      //not tracked, or already closed
+      return;
+    }
+    RESULT_SET_ROWS_HISTOGRAMS.get(rowCount.sql).update(rowCount.rows);
+    if (rowCount.firstNextTick != NO_START_TIME) {
+      endTiming(rowCount.firstNextTick, () -> RESULT_SET_DRAIN_TIMERS.get(rowCount.sql));
+    }
+  }
+
+  private void trackResultSet(ResultSet rs, String sql) {
+    if (rs != null) {
+      setObjectProperty(rs, RESULT_SET_ROW_COUNT, new RowCount(sql));
+    }
+  }
+
+  private static MetricHandleCache<String, Timer> getTimers(
+      ConcurrentMap<String, MetricHandleCache<String, Timer>> timersByType,
+      TagEncodedMetricName rootName, String executionType) {
+    MetricHandleCache<String, Timer> timers = timersByType.get(executionType);
+    if (timers != null) {
+      return timers;
+    }
+    return timersByType.computeIfAbsent(executionType, type -> MetricHandleCache
+        .timers(rootName.withTags(EXECUTION_TYPE_TAG, type), "sql", uidService::getUniqueId));
+  }
+
+  /**
+   * Rows read from a result set. The count is a plain field, as a result set is read by one thread
+   * at a time.
+   */
+  private static final class RowCount {
+
+    private final String sql;
+    private long firstNextTick = NO_START_TIME;
+    private long rows;
+
+    RowCount(String sql) {
+      this.sql = sql;
+    }
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+import ai.apptuit.metrics.jinsight.modules.common.AbstractRuleSet;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Rules for the {@link Statement} methods that execute SQL passed as their first argument. Each
+ * overload gets rules of its own, so that the execute methods of prepared statements, which take
+ * no SQL, are left to the rules in {@code jdbc.btm}.
+ *
+ * @author Rajiv Shivane
+ */
+public class JdbcRuleSet extends AbstractRuleSet {
+
+  private static final String HELPER_NAME =
+      "ai.apptuit.metrics.jinsight.modules.jdbc.JdbcRuleHelper";
+
+  private final List<RuleInfo> rules = new ArrayList<>();
+
+  public JdbcRuleSet() {
+    interceptStatementExecute();
+  }
+
+  private void interceptStatementExecute() {
+    Method[] methods = Statement.class.getDeclaredMethods();
+    //sorted, so that the generated script does not change from build to build
+    Arrays.sort(methods, Comparator.comparing(JdbcRuleSet::getSignature));
+    for (Method method : methods) {
+      Class<?>[] parameterTypes = method.getParameterTypes();
+      if (method.getName().startsWith("execute") && parameterTypes.length > 0
+          && parameterTypes[0] == String.class) {
+        addRulesForExecute(method);
+      }
+    }
+  }
+
+  private void addRulesForExecute(Method method) {
+    String signature = getSignature(method);
+    addRule(Statement.class, signature, RuleInfo.AT_ENTRY, "onStatementExecuteEntry($0)");
+    if (method.getReturnType() == ResultSet.class) {
+      //the result set is tracked till it is closed
+      addRule(Statement.class, signature, RuleInfo.AT_EXIT,
+          "onStatementExecuteQueryExit($0, $1, $!)");
+    } else {
+      addRule(Statement.class, signature, RuleInfo.AT_EXIT,
+          "onStatementExecuteExit($0, $1, \"" + method.getName() + "\")");
+    }
+    addRule(Statement.class, signature, RuleInfo.AT_EXCEPTION_EXIT,
+        "onStatementExecuteError($0)");
+  }
+
+  private static String getSignature(Method method) {
+    return method.getName() + Arrays.stream(method.getParameterTypes())
+        .map(Class::getCanonicalName)
+        .collect(Collectors.joining(",", "(", ")"));
+  }
+
+  private void addRule(Class clazz, String methodName, String whereClause, String action) {
+    String ruleName = clazz + " " + methodName + " " + whereClause;
+    RuleInfo rule = new RuleInfo(ruleName, clazz.getName(), clazz.isInterface(), false,
+        methodName, HELPER_NAME, whereClause, null, null, action, null, null);
+    rules.add(rule);
+  }
+
+  @Override
+  public List<RuleInfo> getRules() {
+    return rules;
+  }
+}
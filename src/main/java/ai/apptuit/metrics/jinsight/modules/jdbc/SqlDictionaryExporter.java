@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends the ids of new SQL statements to a dictionary file, so that the {@code sql} tags of the
+ * JDBC metrics can be resolved to the SQL.
+ *
+ * <p>Each line holds an id and its SQL, separated by a tab. Tabs, line breaks and backslashes in
+ * the SQL are escaped with a backslash. Ids are derived from the SQL alone, so a statement
+ * exported again after a restart, or by another JVM, has the same id.</p>
+ *
+ * <p>Ids already in the file, including those written before a restart, are not written again.
+ * Statements that could not be written are retried in the next run. When the file grows beyond
+ * its maximum size, it is renamed to {@code <file>.1}, replacing an earlier one, and the new file
+ * starts with the statements in the cache.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public class SqlDictionaryExporter implements Runnable {
+
+  static final long MAX_FILE_BYTES = 16 * 1024 * 1024;
+
+  private static final Logger LOGGER = Logger.getLogger(SqlDictionaryExporter.class.getName());
+  private static final int MAX_PENDING = 10 * StringUniqueIdService.MAX_SIZE;
+
+  private final File file;
+  private final File rotatedFile;
+  private final long maxFileBytes;
+  private final Set<String> writtenIds = new HashSet<>();
+  private final Map<String, String> pending = new LinkedHashMap<>();
+  private final StringBuilder lines = new StringBuilder();
+  private boolean loaded = false;
+  private boolean errorLogged = false;
+
+  public SqlDictionaryExporter(File file) {
+    this(file, MAX_FILE_BYTES);
+  }
+
+  SqlDictionaryExporter(File file, long maxFileBytes) {
+    this.file = file;
+    this.rotatedFile = new File(file.getPath() + ".1");
+    this.maxFileBytes = maxFileBytes;
+  }
+
+  /**
+   * Exports the statements cached since the last run. Must not be called concurrently.
+   */
+  @Override
+  public void run() {
+    if (!loaded) {
+      loaded = true;
+      loadWrittenIds();
+    }
+    StringUniqueIdService.exportNewIds(this::addPending);
+    if (pending.isEmpty()) {
+      return;
+    }
+    try {
+      if (file.length() >= maxFileBytes) {
+        rotate();
+      }
+      lines.setLength(0);
+      pending.forEach((id, sql) -> {
+        lines.append(id).append('\t');
+        appendEscaped(lines, sql);
+        lines.append('\n');
+      });
+      Files.write(file.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      writtenIds.addAll(pending.keySet());
+      pending.clear();
+      errorLogged = false;
+    } catch (IOException e) {
+      //logged once till a write succeeds, the file is likely to stay unwritable
+      Level level = errorLogged ? Level.FINE : Level.WARNING;
+      errorLogged = true;
+      LOGGER.log(level, "Could not write SQL dictionary [" + file + "]", e);
+    }
+  }
+
+  private void addPending(String id, String sql) {
+    if (writtenIds.contains(id)) {
+      return;
+    }
+    if (pending.size() < MAX_PENDING) {
+      pending.put(id, sql);
+    } else {
+      LOGGER.fine("Too many SQL statements pending, dropping [" + id + "]");
+    }
+  }
+
+  private void rotate() throws IOException {
+    Files.move(file.toPath(), rotatedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    writtenIds.clear();
+    StringUniqueIdService.exportAllIds(this::addPending);
+  }
+
+  private void loadWrittenIds() {
+    if (!file.exists()) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab > 0) {
+          writtenIds.add(line.substring(0, tab));
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Could not read SQL dictionary [" + file + "]", e);
+    }
+  }
+
+  static void appendEscaped(StringBuilder sb, String sql) {
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      switch (c) {
+        case '\t':
+          sb.append("\\t");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+/**
+ * Reduces SQL text to the shape of the statement, so that statements that only differ in their
+ * literal values get the same id.
+ *
+ * <p>String and numeric literals are replaced with {@code ?}, the values of an {@code IN} list
+ * are collapsed to a single {@code ?}, comments are dropped and runs of whitespace are replaced
+ * with a single space. Quoted identifiers and the case of the text are left as they are.</p>
+ *
+ * <p>The text is scanned once, into a per-thread buffer, and a new string is only created if the
+ * text changed. Text that is already normalized, like most prepared statements, is returned as
+ * is.</p>
+ *
+ * @author Rajiv Shivane
+ */
+final class SqlNormalizer {
+
+  private static final int MAX_BUFFER_SIZE = 8 * 1024;
+  private static final ThreadLocal<char[]> buffers = ThreadLocal
+      .withInitial(() -> new char[256]);
+
+  private SqlNormalizer() {
+  }
+
+  static String normalize(String sql) {
+    if (sql == null) {
+      return null;
+    }
+    int length = sql.length();
+    char[] out = buffers.get();
+    if (out.length < length) {
+      out = new char[length];
+      if (length <= MAX_BUFFER_SIZE) {
+        buffers.set(out);
+      }
+    }
+
+    int o = 0;
+    boolean changed = false;
+    //index in out of the opening parenthesis of the IN list being scanned, or -1
+    int inList = -1;
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (isWhitespace(c) || isCommentStart(sql, i)) {
+        int end = skipWhitespaceAndComments(sql, i);
+        //a single space between tokens, none at the ends
+        if (o > 0 && end < length) {
+          out[o++] = ' ';
+          changed |= end - i != 1 || c != ' ';
+        } else {
+          changed = true;
+        }
+        i = end;
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, '\'');
+        o = appendPlaceholder(out, o, inList);
+        changed = true;
+      } else if (c == '"' || c == '`') {
+        int end = skipQuoted(sql, i, c);
+        sql.getChars(i, end, out, o);
+        o += end - i;
+        i = end;
+      } else if (isDigit(c) && (o == 0 || !isIdentifierPart(out[o - 1]))) {
+        i = skipNumber(sql, i);
+        o = appendPlaceholder(out, o, inList);
+        changed = true;
+      } else if (c == '?') {
+        int before = o;
+        o = appendPlaceholder(out, o, inList);
+        changed |= o != before + 1;
+        i++;
+      } else {
+        if (c == '(') {
+          inList = endsWithIn(out, o) ? o : -1;
+        } else if (c == ')') {
+          inList = -1;
+        }
+        out[o++] = c;
+        i++;
+      }
+    }
+    return changed ? new String(out, 0, o) : sql;
+  }
+
+  /**
+   * Appends a {@code ?}, unless it follows another one in an IN list.
+   *
+   * @return the new length of the output
+   */
+  private static int appendPlaceholder(char[] out, int o, int inList) {
+    if (inList >= 0) {
+      int last = o - 1;
+      while (last > inList && out[last] == ' ') {
+        last--;
+      }
+      if (out[last] == ',') {
+        int previous = last - 1;
+        while (previous > inList && out[previous] == ' ') {
+          previous--;
+        }
+        if (out[previous] == '?') {
+          return previous + 1;
+        }
+      }
+    }
+    out[o] = '?';
+    return o + 1;
+  }
+
+  private static boolean endsWithIn(char[] out, int o) {
+    int end = o;
+    while (end > 0 && out[end - 1] == ' ') {
+      end--;
+    }
+    return end >= 2 && (out[end - 1] == 'n' || out[end - 1] == 'N')
+        && (out[end - 2] == 'i' || out[end - 2] == 'I')
+        && (end == 2 || !isIdentifierPart(out[end - 3]));
+  }
+
+  /**
+   * @return index after the closing quote, or the length of the text if it is not closed
+   */
+  private static int skipQuoted(String sql, int start, char quote) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i++) == quote) {
+        //a doubled quote stands for the quote character
+        if (i < sql.length() && sql.charAt(i) == quote) {
+          i++;
+        } else {
+          return i;
+        }
+      }
+    }
+    return i;
+  }
+
+  private static int skipNumber(String sql, int start) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (isDigit(c) || c == '.' || Character.isLetter(c)) {
+        //hex digits, decimals and exponents
+        i++;
+      } else if ((c == '+' || c == '-') && (sql.charAt(i - 1) == 'e' || sql.charAt(i - 1) == 'E')
+          && !isHex(sql, start)) {
+        i++;
+      } else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isHex(String sql, int start) {
+    return start + 1 < sql.length() && sql.charAt(start) == '0'
+        && (sql.charAt(start + 1) == 'x' || sql.charAt(start + 1) == 'X');
+  }
+
+  private static int skipWhitespaceAndComments(String sql, int start) {
+    int i = start;
+    int length = sql.length();
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (isWhitespace(c)) {
+        i++;
+      } else if (c == '-' && isCommentStart(sql, i)) {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && isCommentStart(sql, i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isCommentStart(String sql, int i) {
+    char c = sql.charAt(i);
+    if (i + 1 >= sql.length()) {
+      return false;
+    }
+    char next = sql.charAt(i + 1);
+    return (c == '-' && next == '-') || (c == '/' && next == '*');
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.' || c == '"'
+        || c == '`' || c == '@' || c == ':';
+  }
+}
@@ -16,24 +16,69 @@
 
 package ai.apptuit.metrics.jinsight.modules.jdbc;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
+ * Maps SQL text to a short, stable id: the 128-bit MurmurHash3 (x64 variant, seed 0) of the
+ * UTF-16LE encoding of the text, as 32 hex digits.
+ *
+ * <p>Ids of the last {@value #MAX_SIZE} statements are cached. Lookups only read a concurrent map
+ * and mark the entry as recently used; a miss computes the id without locks, and only the insert
+ * into the cache is serialized. When the cache is full, inserts evict an entry that was not used
+ * since the last sweep, in the manner of the CLOCK algorithm.</p>
+ *
+ * <p>The ids are opaque, so that statements can be used as tags. Cached statements that were not
+ * yet exported can be written out with {@link #exportNewIds(BiConsumer)}, to map ids back to the
+ * SQL.</p>
+ *
  * @author Rajiv Shivane
  */
 public class StringUniqueIdService {
 
-  private static final Logger LOGGER = Logger.getLogger(StringUniqueIdService.class.getName());
-  private static final int MAX_SIZE = 1000;
-  private static Map<String, String> sqlIdCache = Collections.synchronizedMap(new LruMap(MAX_SIZE));
+  static final int MAX_SIZE = 1000;
+  private static final ClockCache sqlIdCache = new ClockCache(MAX_SIZE);
+  private static final LongAdder cacheHits = new LongAdder();
+  private static final LongAdder cacheMisses = new LongAdder();
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
 
+  public static int getCacheSize() {
+    return sqlIdCache.size();
+  }
+
+  public static long getCacheHits() {
+    return cacheHits.sum();
+  }
+
+  public static long getCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  /**
+   * Passes the id and SQL of each cached statement that was not exported before to {@code
+   * consumer}. Statements evicted before they were exported are exported again when they are
+   * next used.
+   *
+   * @return number of statements exported
+   */
+  public static int exportNewIds(BiConsumer<String, String> consumer) {
+    return sqlIdCache.export(consumer, false);
+  }
+
+  /**
+   * Passes the id and SQL of each cached statement to {@code consumer}, whether or not it was
+   * exported before.
+   *
+   * @return number of statements exported
+   */
+  public static int exportAllIds(BiConsumer<String, String> consumer) {
+    return sqlIdCache.export(consumer, true);
+  }
 
   public String getUniqueId(String sqlString) {
     if (sqlString == null) {
@@ -42,41 +87,178 @@ public class StringUniqueIdService {
 
     String sqlId = sqlIdCache.get(sqlString);
     if (sqlId != null) {
+      cacheHits.increment();
       return sqlId;
     }
 
+    cacheMisses.increment();
     sqlId = getIdFromServer(sqlString);
     sqlIdCache.put(sqlString, sqlId);
     return sqlId;
   }
 
   String getIdFromServer(String sqlString) {
-    String sqlId = null;
-    try {
-      MessageDigest md = MessageDigest.getInstance("MD5");
-      byte[] hash = md.digest(sqlString.getBytes("UTF-8"));
-      StringBuilder sb = new StringBuilder(2 * hash.length);
-      for (byte b : hash) {
-        sb.append(String.format("%02x", b & 0xff));
-      }
-      sqlId = sb.toString();
-    } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
-      LOGGER.log(Level.SEVERE, "Error generating unique id.", e);
+    return hash128(sqlString);
+  }
+
+  static String hash128(String s) {
+    int length = s.length();
+    long h1 = 0;
+    long h2 = 0;
+
+    //blocks of 16 bytes, i.e. 8 chars, packed little-endian
+    int blockEnd = length & ~7;
+    for (int i = 0; i < blockEnd; i += 8) {
+      long k1 = pack(s, i, i + 4);
+      long k2 = pack(s, i + 4, i + 8);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
     }
-    return sqlId;
+
+    int tail = length - blockEnd;
+    if (tail > 4) {
+      h2 ^= mixK2(pack(s, blockEnd + 4, length));
+    }
+    if (tail > 0) {
+      h1 ^= mixK1(pack(s, blockEnd, Math.min(blockEnd + 4, length)));
+    }
+
+    long byteLength = 2L * length;
+    h1 ^= byteLength;
+    h2 ^= byteLength;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+
+    char[] hex = new char[32];
+    appendHex(hex, 0, h1);
+    appendHex(hex, 16, h2);
+    return new String(hex);
+  }
+
+  private static long pack(String s, int from, int to) {
+    long k = 0;
+    for (int i = to - 1; i >= from; i--) {
+      k = (k << 16) | s.charAt(i);
+    }
+    return k;
+  }
+
+  private static long mixK1(long k1) {
+    return Long.rotateLeft(k1 * C1, 31) * C2;
   }
 
-  private static class LruMap extends LinkedHashMap<String, String> {
+  private static long mixK2(long k2) {
+    return Long.rotateLeft(k2 * C2, 33) * C1;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /**
+   * Writes the bytes of {@code value} in little-endian order, the byte order of the hash.
+   */
+  private static void appendHex(char[] hex, int offset, long value) {
+    for (int i = 0; i < 8; i++) {
+      int b = (int) (value >>> (8 * i)) & 0xff;
+      hex[offset + 2 * i] = HEX_DIGITS[b >>> 4];
+      hex[offset + 2 * i + 1] = HEX_DIGITS[b & 0xf];
+    }
+  }
+
+  /**
+   * A bounded map that evicts with the CLOCK algorithm: entries are kept in a ring, and the hand
+   * sweeping it for a victim gives entries used since its last pass a second chance.
+   */
+  private static final class ClockCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    //guarded by itself
+    private final Entry[] ring;
+    private int size;
+    private int hand;
+
+    ClockCache(int maxSize) {
+      this.ring = new Entry[maxSize];
+    }
 
-    private int maxSize;
+    String get(String key) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      //only written when it changes, so that hot entries do not bounce between caches
+      if (!entry.referenced) {
+        entry.referenced = true;
+      }
+      return entry.value;
+    }
+
+    void put(String key, String value) {
+      Entry entry = new Entry(key, value);
+      synchronized (ring) {
+        if (entries.containsKey(key)) {
+          return;
+        }
+        if (size < ring.length) {
+          ring[size++] = entry;
+        } else {
+          while (ring[hand].referenced) {
+            ring[hand].referenced = false;
+            hand = (hand + 1) % ring.length;
+          }
+          entries.remove(ring[hand].key);
+          ring[hand] = entry;
+          hand = (hand + 1) % ring.length;
+        }
+        entries.put(key, entry);
+      }
+    }
 
-    public LruMap(int maxSize) {
-      super(maxSize + 1, 0.1F, true);
-      this.maxSize = maxSize;
+    int size() {
+      return entries.size();
     }
 
-    public boolean removeEldestEntry(Map.Entry eldest) {
-      return size() > maxSize;
+    int export(BiConsumer<String, String> consumer, boolean all) {
+      int exported = 0;
+      for (Entry entry : entries.values()) {
+        if (all || !entry.exported) {
+          entry.exported = true;
+          consumer.accept(entry.value, entry.key);
+          exported++;
+        }
+      }
+      return exported;
+    }
+  }
+
+  private static final class Entry {
+
+    private final String key;
+    private final String value;
+    private volatile boolean referenced;
+    private volatile boolean exported;
+
+    Entry(String key, String value) {
+      this.key = key;
+      this.value = value;
     }
   }
 }
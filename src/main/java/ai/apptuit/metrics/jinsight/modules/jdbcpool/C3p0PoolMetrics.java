@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbcpool;
+
+import com.mchange.v2.c3p0.impl.AbstractPoolBackedDataSource;
+import com.mchange.v2.resourcepool.TimeoutException;
+import java.sql.SQLException;
+
+/**
+ * Connections of the default user, i.e. those returned by {@code getConnection()}.
+ *
+ * @author Rajiv Shivane
+ */
+class C3p0PoolMetrics extends PoolMetrics {
+
+  private final AbstractPoolBackedDataSource dataSource;
+
+  C3p0PoolMetrics(Object dataSource) {
+    this.dataSource = (AbstractPoolBackedDataSource) dataSource;
+  }
+
+  @Override
+  String getConfiguredName() {
+    //defaults to the identity token of the data source
+    return dataSource.getDataSourceName();
+  }
+
+  @Override
+  int getActive() throws SQLException {
+    return dataSource.getNumBusyConnectionsDefaultUser();
+  }
+
+  @Override
+  int getIdle() throws SQLException {
+    return dataSource.getNumIdleConnectionsDefaultUser();
+  }
+
+  @Override
+  int getTotal() throws SQLException {
+    return dataSource.getNumConnectionsDefaultUser();
+  }
+
+  @Override
+  boolean isTimeout(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof TimeoutException) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
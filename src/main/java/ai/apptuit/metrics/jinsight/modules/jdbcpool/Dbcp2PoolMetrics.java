@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbcpool;
+
+import java.util.NoSuchElementException;
+import org.apache.commons.dbcp2.BasicDataSource;
+
+/**
+ * @author Rajiv Shivane
+ */
+class Dbcp2PoolMetrics extends PoolMetrics {
+
+  private final BasicDataSource dataSource;
+
+  Dbcp2PoolMetrics(Object dataSource) {
+    this.dataSource = (BasicDataSource) dataSource;
+  }
+
+  @Override
+  String getConfiguredName() {
+    return dataSource.getJmxName();
+  }
+
+  @Override
+  int getActive() {
+    return dataSource.getNumActive();
+  }
+
+  @Override
+  int getIdle() {
+    return dataSource.getNumIdle();
+  }
+
+  @Override
+  int getTotal() {
+    return dataSource.getNumActive() + dataSource.getNumIdle();
+  }
+
+  @Override
+  boolean isTimeout(Throwable error) {
+    //commons-pool reports a borrow that timed out with a NoSuchElementException
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof NoSuchElementException) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbcpool;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * @author Rajiv Shivane
+ */
+class HikariPoolMetrics extends PoolMetrics {
+
+  private final HikariDataSource dataSource;
+
+  HikariPoolMetrics(Object dataSource) {
+    this.dataSource = (HikariDataSource) dataSource;
+  }
+
+  @Override
+  String getConfiguredName() {
+    //assigned when the pool is started, if not configured
+    return dataSource.getPoolName();
+  }
+
+  @Override
+  int getActive() {
+    HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+    return pool != null ? pool.getActiveConnections() : 0;
+  }
+
+  @Override
+  int getIdle() {
+    HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+    return pool != null ? pool.getIdleConnections() : 0;
+  }
+
+  @Override
+  int getTotal() {
+    HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+    return pool != null ? pool.getTotalConnections() : 0;
+  }
+
+  @Override
+  boolean isTimeout(Throwable error) {
+    return error instanceof SQLTransientConnectionException;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbcpool;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.byteman.rule.Rule;
+
+/**
+ * Discovers connection pools when they are constructed, and registers their metrics on the first
+ * {@code getConnection()}, when the configuration of the pool, and so its name, is complete.
+ *
+ * @author Rajiv Shivane
+ */
+public class JdbcPoolRuleHelper extends RuleHelper {
+
+  public static final TagEncodedMetricName ROOT_NAME = TagEncodedMetricName.decode("jdbc.pool");
+  public static final TagEncodedMetricName ACQUIRE_NAME = ROOT_NAME.submetric("acquire");
+  public static final TagEncodedMetricName TIMEOUTS_NAME = ROOT_NAME.submetric("timeouts");
+  public static final String POOL_TAG = "pool";
+
+  private static final Logger LOGGER = Logger.getLogger(JdbcPoolRuleHelper.class.getName());
+
+  private static final OperationId ACQUIRE_OPERATION = new OperationId(ACQUIRE_NAME.toString());
+
+  private static final String POOL_TYPE = "jdbc.pool.type";
+  private static final String POOL_NAME = "jdbc.pool.name";
+  private static final String POOL_PENDING = "jdbc.pool.pending";
+  //registered pools by name, which is unique among open pools
+  private static final Map<String, PoolMetrics> pools = new ConcurrentHashMap<>();
+  private static final Map<String, AtomicInteger> unnamedPoolCounts = new ConcurrentHashMap<>();
+
+  public JdbcPoolRuleHelper(Rule rule) {
+    super(rule);
+  }
+
+  /**
+   * @param poolType one of {@code hikari}, {@code c3p0}, {@code dbcp2} or {@code tomcat}
+   */
+  public void onPoolCreated(Object pool, String poolType) {
+    setObjectProperty(pool, POOL_TYPE, poolType);
+    setObjectProperty(pool, POOL_PENDING, new AtomicInteger());
+  }
+
+  public void onAcquireEntry(Object pool) {
+    AtomicInteger pending = getObjectProperty(pool, POOL_PENDING);
+    if (pending == null) {
+      return;
+    }
+    pending.incrementAndGet();
+    beginTimedOperation(ACQUIRE_OPERATION);
+  }
+
+  public void onAcquireExit(Object pool) {
+    AtomicInteger pending = getObjectProperty(pool, POOL_PENDING);
+    if (pending == null) {
+      return;
+    }
+    pending.decrementAndGet();
+    PoolMetrics metrics = getPoolMetrics(pool, pending);
+    endTimedOperation(ACQUIRE_OPERATION, metrics != null ? metrics.getAcquireTimer() : null);
+  }
+
+  public void onAcquireError(Object pool, Throwable error) {
+    AtomicInteger pending = getObjectProperty(pool, POOL_PENDING);
+    if (pending == null) {
+      return;
+    }
+    pending.decrementAndGet();
+    endTimedOperation(ACQUIRE_OPERATION, () -> null);
+    PoolMetrics metrics = getPoolMetrics(pool, pending);
+    if (metrics != null && metrics.isTimeout(error)) {
+      metrics.getTimeouts().inc();
+    }
+  }
+
+  public void onPoolClosed(Object pool) {
+    //not registered again by calls made after close
+    removeObjectProperty(pool, POOL_TYPE);
+    String name = removeObjectProperty(pool, POOL_NAME);
+    PoolMetrics metrics = name != null ? pools.remove(name) : null;
+    if (metrics != null) {
+      metrics.unregister(RegistryService.getMetricRegistry());
+    }
+  }
+
+  private PoolMetrics getPoolMetrics(Object pool, AtomicInteger pending) {
+    String name = getObjectProperty(pool, POOL_NAME);
+    if (name != null) {
+      return pools.get(name);
+    }
+    synchronized (pools) {
+      name = getObjectProperty(pool, POOL_NAME);
+      if (name != null) {
+        return pools.get(name);
+      }
+      String poolType = getObjectProperty(pool, POOL_TYPE);
+      if (poolType == null) {
+        return null;
+      }
+      PoolMetrics metrics = createPoolMetrics(poolType, pool);
+      String poolName = getUniqueName(poolType, metrics.getConfiguredName());
+      metrics.register(poolName, pending, RegistryService.getMetricRegistry());
+      pools.put(poolName, metrics);
+      setObjectProperty(pool, POOL_NAME, poolName);
+      LOGGER.fine(() -> "Registered metrics of " + poolType + " pool [" + poolName + "]");
+      return metrics;
+    }
+  }
+
+  private static PoolMetrics createPoolMetrics(String poolType, Object pool) {
+    //the classes of other libraries are not loaded
+    switch (poolType) {
+      case "hikari":
+        return new HikariPoolMetrics(pool);
+      case "c3p0":
+        return new C3p0PoolMetrics(pool);
+      case "dbcp2":
+        return new Dbcp2PoolMetrics(pool);
+      case "tomcat":
+        return new TomcatPoolMetrics(pool);
+      default:
+        throw new IllegalArgumentException("Unknown pool type [" + poolType + "]");
+    }
+  }
+
+  /**
+   * @return the configured name with characters other than letters, digits, '.', '_' and '-'
+   *     replaced, or {@code <type>-<n>} for pools without a name. A name already taken by an open
+   *     pool gets a suffix.
+   */
+  static String getUniqueName(String poolType, String configuredName) {
+    String baseName;
+    if (configuredName == null || configuredName.isEmpty()) {
+      baseName = poolType + "-" + unnamedPoolCounts
+          .computeIfAbsent(poolType, t -> new AtomicInteger()).incrementAndGet();
+    } else {
+      baseName = configuredName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+    String name = baseName;
+    for (int i = 2; pools.containsKey(name); i++) {
+      name = baseName + "-" + i;
+    }
+    if (!name.equals(baseName)) {
+      LOGGER.log(Level.WARNING, "Pool name [" + baseName + "] is already in use, reporting "
+          + "pool as [" + name + "]");
+    }
+    return name;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbcpool;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of one connection pool. Subclasses read the connection counts from the pool of a
+ * particular library, and are only loaded when a pool of that library is constructed.
+ *
+ * @author Rajiv Shivane
+ */
+abstract class PoolMetrics {
+
+  private final Set<String> registeredGauges = new TreeSet<>();
+  private Timer acquireTimer;
+  private Counter timeouts;
+
+  /**
+   * @return name set in the configuration of the pool, or null if there is none
+   */
+  abstract String getConfiguredName();
+
+  abstract int getActive() throws SQLException;
+
+  abstract int getIdle() throws SQLException;
+
+  abstract int getTotal() throws SQLException;
+
+  /**
+   * @return true if {@code error}, thrown by {@code getConnection()}, reports that no connection
+   *     became available in time
+   */
+  abstract boolean isTimeout(Throwable error);
+
+  /**
+   * @param pending number of threads in {@code getConnection()}, counted by the helper
+   */
+  void register(String poolName, AtomicInteger pending, MetricRegistry registry) {
+    register(registry, poolName, "active", this::getActive);
+    register(registry, poolName, "idle", this::getIdle);
+    register(registry, poolName, "total", this::getTotal);
+    register(registry, poolName, "pending", pending::get);
+    acquireTimer = registry.timer(getName(JdbcPoolRuleHelper.ACQUIRE_NAME, poolName));
+    timeouts = registry.counter(getName(JdbcPoolRuleHelper.TIMEOUTS_NAME, poolName));
+  }
+
+  private void register(MetricRegistry registry, String poolName, String metric,
+      PoolStatistic statistic) {
+    String name = getName(JdbcPoolRuleHelper.ROOT_NAME.submetric(metric), poolName);
+    registeredGauges.add(name);
+    registry.register(name, (Gauge<Integer>) () -> {
+      try {
+        return statistic.get();
+      } catch (SQLException e) {
+        //the gauge is left out of the report
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  private static String getName(TagEncodedMetricName metricName, String poolName) {
+    return metricName.withTags(JdbcPoolRuleHelper.POOL_TAG, poolName).toString();
+  }
+
+  /**
+   * Removes the gauges, which would otherwise keep the closed pool reachable. The acquire timer
+   * and the timeout count are left to be reported.
+   */
+  void unregister(MetricRegistry registry) {
+    registeredGauges.forEach(registry::remove);
+  }
+
+  Timer getAcquireTimer() {
+    return acquireTimer;
+  }
+
+  Counter getTimeouts() {
+    return timeouts;
+  }
+
+  private interface PoolStatistic {
+
+    int get() throws SQLException;
+  }
+}
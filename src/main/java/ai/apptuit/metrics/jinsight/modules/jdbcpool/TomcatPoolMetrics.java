@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbcpool;
+
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.apache.tomcat.jdbc.pool.PoolExhaustedException;
+
+/**
+ * @author Rajiv Shivane
+ */
+class TomcatPoolMetrics extends PoolMetrics {
+
+  private final DataSourceProxy dataSource;
+
+  TomcatPoolMetrics(Object dataSource) {
+    this.dataSource = (DataSourceProxy) dataSource;
+  }
+
+  @Override
+  String getConfiguredName() {
+    return dataSource.getName();
+  }
+
+  @Override
+  int getActive() {
+    return dataSource.getActive();
+  }
+
+  @Override
+  int getIdle() {
+    return dataSource.getIdle();
+  }
+
+  @Override
+  int getTotal() {
+    return dataSource.getSize();
+  }
+
+  @Override
+  boolean isTimeout(Throwable error) {
+    return error instanceof PoolExhaustedException;
+  }
+}
@@ -19,11 +19,9 @@ package ai.apptuit.metrics.jinsight.modules.jedis;
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 import ai.apptuit.metrics.jinsight.RegistryService;
 import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
-import com.codahale.metrics.Clock;
 import com.codahale.metrics.Timer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 import org.jboss.byteman.rule.Rule;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
@@ -49,9 +47,7 @@ public class JedisRuleHelper extends RuleHelper {
   public static final TagEncodedMetricName POOL_RELEASE_METRIC =
       TagEncodedMetricName.decode("jedis.pool.release");
 
-  private static final Clock clock = Clock.defaultClock();
 
-  private static final String TRANSACTION_START_TIME_PROP_NAME = "jedis.tx.start";
 
   private static final Timer txExecTimer = RegistryService.getMetricRegistry()
       .timer(TRANSACTIONS_EXEC_METRIC.toString());
@@ -207,40 +203,23 @@ public class JedisRuleHelper extends RuleHelper {
   }
 
   public void onTransactionBegin(Transaction tx) {
-    setObjectProperty(tx, TRANSACTION_START_TIME_PROP_NAME, clock.getTick());
+    beginObjectOperation(tx);
   }
 
   public void onTransactionExec(Transaction tx) {
-    Long startTime = removeObjectProperty(tx, TRANSACTION_START_TIME_PROP_NAME);
-    if (startTime == null) {
-      return;
-    }
-
-    long t = Clock.defaultClock().getTick() - startTime;
-    txExecTimer.update(t, TimeUnit.NANOSECONDS);
+    endObjectOperation(tx, () -> txExecTimer);
   }
 
   public void onTransactionDiscard(Transaction tx) {
-    Long startTime = removeObjectProperty(tx, TRANSACTION_START_TIME_PROP_NAME);
-    if (startTime == null) {
-      return;
-    }
-    long t = Clock.defaultClock().getTick() - startTime;
-    txDiscardTimer.update(t, TimeUnit.NANOSECONDS);
+    endObjectOperation(tx, () -> txDiscardTimer);
   }
 
   public void onPipelineBegin(Pipeline pipeline) {
-    setObjectProperty(pipeline, TRANSACTION_START_TIME_PROP_NAME, clock.getTick());
+    beginObjectOperation(pipeline);
   }
 
   public void onPipelineSync(Pipeline pipeline) {
-    Long startTime = removeObjectProperty(pipeline, TRANSACTION_START_TIME_PROP_NAME);
-    if (startTime == null) {
-      return;
-    }
-
-    long t = Clock.defaultClock().getTick() - startTime;
-    pipelineSyncTimer.update(t, TimeUnit.NANOSECONDS);
+    endObjectOperation(pipeline, () -> pipelineSyncTimer);
   }
 
   public void onPoolGetStart(Pool pool) {
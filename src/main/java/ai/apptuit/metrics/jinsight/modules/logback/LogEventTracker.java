@@ -18,6 +18,7 @@ package ai.apptuit.metrics.jinsight.modules.logback;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.MetricHandleCache;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 
@@ -33,7 +34,7 @@ public class LogEventTracker {
 
   private static final MetricRegistry registry = RegistryService.getMetricRegistry();
 
-  private final TagEncodedMetricName throwablesBaseName;
+  private final MetricHandleCache<String, Meter> throwablesByClass;
   private final Meter total;
   private final Meter trace;
   private final Meter debug;
@@ -48,7 +49,7 @@ public class LogEventTracker {
   }
 
   private LogEventTracker(TagEncodedMetricName appendsBase, TagEncodedMetricName throwablesBase) {
-    this.throwablesBaseName = throwablesBase;
+    throwablesByClass = MetricHandleCache.meters(throwablesBase, "class");
 
     total = registry.meter(appendsBase.submetric("total").toString());
     trace = registry.meter(appendsBase.withTags("level", "trace").toString());
@@ -57,7 +58,7 @@ public class LogEventTracker {
     warn = registry.meter(appendsBase.withTags("level", "warn").toString());
     error = registry.meter(appendsBase.withTags("level", "error").toString());
     fatal = registry.meter(appendsBase.withTags("level", "fatal").toString());
-    totalThrowables = registry.meter(this.throwablesBaseName.submetric("total").toString());
+    totalThrowables = registry.meter(throwablesBase.submetric("total").toString());
   }
 
   public void track(LogLevel level, boolean hasThrowableInfo, String throwableClassName) {
@@ -90,7 +91,7 @@ public class LogEventTracker {
     }
 
     if (throwableClassName != null) {
-      registry.meter(throwablesBaseName.withTags("class", throwableClassName).toString()).mark();
+      throwablesByClass.get(throwableClassName).mark();
     }
   }
 
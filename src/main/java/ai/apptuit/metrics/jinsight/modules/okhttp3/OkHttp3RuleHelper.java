@@ -17,10 +17,9 @@
 package ai.apptuit.metrics.jinsight.modules.okhttp3;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.modules.common.HttpMetricHandleCache;
 import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
 import com.codahale.metrics.Timer;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.jboss.byteman.rule.Rule;
@@ -34,7 +33,8 @@ public class OkHttp3RuleHelper extends RuleHelper {
 
   private static final OperationId EXECUTE_OPERATION = new OperationId("okhttp3.execute");
 
-  private Map<String, Timer> timers = new ConcurrentHashMap<>();
+  private static final HttpMetricHandleCache timers = HttpMetricHandleCache
+      .forRootName(ROOT_NAME);
 
   public OkHttp3RuleHelper(Rule rule) {
     super(rule);
@@ -49,15 +49,6 @@ public class OkHttp3RuleHelper extends RuleHelper {
   }
 
   public void onExecuteEnd(Request request, Response response) {
-    endTimedOperation(EXECUTE_OPERATION, () -> {
-      String method = request.method();
-      String status = "" + response.code();
-      return timers.computeIfAbsent(status + method, s -> {
-        TagEncodedMetricName metricName = ROOT_NAME.withTags(
-            "method", method,
-            "status", status);
-        return getTimer(metricName);
-      });
-    });
+    endTimedOperation(EXECUTE_OPERATION, timers.getTimer(request.method(), response.code()));
   }
 }
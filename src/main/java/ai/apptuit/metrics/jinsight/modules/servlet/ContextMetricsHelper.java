@@ -18,12 +18,11 @@ package ai.apptuit.metrics.jinsight.modules.servlet;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.HttpMetricHandleCache;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
@@ -42,7 +41,8 @@ public class ContextMetricsHelper {
   private TagEncodedMetricName requestCountRootMetric;
 
   private Counter activeRequestsCounter;
-  private Map<String, Timer> timers = new ConcurrentHashMap<>();
+  private HttpMetricHandleCache timers;
+  private volatile Timer untaggedTimer;
 
   public ContextMetricsHelper(TagEncodedMetricName serverPrefix, String contextPath) {
     if (contextPath.trim().equals("")) {
@@ -50,6 +50,7 @@ public class ContextMetricsHelper {
     }
     TagEncodedMetricName serverRootMetric = serverPrefix.withTags("context", contextPath);
     requestCountRootMetric = serverRootMetric.submetric("requests");
+    timers = new HttpMetricHandleCache(requestCountRootMetric);
     registry = RegistryService.getMetricRegistry();
     activeRequestsCounter = registry
         .counter(serverRootMetric.submetric("requests.active").toString());
@@ -78,14 +79,13 @@ public class ContextMetricsHelper {
   }
 
   private Timer getTimer(String method, int status) {
-    String key = String.valueOf(status) + method;
-    return timers.computeIfAbsent(key, s -> {
-      TagEncodedMetricName metric = requestCountRootMetric;
-      if (method != null) {
-        metric = metric.withTags("method", method, "status", String.valueOf(status));
-      }
-      return registry.timer(metric.toString());
-    });
+    if (method != null) {
+      return timers.getTimer(method, status);
+    }
+    if (untaggedTimer == null) {
+      untaggedTimer = registry.timer(requestCountRootMetric.toString());
+    }
+    return untaggedTimer;
   }
 
   public interface MeasurableJob {
@@ -19,11 +19,9 @@ package ai.apptuit.metrics.jinsight.modules.spymemcached;
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 import ai.apptuit.metrics.jinsight.RegistryService;
 import ai.apptuit.metrics.jinsight.modules.common.RuleHelper;
-import com.codahale.metrics.Clock;
 import com.codahale.metrics.Timer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.GetAndTouchOperation;
 import net.spy.memcached.ops.GetOperation;
@@ -41,8 +39,6 @@ public class SpymemcachedRuleHelper extends RuleHelper {
   public static final TagEncodedMetricName ROOT_NAME = TagEncodedMetricName
       .decode("memcached.commands");
 
-  private static final String OPERATION_PROPERTY_NAME = "spymemcached.Operation";
-  private static final Clock clock = Clock.defaultClock();
   private static final Map<String, Timer> opVsTimer = new ConcurrentHashMap<>();
 
   public SpymemcachedRuleHelper(Rule rule) {
@@ -50,29 +46,23 @@ public class SpymemcachedRuleHelper extends RuleHelper {
   }
 
   public void onOperationCreate(Operation operation) {
-    Long startTime = getObjectProperty(operation, OPERATION_PROPERTY_NAME);
-    if (startTime != null) {
+    if (getObjectStartTime(operation) != NO_START_TIME) {
       return;//re-entrant
     }
 
-    setObjectProperty(operation, OPERATION_PROPERTY_NAME, clock.getTick());
+    beginObjectOperationIfAbsent(operation);
   }
 
   public void onCallbackComplete(Operation operation) {
-    Long startTime = removeObjectProperty(operation, OPERATION_PROPERTY_NAME);
-    if (startTime == null) {
-      return;//re-entrant
-    }
-
-    String op = Operations.getOperationName(operation);
+    //not begun, when re-entrant
+    endObjectOperation(operation, () -> getTimer(Operations.getOperationName(operation)));
+  }
 
-    long t = clock.getTick() - startTime;
-    Timer timer = opVsTimer.computeIfAbsent(op, s -> {
+  private static Timer getTimer(String op) {
+    return opVsTimer.computeIfAbsent(op, s -> {
       String metricName = ROOT_NAME.withTags("command", op).toString();
       return RegistryService.getMetricRegistry().timer(metricName);
     });
-    timer.update(t, TimeUnit.NANOSECONDS);
-
   }
 
   static class Operations {
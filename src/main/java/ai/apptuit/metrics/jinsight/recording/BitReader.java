@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+/**
+ * Reads values written by a {@link BitWriter}.
+ *
+ * @author Rajiv Shivane
+ */
+class BitReader {
+
+  private final byte[] buffer;
+  private final long limit;
+  private long position;
+
+  BitReader(byte[] buffer) {
+    this.buffer = buffer;
+    this.limit = (long) buffer.length << 3;
+  }
+
+  boolean readBit() {
+    return readBits(1) != 0;
+  }
+
+  /**
+   * @throws IllegalStateException if there are fewer than {@code count} bits left
+   */
+  long readBits(int count) {
+    if (position + count > limit) {
+      throw new IllegalStateException("Read beyond the end of the column");
+    }
+    long value = 0;
+    while (count > 0) {
+      int index = (int) (position >>> 3);
+      int available = 8 - (int) (position & 7);
+      int read = Math.min(available, count);
+      int bits = (buffer[index] >>> (available - read)) & ((1 << read) - 1);
+      value = (value << read) | bits;
+      position += read;
+      count -= read;
+    }
+    return value;
+  }
+
+  /**
+   * Reads {@code count} bits as a two's complement number.
+   */
+  long readSigned(int count) {
+    long value = readBits(count);
+    return (value << (64 - count)) >> (64 - count);
+  }
+}
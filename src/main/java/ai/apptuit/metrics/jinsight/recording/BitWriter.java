@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes values of arbitrary bit lengths into a growable buffer, most significant bit first.
+ *
+ * @author Rajiv Shivane
+ */
+class BitWriter {
+
+  private byte[] buffer = new byte[64];
+  private long bitCount;
+
+  void writeBit(boolean bit) {
+    writeBits(bit ? 1 : 0, 1);
+  }
+
+  /**
+   * Writes the low {@code count} bits of {@code value}.
+   */
+  void writeBits(long value, int count) {
+    ensureCapacity(count);
+    while (count > 0) {
+      int index = (int) (bitCount >>> 3);
+      int free = 8 - (int) (bitCount & 7);
+      int written = Math.min(free, count);
+      int bits = (int) (value >>> (count - written)) & ((1 << written) - 1);
+      buffer[index] |= bits << (free - written);
+      bitCount += written;
+      count -= written;
+    }
+  }
+
+  long getBitCount() {
+    return bitCount;
+  }
+
+  int getByteCount() {
+    return (int) ((bitCount + 7) >>> 3);
+  }
+
+  void writeTo(DataOutput out) throws IOException {
+    out.write(buffer, 0, getByteCount());
+  }
+
+  void reset() {
+    Arrays.fill(buffer, 0, getByteCount(), (byte) 0);
+    bitCount = 0;
+  }
+
+  private void ensureCapacity(int count) {
+    int required = (int) ((bitCount + count + 7) >>> 3);
+    if (required > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, required));
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Samples of a number of consecutive snapshots, held compressed in memory until they are written
+ * out together.
+ *
+ * <p>Each series starts at the sample it first appeared in. A series missing from a later
+ * snapshot of the chunk is filled with {@code NaN}, which costs a single bit per sample when
+ * repeated. Columns of series are reused across chunks, and dropped when a series is missing from
+ * an entire chunk.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class Chunk {
+
+  private final TimestampColumn timestamps = new TimestampColumn();
+  private final Map<String, Series> series = new LinkedHashMap<>();
+
+  /**
+   * Starts the next snapshot.
+   */
+  void addTimestamp(long timestamp) {
+    timestamps.append(timestamp);
+  }
+
+  /**
+   * Adds a sample of a series to the current snapshot.
+   */
+  void addValue(String name, double value) {
+    int sample = timestamps.size() - 1;
+    Series s = series.get(name);
+    if (s == null) {
+      s = new Series(name);
+      series.put(name, s);
+    }
+    if (s.start < 0) {
+      s.start = sample;
+    } else if (s.values.size() > sample - s.start) {
+      return; //duplicate name in the snapshot
+    }
+    fillGap(s, sample);
+    s.values.append(value);
+  }
+
+  int getSampleCount() {
+    return timestamps.size();
+  }
+
+  TimestampColumn getTimestamps() {
+    return timestamps;
+  }
+
+  /**
+   * Completes the series that are missing from the last snapshots.
+   *
+   * @return series present in this chunk
+   */
+  Collection<Series> finish() {
+    Map<String, Series> present = new LinkedHashMap<>();
+    for (Series s : series.values()) {
+      if (s.start >= 0) {
+        fillGap(s, timestamps.size());
+        present.put(s.name, s);
+      }
+    }
+    return present.values();
+  }
+
+  void reset() {
+    timestamps.reset();
+    Iterator<Series> iterator = series.values().iterator();
+    while (iterator.hasNext()) {
+      Series s = iterator.next();
+      if (s.start < 0) {
+        iterator.remove();
+      } else {
+        s.values.reset();
+        s.start = -1;
+      }
+    }
+  }
+
+  private void fillGap(Series s, int sample) {
+    while (s.start + s.values.size() < sample) {
+      s.values.append(Double.NaN);
+    }
+  }
+
+  /**
+   * Samples of a series in a chunk.
+   */
+  static class Series {
+
+    final String name;
+    final ValueColumn values = new ValueColumn();
+    int start = -1;
+
+    Series(String name) {
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.SnapshotReader;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records snapshots of a registry to compressed time-series files, for offline processing.
+ *
+ * <p>Snapshots are accumulated in a {@link Chunk}, and written out every {@value #CHUNK_SAMPLES}
+ * snapshots, and when the recorder is stopped. Each metric is recorded as one or more series:
+ * counters as {@code .count}; meters as {@code .count} and {@code .rate} per second over one
+ * minute; histograms as {@code .count}, {@code .min}, {@code .max}, {@code .mean} and quantiles
+ * tagged with {@code quantile}; and timers as both, with durations in milliseconds. The files can
+ * be converted to CSV with {@link RecordingReader}.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public class MetricRecorder extends ScheduledReporter {
+
+  static final int CHUNK_SAMPLES = 60;
+  private static final Logger LOGGER = Logger.getLogger(MetricRecorder.class.getName());
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+  private static final int METERED_FIELDS = 2;
+  private static final int SNAPSHOT_FIELDS = 3 + QUANTILES.length;
+  private static final SnapshotReader READER = new SnapshotReader("recorder");
+
+  private final Clock clock;
+  private final RecordingWriter writer;
+  private final Chunk chunk = new Chunk();
+  private Map<String, String[]> seriesNames = new HashMap<>();
+  private Map<String, String[]> reportedNames = new HashMap<>();
+  private boolean writeFailed;
+
+  /**
+   * @param maxFileSize size at which a new recording file is started
+   * @param maxTotalSize total size of recording files, beyond which the oldest are deleted
+   */
+  public MetricRecorder(MetricRegistry registry, File directory, long maxFileSize,
+      long maxTotalSize) {
+    this(registry, new RecordingWriter(directory, maxFileSize, maxTotalSize),
+        Clock.defaultClock());
+  }
+
+  MetricRecorder(MetricRegistry registry, RecordingWriter writer, Clock clock) {
+    super(registry, "jinsight-recorder", MetricFilter.ALL, TimeUnit.SECONDS,
+        TimeUnit.MILLISECONDS);
+    this.writer = writer;
+    this.clock = clock;
+  }
+
+  @Override
+  public void report() {
+    READER.run(super::report);
+  }
+
+  @Override
+  public synchronized void report(SortedMap<String, Gauge> gauges,
+      SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms,
+      SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+    chunk.addTimestamp(clock.getTime());
+    gauges.forEach((name, gauge) -> {
+      Object value;
+      try {
+        value = gauge.getValue();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.FINE, "Error reading gauge [" + name + "]", e);
+        return;
+      }
+      if (value instanceof Number) {
+        chunk.addValue(getSeriesNames(name, 0)[0], ((Number) value).doubleValue());
+      } else if (value instanceof Boolean) {
+        chunk.addValue(getSeriesNames(name, 0)[0], (Boolean) value ? 1 : 0);
+      }
+    });
+    counters.forEach((name, counter) ->
+        chunk.addValue(getSeriesNames(name, 0)[1], counter.getCount()));
+    histograms.forEach((name, histogram) -> {
+      String[] names = getSeriesNames(name, SNAPSHOT_FIELDS);
+      chunk.addValue(names[1], histogram.getCount());
+      addSnapshot(names, 1 + METERED_FIELDS, histogram.getSnapshot(), 1);
+    });
+    meters.forEach((name, meter) -> {
+      String[] names = getSeriesNames(name, 0);
+      chunk.addValue(names[1], meter.getCount());
+      chunk.addValue(names[2], meter.getOneMinuteRate());
+    });
+    timers.forEach((name, timer) -> {
+      String[] names = getSeriesNames(name, SNAPSHOT_FIELDS);
+      chunk.addValue(names[1], timer.getCount());
+      chunk.addValue(names[2], timer.getOneMinuteRate());
+      addSnapshot(names, 1 + METERED_FIELDS, timer.getSnapshot(), NANOS_PER_MILLI);
+    });
+
+    Map<String, String[]> previous = seriesNames;
+    seriesNames = reportedNames;
+    reportedNames = previous;
+    reportedNames.clear();
+
+    if (chunk.getSampleCount() >= CHUNK_SAMPLES) {
+      writeChunk();
+    }
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    synchronized (this) {
+      writeChunk();
+      try {
+        writer.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, "Error closing metrics recording", e);
+      }
+    }
+  }
+
+  private void addSnapshot(String[] names, int offset, Snapshot snapshot, double divisor) {
+    chunk.addValue(names[offset], snapshot.getMin() / divisor);
+    chunk.addValue(names[offset + 1], snapshot.getMax() / divisor);
+    chunk.addValue(names[offset + 2], snapshot.getMean() / divisor);
+    for (int i = 0; i < QUANTILES.length; i++) {
+      chunk.addValue(names[offset + 3 + i], snapshot.getValue(QUANTILES[i]) / divisor);
+    }
+  }
+
+  private void writeChunk() {
+    try {
+      writer.write(chunk);
+      if (writeFailed) {
+        LOGGER.info("Recording metrics recovered");
+        writeFailed = false;
+      }
+    } catch (IOException e) {
+      if (!writeFailed) {
+        LOGGER.log(Level.SEVERE, "Error writing metrics recording, samples are dropped", e);
+        writeFailed = true;
+      }
+      try {
+        writer.close();
+      } catch (IOException closeError) {
+        LOGGER.log(Level.FINE, closeError.toString(), closeError);
+      }
+    } finally {
+      chunk.reset();
+    }
+  }
+
+  /**
+   * @return names of the series of a metric: the name itself, followed by {@code .count},
+   *     {@code .rate}, {@code .min}, {@code .max}, {@code .mean} and quantiles, as needed
+   */
+  private String[] getSeriesNames(String registryName, int snapshotFields) {
+    String[] names = seriesNames.get(registryName);
+    if (names == null || names.length < 1 + METERED_FIELDS + snapshotFields) {
+      TagEncodedMetricName name = TagEncodedMetricName.decode(registryName);
+      names = new String[1 + METERED_FIELDS + snapshotFields];
+      names[0] = registryName;
+      names[1] = name.submetric("count").toString();
+      names[2] = name.submetric("rate").withTags("window", "1m").toString();
+      if (snapshotFields > 0) {
+        int offset = 1 + METERED_FIELDS;
+        names[offset] = name.submetric("min").toString();
+        names[offset + 1] = name.submetric("max").toString();
+        names[offset + 2] = name.submetric("mean").toString();
+        for (int i = 0; i < QUANTILES.length; i++) {
+          names[offset + 3 + i] = name.withTags("quantile", Double.toString(QUANTILES[i]))
+              .toString();
+        }
+      }
+    }
+    reportedNames.put(registryName, names);
+    return names;
+  }
+}
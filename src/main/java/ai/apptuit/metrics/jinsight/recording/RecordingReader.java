@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads recording files written by {@link MetricRecorder}, and converts them to CSV.
+ *
+ * <p>Usage: {@code java -cp jinsight.jar ai.apptuit.metrics.jinsight.recording.RecordingReader
+ * <file or directory>...}. Writes {@code timestamp,metric,value} rows to standard output, with
+ * timestamps in milliseconds since the epoch. Directories are expanded to the recording files in
+ * them, oldest first.</p>
+ *
+ * @author Rajiv Shivane
+ */
+public class RecordingReader {
+
+  private RecordingReader() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: java -cp jinsight.jar " + RecordingReader.class.getName()
+          + " <file or directory>...");
+      System.exit(1);
+    }
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    out.write("timestamp,metric,value\n");
+    for (String arg : args) {
+      File path = new File(arg);
+      File[] files = path.isDirectory() ? RecordingWriter.listRecordingFiles(path)
+          : new File[]{path};
+      for (File file : files) {
+        writeCsv(file, out);
+      }
+    }
+    out.flush();
+  }
+
+  static void writeCsv(File file, Writer out) throws IOException {
+    IOException[] error = new IOException[1];
+    read(file, (timestamp, metric, value) -> {
+      if (error[0] != null) {
+        return;
+      }
+      try {
+        out.write(Long.toString(timestamp));
+        out.write(',');
+        out.write(escapeCsv(metric));
+        out.write(',');
+        out.write(Double.toString(value));
+        out.write('\n');
+      } catch (IOException e) {
+        error[0] = e;
+      }
+    });
+    if (error[0] != null) {
+      throw error[0];
+    }
+  }
+
+  /**
+   * Reads the samples of a recording file in time order. Samples recorded as {@code NaN} are
+   * skipped. A chunk left incomplete by a crash ends the file.
+   *
+   * @throws IOException if the file is not a recording file, or cannot be read
+   */
+  public static void read(File file, SampleConsumer consumer) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != RecordingWriter.MAGIC) {
+        throw new IOException("Not a recording file: " + file);
+      }
+      int version = in.readUnsignedByte();
+      if (version != RecordingWriter.VERSION) {
+        throw new IOException("Unsupported recording version [" + version + "]: " + file);
+      }
+      List<String> nameTable = new ArrayList<>();
+      byte[] payload;
+      while ((payload = readChunk(in)) != null) {
+        readSamples(new DataInputStream(new ByteArrayInputStream(payload)), nameTable,
+            consumer);
+      }
+    }
+  }
+
+  private static byte[] readChunk(DataInputStream in) throws IOException {
+    try {
+      int length = in.readInt();
+      int crc = in.readInt();
+      if (length < 0) {
+        return null;
+      }
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      CRC32 actual = new CRC32();
+      actual.update(payload);
+      return (int) actual.getValue() == crc ? payload : null;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  private static void readSamples(DataInput in, List<String> nameTable,
+      SampleConsumer consumer) throws IOException {
+    int newNames = readVarint(in);
+    for (int i = 0; i < newNames; i++) {
+      nameTable.add(in.readUTF());
+    }
+    int sampleCount = readVarint(in);
+    long[] timestamps = TimestampColumn.decode(new BitReader(readBytes(in)), sampleCount);
+    int seriesCount = readVarint(in);
+    String[] names = new String[seriesCount];
+    int[] starts = new int[seriesCount];
+    double[][] values = new double[seriesCount][];
+    for (int i = 0; i < seriesCount; i++) {
+      names[i] = nameTable.get(readVarint(in));
+      starts[i] = readVarint(in);
+      values[i] = ValueColumn.decode(new BitReader(readBytes(in)), sampleCount - starts[i]);
+    }
+    for (int sample = 0; sample < sampleCount; sample++) {
+      for (int i = 0; i < seriesCount; i++) {
+        if (sample >= starts[i] && !Double.isNaN(values[i][sample - starts[i]])) {
+          consumer.accept(timestamps[sample], names[i], values[i][sample - starts[i]]);
+        }
+      }
+    }
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[readVarint(in)];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  static int readVarint(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  static String escapeCsv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  /**
+   * Receives the samples read from a recording.
+   */
+  public interface SampleConsumer {
+
+    void accept(long timestamp, String metric, double value);
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import ai.apptuit.metrics.jinsight.recording.Chunk.Series;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Appends chunks to recording files in a directory, rotating them at a size, and deleting the
+ * oldest ones to keep the directory under a size cap.
+ *
+ * <p>A recording file starts with a header, followed by chunks. Each chunk is framed by its
+ * length and CRC32, so that a chunk left incomplete by a crash is detected by readers. The names
+ * of series are written once per file: a chunk lists the names that first appear in it, and
+ * refers to series by their index in the file's name table.</p>
+ *
+ * <pre>
+ * file:    int magic, byte version, chunk*
+ * chunk:   int length, int crc, payload
+ * payload: varint nameCount, utf name*,
+ *          varint sampleCount, varint byteCount, timestamp column,
+ *          varint seriesCount, (varint nameIndex, varint start, varint byteCount, value column)*
+ * </pre>
+ *
+ * @author Rajiv Shivane
+ */
+class RecordingWriter implements Closeable {
+
+  static final int MAGIC = 0x4a495453; //JITS
+  static final int VERSION = 1;
+  static final String FILE_PREFIX = "metrics-";
+  static final String FILE_SUFFIX = ".jits";
+  private static final Logger LOGGER = Logger.getLogger(RecordingWriter.class.getName());
+
+  private final File directory;
+  private final long maxFileSize;
+  private final long maxTotalSize;
+  private final PayloadBuffer payload = new PayloadBuffer();
+  private final DataOutputStream payloadOut = new DataOutputStream(payload);
+  private final CRC32 crc = new CRC32();
+  private final Map<String, Integer> nameTable = new HashMap<>();
+  private File currentFile;
+  private DataOutputStream out;
+  private long fileSize;
+
+  /**
+   * @param maxFileSize size at which a new file is started
+   * @param maxTotalSize total size of recording files, beyond which the oldest are deleted
+   */
+  RecordingWriter(File directory, long maxFileSize, long maxTotalSize) {
+    this.directory = directory;
+    this.maxFileSize = maxFileSize;
+    this.maxTotalSize = maxTotalSize;
+  }
+
+  void write(Chunk chunk) throws IOException {
+    if (chunk.getSampleCount() == 0) {
+      return;
+    }
+    Collection<Series> series = chunk.finish();
+    TimestampColumn timestamps = chunk.getTimestamps();
+    if (out == null) {
+      openFile(timestamps);
+    }
+
+    payload.reset();
+    int nameCount = nameTable.size();
+    int newNames = 0;
+    for (Series s : series) {
+      if (!nameTable.containsKey(s.name)) {
+        newNames++;
+      }
+    }
+    writeVarint(payloadOut, newNames);
+    for (Series s : series) {
+      if (!nameTable.containsKey(s.name)) {
+        nameTable.put(s.name, nameCount++);
+        payloadOut.writeUTF(s.name);
+      }
+    }
+    writeVarint(payloadOut, timestamps.size());
+    writeVarint(payloadOut, timestamps.getWriter().getByteCount());
+    timestamps.getWriter().writeTo(payloadOut);
+    writeVarint(payloadOut, series.size());
+    for (Series s : series) {
+      writeVarint(payloadOut, nameTable.get(s.name));
+      writeVarint(payloadOut, s.start);
+      writeVarint(payloadOut, s.values.getWriter().getByteCount());
+      s.values.getWriter().writeTo(payloadOut);
+    }
+
+    crc.reset();
+    crc.update(payload.getBuffer(), 0, payload.size());
+    out.writeInt(payload.size());
+    out.writeInt((int) crc.getValue());
+    out.write(payload.getBuffer(), 0, payload.size());
+    out.flush();
+    fileSize += 8 + payload.size();
+
+    if (fileSize >= maxFileSize) {
+      close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      try {
+        out.close();
+      } finally {
+        out = null;
+        nameTable.clear();
+      }
+    }
+  }
+
+  File getCurrentFile() {
+    return out != null ? currentFile : null;
+  }
+
+  private void openFile(TimestampColumn timestamps) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create recording directory [" + directory + "]");
+    }
+    long start = timestamps.getFirst();
+    File file = new File(directory, String.format("%s%013d%s", FILE_PREFIX, start, FILE_SUFFIX));
+    while (file.exists()) {
+      start++;
+      file = new File(directory, String.format("%s%013d%s", FILE_PREFIX, start, FILE_SUFFIX));
+    }
+    currentFile = file;
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    fileSize = 5;
+    deleteOldFiles();
+  }
+
+  private void deleteOldFiles() {
+    File[] files = listRecordingFiles(directory);
+    long totalSize = 0;
+    for (File file : files) {
+      totalSize += file.length();
+    }
+    //the file just started is the newest, and is never deleted
+    for (int i = 0; i < files.length - 1 && totalSize + maxFileSize > maxTotalSize; i++) {
+      totalSize -= files[i].length();
+      if (!files[i].delete()) {
+        LOGGER.warning("Could not delete old recording file [" + files[i] + "]");
+      }
+    }
+  }
+
+  /**
+   * @return recording files in the directory, oldest first
+   */
+  static File[] listRecordingFiles(File directory) {
+    File[] files = directory.listFiles((dir, name) ->
+        name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+    if (files == null) {
+      return new File[0];
+    }
+    Arrays.sort(files);
+    return files;
+  }
+
+  static void writeVarint(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Exposes its buffer, so that the payload can be written without copying it.
+   */
+  private static class PayloadBuffer extends ByteArrayOutputStream {
+
+    PayloadBuffer() {
+      super(64 * 1024);
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
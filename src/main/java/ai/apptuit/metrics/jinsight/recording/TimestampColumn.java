@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+/**
+ * Compresses increasing timestamps with delta-of-delta encoding.
+ *
+ * <p>The first timestamp is written in full. Each of the rest is written as the difference
+ * between its delta and the previous delta, which is zero for a regular reporting interval and
+ * takes a single bit. Small differences from scheduling jitter take 9 to 16 bits, and anything
+ * else 68 bits.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class TimestampColumn {
+
+  private static final int[] VALUE_BITS = {7, 9, 12};
+
+  private final BitWriter writer = new BitWriter();
+  private int count;
+  private long first;
+  private long previous;
+  private long previousDelta;
+
+  void append(long timestamp) {
+    if (count == 0) {
+      writer.writeBits(timestamp, 64);
+      first = timestamp;
+    } else {
+      long delta = timestamp - previous;
+      writeDeltaOfDelta(delta - previousDelta);
+      previousDelta = delta;
+    }
+    previous = timestamp;
+    count++;
+  }
+
+  int size() {
+    return count;
+  }
+
+  long getFirst() {
+    return first;
+  }
+
+  BitWriter getWriter() {
+    return writer;
+  }
+
+  void reset() {
+    writer.reset();
+    count = 0;
+    previous = 0;
+    previousDelta = 0;
+  }
+
+  private void writeDeltaOfDelta(long deltaOfDelta) {
+    if (deltaOfDelta == 0) {
+      writer.writeBit(false);
+      return;
+    }
+    for (int i = 0; i < VALUE_BITS.length; i++) {
+      int bits = VALUE_BITS[i];
+      if (deltaOfDelta >= -(1L << (bits - 1)) && deltaOfDelta < (1L << (bits - 1))) {
+        //prefix of i + 1 ones and a zero
+        writer.writeBits((1L << (i + 2)) - 2, i + 2);
+        writer.writeBits(deltaOfDelta, bits);
+        return;
+      }
+    }
+    writer.writeBits(0xF, 4);
+    writer.writeBits(deltaOfDelta, 64);
+  }
+
+  static long[] decode(BitReader reader, int count) {
+    long[] timestamps = new long[count];
+    long previous = 0;
+    long previousDelta = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0) {
+        previous = reader.readBits(64);
+      } else {
+        previousDelta += readDeltaOfDelta(reader);
+        previous += previousDelta;
+      }
+      timestamps[i] = previous;
+    }
+    return timestamps;
+  }
+
+  private static long readDeltaOfDelta(BitReader reader) {
+    int ones = 0;
+    while (ones < VALUE_BITS.length + 1 && reader.readBit()) {
+      ones++;
+    }
+    if (ones == 0) {
+      return 0;
+    }
+    return ones <= VALUE_BITS.length ? reader.readSigned(VALUE_BITS[ones - 1])
+        : reader.readBits(64);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+/**
+ * Compresses doubles by XOR-ing each value with the previous one.
+ *
+ * <p>Consecutive samples of a metric are often equal, or differ only in a few bits of their
+ * mantissa. An unchanged value takes a single bit. Otherwise, only the bits between the leading
+ * and trailing zeros of the XOR are written, reusing the previous value's window when the bits
+ * fit in it, and prefixed with the new window's position when they do not.</p>
+ *
+ * @author Rajiv Shivane
+ */
+class ValueColumn {
+
+  private static final int LEADING_ZEROS_BITS = 5;
+  private static final int MAX_LEADING_ZEROS = (1 << LEADING_ZEROS_BITS) - 1;
+  private static final int SIGNIFICANT_BITS_BITS = 6;
+
+  private final BitWriter writer = new BitWriter();
+  private int count;
+  private long previous;
+  private int previousLeading = -1;
+  private int previousTrailing;
+
+  void append(double value) {
+    long bits = Double.doubleToLongBits(value);
+    if (count++ == 0) {
+      writer.writeBits(bits, 64);
+      previous = bits;
+      return;
+    }
+    long xor = bits ^ previous;
+    previous = bits;
+    if (xor == 0) {
+      writer.writeBit(false);
+      return;
+    }
+    writer.writeBit(true);
+    int leading = Math.min(Long.numberOfLeadingZeros(xor), MAX_LEADING_ZEROS);
+    int trailing = Long.numberOfTrailingZeros(xor);
+    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+      writer.writeBit(false);
+      writer.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+    } else {
+      int significant = 64 - leading - trailing;
+      writer.writeBit(true);
+      writer.writeBits(leading, LEADING_ZEROS_BITS);
+      //significant bits range from 1 to 64, and are written less one
+      writer.writeBits(significant - 1, SIGNIFICANT_BITS_BITS);
+      writer.writeBits(xor >>> trailing, significant);
+      previousLeading = leading;
+      previousTrailing = trailing;
+    }
+  }
+
+  int size() {
+    return count;
+  }
+
+  BitWriter getWriter() {
+    return writer;
+  }
+
+  void reset() {
+    writer.reset();
+    count = 0;
+    previous = 0;
+    previousLeading = -1;
+    previousTrailing = 0;
+  }
+
+  static double[] decode(BitReader reader, int count) {
+    double[] values = new double[count];
+    long previous = 0;
+    int leading = 0;
+    int trailing = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0) {
+        previous = reader.readBits(64);
+      } else if (reader.readBit()) {
+        if (reader.readBit()) {
+          leading = (int) reader.readBits(LEADING_ZEROS_BITS);
+          int significant = (int) reader.readBits(SIGNIFICANT_BITS_BITS) + 1;
+          trailing = 64 - leading - significant;
+        }
+        previous ^= reader.readBits(64 - leading - trailing) << trailing;
+      }
+      values[i] = Double.longBitsToDouble(previous);
+    }
+    return values;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+
+import ai.apptuit.metrics.jinsight.modules.common.OperationSampler;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class AdaptiveSamplingControllerTest {
+
+  private static final double BUDGET = 0.125;
+
+  @After
+  public void tearDown() throws Exception {
+    OperationSampler.setSamplingInterval(1);
+    OperationSampler.setCostTracked(false);
+  }
+
+  @Test
+  public void testIntervalRaisedToFitBudget() throws Exception {
+    assertEquals(4, AdaptiveSamplingController.nextInterval(1, 0.5, BUDGET));
+    assertEquals(12, AdaptiveSamplingController.nextInterval(4, 0.375, BUDGET));
+  }
+
+  @Test
+  public void testIntervalBoundedByMax() throws Exception {
+    assertEquals(OperationSampler.MAX_SAMPLING_INTERVAL,
+        AdaptiveSamplingController.nextInterval(512, 1.0, BUDGET));
+  }
+
+  @Test
+  public void testIntervalLoweredGradually() throws Exception {
+    assertEquals(8, AdaptiveSamplingController.nextInterval(16, 0, BUDGET));
+    assertEquals(12, AdaptiveSamplingController.nextInterval(16, 0.09375, BUDGET));
+    assertEquals(1, AdaptiveSamplingController.nextInterval(1, 0, BUDGET));
+  }
+
+  @Test
+  public void testAdjust() throws Exception {
+    AtomicLong cpuTime = new AtomicLong();
+    AtomicLong recordingTime = new AtomicLong();
+    AdaptiveSamplingController controller = new AdaptiveSamplingController(BUDGET,
+        cpuTime::get, recordingTime::get);
+
+    cpuTime.addAndGet(1_000_000_000);
+    recordingTime.addAndGet(625_000_000);
+    controller.adjust();
+    assertEquals(5, OperationSampler.getSamplingInterval());
+
+    //no CPU time used in the period
+    recordingTime.addAndGet(625_000_000);
+    controller.adjust();
+    assertEquals(5, OperationSampler.getSamplingInterval());
+
+    cpuTime.addAndGet(1_000_000_000);
+    controller.adjust();
+    assertEquals(2, OperationSampler.getSamplingInterval());
+  }
+}
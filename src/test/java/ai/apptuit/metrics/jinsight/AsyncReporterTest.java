@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class AsyncReporterTest {
+
+  private static final String TOKEN = "test-token";
+  private static final int TIMEOUT_MILLIS = 500;
+  private static final long RETRY_DELAY_MILLIS = 50;
+
+  private ApiStandIn api;
+  private MetricRegistry registry;
+  private Counter counter;
+  private File spoolPath;
+  private AsyncReporter reporter;
+
+  @Before
+  public void setUp() throws Exception {
+    api = new ApiStandIn();
+    registry = new MetricRegistry();
+    counter = registry.counter("test.counter");
+    spoolPath = File.createTempFile("jinsight", ".spool");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (reporter != null) {
+      reporter.stop();
+    }
+    api.stop();
+    spoolPath.delete();
+  }
+
+  @Test
+  public void testSendsCompressedDataPoints() throws Exception {
+    reporter = newReporter(16, openSpool());
+    counter.inc(7);
+    reporter.report();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> api.received.size() == 1);
+    String payload = api.received.get(0);
+    assertTrue(payload, payload.startsWith("[{") && payload.endsWith("}]"));
+    assertTrue(payload, payload.contains("\"metric\":\"test.counter.count\""));
+    assertTrue(payload, payload.contains("\"value\":7,\"tags\":{\"env\":\"test\"}"));
+    assertEquals("Bearer " + TOKEN, api.authorization);
+  }
+
+  @Test
+  public void testOutageSpooledAndDrainedOnRecovery() throws Exception {
+    api.status = 503;
+    reporter = newReporter(16, openSpool());
+    for (int i = 1; i <= 3; i++) {
+      counter.inc();
+      reporter.report();
+      //let each cycle be sent, and spooled, on its own
+      await().atMost(5, TimeUnit.SECONDS).until(() -> getGauge("queue.size") == 0);
+    }
+    await().atMost(5, TimeUnit.SECONDS).until(() -> getGauge("spool.bytes") > 0);
+    assertTrue(api.received.isEmpty());
+
+    api.status = 200;
+    await().atMost(10, TimeUnit.SECONDS).until(() -> getGauge("spool.bytes") == 0);
+    String received = String.join("", api.received);
+    for (int i = 1; i <= 3; i++) {
+      assertTrue(received, received.contains("\"value\":" + i + ","));
+    }
+    assertEquals(0, getGauge("batches.dropped"));
+  }
+
+  @Test
+  public void testSlowApiDoesNotBlockReporting() throws Exception {
+    api.delayMillis = TIMEOUT_MILLIS * 4;
+    reporter = newReporter(16, openSpool());
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      counter.inc();
+      reporter.report();
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Reporting took " + elapsedMillis + "ms", elapsedMillis < TIMEOUT_MILLIS);
+
+    //the timed out batch is spooled, to be retried
+    await().atMost(5, TimeUnit.SECONDS).until(() -> getGauge("spool.bytes") > 0);
+  }
+
+  @Test
+  public void testOldestCycleDroppedWhenQueueFull() throws Exception {
+    api.delayMillis = TIMEOUT_MILLIS * 4;
+    reporter = newReporter(1, null);
+    //wait for the sender to be busy with the first cycle
+    counter.inc();
+    reporter.report();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> api.requests > 0);
+
+    for (int i = 0; i < 3; i++) {
+      reporter.report();
+    }
+    assertEquals(1, getGauge("queue.size"));
+    assertEquals(2, getGauge("queue.dropped"));
+  }
+
+  @Test
+  public void testRejectedBatchNotRetried() throws Exception {
+    api.status = 400;
+    reporter = newReporter(16, openSpool());
+    reporter.report();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> getGauge("batches.dropped") == 1);
+    assertEquals(0, getGauge("spool.bytes"));
+    assertEquals(1, api.requests);
+  }
+
+  @Test
+  public void testQueuedCyclesSpooledOnStop() throws Exception {
+    api.status = 503;
+    reporter = newReporter(16, openSpool());
+    reporter.report();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> getGauge("spool.bytes") > 0);
+    //the sender is backing off, so this cycle stays queued
+    counter.inc(5);
+    reporter.report();
+    reporter.stop();
+    reporter = null;
+
+    SpoolFile spool = SpoolFile.open(spoolPath, 64 * 1024);
+    try {
+      assertEquals(2, spool.getRecordCount());
+      spool.remove();
+      byte[] record = spool.peek();
+      String payload = new String(GzipBufferTest.gunzip(record, record.length),
+          StandardCharsets.UTF_8);
+      assertTrue(payload, payload.contains("\"value\":5,"));
+    } finally {
+      spool.close();
+    }
+  }
+
+  @Test
+  public void testQueuedCyclesSpooledOnStopWithoutSender() throws Exception {
+    reporter = new AsyncReporter(registry, api.getUrl(), TOKEN, Collections.emptyMap(),
+        openSpool(), 16, TIMEOUT_MILLIS, RETRY_DELAY_MILLIS);
+    reporter.report();
+    reporter.stop();
+    reporter = null;
+
+    SpoolFile spool = SpoolFile.open(spoolPath, 64 * 1024);
+    try {
+      assertEquals(1, spool.getRecordCount());
+    } finally {
+      spool.close();
+    }
+    assertEquals(0, api.requests);
+  }
+
+  private SpoolFile openSpool() throws IOException {
+    return SpoolFile.open(spoolPath, 64 * 1024);
+  }
+
+  private AsyncReporter newReporter(int queueCapacity, SpoolFile spool) {
+    AsyncReporter asyncReporter = new AsyncReporter(registry, api.getUrl(), TOKEN,
+        Collections.singletonMap("env", "test"), spool, queueCapacity, TIMEOUT_MILLIS,
+        RETRY_DELAY_MILLIS);
+    asyncReporter.start();
+    return asyncReporter;
+  }
+
+  private long getGauge(String name) {
+    Gauge gauge = (Gauge) reporter.getMetrics()
+        .get(AgentMetricSet.AGENT_METRICS_PREFIX + "reporter." + name);
+    return ((Number) gauge.getValue()).longValue();
+  }
+
+  /**
+   * Stands in for the put API, and can be made to respond slowly or with errors.
+   */
+  private static class ApiStandIn {
+
+    private final HttpServer server;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+    private volatile long delayMillis;
+    private volatile int requests;
+    private volatile String authorization;
+
+    ApiStandIn() throws IOException {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.createContext("/api/put", this::handle);
+      server.start();
+    }
+
+    URL getUrl() {
+      try {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/api/put");
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    void stop() {
+      server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      requests++;
+      authorization = exchange.getRequestHeaders().getFirst("Authorization");
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (InputStream in = exchange.getRequestBody()) {
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+          body.write(buffer, 0, count);
+        }
+      }
+      if (delayMillis > 0) {
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      int responseStatus = status;
+      if (responseStatus == 200) {
+        assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        byte[] payload = GzipBufferTest.gunzip(body.toByteArray(), body.size());
+        received.add(new String(payload, StandardCharsets.UTF_8));
+      }
+      exchange.sendResponseHeaders(responseStatus, -1);
+      exchange.close();
+    }
+  }
+}
@@ -16,16 +16,39 @@
 
 package ai.apptuit.metrics.jinsight;
 
+import static ai.apptuit.metrics.jinsight.ConfigService.ASYNC_REPORTING_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.CARDINALITY_LIMIT_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.FULL_REFRESH_FREQ_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.GAUGE_TIMEOUT_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.IDLE_EVICTION_CYCLES_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.MODULE_ENABLED_PROPERTY_SUFFIX;
+import static ai.apptuit.metrics.jinsight.ConfigService.MODULE_PROPERTY_PREFIX;
+import static ai.apptuit.metrics.jinsight.ConfigService.PROMETHEUS_PORT_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.RECORDING_DIR_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.RECORDING_FILE_SIZE_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.RECORDING_FREQ_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.RECORDING_MAX_SIZE_PROPERTY_NAME;
 import static ai.apptuit.metrics.jinsight.ConfigService.REPORTING_FREQ_PROPERTY_NAME;
 import static ai.apptuit.metrics.jinsight.ConfigService.REPORTING_MODE_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.REPORTING_TIER_PROPERTY_PREFIX;
+import static ai.apptuit.metrics.jinsight.ConfigService.SAMPLING_CPU_BUDGET_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.SPOOL_SIZE_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.SQL_DICTIONARY_FILE_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.STATSD_HOST_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.STATSD_PACKET_SIZE_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.STATSD_PORT_PROPERTY_NAME;
+import static ai.apptuit.metrics.jinsight.ConfigService.TIMER_RESERVOIR_PROPERTY_NAME;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import ai.apptuit.metrics.dropwizard.ApptuitReporter.ReportingMode;
+import java.io.File;
 import java.net.URL;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
@@ -152,6 +175,37 @@ public class ConfigServiceTest {
     assertEquals((17*60*1000-13700), configService.getReportingFrequency());
   }
 
+  @Test
+  public void testDefaultTimerReservoir() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    ConfigService configService = new ConfigService(p);
+    assertEquals(ReservoirType.EXPONENTIALLY_DECAYING, configService.getTimerReservoirType());
+  }
+
+  @Test
+  public void testTimerReservoirHdrCaseInsensitive() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(TIMER_RESERVOIR_PROPERTY_NAME, " Hdr_Histogram ");
+    ConfigService configService = new ConfigService(p);
+    assertEquals(ReservoirType.HDR_HISTOGRAM, configService.getTimerReservoirType());
+  }
+
+  @Test
+  public void testTimerReservoirSketch() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(TIMER_RESERVOIR_PROPERTY_NAME, "SKETCH");
+    ConfigService configService = new ConfigService(p);
+    assertEquals(ReservoirType.SKETCH, configService.getTimerReservoirType());
+  }
+
+  @Test
+  public void testDefaultTimerReservoirOnError() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(TIMER_RESERVOIR_PROPERTY_NAME, "junk");
+    ConfigService configService = new ConfigService(p);
+    assertEquals(ReservoirType.EXPONENTIALLY_DECAYING, configService.getTimerReservoirType());
+  }
+
   @Test
   public void testGetApiUrl() throws Exception {
     Properties p = getDefaultConfigProperties();
@@ -248,6 +302,250 @@ public class ConfigServiceTest {
 
 
 
+  @Test
+  public void testSamplingDisabledByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertEquals(0, configService.getSamplingCpuBudget(), 0);
+  }
+
+  @Test
+  public void testSamplingCpuBudget() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(SAMPLING_CPU_BUDGET_PROPERTY_NAME, "2.5%");
+    assertEquals(0.025, new ConfigService(p).getSamplingCpuBudget(), 0.0000001);
+    p.setProperty(SAMPLING_CPU_BUDGET_PROPERTY_NAME, " 1 ");
+    assertEquals(0.01, new ConfigService(p).getSamplingCpuBudget(), 0.0000001);
+  }
+
+  @Test
+  public void testInvalidSamplingCpuBudget() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(SAMPLING_CPU_BUDGET_PROPERTY_NAME, "abc");
+    assertEquals(0, new ConfigService(p).getSamplingCpuBudget(), 0);
+    p.setProperty(SAMPLING_CPU_BUDGET_PROPERTY_NAME, "-1%");
+    assertEquals(0, new ConfigService(p).getSamplingCpuBudget(), 0);
+  }
+
+  @Test
+  public void testAsyncReportingDisabledByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertFalse(configService.isAsyncReporting());
+    assertEquals(64 * 1024 * 1024, configService.getSpoolSize());
+  }
+
+  @Test
+  public void testAsyncReporting() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(ASYNC_REPORTING_PROPERTY_NAME, " TRUE ");
+    p.setProperty(SPOOL_SIZE_PROPERTY_NAME, "0");
+    ConfigService configService = new ConfigService(p);
+    assertTrue(configService.isAsyncReporting());
+    assertEquals(0, configService.getSpoolSize());
+  }
+
+  @Test
+  public void testInvalidSpoolSize() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(SPOOL_SIZE_PROPERTY_NAME, "4096");
+    assertEquals(64 * 1024 * 1024, new ConfigService(p).getSpoolSize());
+    p.setProperty(SPOOL_SIZE_PROPERTY_NAME, "lots");
+    assertEquals(64 * 1024 * 1024, new ConfigService(p).getSpoolSize());
+  }
+
+  @Test
+  public void testDeltaReportingDisabledByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertEquals(0, configService.getFullRefreshFrequency());
+  }
+
+  @Test
+  public void testFullRefreshFrequency() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(FULL_REFRESH_FREQ_PROPERTY_NAME, "5m");
+    assertEquals(300_000, new ConfigService(p).getFullRefreshFrequency());
+    p.setProperty(FULL_REFRESH_FREQ_PROPERTY_NAME, "soon");
+    assertEquals(0, new ConfigService(p).getFullRefreshFrequency());
+  }
+
+  @Test
+  public void testNoReportingTiersByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertTrue(configService.getReportingTiers().isEmpty());
+  }
+
+  @Test
+  public void testReportingTiers() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "slow.frequency", "5m");
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "slow.metrics", "jvm.buffers.*");
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "fast.frequency", "1s");
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "fast.metrics", "tomcat.requests*, jdbc.* ,");
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "nofreq.metrics", "jedis.*");
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "nometrics.frequency", "1s");
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "badfreq.frequency", "often");
+    p.setProperty(REPORTING_TIER_PROPERTY_PREFIX + "badfreq.metrics", "ehcache.*");
+
+    List<ReportingTierFilter.Tier> tiers = new ConfigService(p).getReportingTiers();
+
+    assertEquals(2, tiers.size());
+    assertEquals("fast", tiers.get(0).getName());
+    assertEquals(1_000, tiers.get(0).getFrequencyMillis());
+    assertEquals("slow", tiers.get(1).getName());
+    assertEquals(300_000, tiers.get(1).getFrequencyMillis());
+    ReportingTierFilter filter = new ReportingTierFilter(60_000, tiers);
+    assertEquals("fast", filter.getTierName("jdbc.ps.execute"));
+    assertEquals("fast", filter.getTierName("tomcat.requests[status:200]"));
+    assertEquals("default", filter.getTierName("jedis.commands"));
+  }
+
+  @Test
+  public void testDefaultGaugeTimeout() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertEquals(1000, configService.getGaugeTimeout());
+  }
+
+  @Test
+  public void testGaugeTimeout() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(GAUGE_TIMEOUT_PROPERTY_NAME, "0.25s");
+    assertEquals(250, new ConfigService(p).getGaugeTimeout());
+    p.setProperty(GAUGE_TIMEOUT_PROPERTY_NAME, "0s");
+    assertEquals(0, new ConfigService(p).getGaugeTimeout());
+    p.setProperty(GAUGE_TIMEOUT_PROPERTY_NAME, "soon");
+    assertEquals(1000, new ConfigService(p).getGaugeTimeout());
+  }
+
+  @Test
+  public void testDefaultCardinalityLimits() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertEquals(1000, configService.getCardinalityLimit());
+    assertEquals(0, configService.getIdleEvictionCycles());
+  }
+
+  @Test
+  public void testCardinalityLimits() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(CARDINALITY_LIMIT_PROPERTY_NAME, " 200 ");
+    p.setProperty(IDLE_EVICTION_CYCLES_PROPERTY_NAME, "20");
+    ConfigService configService = new ConfigService(p);
+    assertEquals(200, configService.getCardinalityLimit());
+    assertEquals(20, configService.getIdleEvictionCycles());
+
+    p.setProperty(CARDINALITY_LIMIT_PROPERTY_NAME, "-1");
+    p.setProperty(IDLE_EVICTION_CYCLES_PROPERTY_NAME, "many");
+    configService = new ConfigService(p);
+    assertEquals(1000, configService.getCardinalityLimit());
+    assertEquals(0, configService.getIdleEvictionCycles());
+  }
+
+  @Test
+  public void testRecordingDisabledByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertNull(configService.getRecordingDir());
+    assertEquals(10_000, configService.getRecordingFrequency());
+    assertEquals(4 * 1024 * 1024, configService.getRecordingFileSize());
+    assertEquals(32 * 1024 * 1024, configService.getRecordingMaxSize());
+  }
+
+  @Test
+  public void testRecording() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(RECORDING_DIR_PROPERTY_NAME, " /var/lib/jinsight ");
+    p.setProperty(RECORDING_FREQ_PROPERTY_NAME, "30s");
+    p.setProperty(RECORDING_FILE_SIZE_PROPERTY_NAME, "1");
+    p.setProperty(RECORDING_MAX_SIZE_PROPERTY_NAME, "abc");
+    ConfigService configService = new ConfigService(p);
+    assertEquals(new File("/var/lib/jinsight"), configService.getRecordingDir());
+    assertEquals(30_000, configService.getRecordingFrequency());
+    assertEquals(1024 * 1024, configService.getRecordingFileSize());
+    assertEquals(32 * 1024 * 1024, configService.getRecordingMaxSize());
+  }
+
+  @Test
+  public void testSqlDictionaryFile() throws Exception {
+    assertNull(new ConfigService(getDefaultConfigProperties()).getSqlDictionaryFile());
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(SQL_DICTIONARY_FILE_PROPERTY_NAME, " /var/lib/jinsight/sql-ids.tsv ");
+    ConfigService configService = new ConfigService(p);
+    assertEquals(new File("/var/lib/jinsight/sql-ids.tsv"), configService.getSqlDictionaryFile());
+  }
+
+  @Test
+  public void testPrometheusDisabledByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertEquals(0, configService.getPrometheusPort());
+  }
+
+  @Test
+  public void testPrometheusPort() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(PROMETHEUS_PORT_PROPERTY_NAME, " 9404 ");
+    assertEquals(9404, new ConfigService(p).getPrometheusPort());
+    p.setProperty(PROMETHEUS_PORT_PROPERTY_NAME, "70000");
+    assertEquals(0, new ConfigService(p).getPrometheusPort());
+    p.setProperty(PROMETHEUS_PORT_PROPERTY_NAME, "http");
+    assertEquals(0, new ConfigService(p).getPrometheusPort());
+  }
+
+  @Test
+  public void testStatsdDisabledByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertEquals(0, configService.getStatsdPort());
+    assertEquals("localhost", configService.getStatsdHost());
+    assertEquals(StatsdReporter.DEFAULT_PACKET_SIZE, configService.getStatsdPacketSize());
+  }
+
+  @Test
+  public void testStatsd() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(STATSD_HOST_PROPERTY_NAME, " statsd.local ");
+    p.setProperty(STATSD_PORT_PROPERTY_NAME, "8125");
+    p.setProperty(STATSD_PACKET_SIZE_PROPERTY_NAME, "8932");
+    ConfigService configService = new ConfigService(p);
+    assertEquals("statsd.local", configService.getStatsdHost());
+    assertEquals(8125, configService.getStatsdPort());
+    assertEquals(8932, configService.getStatsdPacketSize());
+  }
+
+  @Test
+  public void testInvalidStatsdConfig() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(STATSD_PORT_PROPERTY_NAME, "udp");
+    p.setProperty(STATSD_PACKET_SIZE_PROPERTY_NAME, "100");
+    ConfigService configService = new ConfigService(p);
+    assertEquals(0, configService.getStatsdPort());
+    assertEquals(StatsdReporter.DEFAULT_PACKET_SIZE, configService.getStatsdPacketSize());
+    p.setProperty(STATSD_PACKET_SIZE_PROPERTY_NAME, "70000");
+    assertEquals(StatsdReporter.DEFAULT_PACKET_SIZE, new ConfigService(p).getStatsdPacketSize());
+  }
+
+  @Test
+  public void testModulesEnabledByDefault() throws Exception {
+    ConfigService configService = new ConfigService(getDefaultConfigProperties());
+    assertTrue(configService.isModuleEnabled("jdbc"));
+    assertTrue(configService.getDisabledModules().isEmpty());
+  }
+
+  @Test
+  public void testDisableModule() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(MODULE_PROPERTY_PREFIX + "jdbc" + MODULE_ENABLED_PROPERTY_SUFFIX, " FALSE ");
+    p.setProperty(MODULE_PROPERTY_PREFIX + "jedis" + MODULE_ENABLED_PROPERTY_SUFFIX, "true");
+    ConfigService configService = new ConfigService(p);
+    assertFalse(configService.isModuleEnabled("jdbc"));
+    assertTrue(configService.isModuleEnabled("jedis"));
+    assertTrue(configService.isModuleEnabled("jvm"));
+    assertEquals(Collections.singleton("jdbc"), configService.getDisabledModules());
+  }
+
+  @Test
+  public void testInvalidModuleSwitchKeepsModuleEnabled() throws Exception {
+    Properties p = getDefaultConfigProperties();
+    p.setProperty(MODULE_PROPERTY_PREFIX + "jdbc" + MODULE_ENABLED_PROPERTY_SUFFIX, "no");
+    ConfigService configService = new ConfigService(p);
+    assertTrue(configService.isModuleEnabled("jdbc"));
+  }
+
   private Properties getDefaultConfigProperties() {
     Properties p = new Properties();
     p.setProperty("apptuit.access_token", UUID.randomUUID().toString());
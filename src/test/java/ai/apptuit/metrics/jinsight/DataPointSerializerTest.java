@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class DataPointSerializerTest {
+
+  private static final long TIMESTAMP = 1500000000000L;
+
+  private MetricRegistry registry;
+  private DataPointSerializer serializer;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = new MetricRegistry();
+    serializer = new DataPointSerializer(Collections.singletonMap("host", "h1"));
+  }
+
+  @Test
+  public void testEmptyRegistry() throws Exception {
+    assertEquals("", serialize());
+  }
+
+  @Test
+  public void testCounter() throws Exception {
+    registry.counter("requests[method:GET]").inc(3);
+    assertEquals("{\"metric\":\"requests.count\",\"timestamp\":1500000000000,\"value\":3,"
+        + "\"tags\":{\"host\":\"h1\",\"method\":\"GET\"}}", serialize());
+  }
+
+  @Test
+  public void testGauges() throws Exception {
+    registry.register("ratio", (Gauge<Double>) () -> 0.5);
+    registry.register("flag", (Gauge<Boolean>) () -> true);
+    registry.register("text", (Gauge<String>) () -> "not a number");
+    registry.register("broken", (Gauge<Double>) () -> {
+      throw new IllegalStateException();
+    });
+    String json = serialize();
+    assertTrue(json, json.contains("\"metric\":\"ratio\",\"timestamp\":1500000000000,"
+        + "\"value\":0.5,"));
+    assertTrue(json, json.contains("\"metric\":\"flag\",\"timestamp\":1500000000000,"
+        + "\"value\":1,"));
+    assertFalse(json, json.contains("text"));
+    assertFalse(json, json.contains("broken"));
+  }
+
+  @Test
+  public void testTimer() throws Exception {
+    registry.timer("latency").update(2, TimeUnit.MILLISECONDS);
+    String json = serialize();
+    assertTrue(json, json.contains("\"metric\":\"latency.count\",\"timestamp\":1500000000000,"
+        + "\"value\":1,"));
+    assertTrue(json, json.contains("\"metric\":\"latency.max\",\"timestamp\":1500000000000,"
+        + "\"value\":2.0,"));
+    assertTrue(json, json.contains("\"metric\":\"latency\",\"timestamp\":1500000000000,"
+        + "\"value\":2.0,\"tags\":{\"host\":\"h1\",\"quantile\":\"0.99\"}}"));
+    assertTrue(json, json.contains("\"metric\":\"latency.rate\""));
+    assertTrue(json, json.contains("\"window\":\"15m\""));
+  }
+
+  @Test
+  public void testSketchBuckets() throws Exception {
+    Timer timer = new Timer(ReservoirType.SKETCH.newReservoir(15_000));
+    registry.register("latency", timer);
+    timer.update(1, TimeUnit.MILLISECONDS);
+    timer.update(1, TimeUnit.MILLISECONDS);
+    timer.update(1010, TimeUnit.MICROSECONDS);
+    timer.update(8, TimeUnit.MILLISECONDS);
+    String json = serialize();
+    //1ms and 1.01ms are in different buckets, both in the exported bucket [983040ns, 1048576ns)
+    assertTrue(json, json.contains("\"metric\":\"latency.bucket\",\"timestamp\":1500000000000,"
+        + "\"value\":3,\"tags\":{\"host\":\"h1\",\"bucket\":\"1.048576\"}}"));
+    assertTrue(json, json.contains("\"metric\":\"latency.bucket\",\"timestamp\":1500000000000,"
+        + "\"value\":1,\"tags\":{\"host\":\"h1\",\"bucket\":\"8.388608\"}}"));
+    assertEquals(json, 2, json.split("latency\\.bucket").length - 1);
+    assertTrue(json, json.contains("\"metric\":\"latency\",\"timestamp\":1500000000000,"));
+
+    registry.timer("other").update(2, TimeUnit.MILLISECONDS);
+    assertFalse(serialize().contains("other.bucket"));
+  }
+
+  @Test
+  public void testEscaping() throws Exception {
+    assertEquals("plain", DataPointSerializer.escape("plain"));
+    assertEquals("a\\\"b\\\\c\\u000a", DataPointSerializer.escape("a\"b\\c\n"));
+  }
+
+  private String serialize() {
+    byte[] json = serializer.serialize(TIMESTAMP, registry.getGauges(), registry.getCounters(),
+        registry.getHistograms(), registry.getMeters(), registry.getTimers());
+    return new String(json, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class DeltaMetricFilterTest {
+
+  private MetricRegistry registry;
+  private DeltaMetricFilter filter;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = new MetricRegistry();
+    filter = new DeltaMetricFilter(4);
+  }
+
+  @Test
+  public void testNewMetricSelected() throws Exception {
+    Counter counter = registry.counter("counter");
+    assertTrue(filter.matches("counter", counter));
+  }
+
+  @Test
+  public void testUnchangedMetricSkipped() throws Exception {
+    Timer timer = registry.timer("timer");
+    timer.update(1, TimeUnit.MILLISECONDS);
+    assertTrue(filter.matches("timer", timer));
+    filter.cycleCompleted(true);
+    assertFalse(filter.matches("timer", timer));
+    filter.cycleCompleted(true);
+    timer.update(1, TimeUnit.MILLISECONDS);
+    assertTrue(filter.matches("timer", timer));
+  }
+
+  @Test
+  public void testChangesSelectedAgainAfterFailedCycle() throws Exception {
+    //no full refresh in between
+    DeltaMetricFilter deltaFilter = new DeltaMetricFilter(100);
+    Counter counter = registry.counter("counter");
+    assertTrue(deltaFilter.matches("counter", counter));
+    deltaFilter.cycleCompleted(false);
+    assertTrue(deltaFilter.matches("counter", counter));
+    deltaFilter.cycleCompleted(true);
+
+    counter.inc();
+    assertTrue(deltaFilter.matches("counter", counter));
+    deltaFilter.cycleCompleted(false);
+    assertTrue(deltaFilter.matches("counter", counter));
+    deltaFilter.cycleCompleted(true);
+    assertFalse(deltaFilter.matches("counter", counter));
+  }
+
+  @Test
+  public void testIdleTimerSkippedWhileRatesDecay() throws Exception {
+    DeltaMetricFilter deltaFilter = new DeltaMetricFilter(100);
+    Timer timer = new Timer();
+    for (int i = 0; i < 1000; i++) {
+      timer.update(1, TimeUnit.MILLISECONDS);
+    }
+    assertTrue(deltaFilter.matches("timer", timer));
+    deltaFilter.cycleCompleted(true);
+    //the timer went idle, its rates are still far from zero until the next full refresh
+    for (int i = 0; i < 3; i++) {
+      assertFalse(deltaFilter.matches("timer", timer));
+      deltaFilter.cycleCompleted(true);
+    }
+  }
+
+  @Test
+  public void testGaugesAlwaysSelected() throws Exception {
+    Gauge<Integer> gauge = () -> 1;
+    for (int i = 0; i < 3; i++) {
+      assertTrue(filter.matches("gauge", gauge));
+      filter.cycleCompleted(true);
+    }
+  }
+
+  @Test
+  public void testFullRefresh() throws Exception {
+    Counter counter = registry.counter("counter");
+    boolean[] selected = new boolean[9];
+    for (int i = 0; i < selected.length; i++) {
+      selected[i] = filter.matches("counter", counter);
+      filter.cycleCompleted(true);
+    }
+    assertEquals("[true, false, false, false, true, false, false, false, true]",
+        Arrays.toString(selected));
+  }
+
+  @Test
+  public void testFullRefreshCountedInCyclesOfEachTier() throws Exception {
+    ReportingTierFilter tierFilter = new ReportingTierFilter(3_000, Collections.singletonList(
+        new ReportingTierFilter.Tier("fast", 1_000, Collections.singletonList("fast"))));
+    DeltaMetricFilter tieredFilter = new DeltaMetricFilter(8_000, tierFilter);
+    Counter fast = registry.counter("fast");
+    Counter slow = registry.counter("slow");
+    StringBuilder selected = new StringBuilder();
+    for (int i = 0; i < 13; i++) {
+      selected.append(tieredFilter.matches("fast", fast) ? 'F' : '-');
+      if (tierFilter.matches("slow", slow)) {
+        selected.append(tieredFilter.matches("slow", slow) ? 'S' : 's');
+      }
+      tieredFilter.cycleCompleted(true);
+      tierFilter.cycleCompleted();
+    }
+    //the fast tier is refreshed every 8th cycle, the slow one every 2nd time it is due
+    assertEquals("FS---s---S-F-s---S", selected.toString());
+  }
+
+  @Test
+  public void testRemovedMetricsForgottenOnFullRefresh() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      filter.matches("counter" + i, registry.counter("counter" + i));
+    }
+    assertEquals(10, filter.getTrackedMetricCount());
+    for (int i = 0; i < 4; i++) {
+      filter.cycleCompleted(true);
+    }
+    filter.matches("counter0", registry.counter("counter0"));
+    assertEquals(1, filter.getTrackedMetricCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRefreshCycles() throws Exception {
+    new DeltaMetricFilter(0);
+  }
+}
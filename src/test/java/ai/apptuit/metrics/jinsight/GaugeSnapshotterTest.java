@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class GaugeSnapshotterTest {
+
+  private static final long BUDGET_MILLIS = 100;
+
+  private Timer evaluationTimer;
+  private Counter timeouts;
+  private GaugeSnapshotter snapshotter;
+  private CountDownLatch release;
+
+  @Before
+  public void setUp() throws Exception {
+    evaluationTimer = new Timer();
+    timeouts = new Counter();
+    snapshotter = new GaugeSnapshotter(2, BUDGET_MILLIS, TimeUnit.MILLISECONDS, evaluationTimer,
+        timeouts);
+    release = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    release.countDown();
+    snapshotter.stop();
+  }
+
+  @Test
+  public void testGroupName() throws Exception {
+    assertEquals("jvm.thread", GaugeSnapshotter.getGroupName("jvm.thread.total.count"));
+    assertEquals("jvm.thread", GaugeSnapshotter.getGroupName("jvm.thread.count[state:new]"));
+    assertEquals("jvm.fd", GaugeSnapshotter.getGroupName("jvm.fd.open"));
+    assertEquals("ehcache.hits", GaugeSnapshotter.getGroupName("ehcache.hits[cache:a.b.c]"));
+    assertEquals("jvm.uptime", GaugeSnapshotter.getGroupName("jvm.uptime"));
+    assertEquals("uptime", GaugeSnapshotter.getGroupName("uptime[host:a.b]"));
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("a.b.one", (Gauge<Integer>) () -> 1);
+    gauges.put("a.b.two", (Gauge<Integer>) () -> 2);
+    gauges.put("c.d", (Gauge<String>) () -> "three");
+
+    SortedMap<String, Gauge> snapshot = snapshotter.snapshot(gauges);
+
+    assertEquals(gauges.keySet(), snapshot.keySet());
+    assertEquals(1, snapshot.get("a.b.one").getValue());
+    assertEquals(2, snapshot.get("a.b.two").getValue());
+    assertEquals("three", snapshot.get("c.d").getValue());
+    assertEquals(3, evaluationTimer.getCount());
+    assertEquals(0, timeouts.getCount());
+  }
+
+  @Test
+  public void testGroupsEvaluatedInParallel() throws Exception {
+    CountDownLatch otherGroupEvaluated = new CountDownLatch(1);
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("a.waits", (Gauge<Boolean>) () -> await(otherGroupEvaluated));
+    gauges.put("b.counts_down", (Gauge<Boolean>) () -> {
+      otherGroupEvaluated.countDown();
+      return true;
+    });
+
+    SortedMap<String, Gauge> snapshot = snapshotter.snapshot(gauges);
+
+    assertEquals(true, snapshot.get("a.waits").getValue());
+    assertEquals(0, timeouts.getCount());
+  }
+
+  @Test
+  public void testSlowGaugeReportsLastValue() throws Exception {
+    AtomicInteger evaluations = new AtomicInteger();
+    AtomicInteger fastValue = new AtomicInteger();
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("slow.gauge", (Gauge<Integer>) () -> {
+      int evaluation = evaluations.incrementAndGet();
+      if (evaluation == 2) {
+        await(release);
+      }
+      return evaluation;
+    });
+    gauges.put("fast.gauge", (Gauge<Integer>) fastValue::incrementAndGet);
+
+    assertEquals(1, snapshotter.snapshot(gauges).get("slow.gauge").getValue());
+
+    long start = System.nanoTime();
+    SortedMap<String, Gauge> snapshot = snapshotter.snapshot(gauges);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 10 * BUDGET_MILLIS);
+    assertEquals(1, snapshot.get("slow.gauge").getValue());
+    assertEquals(2, snapshot.get("fast.gauge").getValue());
+    assertEquals(1, timeouts.getCount());
+
+    //not evaluated again while the last evaluation is running
+    snapshot = snapshotter.snapshot(gauges);
+    assertEquals(1, snapshot.get("slow.gauge").getValue());
+    assertEquals(3, snapshot.get("fast.gauge").getValue());
+    assertEquals(2, evaluations.get());
+
+    long evaluated = evaluationTimer.getCount();
+    release.countDown();
+    awaitEvaluationCount(evaluated + 1);
+    assertEquals(3, snapshotter.snapshot(gauges).get("slow.gauge").getValue());
+  }
+
+  @Test
+  public void testHungGroupsDoNotDelayOtherGroups() throws Exception {
+    AtomicInteger fastValue = new AtomicInteger();
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("hung.one", (Gauge<Boolean>) () -> await(release));
+    gauges.put("hung.two", (Gauge<Boolean>) () -> await(release));
+    gauges.put("fast.gauge", (Gauge<Integer>) fastValue::incrementAndGet);
+    snapshotter.snapshot(gauges);
+    assertEquals(2, timeouts.getCount());
+
+    //both core threads are held by the hung groups
+    long start = System.nanoTime();
+    SortedMap<String, Gauge> snapshot = snapshotter.snapshot(gauges);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < BUDGET_MILLIS);
+    assertEquals(2, snapshot.get("fast.gauge").getValue());
+    assertEquals(2, timeouts.getCount());
+  }
+
+  @Test
+  public void testGroupsLeftOutWhenAllThreadsBusy() throws Exception {
+    snapshotter.stop();
+    snapshotter = new GaugeSnapshotter(1, 2, BUDGET_MILLIS, TimeUnit.MILLISECONDS,
+        evaluationTimer, timeouts);
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("hung.one", (Gauge<Boolean>) () -> await(release));
+    gauges.put("hung.two", (Gauge<Boolean>) () -> await(release));
+    snapshotter.snapshot(gauges);
+
+    gauges.put("fast.gauge", (Gauge<Integer>) () -> 1);
+    long start = System.nanoTime();
+    SortedMap<String, Gauge> snapshot = snapshotter.snapshot(gauges);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < BUDGET_MILLIS);
+    assertFalse(snapshot.containsKey("fast.gauge"));
+
+    long evaluated = evaluationTimer.getCount();
+    release.countDown();
+    awaitEvaluationCount(evaluated + 2);
+    assertEquals(1, snapshotter.snapshot(gauges).get("fast.gauge").getValue());
+  }
+
+  @Test
+  public void testStuckGaugeInterrupted() throws Exception {
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("stuck.gauge", (Gauge<Boolean>) () -> await(release));
+    snapshotter.snapshot(gauges);
+    assertEquals(1, timeouts.getCount());
+    assertEquals(0, evaluationTimer.getCount());
+
+    Thread.sleep(GaugeSnapshotter.STUCK_BUDGETS * BUDGET_MILLIS);
+    snapshotter.snapshot(gauges);
+    awaitEvaluationCount(1);
+
+    assertEquals(1, evaluationTimer.getCount());
+    assertEquals(false, snapshotter.snapshot(gauges).get("stuck.gauge").getValue());
+  }
+
+  @Test
+  public void testCostOfSlowGaugeReported() throws Exception {
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("slow.gauge[k:v]", (Gauge<Integer>) () -> {
+      sleep(BUDGET_MILLIS / 10);
+      return 1;
+    });
+    gauges.put("fast.gauge", (Gauge<Integer>) () -> 2);
+
+    SortedMap<String, Gauge> snapshot = snapshotter.snapshot(gauges);
+
+    String costName = "jinsight.agent.reporter.gauge.time.nanos[gauge:slow.gauge,k:v]";
+    assertEquals(costName, GaugeSnapshotter.getCostMetricName("slow.gauge[k:v]"));
+    long nanos = (Long) snapshot.get(costName).getValue();
+    assertTrue(nanos >= TimeUnit.MILLISECONDS.toNanos(BUDGET_MILLIS / 10));
+    assertFalse(snapshot.containsKey(GaugeSnapshotter.getCostMetricName("fast.gauge")));
+    assertEquals(3, snapshot.size());
+  }
+
+  @Test
+  public void testFailingGaugeLeftOut() throws Exception {
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("a.fails", (Gauge<Integer>) () -> {
+      throw new IllegalStateException();
+    });
+    gauges.put("a.works", (Gauge<Integer>) () -> 1);
+
+    SortedMap<String, Gauge> snapshot = snapshotter.snapshot(gauges);
+
+    assertFalse(snapshot.containsKey("a.fails"));
+    assertEquals(1, snapshot.get("a.works").getValue());
+  }
+
+  @Test
+  public void testRemovedGaugeLeftOut() throws Exception {
+    SortedMap<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("a.one", (Gauge<Integer>) () -> 1);
+    gauges.put("b.two", (Gauge<Integer>) () -> 2);
+    snapshotter.snapshot(gauges);
+
+    gauges.remove("b.two");
+
+    assertEquals(gauges.keySet(), snapshotter.snapshot(gauges).keySet());
+  }
+
+  private void awaitEvaluationCount(long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (evaluationTimer.getCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static boolean await(CountDownLatch latch) {
+    try {
+      return latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class GzipBufferTest {
+
+  private GzipBuffer gzip;
+
+  @Before
+  public void setUp() throws Exception {
+    gzip = new GzipBuffer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    gzip.close();
+  }
+
+  @Test
+  public void testEmptyPayload() throws Exception {
+    gzip.finish();
+    assertArrayEquals(new byte[0], gunzip(gzip));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    byte[] text = repeat("{\"metric\":\"jvm.threads\",\"value\":42},", 10_000);
+    gzip.write(text, 0, text.length / 2);
+    gzip.write(text, text.length / 2, text.length - text.length / 2);
+    gzip.finish();
+    assertTrue(gzip.size() < text.length / 10);
+    assertArrayEquals(text, gunzip(gzip));
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    byte[] random = new byte[300_000];
+    new Random(42).nextBytes(random);
+    gzip.write(random);
+    gzip.finish();
+    assertArrayEquals(random, gunzip(gzip));
+
+    byte[] text = repeat("abc", 100);
+    gzip.reset();
+    gzip.write(text);
+    gzip.finish();
+    assertArrayEquals(text, gunzip(gzip));
+  }
+
+  private static byte[] repeat(String s, int times) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      sb.append(s);
+    }
+    return sb.toString().getBytes();
+  }
+
+  static byte[] gunzip(byte[] bytes, int length) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes, 0, length))) {
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, count);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] gunzip(GzipBuffer gzip) throws IOException {
+    return gunzip(gzip.getBuffer(), gzip.size());
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class HdrHistogramReservoirTest {
+
+  private MockClock clock;
+  private HdrHistogramReservoir reservoir;
+
+  @Before
+  public void setUp() throws Exception {
+    clock = new MockClock();
+    reservoir = new HdrHistogramReservoir(10, TimeUnit.SECONDS, clock);
+  }
+
+  @Test
+  public void testEmptySnapshot() throws Exception {
+    Snapshot snapshot = reservoir.getSnapshot();
+    assertEquals(0, snapshot.size());
+    assertEquals(0, snapshot.getMin());
+    assertEquals(0, snapshot.getMax());
+    assertEquals(0, snapshot.getMean(), 0);
+    assertEquals(0, snapshot.getStdDev(), 0);
+    assertEquals(0, snapshot.getValues().length);
+  }
+
+  @Test
+  public void testSnapshotStatistics() throws Exception {
+    for (int i = 1; i <= 100; i++) {
+      reservoir.update(i);
+    }
+    Snapshot snapshot = reservoir.getSnapshot();
+    assertEquals(100, snapshot.size());
+    assertEquals(1, snapshot.getMin());
+    assertEquals(100, snapshot.getMax());
+    assertEquals(50.5, snapshot.getMean(), 0.5);
+    assertEquals(50, snapshot.getMedian(), 1);
+    assertEquals(99, snapshot.get99thPercentile(), 1);
+    assertEquals(100, snapshot.getValues().length);
+  }
+
+  @Test
+  public void testStandardQuantilesMatchHistogram() throws Exception {
+    Histogram histogram = new Histogram(2);
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      long value = (long) Math.abs(random.nextGaussian() * 1_000_000);
+      reservoir.update(value);
+      histogram.recordValue(value);
+    }
+    Snapshot snapshot = reservoir.getSnapshot();
+    for (double quantile : new double[]{0.5, 0.75, 0.95, 0.98, 0.99, 0.999, 0.1, 1.0}) {
+      assertEquals(histogram.getValueAtPercentile(quantile * 100), snapshot.getValue(quantile), 0);
+    }
+    assertEquals(0, new HdrHistogramReservoir(10, TimeUnit.SECONDS).getSnapshot().getMedian(), 0);
+  }
+
+  @Test
+  public void testValuesAreSorted() throws Exception {
+    reservoir.update(3);
+    reservoir.update(1);
+    reservoir.update(2);
+    reservoir.update(-5);
+    assertArrayEquals(new long[]{0, 1, 2, 3}, reservoir.getSnapshot().getValues());
+  }
+
+  @Test
+  public void testSnapshotReusedWithinInterval() throws Exception {
+    reservoir.update(1);
+    Snapshot first = reservoir.getSnapshot();
+    reservoir.update(2);
+    clock.advance(4, TimeUnit.SECONDS);
+    assertSame(first, reservoir.getSnapshot());
+  }
+
+  @Test
+  public void testSnapshotCoversOneInterval() throws Exception {
+    reservoir.update(1);
+    assertEquals(1, reservoir.getSnapshot().size());
+    reservoir.update(2);
+    reservoir.update(3);
+    clock.advance(10, TimeUnit.SECONDS);
+    Snapshot second = reservoir.getSnapshot();
+    assertEquals(2, second.size());
+    assertEquals(2, second.getMin());
+    clock.advance(10, TimeUnit.SECONDS);
+    assertEquals(0, reservoir.getSnapshot().size());
+  }
+
+  @Test
+  public void testEachReaderHasItsOwnInterval() throws Exception {
+    SnapshotReader scraper = new SnapshotReader("scraper");
+    reservoir.update(1);
+    assertEquals(1, scraper.call(reservoir::getSnapshot).size());
+    reservoir.update(2);
+    clock.advance(10, TimeUnit.SECONDS);
+    assertEquals(1, scraper.call(reservoir::getSnapshot).size());
+
+    Snapshot reported = reservoir.getSnapshot();
+    assertEquals(2, reported.size());
+    assertEquals(1, reported.getMin());
+    assertEquals(2, reported.getMax());
+    clock.advance(10, TimeUnit.SECONDS);
+    assertEquals(0, scraper.call(reservoir::getSnapshot).size());
+  }
+
+  private static class MockClock extends Clock {
+
+    private long tick = 0;
+
+    void advance(long duration, TimeUnit unit) {
+      tick += unit.toNanos(duration);
+    }
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+  }
+}
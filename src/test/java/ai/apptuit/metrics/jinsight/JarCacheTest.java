@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import ai.apptuit.metrics.jinsight.JarCache.JarContent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class JarCacheTest {
+
+  private static final byte[] CONTENT = createJar();
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File cacheDir;
+  private JarCache cache;
+  private AtomicInteger extractions;
+  private JarContent content;
+  private String hash;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = new File(tempFolder.getRoot(), "cache");
+    cache = new JarCache(cacheDir);
+    extractions = new AtomicInteger();
+    content = () -> {
+      extractions.incrementAndGet();
+      return new ByteArrayInputStream(CONTENT);
+    };
+    hash = JarCache.hash(new ByteArrayInputStream(CONTENT));
+  }
+
+  private static byte[] createJar() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JarOutputStream jar = new JarOutputStream(bytes)) {
+      jar.putNextEntry(new JarEntry("test.txt"));
+      jar.write("test".getBytes(StandardCharsets.UTF_8));
+      jar.closeEntry();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testHash() throws Exception {
+    assertEquals(64, hash.length());
+    assertEquals(hash, JarCache.hash(new ByteArrayInputStream(CONTENT)));
+  }
+
+  @Test
+  public void testExtractsOnce() throws Exception {
+    File first = cache.get("test", hash, content);
+    assertEquals(new File(cacheDir, JarCache.fileName("test", hash)), first);
+    assertArrayEquals(CONTENT, Files.readAllBytes(first.toPath()));
+
+    File second = cache.get("test", hash, content);
+    assertEquals(first, second);
+    assertEquals(1, extractions.get());
+    assertEquals(1, cacheDir.list().length);
+  }
+
+  @Test
+  public void testUnknownHash() throws Exception {
+    File jar = cache.get("test", null, content);
+    assertEquals(new File(cacheDir, JarCache.fileName("test", hash)), jar);
+    assertEquals(jar, cache.get("test", hash, content));
+    assertEquals(1, extractions.get());
+  }
+
+  @Test
+  public void testCorruptEntryIsReplaced() throws Exception {
+    File jar = cache.get("test", hash, content);
+    Files.write(jar.toPath(), "corrupt".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(jar, cache.get("test", hash, content));
+    assertArrayEquals(CONTENT, Files.readAllBytes(jar.toPath()));
+    assertEquals(2, extractions.get());
+  }
+
+  @Test
+  public void testInterruptedExtractionIsNotVisible() throws Exception {
+    JarContent failing = () -> new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Simulated failure");
+      }
+    };
+    try {
+      cache.get("test", hash, failing);
+      fail("Expected extraction to fail");
+    } catch (IOException e) {
+      //expected
+    }
+    assertEquals(0, cacheDir.list().length);
+    assertEquals(new File(cacheDir, JarCache.fileName("test", hash)),
+        cache.get("test", hash, content));
+  }
+
+  @Test
+  public void testStaleEntriesDeleted() throws Exception {
+    assertTrue(cacheDir.mkdirs());
+    long now = System.currentTimeMillis();
+    long stale = now - JarCache.STALE_ENTRY_MILLIS - 60_000;
+    File staleJar = createEntry(JarCache.fileName("test", repeat('a')), stale);
+    File staleTemp = createEntry("test123.tmp", stale);
+    File recentJar = createEntry(JarCache.fileName("test", repeat('b')), now);
+    File otherJar = createEntry(JarCache.fileName("other", repeat('a')), stale);
+    File current = cache.get("test", hash, content);
+
+    assertFalse(staleJar.exists());
+    assertFalse(staleTemp.exists());
+    assertTrue(recentJar.exists());
+    assertTrue(otherJar.exists());
+    assertTrue(current.exists());
+  }
+
+  @Test
+  public void testUsedEntryNotStale() throws Exception {
+    File jar = cache.get("test", hash, content);
+    assertTrue(jar.setLastModified(System.currentTimeMillis() - JarCache.STALE_ENTRY_MILLIS * 2));
+    cache.get("test", hash, content);
+    assertTrue(jar.lastModified() > System.currentTimeMillis() - JarCache.STALE_ENTRY_MILLIS);
+  }
+
+  private File createEntry(String fileName, long lastModified) throws IOException {
+    File file = new File(cacheDir, fileName);
+    Files.write(file.toPath(), CONTENT);
+    assertTrue(file.setLastModified(lastModified));
+    return file;
+  }
+
+  private static String repeat(char c) {
+    char[] chars = new char[64];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  @Test
+  public void testUnusableCacheDir() throws Exception {
+    File notADir = tempFolder.newFile("not-a-dir");
+    assertNull(new JarCache(notADir).get("test", hash, content));
+    assertFalse(new File(notADir, JarCache.fileName("test", hash)).exists());
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.jinsight.TracingMetricRegistry.TraceableMetric;
+import com.codahale.metrics.Counter;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class MetricUpdateRingBufferTest {
+
+  @Test
+  public void testCapacityRoundedToPowerOfTwo() throws Exception {
+    assertEquals(8, new MetricUpdateRingBuffer(5).capacity());
+    assertEquals(8, new MetricUpdateRingBuffer(8).capacity());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() throws Exception {
+    new MetricUpdateRingBuffer(0);
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertTrue(new MetricUpdateRingBuffer(4).getRecentUpdates().isEmpty());
+  }
+
+  @Test
+  public void testKeepsMostRecentUpdates() throws Exception {
+    MetricUpdateRingBuffer buffer = new MetricUpdateRingBuffer(4);
+    TestCounter counter = new TestCounter("requests");
+    for (int i = 0; i < 10; i++) {
+      counter.inc();
+      buffer.onUpdate(counter);
+    }
+
+    List<String> updates = buffer.getRecentUpdates();
+    assertEquals(4, updates.size());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(updates.get(i), updates.get(i).endsWith("Counter:requests count=" + (7 + i)));
+    }
+  }
+
+  private static class TestCounter extends Counter implements TraceableMetric {
+
+    private final String name;
+
+    TestCounter(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String getMetricName() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class PrometheusExporterTest {
+
+  private MetricRegistry registry;
+  private PrometheusExporter exporter;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = new MetricRegistry();
+    exporter = new PrometheusExporter(registry, Collections.emptyMap());
+    exporter.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    exporter.stop();
+  }
+
+  @Test
+  public void testScrape() throws Exception {
+    registry.counter("test.counter").inc(7);
+
+    HttpURLConnection connection = open(PrometheusExporter.METRICS_PATH);
+    assertEquals(200, connection.getResponseCode());
+    assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+    assertEquals("# TYPE test_counter gauge\ntest_counter 7\n", read(connection));
+
+    registry.counter("test.counter").inc();
+    assertTrue(read(open(PrometheusExporter.METRICS_PATH)).contains("test_counter 8\n"));
+  }
+
+  @Test
+  public void testUnknownPath() throws Exception {
+    assertEquals(404, open("/unknown").getResponseCode());
+  }
+
+  @Test
+  public void testPostNotAllowed() throws Exception {
+    HttpURLConnection connection = open(PrometheusExporter.METRICS_PATH);
+    connection.setRequestMethod("POST");
+    assertEquals(405, connection.getResponseCode());
+  }
+
+  private HttpURLConnection open(String path) throws Exception {
+    URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(),
+        exporter.getPort(), path);
+    return (HttpURLConnection) url.openConnection();
+  }
+
+  private String read(HttpURLConnection connection) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = connection.getInputStream()) {
+      byte[] buffer = new byte[4096];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class PrometheusSerializerTest {
+
+  private MetricRegistry registry;
+  private PrometheusSerializer serializer;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = new MetricRegistry();
+    serializer = new PrometheusSerializer(registry, Collections.emptyMap());
+  }
+
+  @Test
+  public void testEmptyRegistry() throws Exception {
+    assertEquals("", serialize());
+  }
+
+  @Test
+  public void testCounterAndGauge() throws Exception {
+    registry.counter("jdbc.connections").inc(3);
+    registry.register("jvm.uptime.millis", (Gauge<Long>) () -> 1234L);
+    registry.register("cpu.load", (Gauge<Double>) () -> 0.25);
+    registry.register("enabled", (Gauge<Boolean>) () -> true);
+    registry.register("name", (Gauge<String>) () -> "not a number");
+
+    assertEquals(Arrays.asList(
+        "# TYPE cpu_load gauge",
+        "cpu_load 0.25",
+        "# TYPE enabled gauge",
+        "enabled 1",
+        "# TYPE jdbc_connections gauge",
+        "jdbc_connections 3",
+        "# TYPE jvm_uptime_millis gauge",
+        "jvm_uptime_millis 1234",
+        "# TYPE name gauge"
+    ), serializeLines());
+  }
+
+  @Test
+  public void testTagsBecomeLabelsGroupedByFamily() throws Exception {
+    TagEncodedMetricName base = TagEncodedMetricName.decode("jedis.commands");
+    registry.meter(base.withTags("command", "get").toString()).mark(2);
+    registry.meter("another.meter").mark();
+    registry.meter(base.withTags("command", "set").toString()).mark();
+
+    assertEquals(Arrays.asList(
+        "# TYPE another_meter_total counter",
+        "another_meter_total 1",
+        "# TYPE jedis_commands_total counter",
+        "jedis_commands_total{command=\"get\"} 2",
+        "jedis_commands_total{command=\"set\"} 1"
+    ), serializeLines());
+  }
+
+  @Test
+  public void testGlobalTagsAndEscaping() throws Exception {
+    serializer = new PrometheusSerializer(registry, Collections.singletonMap("host", "h1"));
+    registry.counter(TagEncodedMetricName.decode("log.events")
+        .withTags("message", "a \"quoted\" \\ value").toString()).inc();
+
+    assertEquals(Arrays.asList(
+        "# TYPE log_events gauge",
+        "log_events{host=\"h1\",message=\"a \\\"quoted\\\" \\\\ value\"} 1"
+    ), serializeLines());
+  }
+
+  @Test
+  public void testTimerInSeconds() throws Exception {
+    Timer timer = registry.timer("http.requests");
+    timer.update(1500, TimeUnit.MICROSECONDS);
+
+    List<String> lines = serializeLines();
+    assertEquals("# TYPE http_requests summary", lines.get(0));
+    assertEquals("http_requests{quantile=\"0.5\"} 0.0015", lines.get(1));
+    assertEquals("http_requests{quantile=\"0.999\"} 0.0015", lines.get(6));
+    assertEquals("http_requests_sum 0.0015", lines.get(7));
+    assertEquals("http_requests_count 1", lines.get(8));
+  }
+
+  @Test
+  public void testFamilySplitByType() throws Exception {
+    TagEncodedMetricName base = TagEncodedMetricName.decode("cache.size");
+    registry.counter(base.withTags("cache", "a").toString()).inc();
+    registry.histogram(base.withTags("cache", "b").toString()).update(2);
+    registry.counter("other").inc();
+
+    List<String> lines = serializeLines();
+    assertEquals("# TYPE cache_size_gauge gauge", lines.get(0));
+    assertEquals("cache_size_gauge{cache=\"a\"} 1", lines.get(1));
+    assertEquals("# TYPE cache_size_summary summary", lines.get(2));
+    assertEquals("cache_size_summary_count{cache=\"b\"} 1", lines.get(10));
+    assertEquals(Arrays.asList("# TYPE other gauge", "other 1"), lines.subList(11, 13));
+
+    registry.remove(base.withTags("cache", "b").toString());
+    assertEquals(Arrays.asList("# TYPE cache_size gauge", "cache_size{cache=\"a\"} 1",
+        "# TYPE other gauge", "other 1"), serializeLines());
+  }
+
+  @Test
+  public void testRegistryChanges() throws Exception {
+    registry.counter("a").inc();
+    assertEquals(Arrays.asList("# TYPE a gauge", "a 1"), serializeLines());
+    registry.remove("a");
+    registry.counter("b").inc(2);
+    assertEquals(Arrays.asList("# TYPE b gauge", "b 2"), serializeLines());
+  }
+
+  @Test
+  public void testFailingGaugeSkipped() throws Exception {
+    registry.register("a", (Gauge<Long>) () -> {
+      throw new IllegalStateException();
+    });
+    registry.counter("b").inc();
+    assertEquals(Arrays.asList("# TYPE b gauge", "b 1"), serializeLines());
+  }
+
+  @Test
+  public void testNumberFormats() throws Exception {
+    double[] values = {0, -0.0, 1, -1, 0.1, 123.456, 1e-9, 2.5e-10, 1e20, Double.NaN,
+        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Long.MAX_VALUE, 1200, 0.1 + 0.2,
+        1.0 / 3, 1e-30};
+    for (int i = 0; i < values.length; i++) {
+      double value = values[i];
+      registry.register("v" + (char) ('a' + i), (Gauge<Double>) () -> value);
+    }
+    List<String> lines = serializeLines();
+    String[] expected = {"0", "0", "1", "-1", "0.1", "123.456", "0.000000001", "0.00000000025",
+        "1.0E20", "NaN", "+Inf", "-Inf", "9.223372036854776E18", "1200", "0.30000000000000004",
+        "0.3333333333333333", "1.0E-30"};
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(lines.get(2 * i + 1), "v" + (char) ('a' + i) + " " + expected[i]);
+    }
+  }
+
+  @Test
+  public void testSerializationDoesNotAllocate() throws Exception {
+    java.lang.management.ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMxBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean mxBean = (com.sun.management.ThreadMXBean) threadMxBean;
+    assumeTrue(mxBean.isThreadAllocatedMemorySupported());
+    mxBean.setThreadAllocatedMemoryEnabled(true);
+
+    TagEncodedMetricName base = TagEncodedMetricName.decode("series");
+    for (int i = 0; i < 20_000; i++) {
+      registry.counter(base.withTags("id", Integer.toString(i)).toString()).inc(i);
+    }
+    //first call encodes the series and sizes the buffer
+    for (int i = 0; i < 20; i++) {
+      serializer.serialize();
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long before = mxBean.getThreadAllocatedBytes(threadId);
+    int length = serializer.serialize();
+    long allocated = mxBean.getThreadAllocatedBytes(threadId) - before;
+
+    assertTrue(length > 20_000 * 10);
+    assertTrue("Bytes allocated: " + allocated, allocated < 1024);
+  }
+
+  private List<String> serializeLines() {
+    String text = serialize();
+    return text.isEmpty() ? Collections.emptyList() : Arrays.asList(text.split("\n"));
+  }
+
+  private String serialize() {
+    int length = serializer.serialize();
+    return new String(serializer.getBuffer(), 0, length, StandardCharsets.UTF_8);
+  }
+}
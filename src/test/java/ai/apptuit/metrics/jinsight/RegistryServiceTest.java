@@ -16,26 +16,45 @@
 
 package ai.apptuit.metrics.jinsight;
 
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ai.apptuit.metrics.dropwizard.ApptuitReporter.ReportingMode;
 import ai.apptuit.metrics.dropwizard.ApptuitReporterFactory;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 /**
  * @author Rajiv Shivane
@@ -54,6 +73,11 @@ public class RegistryServiceTest {
     when(mockFactory.build(any(MetricRegistry.class))).thenReturn(mockReporter);
     mockConfigService = mock(ConfigService.class);
     when(mockConfigService.getGlobalTags()).thenReturn(ConfigService.getInstance().getGlobalTags());
+    when(mockConfigService.getTimerReservoirType())
+        .thenReturn(ConfigService.getInstance().getTimerReservoirType());
+    when(mockConfigService.isModuleEnabled(anyString())).thenReturn(true);
+    when(mockConfigService.getReportingFrequency())
+        .thenReturn(ConfigService.getInstance().getReportingFrequency());
   }
 
   @Test
@@ -133,9 +157,167 @@ public class RegistryServiceTest {
 
   @Test
   public void testReportingFrequency() throws Exception {
-    long freq = 99999L;
+    long freq = 50L;
     when(mockConfigService.getReportingFrequency()).thenReturn(freq);
     new RegistryService(mockConfigService, mockFactory);
-    verify(mockReporter).start(freq, TimeUnit.MILLISECONDS);
+    verify(mockReporter, timeout(freq * 20).atLeast(2))
+        .report(any(), any(), any(), any(), any());
+    verify(mockReporter, never()).start(anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void testReportingCycleTimed() throws Exception {
+    when(mockConfigService.getReportingFrequency()).thenReturn(50L);
+    new RegistryService(mockConfigService, mockFactory);
+    verify(mockReporter, timeout(1000)).report(any(), any(), any(), any(), any());
+
+    Timer cycleTimer = getRegistry().timer(AgentMetricSet.REPORTER_CYCLE_METRIC);
+    await().atMost(1, TimeUnit.SECONDS).until(() -> cycleTimer.getCount() > 0);
+  }
+
+  @Test
+  public void testDeltaReporting() throws Exception {
+    when(mockConfigService.getReportingFrequency()).thenReturn(50L);
+    when(mockConfigService.getFullRefreshFrequency()).thenReturn(60_000L);
+    List<Set<String>> reportedCounters = new CopyOnWriteArrayList<>();
+    doAnswer(invocation -> {
+      @SuppressWarnings("unchecked")
+      SortedMap<String, Counter> counters =
+          (SortedMap<String, Counter>) invocation.getArguments()[1];
+      reportedCounters.add(new HashSet<>(counters.keySet()));
+      return null;
+    }).when(mockReporter).report(any(), any(), any(), any(), any());
+    new RegistryService(mockConfigService, mockFactory);
+    Counter counter = getRegistry().counter("delta.counter");
+
+    await().atMost(1, TimeUnit.SECONDS).until(() -> reportedCounters.size() >= 3);
+    counter.inc();
+    int changedCycle = reportedCounters.size();
+    await().atMost(1, TimeUnit.SECONDS).until(() -> reportedCounters.size() >= changedCycle + 3);
+
+    long cyclesWithCounter = reportedCounters.stream()
+        .filter(names -> names.contains("delta.counter")).count();
+    //once when first seen, and once after the increment
+    assertEquals(2, cyclesWithCounter);
+  }
+
+  @Test
+  public void testIdleMetricsEvicted() throws Exception {
+    when(mockConfigService.getReportingFrequency()).thenReturn(50L);
+    when(mockConfigService.getCardinalityLimit()).thenReturn(100);
+    when(mockConfigService.getIdleEvictionCycles()).thenReturn(2);
+    new RegistryService(mockConfigService, mockFactory);
+    Counter idle = getRegistry().counter("idle.counter[k:v]");
+    idle.inc();
+
+    await().atMost(2, TimeUnit.SECONDS)
+        .until(() -> !getRegistry().getCounters().containsKey("idle.counter[k:v]"));
+    idle.inc();
+    assertEquals(idle, getRegistry().getCounters().get("idle.counter[k:v]"));
+  }
+
+  @Test
+  public void testReportingTiers() throws Exception {
+    when(mockConfigService.getReportingFrequency()).thenReturn(400L);
+    when(mockConfigService.getReportingTiers()).thenReturn(Collections.singletonList(
+        new ReportingTierFilter.Tier("fast", 50, Collections.singletonList("tier.fast*"))));
+    List<Set<String>> reportedCounters = new CopyOnWriteArrayList<>();
+    doAnswer(invocation -> {
+      @SuppressWarnings("unchecked")
+      SortedMap<String, Counter> counters =
+          (SortedMap<String, Counter>) invocation.getArguments()[1];
+      reportedCounters.add(new HashSet<>(counters.keySet()));
+      return null;
+    }).when(mockReporter).report(any(), any(), any(), any(), any());
+    new RegistryService(mockConfigService, mockFactory);
+    getRegistry().counter("tier.fast.counter");
+    getRegistry().counter("tier.slow.counter");
+
+    await().atMost(2, TimeUnit.SECONDS).until(() -> reportedCounters.size() >= 17);
+
+    long fastCycles = reportedCounters.stream()
+        .filter(names -> names.contains("tier.fast.counter")).count();
+    long slowCycles = reportedCounters.stream()
+        .filter(names -> names.contains("tier.slow.counter")).count();
+    //a cycle every 50ms, and the other metrics every 8th cycle
+    assertTrue(fastCycles >= 15);
+    assertTrue("Slow counter reported in " + slowCycles + " cycles",
+        slowCycles >= 1 && slowCycles <= 3);
+  }
+
+  @Test
+  public void testTimerReservoirsUseFrequencyOfTier() throws Exception {
+    when(mockConfigService.getReportingFrequency()).thenReturn(60_000L);
+    when(mockConfigService.getTimerReservoirType()).thenReturn(ReservoirType.HDR_HISTOGRAM);
+    when(mockConfigService.getReportingTiers()).thenReturn(Collections.singletonList(
+        new ReportingTierFilter.Tier("fast", 50, Collections.singletonList("tier.fast*"))));
+    new RegistryService(mockConfigService, mockFactory);
+    Timer fast = getRegistry().timer("tier.fast.timer");
+    Timer slow = getRegistry().timer("tier.slow.timer");
+    fast.update(1, TimeUnit.MILLISECONDS);
+    slow.update(1, TimeUnit.MILLISECONDS);
+    assertEquals(1, fast.getSnapshot().size());
+    assertEquals(1, slow.getSnapshot().size());
+
+    for (int i = 0; i < 2; i++) {
+      fast.update(1, TimeUnit.MILLISECONDS);
+      slow.update(1, TimeUnit.MILLISECONDS);
+    }
+    Thread.sleep(100);
+
+    //the snapshot of the slow timer covers 60s, and is reused
+    assertEquals(2, fast.getSnapshot().size());
+    assertEquals(1, slow.getSnapshot().size());
+  }
+
+  @Test
+  public void testAgentMetricsRegistered() throws Exception {
+    new RegistryService(mockConfigService, mockFactory);
+
+    Map<String, Gauge> gauges = getRegistry().getGauges();
+    assertTrue(gauges.containsKey("jinsight.agent.helper.time.nanos"));
+    assertTrue(gauges.containsKey("jinsight.agent.sql_id_cache.hit_ratio"));
+    assertEquals(getRegistry().getMetrics().size(),
+        gauges.get("jinsight.agent.registry.metrics").getValue());
+  }
+
+  @Test
+  public void testSqlIdCacheMetricsNotRegisteredWithJdbcModuleDisabled() throws Exception {
+    when(mockConfigService.isModuleEnabled(RegistryService.JDBC_MODULE_NAME)).thenReturn(false);
+    new RegistryService(mockConfigService, mockFactory);
+
+    Map<String, Gauge> gauges = getRegistry().getGauges();
+    assertTrue(gauges.containsKey("jinsight.agent.helper.time.nanos"));
+    assertFalse(gauges.containsKey("jinsight.agent.sql_id_cache.hit_ratio"));
+    assertFalse(gauges.containsKey("jinsight.agent.sql_id_cache.size"));
+  }
+
+  @Test
+  public void testJvmMetricsRegisteredByDefault() throws Exception {
+    new RegistryService(mockConfigService, mockFactory);
+
+    assertTrue(getJvmMetricNames().size() > 0);
+  }
+
+  @Test
+  public void testJvmModuleDisabled() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("apptuit.access_token", UUID.randomUUID().toString());
+    properties.setProperty("jinsight.modules.jvm.enabled", "false");
+    new RegistryService(new ConfigService(properties), mockFactory);
+
+    assertEquals(Collections.emptySet(), getJvmMetricNames());
+  }
+
+  private MetricRegistry getRegistry() {
+    ArgumentCaptor<MetricRegistry> registry = ArgumentCaptor.forClass(MetricRegistry.class);
+    verify(mockFactory).build(registry.capture());
+    return registry.getValue();
+  }
+
+  private Set<String> getJvmMetricNames() {
+    return getRegistry().getNames().stream()
+        .filter(name -> name.startsWith("jvm."))
+        .collect(Collectors.toSet());
   }
 }
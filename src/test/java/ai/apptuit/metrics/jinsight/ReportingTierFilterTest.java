@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.jinsight.ReportingTierFilter.Tier;
+import com.codahale.metrics.Counter;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class ReportingTierFilterTest {
+
+  private final Counter metric = new Counter();
+
+  @Test
+  public void testWithoutTiers() throws Exception {
+    ReportingTierFilter filter = new ReportingTierFilter(15_000, Collections.emptyList());
+    assertEquals(15_000, filter.getCycleMillis());
+    for (int cycle = 0; cycle < 3; cycle++) {
+      assertTrue(filter.matches("any.metric", metric));
+      filter.cycleCompleted();
+    }
+  }
+
+  @Test
+  public void testTiersReportedAtTheirFrequencies() throws Exception {
+    ReportingTierFilter filter = new ReportingTierFilter(60_000, Arrays.asList(
+        new Tier("fast", 1_000, Collections.singletonList("tomcat.requests*")),
+        new Tier("medium", 10_000, Collections.singletonList("jvm.*"))));
+    assertEquals(1_000, filter.getCycleMillis());
+
+    int fast = 0;
+    int medium = 0;
+    int other = 0;
+    for (int cycle = 0; cycle < 120; cycle++) {
+      fast += filter.matches("tomcat.requests[status:200]", metric) ? 1 : 0;
+      medium += filter.matches("jvm.memory.heap.used", metric) ? 1 : 0;
+      other += filter.matches("jdbc.ps.execute", metric) ? 1 : 0;
+      filter.cycleCompleted();
+    }
+    assertEquals(120, fast);
+    assertEquals(12, medium);
+    assertEquals(2, other);
+  }
+
+  @Test
+  public void testFrequenciesRoundedToCycles() throws Exception {
+    ReportingTierFilter filter = new ReportingTierFilter(15_000, Collections.singletonList(
+        new Tier("fast", 4_000, Collections.singletonList("fast"))));
+    assertEquals(4_000, filter.getCycleMillis());
+    //15s is reported every 4th cycle, at 16s
+    assertTrue(filter.matches("slow", metric));
+    for (int cycle = 1; cycle < 4; cycle++) {
+      filter.cycleCompleted();
+      assertFalse(filter.matches("slow", metric));
+    }
+    filter.cycleCompleted();
+    assertTrue(filter.matches("slow", metric));
+  }
+
+  @Test
+  public void testFrequencyOfMetric() throws Exception {
+    ReportingTierFilter filter = new ReportingTierFilter(15_000, Collections.singletonList(
+        new Tier("fast", 4_000, Collections.singletonList("fast*"))));
+    assertEquals(4_000, filter.getFrequencyMillis("fast.timer[k:v]"));
+    assertEquals(16_000, filter.getFrequencyMillis("slow.timer"));
+  }
+
+  @Test
+  public void testPatterns() throws Exception {
+    ReportingTierFilter filter = new ReportingTierFilter(60_000, Arrays.asList(
+        new Tier("a", 1_000, Arrays.asList("jvm.*.count", "exact.name")),
+        new Tier("b", 1_000, Collections.singletonList("*[cache:hot]"))));
+
+    assertEquals("a", filter.getTierName("jvm.thread.count"));
+    assertEquals("a", filter.getTierName("jvm.thread.daemon.count"));
+    assertEquals("a", filter.getTierName("exact.name"));
+    assertEquals("default", filter.getTierName("exact.name.longer"));
+    assertEquals("default", filter.getTierName("jvm.thread.count[state:new]"));
+    assertEquals("b", filter.getTierName("ehcache.hits[cache:hot]"));
+    //pattern characters other than * are literals
+    assertEquals("default", filter.getTierName("jvmXthread.count"));
+  }
+
+  @Test
+  public void testFirstMatchingTierWins() throws Exception {
+    ReportingTierFilter filter = new ReportingTierFilter(60_000, Arrays.asList(
+        new Tier("first", 1_000, Collections.singletonList("jdbc.*")),
+        new Tier("second", 5_000, Collections.singletonList("jdbc.ps.*"))));
+
+    assertEquals("first", filter.getTierName("jdbc.ps.execute"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTierFrequency() throws Exception {
+    new Tier("zero", 0, Collections.singletonList("*"));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class RuleModuleTest {
+
+  private static final String SCRIPTS_PATH = "META-INF/btm-scripts/";
+
+  @Test
+  public void testParseClassTargets() throws Exception {
+    RuleModule module = RuleModule.parse(SCRIPTS_PATH,
+        "servlet org.eclipse.jetty.server.Server org.apache.catalina.core.StandardContext");
+    assertEquals("servlet", module.getName());
+    assertEquals(new LinkedHashSet<>(Arrays.asList("org.eclipse.jetty.server.Server",
+        "org.apache.catalina.core.StandardContext")), module.getAnchorClasses());
+    assertFalse(module.matchesSubtypes());
+    assertFalse(module.isEager());
+    assertTrue(module.isAnchor("org.eclipse.jetty.server.Server"));
+    assertFalse(module.isAnchor("org.eclipse.jetty.server.Handler"));
+  }
+
+  @Test
+  public void testParseSubtypeTargets() throws Exception {
+    RuleModule module = RuleModule.parse(SCRIPTS_PATH, "jdbc ^java.sql.Connection");
+    assertEquals(new LinkedHashSet<>(Arrays.asList("java.sql.Connection")),
+        module.getAnchorClasses());
+    assertTrue(module.matchesSubtypes());
+    assertFalse(module.isEager());
+  }
+
+  @Test
+  public void testModulesWithoutAnchorsAreEager() throws Exception {
+    assertTrue(RuleModule.parse(SCRIPTS_PATH, "empty").isEager());
+    assertTrue(RuleModule.parse(SCRIPTS_PATH, "unqualified ^Connection").isEager());
+  }
+
+  @Test
+  public void testTriggeredByAnchorDefinition() throws Exception {
+    RuleModule module = RuleModule.parse(SCRIPTS_PATH, "jedis redis.clients.jedis.Jedis");
+    assertTrue(module.isTriggeredBy("redis/clients/jedis/Jedis", new byte[0]));
+    assertFalse(module.isTriggeredBy("redis/clients/jedis/BinaryJedis", new byte[0]));
+  }
+
+  @Test
+  public void testClassRulesAreNotTriggeredByReferences() throws Exception {
+    RuleModule module = RuleModule.parse(SCRIPTS_PATH, "jedis redis.clients.jedis.Jedis");
+    assertFalse(module.isTriggeredBy("com/example/Dao", classFile("redis/clients/jedis/Jedis")));
+  }
+
+  @Test
+  public void testSubtypeRulesAreTriggeredByReferences() throws Exception {
+    RuleModule module = RuleModule.parse(SCRIPTS_PATH, "jdbc ^java.sql.Connection");
+    assertTrue(module.isTriggeredBy("org/h2/jdbc/JdbcConnection",
+        classFile("java/sql/Connection")));
+    assertFalse(module.isTriggeredBy("org/h2/jdbc/JdbcConnection",
+        classFile("java/sql/Statement")));
+    assertFalse(module.isTriggeredBy("org/h2/jdbc/JdbcConnection", classFile("java/sql/Conn")));
+  }
+
+  private static byte[] classFile(String referencedClass) {
+    return ("\u00ca\u00fe\u00ba\u00be...\u0001" + referencedClass + "...")
+        .getBytes(StandardCharsets.ISO_8859_1);
+  }
+}
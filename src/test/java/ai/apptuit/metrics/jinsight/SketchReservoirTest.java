@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.jinsight.SketchReservoir.SketchSnapshot;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class SketchReservoirTest {
+
+  private MockClock clock;
+  private SketchReservoir reservoir;
+
+  @Before
+  public void setUp() throws Exception {
+    clock = new MockClock();
+    reservoir = new SketchReservoir(10, TimeUnit.SECONDS, clock);
+  }
+
+  @Test
+  public void testBucketBounds() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+      int index = SketchReservoir.getBucketIndex(value);
+      assertTrue(value + " below bucket " + index, value >= SketchReservoir.getLowerBound(index));
+      assertTrue(value + " above bucket " + index, value < SketchReservoir.getUpperBound(index)
+          || SketchReservoir.getUpperBound(index) == Long.MAX_VALUE);
+    }
+    for (long value = 0; value < SketchReservoir.SUB_BUCKETS; value++) {
+      assertEquals(value, SketchReservoir.getBucketIndex(value));
+    }
+    int last = SketchReservoir.getBucketIndex(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, SketchReservoir.getUpperBound(last));
+    assertEquals(SketchReservoir.getUpperBound(last - 1), SketchReservoir.getLowerBound(last));
+    assertEquals(0, SketchReservoir.getBucketIndex(-5));
+  }
+
+  @Test
+  public void testExportedBucketsHoldWholeBuckets() throws Exception {
+    Set<Long> upperBounds = new HashSet<>();
+    int last = SketchReservoir.getBucketIndex(Long.MAX_VALUE);
+    for (int index = 0; index <= last; index++) {
+      long upperBound = SketchReservoir.getExportedUpperBound(index);
+      //the exported bucket is found from the lower bound, so it must hold the whole bucket
+      assertTrue(index + " in two exported buckets",
+          SketchReservoir.getUpperBound(index) <= upperBound);
+      upperBounds.add(upperBound);
+    }
+    //values below 8 have an exported bucket each, the 60 powers of two from 8 up have 8 each
+    assertEquals(8 + 60 * SketchReservoir.EXPORTED_SUB_BUCKETS, upperBounds.size());
+    assertEquals(Long.MAX_VALUE, SketchReservoir.getExportedUpperBound(last));
+  }
+
+  @Test
+  public void testRelativeError() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long value = 1 + (long) Math.abs(random.nextGaussian() * 1_000_000_000);
+      double represented = SketchReservoir.getRepresentativeValue(
+          SketchReservoir.getBucketIndex(value));
+      assertEquals(value, represented, value * 0.008);
+    }
+  }
+
+  @Test
+  public void testEmptySnapshot() throws Exception {
+    Snapshot snapshot = reservoir.getSnapshot();
+    assertEquals(0, snapshot.size());
+    assertEquals(0, snapshot.getMin());
+    assertEquals(0, snapshot.getMax());
+    assertEquals(0, snapshot.getMean(), 0);
+    assertEquals(0, snapshot.getStdDev(), 0);
+    assertEquals(0, snapshot.getMedian(), 0);
+    assertEquals(0, snapshot.getValues().length);
+  }
+
+  @Test
+  public void testSnapshotStatistics() throws Exception {
+    for (int i = 1; i <= 100; i++) {
+      reservoir.update(i * 1000);
+    }
+    Snapshot snapshot = reservoir.getSnapshot();
+    assertEquals(100, snapshot.size());
+    assertEquals(1000, snapshot.getMin(), 8);
+    assertEquals(100_000, snapshot.getMax(), 800);
+    assertEquals(50_500, snapshot.getMean(), 404);
+    assertEquals(50_000, snapshot.getMedian(), 400);
+    assertEquals(99_000, snapshot.get99thPercentile(), 792);
+    assertEquals(100, snapshot.getValues().length);
+  }
+
+  @Test
+  public void testQuantilesWithinRelativeError() throws Exception {
+    long[] values = new long[10_000];
+    Random random = new Random(42);
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 1 + (long) Math.abs(random.nextGaussian() * 1_000_000);
+      reservoir.update(values[i]);
+    }
+    Arrays.sort(values);
+    Snapshot snapshot = reservoir.getSnapshot();
+    for (double quantile : new double[]{0.5, 0.75, 0.95, 0.98, 0.99, 0.999, 0.0, 1.0}) {
+      long expected = values[(int) (quantile * (values.length - 1))];
+      assertEquals(expected, snapshot.getValue(quantile), expected * 0.008);
+    }
+  }
+
+  @Test
+  public void testValuesBounded() throws Exception {
+    for (int i = 0; i < 100_000; i++) {
+      reservoir.update(i);
+    }
+    long[] values = reservoir.getSnapshot().getValues();
+    assertEquals(SketchReservoir.MAX_VALUES, values.length);
+    assertEquals(0, values[0]);
+    assertEquals(100_000, values[values.length - 1], 100_000 * 0.008);
+    assertEquals(50_000, values[values.length / 2], 50_000 * 0.008);
+  }
+
+  @Test
+  public void testValuesAreSorted() throws Exception {
+    reservoir.update(3);
+    reservoir.update(1);
+    reservoir.update(2);
+    reservoir.update(-5);
+    assertArrayEquals(new long[]{0, 1, 2, 3}, reservoir.getSnapshot().getValues());
+  }
+
+  @Test
+  public void testSnapshotReusedWithinInterval() throws Exception {
+    reservoir.update(1);
+    Snapshot first = reservoir.getSnapshot();
+    reservoir.update(2);
+    clock.advance(4, TimeUnit.SECONDS);
+    assertSame(first, reservoir.getSnapshot());
+  }
+
+  @Test
+  public void testSnapshotCoversOneInterval() throws Exception {
+    reservoir.update(1);
+    assertEquals(1, reservoir.getSnapshot().size());
+    reservoir.update(2);
+    reservoir.update(3);
+    clock.advance(10, TimeUnit.SECONDS);
+    Snapshot second = reservoir.getSnapshot();
+    assertEquals(2, second.size());
+    assertEquals(2, second.getMin());
+    clock.advance(10, TimeUnit.SECONDS);
+    assertEquals(0, reservoir.getSnapshot().size());
+  }
+
+  @Test
+  public void testConcurrentUpdatesCounted() throws Exception {
+    int threads = 4;
+    int updates = 100_000;
+    Thread[] updaters = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      updaters[t] = new Thread(() -> {
+        for (int i = 0; i < updates; i++) {
+          reservoir.update(i);
+        }
+      });
+      updaters[t].start();
+    }
+    //values recorded while a snapshot is taken go to that snapshot or the next one
+    long count = 0;
+    for (Thread updater : updaters) {
+      while (updater.isAlive()) {
+        clock.advance(10, TimeUnit.SECONDS);
+        count += reservoir.getSnapshot().size();
+      }
+    }
+    clock.advance(10, TimeUnit.SECONDS);
+    count += reservoir.getSnapshot().size();
+    assertEquals(threads * updates, count);
+  }
+
+  @Test
+  public void testEachReaderHasItsOwnInterval() throws Exception {
+    SnapshotReader scraper = new SnapshotReader("scraper");
+    reservoir.update(1);
+    reservoir.update(100);
+    assertEquals(2, scraper.call(reservoir::getSnapshot).size());
+    reservoir.update(1);
+    reservoir.update(5_000);
+    clock.advance(10, TimeUnit.SECONDS);
+    assertEquals(2, scraper.call(reservoir::getSnapshot).size());
+
+    SketchSnapshot reported = (SketchSnapshot) reservoir.getSnapshot();
+    assertEquals(4, reported.size());
+    assertEquals(3, reported.getBucketCount());
+    assertEquals(2, reported.getBucketValueCount(0));
+    assertEquals(1, reported.getMin());
+    assertEquals(5_000, reported.getMax(), 5_000 * 0.008);
+  }
+
+  @Test
+  public void testBucketsOfReservoirsAdd() throws Exception {
+    SketchReservoir other = new SketchReservoir(10, TimeUnit.SECONDS, clock);
+    reservoir.update(1_000_000);
+    reservoir.update(2_000_000);
+    other.update(1_000_100);
+    other.update(5_000_000);
+
+    SketchSnapshot first = (SketchSnapshot) reservoir.getSnapshot();
+    SketchSnapshot second = (SketchSnapshot) other.getSnapshot();
+    assertEquals(2, first.getBucketCount());
+    assertEquals(2, second.getBucketCount());
+    //values within 0.8% of each other share a bucket, which has the same bounds in both
+    assertEquals(first.getBucketUpperBound(0), second.getBucketUpperBound(0));
+    assertEquals(1, first.getBucketValueCount(0));
+    assertEquals(1, second.getBucketValueCount(0));
+    assertTrue(first.getBucketUpperBound(1) < second.getBucketUpperBound(1));
+  }
+
+  private static class MockClock extends Clock {
+
+    private long tick = 0;
+
+    void advance(long duration, TimeUnit unit) {
+      tick += unit.toNanos(duration);
+    }
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class SpoolFileTest {
+
+  private static final int CAPACITY = SpoolFile.HEADER_SIZE + 100;
+
+  private File path;
+  private SpoolFile spool;
+
+  @Before
+  public void setUp() throws Exception {
+    path = File.createTempFile("jinsight", ".spool");
+    spool = SpoolFile.open(path, CAPACITY);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    spool.close();
+    path.delete();
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertTrue(spool.isEmpty());
+    assertNull(spool.peek());
+    spool.remove();
+    assertEquals(0, spool.getRecordCount());
+  }
+
+  @Test
+  public void testFifo() throws Exception {
+    append("one");
+    append("two");
+    assertEquals(2, spool.getRecordCount());
+    assertEquals("one", peek());
+    assertEquals("one", peek());
+    spool.remove();
+    assertEquals("two", peek());
+    spool.remove();
+    assertTrue(spool.isEmpty());
+  }
+
+  @Test
+  public void testWrapAround() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      append("record-" + i);
+      assertEquals("record-" + i, peek());
+      spool.remove();
+    }
+    assertTrue(spool.isEmpty());
+
+    //records that straddle the end of the file move to its start
+    for (int i = 0; i < 50; i++) {
+      append("first-" + i);
+      append("second-" + i);
+      assertEquals("first-" + i, peek());
+      spool.remove();
+      assertEquals("second-" + i, peek());
+      spool.remove();
+    }
+  }
+
+  @Test
+  public void testOldestDroppedWhenFull() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      append("record-" + i);
+    }
+    assertTrue(spool.getUsedBytes() <= CAPACITY - SpoolFile.HEADER_SIZE);
+    assertTrue(spool.getDroppedRecords() > 0);
+    assertEquals(20 - spool.getDroppedRecords(), spool.getRecordCount());
+    String last = null;
+    while (!spool.isEmpty()) {
+      last = peek();
+      spool.remove();
+    }
+    assertEquals("record-19", last);
+  }
+
+  @Test
+  public void testOversizedRecordRejected() throws Exception {
+    append("small");
+    assertFalse(spool.append(new byte[CAPACITY], 0, CAPACITY));
+    assertEquals(1, spool.getDroppedRecords());
+    assertEquals("small", peek());
+  }
+
+  @Test
+  public void testRecordsSurviveReopen() throws Exception {
+    append("one");
+    append("two");
+    spool.remove();
+    append("three");
+    spool.close();
+
+    spool = SpoolFile.open(path, CAPACITY);
+    assertEquals(2, spool.getRecordCount());
+    assertEquals("two", peek());
+    spool.remove();
+    assertEquals("three", peek());
+  }
+
+  @Test
+  public void testResizeDiscardsRecords() throws Exception {
+    append("one");
+    spool.close();
+
+    spool = SpoolFile.open(path, CAPACITY * 2);
+    assertTrue(spool.isEmpty());
+  }
+
+  @Test(expected = IOException.class)
+  public void testLockedWhileOpen() throws Exception {
+    SpoolFile.open(path, CAPACITY);
+  }
+
+  private void append(String record) {
+    byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+    assertTrue(spool.append(bytes, 0, bytes.length));
+  }
+
+  private String peek() {
+    return new String(spool.peek(), StandardCharsets.UTF_8);
+  }
+}
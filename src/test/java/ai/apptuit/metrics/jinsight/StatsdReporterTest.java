@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class StatsdReporterTest {
+
+  private static final int PACKET_SIZE = 512;
+
+  private DatagramSocket agent;
+  private MetricRegistry registry;
+  private StatsdReporter reporter;
+
+  @Before
+  public void setUp() throws Exception {
+    agent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    agent.setReceiveBufferSize(4 * 1024 * 1024);
+    agent.setSoTimeout(1000);
+    registry = new MetricRegistry();
+    reporter = new StatsdReporter(registry,
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), agent.getLocalPort()),
+        Collections.singletonMap("env", "test"), PACKET_SIZE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    reporter.stop();
+    agent.close();
+  }
+
+  @Test
+  public void testLines() throws Exception {
+    registry.counter("requests[method:GET]").inc(3);
+    registry.register("ratio", (Gauge<Double>) () -> 0.25);
+    registry.timer("latency").update(2, TimeUnit.MILLISECONDS);
+    reporter.report();
+
+    Set<String> lines = new HashSet<>(receiveLines(reporter.getPacketsSent()));
+    assertTrue(lines.toString(), lines.contains("requests.count:3|g|#env:test,method:GET"));
+    assertTrue(lines.toString(), lines.contains("ratio:0.25|g|#env:test"));
+    assertTrue(lines.toString(), lines.contains("latency.p99:2|g|#env:test"));
+    assertTrue(lines.toString(), lines.contains("latency.count:1|g|#env:test"));
+    assertTrue(lines.toString(), lines.contains("latency.m1_rate:0|g|#env:test"));
+  }
+
+  @Test
+  public void testLinesPackedIntoPackets() throws Exception {
+    int counterCount = 2000;
+    for (int i = 0; i < counterCount; i++) {
+      registry.counter("counter[id:" + i + "]").inc(i);
+    }
+    reporter.report();
+
+    long packets = reporter.getPacketsSent();
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < packets; i++) {
+      byte[] packet = receive();
+      assertTrue(packet.length <= PACKET_SIZE);
+      //packets are filled up, and no line is split across them
+      assertTrue(i == packets - 1 || packet.length > PACKET_SIZE - 64);
+      assertEquals('\n', packet[packet.length - 1]);
+      Collections.addAll(lines, new String(packet, StandardCharsets.UTF_8).split("\n"));
+    }
+    assertEquals(counterCount, lines.size());
+    assertTrue(lines.contains("counter.count:1999|g|#env:test,id:1999"));
+  }
+
+  @Test
+  public void testReservedCharactersReplaced() throws Exception {
+    assertEquals("a_b_c_d_e", StatsdReporter.sanitize("a|b,c#d@e", false));
+    assertEquals("a_b", StatsdReporter.sanitize("a:b", false));
+    assertEquals("http://host", StatsdReporter.sanitize("http://host", true));
+  }
+
+  @Test
+  public void testOversizedLineDropped() throws Exception {
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < PACKET_SIZE; i++) {
+      name.append('x');
+    }
+    registry.counter(name.toString());
+    registry.counter("small");
+    reporter.report();
+
+    assertEquals(1, reporter.getLinesDropped());
+    assertEquals(Collections.singletonList("small.count:0|g|#env:test"), receiveLines(1));
+  }
+
+  @Test
+  public void testAgentNotListening() throws Exception {
+    agent.close();
+    registry.counter("counter");
+    reporter.report();
+    reporter.report();
+  }
+
+  private List<String> receiveLines(long packets) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < packets; i++) {
+      Collections.addAll(lines, new String(receive(), StandardCharsets.UTF_8).split("\n"));
+    }
+    return lines;
+  }
+
+  private byte[] receive() throws IOException {
+    DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+    try {
+      agent.receive(packet);
+    } catch (SocketTimeoutException e) {
+      throw new AssertionError("Expected a packet", e);
+    }
+    byte[] bytes = new byte[packet.getLength()];
+    System.arraycopy(packet.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+}
@@ -17,7 +17,11 @@
 package ai.apptuit.metrics.jinsight;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.ExponentiallyDecayingReservoir;
@@ -155,4 +159,115 @@ public class TracingMetricRegistryTest {
   public void testGaugeSupplier() throws Exception {
     registry.gauge("GXX", () -> () -> 7);
   }
+
+  @Test
+  public void testCardinalityLimit() throws Exception {
+    TracingMetricRegistry limited = new TracingMetricRegistry(ExponentiallyDecayingReservoir::new,
+        2);
+    Timer a = limited.timer("t[sql:a]");
+    Timer b = limited.timer("t[sql:b]");
+    Timer c = limited.timer("t[sql:c]");
+    Timer d = limited.timer("t[sql:d]");
+
+    assertNotSame(a, b);
+    assertSame(c, d);
+    assertSame(a, limited.timer("t[sql:a]"));
+    assertSame(c, limited.getTimers().get("t[sql:__other__]"));
+    assertFalse(limited.getTimers().containsKey("t[sql:c]"));
+    assertEquals(2, limited.getOverflowedSeries());
+    //untagged metrics and other names are not affected
+    assertNotSame(limited.counter("u"), limited.counter("u2"));
+    assertNotSame(limited.counter("u[k:1]"), limited.counter("u[k:2]"));
+  }
+
+  @Test
+  public void testOverflowSeriesReplacesEveryTagValue() throws Exception {
+    TracingMetricRegistry limited = new TracingMetricRegistry(ExponentiallyDecayingReservoir::new,
+        1);
+    limited.meter("m[class:A,level:error]");
+    limited.meter("m[class:B,level:error]").mark();
+
+    assertEquals(1, limited.getMeters().get("m[class:__other__,level:__other__]").getCount());
+  }
+
+  @Test
+  public void testIdleMetricsEvicted() throws Exception {
+    TracingMetricRegistry evicting = new TracingMetricRegistry(ExponentiallyDecayingReservoir::new,
+        10);
+    Counter idle = evicting.counter("c[k:idle]");
+    Counter active = evicting.counter("c[k:active]");
+    Counter untagged = evicting.counter("c");
+
+    for (int cycle = 0; cycle < 2; cycle++) {
+      active.inc();
+      assertEquals(0, evicting.evictIdleMetrics(2));
+    }
+    active.inc();
+    assertEquals(1, evicting.evictIdleMetrics(2));
+
+    assertFalse(evicting.getCounters().containsKey("c[k:idle]"));
+    assertSame(active, evicting.getCounters().get("c[k:active]"));
+    assertSame(untagged, evicting.getCounters().get("c"));
+    assertEquals(1, evicting.getEvictedMetrics());
+    assertSame(idle, evicting.counter("c[k:idle]"));
+  }
+
+  @Test
+  public void testIdleMetricsEvictedWithoutCardinalityLimit() throws Exception {
+    TracingMetricRegistry evicting = new TracingMetricRegistry(ExponentiallyDecayingReservoir::new,
+        0);
+    evicting.meter("m[k:idle]");
+    evicting.evictIdleMetrics(1);
+
+    assertEquals(1, evicting.evictIdleMetrics(1));
+    assertTrue(evicting.getMeters().isEmpty());
+  }
+
+  @Test
+  public void testEvictedMetricAdoptedWhenLookedUpAgain() throws Exception {
+    TracingMetricRegistry evicting = new TracingMetricRegistry(ExponentiallyDecayingReservoir::new,
+        10);
+    Counter cached = evicting.counter("c[k:v]");
+    cached.inc();
+    evicting.evictIdleMetrics(1);
+    assertEquals(1, evicting.evictIdleMetrics(1));
+
+    Counter lookedUp = evicting.counter("c[k:v]");
+    lookedUp.inc();
+    cached.inc();
+
+    assertSame(cached, lookedUp);
+    assertSame(cached, evicting.getCounters().get("c[k:v]"));
+    assertEquals(3, cached.getCount());
+  }
+
+  @Test
+  public void testEvictedMetricReadmittedOnUpdate() throws Exception {
+    TracingMetricRegistry evicting = new TracingMetricRegistry(ExponentiallyDecayingReservoir::new,
+        10);
+    Timer timer = evicting.timer("t[k:v]");
+    timer.update(1, TimeUnit.MILLISECONDS);
+    evicting.evictIdleMetrics(1);
+    assertEquals(1, evicting.evictIdleMetrics(1));
+    assertTrue(evicting.getTimers().isEmpty());
+
+    timer.update(1, TimeUnit.MILLISECONDS);
+
+    assertSame(timer, evicting.getTimers().get("t[k:v]"));
+    assertEquals(2, timer.getCount());
+  }
+
+  @Test
+  public void testEvictionFreesSeriesForNewValues() throws Exception {
+    TracingMetricRegistry limited = new TracingMetricRegistry(ExponentiallyDecayingReservoir::new,
+        1);
+    limited.histogram("h[k:a]");
+    limited.evictIdleMetrics(1);
+    limited.evictIdleMetrics(1);
+
+    limited.histogram("h[k:b]");
+
+    assertTrue(limited.getHistograms().containsKey("h[k:b]"));
+    assertEquals(0, limited.getOverflowedSeries());
+  }
 }
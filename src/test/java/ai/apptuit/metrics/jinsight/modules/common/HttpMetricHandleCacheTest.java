@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.RegistryService;
+import com.codahale.metrics.Timer;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class HttpMetricHandleCacheTest {
+
+  private TagEncodedMetricName rootName;
+  private HttpMetricHandleCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    rootName = TagEncodedMetricName.decode("http.cache.test." + UUID.randomUUID());
+    cache = new HttpMetricHandleCache(rootName);
+  }
+
+  @Test
+  public void testStandardMethodResolvesRegistryTimer() throws Exception {
+    Timer timer = cache.getTimer("GET", 200);
+    assertSame(timer, cache.getTimer("GET", 200));
+    assertSame(timer, registryTimer("GET", 200));
+    assertNotSame(timer, cache.getTimer("GET", 404));
+    assertNotSame(timer, cache.getTimer("POST", 200));
+  }
+
+  @Test
+  public void testNonStandardMethodAndStatus() throws Exception {
+    Timer propfind = cache.getTimer("PROPFIND", 207);
+    assertSame(propfind, cache.getTimer("PROPFIND", 207));
+    assertSame(registryTimer("PROPFIND", 207), propfind);
+    Timer invalid = cache.getTimer("GET", 999);
+    assertSame(registryTimer("GET", 999), invalid);
+    Timer negative = cache.getTimer("GET", -1);
+    assertSame(registryTimer("GET", -1), negative);
+  }
+
+  @Test
+  public void testSharedCache() throws Exception {
+    HttpMetricHandleCache shared = HttpMetricHandleCache.forRootName(rootName);
+    assertSame(shared, HttpMetricHandleCache.forRootName(TagEncodedMetricName.decode(
+        rootName.toString())));
+    assertSame(cache.getTimer("PUT", 201), shared.getTimer("PUT", 201));
+  }
+
+  @Test
+  public void testHttpMethodLookup() throws Exception {
+    for (HttpMethod method : HttpMethod.values()) {
+      assertSame(method, HttpMethod.lookup(method.name()));
+    }
+    assertEquals(null, HttpMethod.lookup("get"));
+    assertEquals(null, HttpMethod.lookup(null));
+  }
+
+  private Timer registryTimer(String method, int status) {
+    String name = rootName.withTags("method", method, "status", "" + status).toString();
+    return RegistryService.getMetricRegistry().getTimers().get(name);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.RegistryService;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class MetricHandleCacheTest {
+
+  private TagEncodedMetricName rootName;
+
+  @Before
+  public void setUp() throws Exception {
+    rootName = TagEncodedMetricName.decode("handle.cache.test." + UUID.randomUUID());
+  }
+
+  @Test
+  public void testTimers() throws Exception {
+    MetricHandleCache<String, Timer> cache = MetricHandleCache.timers(rootName, "tag");
+    Timer timer = cache.get("a");
+    assertSame(timer, cache.get("a"));
+    assertNotSame(timer, cache.get("b"));
+    assertSame(timer, RegistryService.getMetricRegistry().getTimers()
+        .get(rootName.withTags("tag", "a").toString()));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testKeyToTagValue() throws Exception {
+    MetricHandleCache<String, Timer> cache = MetricHandleCache
+        .timers(rootName, "tag", String::toLowerCase);
+    Timer timer = cache.get("A");
+    assertSame(timer, cache.get("a"));
+    assertSame(timer, RegistryService.getMetricRegistry().getTimers()
+        .get(rootName.withTags("tag", "a").toString()));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testMeters() throws Exception {
+    MetricHandleCache<String, Meter> cache = MetricHandleCache.meters(rootName, "tag");
+    cache.get("x").mark();
+    cache.get("x").mark();
+    assertEquals(2, RegistryService.getMetricRegistry().getMeters()
+        .get(rootName.withTags("tag", "x").toString()).getCount());
+  }
+
+  @Test
+  public void testHandlesBounded() throws Exception {
+    MetricHandleCache<String, Meter> cache = MetricHandleCache.meters(rootName, "tag");
+    for (int i = 0; i <= MetricHandleCache.MAX_HANDLES; i++) {
+      cache.get("k" + i);
+    }
+    assertEquals(MetricHandleCache.MAX_HANDLES, cache.size());
+    //keys that are evicted still resolve to the same metric
+    assertSame(cache.get("k0"), cache.get("k0"));
+  }
+
+  @Test
+  public void testUsedHandlesNotEvicted() throws Exception {
+    MetricHandleCache<String, Meter> cache = MetricHandleCache.meters(rootName, "tag");
+    for (int i = 0; i < MetricHandleCache.MAX_HANDLES; i++) {
+      cache.get("k" + i);
+    }
+    Meter hot = cache.get("k0");
+
+    for (int i = 0; i < MetricHandleCache.MAX_HANDLES / 2; i++) {
+      cache.get("new" + i);
+      assertSame(hot, cache.get("k0"));
+    }
+
+    assertEquals(MetricHandleCache.MAX_HANDLES, cache.size());
+    assertTrue(cache.isCached("k0"));
+    assertFalse(cache.isCached("k1"));
+  }
+}
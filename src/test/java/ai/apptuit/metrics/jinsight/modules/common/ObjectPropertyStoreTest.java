@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import static ai.apptuit.metrics.jinsight.modules.common.ObjectPropertyStore.NO_START_TIME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.jinsight.modules.common.ObjectPropertyStore.Properties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class ObjectPropertyStoreTest {
+
+  private ObjectPropertyStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    store = new ObjectPropertyStore(4);
+  }
+
+  @Test
+  public void testGetWithoutCreate() throws Exception {
+    assertNull(store.get(new Object()));
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void testIdentitySemantics() throws Exception {
+    String a = new String("key");
+    String b = new String("key");
+    Properties pa = store.getOrCreate(a);
+    assertSame(pa, store.getOrCreate(a));
+    assertSame(pa, store.get(a));
+    assertNotSame(pa, store.getOrCreate(b));
+    assertEquals(2, store.size());
+  }
+
+  @Test
+  public void testStartTime() throws Exception {
+    Properties props = store.getOrCreate(new Object());
+    assertEquals(NO_START_TIME, props.getStartTime());
+    assertEquals(NO_START_TIME, props.setStartTime(10));
+    assertFalse(props.setStartTimeIfAbsent(20));
+    assertEquals(10, props.getStartTime());
+    assertEquals(10, props.removeStartTime());
+    assertEquals(NO_START_TIME, props.removeStartTime());
+    assertTrue(props.setStartTimeIfAbsent(20));
+    assertEquals(20, props.getStartTime());
+  }
+
+  @Test
+  public void testNamedProperties() throws Exception {
+    Properties props = store.getOrCreate(new Object());
+    assertNull(props.put("a", "1"));
+    assertNull(props.put("b", 2));
+    assertEquals("1", props.put("a", "3"));
+    assertEquals("3", props.get("a"));
+    assertEquals(2, props.get("b"));
+    assertEquals(2, props.remove("b"));
+    assertNull(props.get("b"));
+    assertNull(props.remove("b"));
+    assertEquals("3", props.get("a"));
+  }
+
+  @Test
+  public void testResize() throws Exception {
+    List<Object> keys = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      Object key = new Object();
+      keys.add(key);
+      store.getOrCreate(key).setStartTime(i);
+    }
+    assertEquals(keys.size(), store.size());
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(i, store.get(keys.get(i)).getStartTime());
+    }
+  }
+
+  @Test
+  public void testCollectedKeysAreExpunged() throws Exception {
+    for (int i = 0; i < 10000; i++) {
+      store.getOrCreate(new Object());
+    }
+    int sizeBeforeGc = store.size();
+    Object survivor = new Object();
+    for (int attempt = 0; attempt < 50 && store.size() >= sizeBeforeGc; attempt++) {
+      System.gc();
+      Thread.sleep(20);
+      //expunging happens on insert
+      for (int i = 0; i < 64; i++) {
+        store.getOrCreate(survivor);
+        store.getOrCreate(new Object());
+      }
+    }
+    assertTrue("Expected stale entries to be expunged, size: " + store.size(),
+        store.size() < sizeBeforeGc);
+    assertSame(store.get(survivor), store.getOrCreate(survivor));
+  }
+
+  @Test
+  public void testConcurrentCreate() throws Exception {
+    int threadCount = 8;
+    Object[] keys = new Object[1000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new Object();
+    }
+    Properties[][] seen = new Properties[threadCount][keys.length];
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicInteger failures = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      int tid = t;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < keys.length; i++) {
+            seen[tid][i] = store.getOrCreate(keys[i]);
+          }
+        } catch (Throwable e) {
+          failures.incrementAndGet();
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+    assertEquals(keys.length, store.size());
+    for (int i = 0; i < keys.length; i++) {
+      for (int t = 1; t < threadCount; t++) {
+        assertSame(seen[0][i], seen[t][i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import ai.apptuit.metrics.jinsight.RegistryService;
+import ai.apptuit.metrics.jinsight.modules.common.RuleHelper.OperationId;
+import ai.apptuit.metrics.jinsight.modules.jdbc.JdbcRuleHelper;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import java.lang.management.ManagementFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class RuleHelperTest {
+
+  private static final int ITERATIONS = 100_000;
+
+  private RuleHelper helper;
+  private Timer timer;
+
+  @Before
+  public void setUp() throws Exception {
+    helper = new RuleHelper(null);
+    timer = new Timer(new SlidingWindowReservoir(16));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    OperationSampler.setSamplingInterval(1);
+    OperationSampler.setCostTracked(false);
+  }
+
+  @Test
+  public void testTimedOperation() throws Exception {
+    OperationId op = new OperationId("op");
+    helper.beginTimedOperation(op);
+    helper.endTimedOperation(op, timer);
+    assertEquals(1, timer.getCount());
+  }
+
+  @Test
+  public void testReentrantOperationIsTimedOnce() throws Exception {
+    OperationId op = new OperationId("op");
+    helper.beginTimedOperation(op);
+    helper.beginTimedOperation(op);
+    helper.endTimedOperation(op, timer);
+    assertEquals(0, timer.getCount());
+    helper.endTimedOperation(op, timer);
+    assertEquals(1, timer.getCount());
+  }
+
+  @Test
+  public void testReentrantOperationDetected() throws Exception {
+    OperationId op = new OperationId("op");
+    OperationId other = new OperationId("other");
+    helper.beginTimedOperation(op);
+    assertFalse(helper.isReentrantOperation(op));
+    helper.beginTimedOperation(other);
+    helper.beginTimedOperation(op);
+    assertFalse(helper.isReentrantOperation(op));
+    helper.beginTimedOperation(op);
+    assertTrue(helper.isReentrantOperation(op));
+    assertFalse(helper.isReentrantOperation(other));
+    helper.endTimedOperation(op, timer);
+    helper.endTimedOperation(op, timer);
+    helper.endTimedOperation(other, timer);
+    helper.endTimedOperation(op, timer);
+  }
+
+  @Test
+  public void testUntimedOperations() throws Exception {
+    OperationId op = new OperationId("op");
+    OperationId timed = new OperationId("timed");
+    helper.beginUntimedOperation(op);
+    helper.beginUntimedOperation(op);
+    helper.beginTimedOperation(timed);
+    helper.endTimedOperation(timed, timer);
+    assertFalse(helper.endUntimedOperation(op));
+    assertTrue(helper.endUntimedOperation(op));
+    assertEquals(1, timer.getCount());
+  }
+
+  @Test
+  public void testNestedOperations() throws Exception {
+    OperationId outer = new OperationId("outer");
+    OperationId inner = new OperationId("inner");
+    Timer innerTimer = new Timer(new SlidingWindowReservoir(16));
+    helper.beginTimedOperation(outer);
+    helper.beginTimedOperation(inner);
+    helper.beginTimedOperation(inner);
+    helper.endTimedOperation(inner, innerTimer);
+    helper.endTimedOperation(inner, innerTimer);
+    helper.endTimedOperation(outer, timer);
+    assertEquals(1, innerTimer.getCount());
+    assertEquals(1, timer.getCount());
+  }
+
+  @Test
+  public void testMismatchedStopIsIgnored() throws Exception {
+    OperationId op = new OperationId("op");
+    OperationId other = new OperationId("other");
+    helper.beginTimedOperation(op);
+    helper.endTimedOperation(other, timer);
+    assertEquals(0, timer.getCount());
+    helper.endTimedOperation(op, timer);
+    assertEquals(1, timer.getCount());
+  }
+
+  @Test
+  public void testDeepNesting() throws Exception {
+    OperationId[] ops = new OperationId[100];
+    for (int i = 0; i < ops.length; i++) {
+      ops[i] = new OperationId("op" + i);
+      helper.beginTimedOperation(ops[i]);
+    }
+    for (int i = ops.length - 1; i >= 0; i--) {
+      helper.endTimedOperation(ops[i], timer);
+    }
+    assertEquals(ops.length, timer.getCount());
+  }
+
+  @Test
+  public void testSampledOperationsKeepExactCount() throws Exception {
+    OperationSampler.setSamplingInterval(4);
+    SampledTimer sampledTimer = new SampledTimer(new SlidingWindowReservoir(1000));
+    OperationId op = new OperationId("op");
+    for (int i = 0; i < 100; i++) {
+      helper.beginTimedOperation(op);
+      helper.endTimedOperation(op, sampledTimer);
+    }
+    assertEquals(100, sampledTimer.getCount());
+    assertEquals(25, sampledTimer.getSnapshot().size());
+    assertTrue(sampledTimer.getMeanRate() > 0);
+  }
+
+  @Test
+  public void testPlainTimerCountScaledBySamplingInterval() throws Exception {
+    OperationSampler.setSamplingInterval(2);
+    OperationId op = new OperationId("op");
+    for (int i = 0; i < 10; i++) {
+      helper.beginTimedOperation(op);
+      helper.endTimedOperation(op, timer);
+    }
+    assertEquals(10, timer.getCount());
+  }
+
+  @Test
+  public void testObjectOperationsSampled() throws Exception {
+    OperationSampler.setSamplingInterval(4);
+    SampledTimer sampledTimer = new SampledTimer(new SlidingWindowReservoir(1000));
+    for (int i = 0; i < 100; i++) {
+      Object request = new Object();
+      helper.beginObjectOperation(request);
+      helper.endObjectOperation(request, () -> sampledTimer);
+    }
+    assertEquals(100, sampledTimer.getCount());
+    assertEquals(25, sampledTimer.getSnapshot().size());
+  }
+
+  @Test
+  public void testObjectOperationNotBegunIsNotRecorded() throws Exception {
+    Object request = new Object();
+    assertTrue(helper.beginObjectOperationIfAbsent(request));
+    assertFalse(helper.beginObjectOperationIfAbsent(request));
+    helper.endObjectOperation(request, () -> timer);
+    helper.endObjectOperation(request, () -> {
+      throw new AssertionError("Timer looked up for an operation that was not begun");
+    });
+    assertEquals(1, timer.getCount());
+  }
+
+  @Test
+  public void testRecordingCostTracked() throws Exception {
+    OperationSampler.setCostTracked(true);
+    long before = OperationSampler.getRecordingNanos();
+    OperationId op = new OperationId("op");
+    for (int i = 0; i < 1000; i++) {
+      helper.beginTimedOperation(op);
+      helper.endTimedOperation(op, timer);
+    }
+    assertTrue(OperationSampler.getRecordingNanos() > before);
+  }
+
+  @Test
+  public void testRecordingCostIncludesTimerLookup() throws Exception {
+    OperationSampler.setCostTracked(true);
+    long before = OperationSampler.getRecordingNanos();
+    OperationId op = new OperationId("op");
+    helper.beginTimedOperation(op);
+    helper.endTimedOperation(op, () -> {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return timer;
+    });
+    assertTrue(OperationSampler.getRecordingNanos() - before >= 10_000_000);
+  }
+
+  @Test
+  public void testFiringsCountedPerModule() throws Exception {
+    Counter firings = RegistryService.getMetricRegistry()
+        .counter(RuleHelper.RULE_FIRINGS_METRIC.withTags("module", "common").toString());
+    long before = firings.getCount();
+    new RuleHelper(null);
+    new RuleHelper(null);
+    assertEquals(before + 2, firings.getCount());
+  }
+
+  @Test
+  public void testModuleName() throws Exception {
+    assertEquals("common", RuleHelper.getModuleName(RuleHelper.class));
+    assertEquals("jdbc", RuleHelper.getModuleName(JdbcRuleHelper.class));
+  }
+
+  @Test
+  public void testHelperTimeEstimated() throws Exception {
+    long before = RuleHelper.getHelperNanos();
+    OperationId op = new OperationId("op");
+    for (int i = 0; i < 1000; i++) {
+      helper.beginTimedOperation(op);
+      helper.endTimedOperation(op, timer);
+    }
+    assertTrue(RuleHelper.getHelperNanos() > before);
+  }
+
+  @Test
+  public void testHelperTimeOfObjectPrimitivesEstimated() throws Exception {
+    long before = RuleHelper.getHelperNanos();
+    Object o = new Object();
+    for (int i = 0; i < 1000; i++) {
+      helper.setObjectProperty(o, "name", "value");
+      helper.getObjectProperty(o, "name");
+      helper.removeObjectProperty(o, "name");
+    }
+    assertTrue(RuleHelper.getHelperNanos() > before);
+  }
+
+  @Test
+  public void testTimedOperationDoesNotAllocate() throws Exception {
+    java.lang.management.ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMxBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean mxBean = (com.sun.management.ThreadMXBean) threadMxBean;
+    assumeTrue(mxBean.isThreadAllocatedMemorySupported());
+    mxBean.setThreadAllocatedMemoryEnabled(true);
+
+    OperationId outer = new OperationId("outer");
+    OperationId inner = new OperationId("inner");
+    //warm up: size the per-thread stack and let the JIT compile the path
+    for (int i = 0; i < ITERATIONS; i++) {
+      runOperations(outer, inner);
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long before = mxBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ITERATIONS; i++) {
+      runOperations(outer, inner);
+    }
+    long allocated = mxBean.getThreadAllocatedBytes(threadId) - before;
+
+    assertEquals("Bytes allocated per operation, total " + allocated, 0, allocated / ITERATIONS);
+  }
+
+  private void runOperations(OperationId outer, OperationId inner) {
+    helper.beginTimedOperation(outer);
+    helper.beginTimedOperation(inner);
+    helper.beginTimedOperation(inner);
+    helper.endTimedOperation(inner, timer);
+    helper.endTimedOperation(inner, timer);
+    helper.endTimedOperation(outer, timer);
+  }
+}
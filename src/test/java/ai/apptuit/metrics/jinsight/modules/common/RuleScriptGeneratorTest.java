@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class RuleScriptGeneratorTest {
+
+  @Test
+  public void testFindTargets() throws Exception {
+    String script = String.join("\n",
+        "# RULE Commented out",
+        "RULE Class rule",
+        "CLASS org.example.Foo",
+        "METHOD bar",
+        "ENDRULE",
+        "RULE Overriding rule",
+        "CLASS ^org.example.Base",
+        "ENDRULE",
+        "RULE Interface rule",
+        "  INTERFACE org.example.Service  ",
+        "ENDRULE",
+        "RULE Another class rule",
+        "CLASS org.example.Foo",
+        "ENDRULE");
+    assertEquals(new LinkedHashSet<>(Arrays.asList("org.example.Foo", "^org.example.Base",
+        "^org.example.Service")), RuleScriptGenerator.findTargets(script));
+  }
+}
@@ -16,8 +16,10 @@
 
 package ai.apptuit.metrics.jinsight.modules.httpurlconnection;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
+import ai.apptuit.metrics.jinsight.AgentThreads;
 import ai.apptuit.metrics.jinsight.RegistryService;
 import ai.apptuit.metrics.jinsight.testing.CountTracker;
 import ai.apptuit.metrics.jinsight.testing.CountTracker.Snapshot;
@@ -26,11 +28,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Scanner;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.hamcrest.CoreMatchers;
 import org.junit.After;
 import org.junit.Before;
@@ -85,6 +89,26 @@ public class UrlConnectionInstrumentationTest {
   }
 
 
+  @Test
+  public void testExcludedThreadNotTimed() throws Exception {
+    Snapshot expectedCounts = tracker.snapshot();
+    URL url = new URL(server.getEchoEndpoint());
+    AtomicInteger code = new AtomicInteger();
+    Thread thread = new Thread(() -> {
+      AgentThreads.excludeCurrentThread();
+      try {
+        code.set(((HttpURLConnection) url.openConnection()).getResponseCode());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    thread.start();
+    thread.join();
+
+    assertEquals(200, code.get());
+    tracker.validate(expectedCounts);
+  }
+
   @Test
   public void testHttpGet302Redirect() throws Exception {
     Snapshot expectedCounts = tracker.snapshot();
@@ -21,13 +21,17 @@ import static org.junit.Assert.assertTrue;
 
 import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
 import ai.apptuit.metrics.jinsight.RegistryService;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.zaxxer.hikari.HikariDataSource;
 import java.io.StringReader;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +53,8 @@ public class JDBCInstrumentationTest {
 
   private static final String CREATE_TABLE_STRING = "CREATE TABLE TEST(ID  VARCHAR(255) PRIMARY KEY, VALUE INT);";
   private static final String SELECT_QUERY = "SELECT * FROM TEST where ID=?";
+  private static final String UPDATE_QUERY = "UPDATE TEST SET VALUE=VALUE+1 where ID=?";
+  private static final String INSERT_QUERY = "INSERT INTO TEST VALUES(?, ?)";
   private static final int POOL_SIZE = 5;
 
   private MetricRegistry registry;
@@ -61,8 +67,7 @@ public class JDBCInstrumentationTest {
   public void setUp() throws Exception {
     registry = RegistryService.getMetricRegistry();
 
-    String sqlId = new StringUniqueIdService().getUniqueId(SELECT_QUERY);
-    executeStatementName = JdbcRuleHelper.EXECUTE_STATEMENT_NAME.withTags("sql", sqlId);
+    executeStatementName = getExecuteStatementName(SELECT_QUERY, "execute");
 
     presetElements = IntStream.range(0, 1000).boxed()
         .collect(Collectors.toMap(i -> UUID.randomUUID().toString(), i -> i));
@@ -218,6 +223,319 @@ public class JDBCInstrumentationTest {
         getTimerCount(executeStatementName));
   }
 
+  @Test
+  public void testPreparedStatementExecuteQuery() throws Exception {
+    TagEncodedMetricName name = getExecuteStatementName(SELECT_QUERY, "executeQuery");
+    long expectedCount = getTimerCount(name) + 1;
+    long executeCount = getTimerCount(executeStatementName);
+
+    Connection connection = datasource.getConnection();
+    PreparedStatement preparedStatement = connection.prepareStatement(SELECT_QUERY);
+    String key = presetElementKeys.get(0);
+    preparedStatement.setString(1, key);
+    ResultSet resultSet = preparedStatement.executeQuery();
+    resultSet.next();
+    assertEquals(presetElements.get(key).intValue(), resultSet.getInt(2));
+    connection.close();
+
+    assertEquals(expectedCount, getTimerCount(name));
+    assertEquals(executeCount, getTimerCount(executeStatementName));
+  }
+
+  @Test
+  public void testPreparedStatementExecuteUpdate() throws Exception {
+    TagEncodedMetricName updateName = getExecuteStatementName(UPDATE_QUERY, "executeUpdate");
+    TagEncodedMetricName largeUpdateName = getExecuteStatementName(UPDATE_QUERY,
+        "executeLargeUpdate");
+    long expectedUpdateCount = getTimerCount(updateName) + 1;
+    long expectedLargeUpdateCount = getTimerCount(largeUpdateName) + 1;
+
+    Connection connection = datasource.getConnection();
+    PreparedStatement preparedStatement = connection.prepareStatement(UPDATE_QUERY);
+    preparedStatement.setString(1, presetElementKeys.get(0));
+    assertEquals(1, preparedStatement.executeUpdate());
+    assertEquals(1, preparedStatement.executeLargeUpdate());
+    connection.close();
+
+    assertEquals(expectedUpdateCount, getTimerCount(updateName));
+    assertEquals(expectedLargeUpdateCount, getTimerCount(largeUpdateName));
+  }
+
+  @Test
+  public void testPreparedStatementExecuteBatch() throws Exception {
+    TagEncodedMetricName name = getExecuteStatementName(INSERT_QUERY, "executeBatch");
+    long expectedCount = getTimerCount(name) + 2;
+    TagEncodedMetricName batchSizeName = JdbcRuleHelper.BATCH_SIZE_NAME.withTags("sql",
+        new StringUniqueIdService().getUniqueId(SqlNormalizer.normalize(INSERT_QUERY)));
+    long expectedBatches = getHistogramCount(batchSizeName) + 2;
+
+    Connection connection = datasource.getConnection();
+    PreparedStatement preparedStatement = connection.prepareStatement(INSERT_QUERY);
+    for (int batchSize : new int[]{3, 7}) {
+      for (int i = 0; i < batchSize; i++) {
+        preparedStatement.setString(1, UUID.randomUUID().toString());
+        preparedStatement.setInt(2, i);
+        preparedStatement.addBatch();
+      }
+      assertEquals(batchSize, preparedStatement.executeBatch().length);
+    }
+    connection.close();
+
+    assertEquals(expectedCount, getTimerCount(name));
+    Histogram batchSizes = registry.getHistograms().get(batchSizeName.toString());
+    assertEquals(expectedBatches, batchSizes.getCount());
+    assertEquals(7, batchSizes.getSnapshot().getMax());
+  }
+
+  @Test
+  public void testPooledExecuteBatchRecordedOnce() throws Exception {
+    TagEncodedMetricName batchSizeName = JdbcRuleHelper.BATCH_SIZE_NAME.withTags("sql",
+        new StringUniqueIdService().getUniqueId(SqlNormalizer.normalize(INSERT_QUERY)));
+    long expectedBatches = getHistogramCount(batchSizeName) + 1;
+
+    //the statements of the pool wrap those of the driver
+    try (HikariDataSource pool = createHikariPool()) {
+      Connection connection = pool.getConnection();
+      PreparedStatement preparedStatement = connection.prepareStatement(INSERT_QUERY);
+      for (int i = 0; i < 5; i++) {
+        preparedStatement.setString(1, UUID.randomUUID().toString());
+        preparedStatement.setInt(2, i);
+        preparedStatement.addBatch();
+      }
+      assertEquals(5, preparedStatement.executeBatch().length);
+      connection.close();
+    }
+
+    assertEquals(expectedBatches, getHistogramCount(batchSizeName));
+  }
+
+  @Test
+  public void testStatementExecuteWithInlinedLiterals() throws Exception {
+    TagEncodedMetricName name = getStatementExecuteName("SELECT * FROM TEST where ID=?",
+        "executeQuery");
+    long expectedCount = getTimerCount(name) + 2;
+
+    Connection connection = datasource.getConnection();
+    Statement statement = connection.createStatement();
+    for (int i = 0; i < 2; i++) {
+      String key = presetElementKeys.get(i);
+      ResultSet resultSet = statement.executeQuery("SELECT * FROM TEST where ID='" + key + "'");
+      resultSet.next();
+      assertEquals(presetElements.get(key).intValue(), resultSet.getInt(2));
+    }
+    connection.close();
+
+    assertEquals(expectedCount, getTimerCount(name));
+  }
+
+  @Test
+  public void testStatementExecuteUpdate() throws Exception {
+    TagEncodedMetricName name = getStatementExecuteName(
+        "UPDATE TEST SET VALUE=VALUE+? where ID IN (?)", "executeUpdate");
+    long expectedCount = getTimerCount(name) + 1;
+
+    Connection connection = datasource.getConnection();
+    Statement statement = connection.createStatement();
+    int updated = statement.executeUpdate("UPDATE TEST SET VALUE=VALUE+1 where ID IN ('"
+        + presetElementKeys.get(0) + "', '" + presetElementKeys.get(1) + "')",
+        Statement.NO_GENERATED_KEYS);
+    assertEquals(2, updated);
+    connection.close();
+
+    assertEquals(expectedCount, getTimerCount(name));
+  }
+
+  @Test
+  public void testStatementExecuteError() throws Exception {
+    TagEncodedMetricName name = getStatementExecuteName("DIE! DIE! DIE!", "execute");
+    long expectedCount = getTimerCount(name);
+
+    Connection connection = datasource.getConnection();
+    boolean gotSqlException = false;
+    try {
+      connection.createStatement().execute("DIE! DIE! DIE!");
+    } catch (SQLException e) {
+      gotSqlException = true;
+    }
+    connection.close();
+
+    assertTrue(gotSqlException);
+    assertEquals(expectedCount, getTimerCount(name));
+  }
+
+  @Test
+  public void testCallableStatement() throws Exception {
+    String sql = "CALL ABS(?)";
+    TagEncodedMetricName name = getExecuteStatementName(sql, "executeQuery");
+    long expectedCount = getTimerCount(name) + 1;
+    long expectedPrepareCount = getTimerCount(JdbcRuleHelper.PREPARE_CALL_NAME) + 1;
+
+    Connection connection = datasource.getConnection();
+    CallableStatement callableStatement = connection.prepareCall(sql);
+    callableStatement.setInt(1, -5);
+    ResultSet resultSet = callableStatement.executeQuery();
+    resultSet.next();
+    assertEquals(5, resultSet.getInt(1));
+    connection.close();
+
+    assertEquals(expectedPrepareCount, getTimerCount(JdbcRuleHelper.PREPARE_CALL_NAME));
+    assertEquals(expectedCount, getTimerCount(name));
+  }
+
+  @Test
+  public void testResultSetRowsAndDrainTime() throws Exception {
+    String sql = "SELECT * FROM TEST where VALUE<?";
+    TagEncodedMetricName rowsName = getResultSetName(JdbcRuleHelper.RESULT_SET_ROWS_NAME, sql);
+    TagEncodedMetricName drainName = getResultSetName(JdbcRuleHelper.RESULT_SET_DRAIN_NAME, sql);
+    long expectedCount = getHistogramCount(rowsName) + 1;
+    long expectedDrainCount = getTimerCount(drainName) + 1;
+
+    Connection connection = datasource.getConnection();
+    PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    preparedStatement.setInt(1, 100);
+    ResultSet resultSet = preparedStatement.executeQuery();
+    int rows = 0;
+    while (resultSet.next()) {
+      rows++;
+    }
+    resultSet.close();
+    resultSet.close();
+    connection.close();
+
+    assertEquals(100, rows);
+    Histogram rowCounts = registry.getHistograms().get(rowsName.toString());
+    assertEquals(expectedCount, rowCounts.getCount());
+    assertEquals(100, rowCounts.getSnapshot().getMax());
+    assertEquals(expectedDrainCount, getTimerCount(drainName));
+  }
+
+  @Test
+  public void testResultSetPartiallyRead() throws Exception {
+    String sql = "SELECT VALUE FROM TEST where VALUE>=500";
+    TagEncodedMetricName rowsName = getResultSetName(JdbcRuleHelper.RESULT_SET_ROWS_NAME,
+        "SELECT VALUE FROM TEST where VALUE>=?");
+    TagEncodedMetricName drainName = getResultSetName(JdbcRuleHelper.RESULT_SET_DRAIN_NAME,
+        "SELECT VALUE FROM TEST where VALUE>=?");
+    long expectedCount = getHistogramCount(rowsName) + 2;
+    long expectedDrainCount = getTimerCount(drainName) + 1;
+
+    Connection connection = datasource.getConnection();
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery(sql);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(resultSet.next());
+    }
+    resultSet.close();
+    //closed without reading a row
+    statement.executeQuery(sql).close();
+    connection.close();
+
+    Histogram rowCounts = registry.getHistograms().get(rowsName.toString());
+    assertEquals(expectedCount, rowCounts.getCount());
+    assertEquals(3, rowCounts.getSnapshot().getMax());
+    assertEquals(0, rowCounts.getSnapshot().getMin());
+    assertEquals(expectedDrainCount, getTimerCount(drainName));
+  }
+
+  @Test
+  public void testResultSetFromGetResultSet() throws Exception {
+    String sql = "SELECT ID FROM TEST where VALUE<?";
+    TagEncodedMetricName rowsName = getResultSetName(JdbcRuleHelper.RESULT_SET_ROWS_NAME, sql);
+    long expectedCount = getHistogramCount(rowsName) + 2;
+
+    Connection connection = datasource.getConnection();
+    Statement statement = connection.createStatement();
+    assertTrue(statement.execute("SELECT ID FROM TEST where VALUE<10"));
+    statement.getResultSet();
+    ResultSet resultSet = statement.getResultSet();
+    while (resultSet.next()) {
+      resultSet.getString(1);
+    }
+    resultSet.close();
+
+    PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    preparedStatement.setInt(1, 20);
+    assertTrue(preparedStatement.execute());
+    resultSet = preparedStatement.getResultSet();
+    while (resultSet.next()) {
+      resultSet.getString(1);
+    }
+    resultSet.close();
+    connection.close();
+
+    Histogram rowCounts = registry.getHistograms().get(rowsName.toString());
+    assertEquals(expectedCount, rowCounts.getCount());
+    assertEquals(20, rowCounts.getSnapshot().getMax());
+    assertEquals(10, rowCounts.getSnapshot().getMin());
+  }
+
+  @Test
+  public void testPooledResultSetRecordedOnce() throws Exception {
+    String sql = "SELECT * FROM TEST where VALUE<=?";
+    TagEncodedMetricName rowsName = getResultSetName(JdbcRuleHelper.RESULT_SET_ROWS_NAME, sql);
+    TagEncodedMetricName drainName = getResultSetName(JdbcRuleHelper.RESULT_SET_DRAIN_NAME, sql);
+    long expectedCount = getHistogramCount(rowsName) + 2;
+    long expectedDrainCount = getTimerCount(drainName) + 2;
+
+    //the statements and result sets of the pool wrap those of the driver
+    try (HikariDataSource pool = createHikariPool()) {
+      Connection connection = pool.getConnection();
+      PreparedStatement preparedStatement = connection.prepareStatement(sql);
+      preparedStatement.setInt(1, 4);
+      ResultSet resultSet = preparedStatement.executeQuery();
+      while (resultSet.next()) {
+        resultSet.getString(1);
+      }
+      resultSet.close();
+
+      Statement statement = connection.createStatement();
+      assertTrue(statement.execute("SELECT * FROM TEST where VALUE<=4"));
+      resultSet = statement.getResultSet();
+      while (resultSet.next()) {
+        resultSet.getString(1);
+      }
+      resultSet.close();
+      connection.close();
+    }
+
+    Histogram rowCounts = registry.getHistograms().get(rowsName.toString());
+    assertEquals(expectedCount, rowCounts.getCount());
+    assertEquals(5, rowCounts.getSnapshot().getMax());
+    assertEquals(5, rowCounts.getSnapshot().getMin());
+    assertEquals(expectedDrainCount, getTimerCount(drainName));
+  }
+
+  private HikariDataSource createHikariPool() {
+    HikariDataSource pool = new HikariDataSource();
+    pool.setDataSource(datasource);
+    pool.setMaximumPoolSize(1);
+    return pool;
+  }
+
+  private TagEncodedMetricName getExecuteStatementName(String sql, String executionType) {
+    return getSqlTimerName(JdbcRuleHelper.EXECUTE_STATEMENT_NAME, sql, executionType);
+  }
+
+  private TagEncodedMetricName getStatementExecuteName(String sql, String executionType) {
+    return getSqlTimerName(JdbcRuleHelper.STATEMENT_EXECUTE_NAME, sql, executionType);
+  }
+
+  private TagEncodedMetricName getSqlTimerName(TagEncodedMetricName rootName, String sql,
+      String executionType) {
+    String sqlId = new StringUniqueIdService().getUniqueId(SqlNormalizer.normalize(sql));
+    return rootName.withTags("sql", sqlId, JdbcRuleHelper.EXECUTION_TYPE_TAG, executionType);
+  }
+
+  private TagEncodedMetricName getResultSetName(TagEncodedMetricName rootName, String sql) {
+    String sqlId = new StringUniqueIdService().getUniqueId(SqlNormalizer.normalize(sql));
+    return rootName.withTags("sql", sqlId);
+  }
+
+  private long getHistogramCount(TagEncodedMetricName name) {
+    Histogram histogram = registry.getHistograms().get(name.toString());
+    return histogram != null ? histogram.getCount() : 0;
+  }
+
   private long getTimerCount(TagEncodedMetricName name) {
     Timer timer = registry.getTimers().get(name.toString());
     return timer != null ? timer.getCount() : 0;
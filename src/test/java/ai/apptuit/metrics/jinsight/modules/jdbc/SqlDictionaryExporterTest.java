@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class SqlDictionaryExporterTest {
+
+  private File file;
+  private File rotatedFile;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("sql-ids", ".tsv");
+    assertTrue(file.delete());
+    rotatedFile = new File(file.getPath() + ".1");
+    //statements cached by other tests
+    StringUniqueIdService.exportNewIds((id, sql) -> {
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(file.toPath());
+    Files.deleteIfExists(rotatedFile.toPath());
+  }
+
+  @Test
+  public void testNewIdsAppended() throws Exception {
+    SqlDictionaryExporter exporter = new SqlDictionaryExporter(file);
+    exporter.run();
+    assertFalse(file.exists());
+
+    StringUniqueIdService service = new StringUniqueIdService();
+    String first = "SELECT * FROM TEST where ID=" + UUID.randomUUID();
+    String second = "SELECT *\tFROM TEST\nwhere NAME='a\\b' AND ID=" + UUID.randomUUID();
+    service.getUniqueId(first);
+    exporter.run();
+    service.getUniqueId(second);
+    exporter.run();
+    exporter.run();
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(2, lines.size());
+    assertEquals(service.getUniqueId(first) + "\t" + first, lines.get(0));
+    assertEquals(service.getUniqueId(second) + "\t"
+        + second.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n"), lines.get(1));
+  }
+
+  @Test
+  public void testIdsRetriedAfterFailedWrite() throws Exception {
+    File dir = file;
+    file = new File(dir, "sql-ids.tsv");
+    SqlDictionaryExporter exporter = new SqlDictionaryExporter(file);
+    StringUniqueIdService service = new StringUniqueIdService();
+    String sql = "SELECT * FROM TEST where ID=" + UUID.randomUUID();
+    service.getUniqueId(sql);
+    exporter.run();
+    assertFalse(file.exists());
+
+    assertTrue(dir.mkdir());
+    try {
+      exporter.run();
+      List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+      assertEquals(Collections.singletonList(service.getUniqueId(sql) + "\t" + sql), lines);
+    } finally {
+      Files.deleteIfExists(file.toPath());
+      file = dir;
+    }
+  }
+
+  @Test
+  public void testIdsInFileNotWrittenAgain() throws Exception {
+    StringUniqueIdService service = new StringUniqueIdService();
+    String sql = "SELECT * FROM TEST where ID=" + UUID.randomUUID();
+    String line = service.getUniqueId(sql) + "\t" + sql;
+    //written before a restart
+    Files.write(file.toPath(), Collections.singletonList(line), StandardCharsets.UTF_8);
+
+    new SqlDictionaryExporter(file).run();
+
+    assertEquals(Collections.singletonList(line),
+        Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testFileRotated() throws Exception {
+    SqlDictionaryExporter exporter = new SqlDictionaryExporter(file, 1);
+    StringUniqueIdService service = new StringUniqueIdService();
+    String first = "SELECT * FROM TEST where ID=" + UUID.randomUUID();
+    String second = "SELECT * FROM TEST where NAME=" + UUID.randomUUID();
+    service.getUniqueId(first);
+    exporter.run();
+    service.getUniqueId(second);
+    exporter.run();
+
+    String firstLine = service.getUniqueId(first) + "\t" + first;
+    assertEquals(Collections.singletonList(firstLine),
+        Files.readAllLines(rotatedFile.toPath(), StandardCharsets.UTF_8));
+    //the new file starts with the cached statements
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertTrue(lines.contains(firstLine));
+    assertTrue(lines.contains(service.getUniqueId(second) + "\t" + second));
+  }
+}
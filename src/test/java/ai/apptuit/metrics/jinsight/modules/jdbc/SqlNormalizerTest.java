@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class SqlNormalizerTest {
+
+  @Test
+  public void testNormalizedSqlReturnedAsIs() throws Exception {
+    String sql = "SELECT * FROM TEST where ID=? AND NAME IN (?)";
+    assertSame(sql, SqlNormalizer.normalize(sql));
+    assertNull(SqlNormalizer.normalize(null));
+  }
+
+  @Test
+  public void testStringLiterals() throws Exception {
+    assertEquals("SELECT * FROM users WHERE name = ? AND city=?",
+        SqlNormalizer.normalize("SELECT * FROM users WHERE name = 'O''Brien' AND city='x'"));
+  }
+
+  @Test
+  public void testNumericLiterals() throws Exception {
+    assertEquals("SELECT c1, t2.c3 FROM t2 WHERE id = ? AND ratio > ? LIMIT ? OFFSET ?",
+        SqlNormalizer.normalize(
+            "SELECT c1, t2.c3 FROM t2 WHERE id = 42 AND ratio > 1.5e-3 LIMIT 10 OFFSET 0"));
+    assertEquals("UPDATE t SET flags = ?, v = -? WHERE k = :1",
+        SqlNormalizer.normalize("UPDATE t SET flags = 0xFF, v = -7 WHERE k = :1"));
+  }
+
+  @Test
+  public void testQuotedIdentifiersKept() throws Exception {
+    String sql = "SELECT \"col 1\", `x'y` FROM \"t2\"";
+    assertSame(sql, SqlNormalizer.normalize(sql));
+  }
+
+  @Test
+  public void testInListsCollapsed() throws Exception {
+    assertEquals("SELECT * FROM t WHERE id IN (?) AND k in(?)",
+        SqlNormalizer.normalize("SELECT * FROM t WHERE id IN (1, 2, 3) AND k in('a','b')"));
+    assertEquals("SELECT * FROM t WHERE id IN ( ? )",
+        SqlNormalizer.normalize("SELECT * FROM t WHERE id IN ( ?, ? , ? )"));
+    //only IN lists are collapsed
+    assertEquals("INSERT INTO t VALUES (?, ?)",
+        SqlNormalizer.normalize("INSERT INTO t VALUES (1, 'a')"));
+    assertEquals("SELECT join(?, ?)", SqlNormalizer.normalize("SELECT join(1, 2)"));
+  }
+
+  @Test
+  public void testWhitespaceAndComments() throws Exception {
+    assertEquals("SELECT a FROM t WHERE b = ?", SqlNormalizer.normalize(
+        "  SELECT a\n\tFROM t -- trailing comment\n WHERE /* hint */ b = 1 \n"));
+    assertEquals("SELECT a", SqlNormalizer.normalize("SELECT a /* unterminated"));
+  }
+
+  @Test
+  public void testUnterminatedLiteral() throws Exception {
+    assertEquals("SELECT ?", SqlNormalizer.normalize("SELECT 'abc"));
+  }
+
+  @Test
+  public void testLongSql() throws Exception {
+    StringBuilder sql = new StringBuilder("SELECT * FROM t WHERE id IN (0");
+    for (int i = 1; i < 10_000; i++) {
+      sql.append(", ").append(i);
+    }
+    sql.append(")");
+    assertEquals("SELECT * FROM t WHERE id IN (?)", SqlNormalizer.normalize(sql.toString()));
+  }
+}
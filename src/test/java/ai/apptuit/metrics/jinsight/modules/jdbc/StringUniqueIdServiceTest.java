@@ -18,7 +18,12 @@ package ai.apptuit.metrics.jinsight.modules.jdbc;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -54,6 +59,69 @@ public class StringUniqueIdServiceTest {
     assertEquals(clientId, cachedId);
   }
 
+  @Test
+  public void testCacheStatistics() throws Exception {
+    String query = "SELECT * FROM TEST where ID=" + UUID.randomUUID();
+    long hits = StringUniqueIdService.getCacheHits();
+    long misses = StringUniqueIdService.getCacheMisses();
+    service.getUniqueId(query);
+    service.getUniqueId(query);
+    service.getUniqueId(query);
+    assertEquals(hits + 2, StringUniqueIdService.getCacheHits());
+    assertEquals(misses + 1, StringUniqueIdService.getCacheMisses());
+    assertTrue(StringUniqueIdService.getCacheSize() > 0);
+  }
+
+  @Test
+  public void testMurmurHash() throws Exception {
+    //MurmurHash3 x64 128 of the UTF-16LE bytes, with the hash bytes in little-endian order
+    assertEquals("00000000000000000000000000000000", StringUniqueIdService.hash128(""));
+    assertEquals("bd984e0b5098a6967d6754c7bfc978b2", StringUniqueIdService.hash128("a"));
+    assertEquals("b2ae6d69bca50328fad1d64075ebb1a2", StringUniqueIdService.hash128("abcdefgh"));
+    assertEquals("2e076773feacc61a4a566fc382d6acce", StringUniqueIdService.hash128("abcdefghi"));
+    assertEquals("f01dff22240d967fd352a15f3a9903d7",
+        StringUniqueIdService.hash128("SELECT * FROM TEST where ID=?"));
+    assertEquals("f9fffc9ed9bf08bd00ebdecce554c5c2",
+        StringUniqueIdService.hash128("h\u00e9llo w\u00f6rld \u20ac"));
+  }
+
+  @Test
+  public void testCacheBounded() throws Exception {
+    String prefix = "SELECT * FROM TEST where ID=" + UUID.randomUUID() + " AND N=";
+    for (int i = 0; i < 3 * StringUniqueIdService.MAX_SIZE; i++) {
+      assertEquals(service.getIdFromServer(prefix + i), service.getUniqueId(prefix + i));
+    }
+    assertEquals(StringUniqueIdService.MAX_SIZE, StringUniqueIdService.getCacheSize());
+  }
+
+  @Test
+  public void testUsedEntriesKept() throws Exception {
+    String hot = "SELECT * FROM HOT where ID=" + UUID.randomUUID();
+    service.getUniqueId(hot);
+    String prefix = "SELECT * FROM COLD where ID=" + UUID.randomUUID() + " AND N=";
+    for (int i = 0; i < 3 * StringUniqueIdService.MAX_SIZE; i++) {
+      service.getUniqueId(hot);
+      service.getUniqueId(prefix + i);
+    }
+    long misses = StringUniqueIdService.getCacheMisses();
+    service.getUniqueId(hot);
+    assertEquals(misses, StringUniqueIdService.getCacheMisses());
+  }
+
+  @Test
+  public void testExportNewIds() throws Exception {
+    StringUniqueIdService.exportNewIds((id, sql) -> {
+    });
+    String query = "SELECT * FROM TEST where ID=" + UUID.randomUUID();
+    String id = service.getUniqueId(query);
+    service.getUniqueId(query);
+
+    Map<String, String> exported = new HashMap<>();
+    assertEquals(1, StringUniqueIdService.exportNewIds(exported::put));
+    assertEquals(Collections.singletonMap(id, query), exported);
+    assertEquals(0, StringUniqueIdService.exportNewIds(exported::put));
+  }
+
   @Test
   public void testNull() throws Exception {
     String cachedId = service.getUniqueId(null);
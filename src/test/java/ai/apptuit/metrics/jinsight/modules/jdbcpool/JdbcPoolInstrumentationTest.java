@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.modules.jdbcpool;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import ai.apptuit.metrics.dropwizard.TagEncodedMetricName;
+import ai.apptuit.metrics.jinsight.RegistryService;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class JdbcPoolInstrumentationTest {
+
+  private static final int POOL_SIZE = 2;
+  private static final int TIMEOUT_MILLIS = 1000;
+
+  private MetricRegistry registry;
+  private String url;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = RegistryService.getMetricRegistry();
+    url = "jdbc:h2:mem:JdbcPoolInstrumentationTest." + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+  }
+
+  @Test
+  public void testHikari() throws Exception {
+    HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setJdbcUrl(url);
+    dataSource.setPoolName("hikari-test");
+    dataSource.setMaximumPoolSize(POOL_SIZE);
+    dataSource.setConnectionTimeout(TIMEOUT_MILLIS);
+
+    verifyPool("hikari-test", dataSource, dataSource::close);
+  }
+
+  @Test
+  public void testC3p0() throws Exception {
+    ComboPooledDataSource dataSource = new ComboPooledDataSource();
+    dataSource.setJdbcUrl(url);
+    dataSource.setDataSourceName("c3p0 test");
+    dataSource.setInitialPoolSize(POOL_SIZE);
+    dataSource.setMinPoolSize(POOL_SIZE);
+    dataSource.setMaxPoolSize(POOL_SIZE);
+    dataSource.setCheckoutTimeout(TIMEOUT_MILLIS);
+
+    verifyPool("c3p0_test", dataSource, dataSource::close);
+  }
+
+  @Test
+  public void testDbcp2() throws Exception {
+    BasicDataSource dataSource = new BasicDataSource();
+    dataSource.setUrl(url);
+    dataSource.setJmxName("org.apache.commons.dbcp2:name=dbcp2-test");
+    dataSource.setMaxTotal(POOL_SIZE);
+    dataSource.setMaxWaitMillis(TIMEOUT_MILLIS);
+
+    verifyPool("org.apache.commons.dbcp2_name_dbcp2-test", dataSource, dataSource::close);
+  }
+
+  @Test
+  public void testTomcat() throws Exception {
+    org.apache.tomcat.jdbc.pool.DataSource dataSource = createTomcatPool("tomcat-test");
+
+    verifyPool("tomcat-test", dataSource, dataSource::close);
+  }
+
+  @Test
+  public void testDuplicatePoolName() throws Exception {
+    org.apache.tomcat.jdbc.pool.DataSource first = createTomcatPool("duplicate");
+    org.apache.tomcat.jdbc.pool.DataSource second = createTomcatPool("duplicate");
+    first.getConnection().close();
+    second.getConnection().close();
+
+    assertNotNull(getGauge("duplicate", "total"));
+    assertNotNull(getGauge("duplicate-2", "total"));
+
+    first.close();
+    second.close();
+    assertEquals(null, getGauge("duplicate", "total"));
+    assertEquals(null, getGauge("duplicate-2", "total"));
+  }
+
+  @Test
+  public void testUniqueName() throws Exception {
+    assertEquals("Tomcat_Connection_Pool_1-2_",
+        JdbcPoolRuleHelper.getUniqueName("tomcat", "Tomcat Connection Pool[1-2]"));
+    assertEquals("unnamed-1", JdbcPoolRuleHelper.getUniqueName("unnamed", null));
+    assertEquals("unnamed-2", JdbcPoolRuleHelper.getUniqueName("unnamed", ""));
+  }
+
+  private org.apache.tomcat.jdbc.pool.DataSource createTomcatPool(String name) {
+    PoolProperties properties = new PoolProperties();
+    properties.setUrl(url);
+    properties.setDriverClassName("org.h2.Driver");
+    properties.setName(name);
+    properties.setInitialSize(0);
+    properties.setMinIdle(0);
+    properties.setMaxIdle(POOL_SIZE);
+    properties.setMaxActive(POOL_SIZE);
+    properties.setMaxWait(TIMEOUT_MILLIS);
+    return new org.apache.tomcat.jdbc.pool.DataSource(properties);
+  }
+
+  private void verifyPool(String poolName, DataSource dataSource, AutoCloseable pool)
+      throws Exception {
+    Connection first = dataSource.getConnection();
+    Connection second = dataSource.getConnection();
+
+    assertEquals(2, getTimer(poolName).getCount());
+    assertEquals(POOL_SIZE, getGauge(poolName, "active").getValue());
+    assertEquals(POOL_SIZE, getGauge(poolName, "total").getValue());
+    assertEquals(0, getGauge(poolName, "idle").getValue());
+    assertEquals(0, getGauge(poolName, "pending").getValue());
+
+    //waits for a connection while the pool is exhausted, and times out
+    AtomicBoolean timedOut = new AtomicBoolean();
+    Thread waiter = new Thread(() -> {
+      try {
+        dataSource.getConnection().close();
+      } catch (SQLException e) {
+        timedOut.set(true);
+      }
+    });
+    waiter.start();
+    await().atMost(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        .until(() -> getGauge(poolName, "pending").getValue().equals(1));
+    waiter.join();
+    assertTrue(timedOut.get());
+    assertEquals(0, getGauge(poolName, "pending").getValue());
+    assertEquals(1, getTimeouts(poolName).getCount());
+    assertEquals(2, getTimer(poolName).getCount());
+
+    first.close();
+    second.close();
+    await().atMost(5, TimeUnit.SECONDS)
+        .until(() -> getGauge(poolName, "active").getValue().equals(0));
+    assertEquals(POOL_SIZE, getGauge(poolName, "total").getValue());
+
+    pool.close();
+    assertFalse(registry.getGauges().containsKey(getName(JdbcPoolRuleHelper.ROOT_NAME
+        .submetric("active"), poolName)));
+    assertEquals(1, getTimeouts(poolName).getCount());
+  }
+
+  private Gauge getGauge(String poolName, String metric) {
+    return registry.getGauges()
+        .get(getName(JdbcPoolRuleHelper.ROOT_NAME.submetric(metric), poolName));
+  }
+
+  private Timer getTimer(String poolName) {
+    return registry.getTimers().get(getName(JdbcPoolRuleHelper.ACQUIRE_NAME, poolName));
+  }
+
+  private Counter getTimeouts(String poolName) {
+    return registry.getCounters().get(getName(JdbcPoolRuleHelper.TIMEOUTS_NAME, poolName));
+  }
+
+  private static String getName(TagEncodedMetricName metricName, String poolName) {
+    return metricName.withTags(JdbcPoolRuleHelper.POOL_TAG, poolName).toString();
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class MetricRecorderTest {
+
+  private static final long START = 1500000000000L;
+  private static final long INTERVAL = 10_000;
+
+  private File directory;
+  private MetricRegistry registry;
+  private ManualClock clock;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("jinsight-recording").toFile();
+    registry = new MetricRegistry();
+    clock = new ManualClock();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (File file : RecordingWriter.listRecordingFiles(directory)) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Counter counter = registry.counter("requests[method:GET]");
+    registry.register("ratio", (Gauge<Double>) () -> 0.25);
+    MetricRecorder recorder = newRecorder(1024 * 1024, 10 * 1024 * 1024);
+    for (int i = 1; i <= 5; i++) {
+      counter.inc();
+      registry.timer("latency").update(i, TimeUnit.MILLISECONDS);
+      recorder.report();
+      clock.advance();
+    }
+    recorder.stop();
+
+    List<Sample> samples = readAll();
+    List<Sample> counts = filter(samples, "requests.count[method:GET]");
+    assertEquals(5, counts.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(START + i * INTERVAL, counts.get(i).timestamp);
+      assertEquals(i + 1, counts.get(i).value, 0);
+    }
+    assertEquals(5, filter(samples, "ratio").size());
+    assertEquals(0.25, filter(samples, "ratio").get(0).value, 0);
+    List<Sample> maxLatency = filter(samples, "latency.max");
+    assertEquals(5, maxLatency.get(4).value, 0);
+    assertEquals(5, filter(samples, "latency[quantile:0.99]").size());
+  }
+
+  @Test
+  public void testSeriesAddedAndRemoved() throws Exception {
+    MetricRecorder recorder = newRecorder(1024 * 1024, 10 * 1024 * 1024);
+    registry.counter("early").inc();
+    recorder.report();
+    clock.advance();
+    registry.remove("early");
+    registry.counter("late").inc();
+    recorder.report();
+    clock.advance();
+    recorder.report();
+    recorder.stop();
+
+    List<Sample> samples = readAll();
+    List<Sample> early = filter(samples, "early.count");
+    assertEquals(1, early.size());
+    assertEquals(START, early.get(0).timestamp);
+    List<Sample> late = filter(samples, "late.count");
+    assertEquals(2, late.size());
+    assertEquals(START + INTERVAL, late.get(0).timestamp);
+  }
+
+  @Test
+  public void testChunkWrittenWithoutStop() throws Exception {
+    registry.counter("counter");
+    MetricRecorder recorder = newRecorder(1024 * 1024, 10 * 1024 * 1024);
+    for (int i = 0; i < MetricRecorder.CHUNK_SAMPLES; i++) {
+      recorder.report();
+      clock.advance();
+    }
+    assertEquals(MetricRecorder.CHUNK_SAMPLES, readAll().size());
+  }
+
+  @Test
+  public void testRotationAndSizeCap() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      registry.counter("counter" + i);
+    }
+    Random random = new Random(42);
+    long maxTotalSize = 8 * 1024;
+    MetricRecorder recorder = newRecorder(1, maxTotalSize);
+    for (int chunk = 0; chunk < 20; chunk++) {
+      for (int i = 0; i < MetricRecorder.CHUNK_SAMPLES; i++) {
+        registry.counter("counter" + random.nextInt(100)).inc(random.nextInt(100));
+        recorder.report();
+        clock.advance();
+      }
+    }
+    recorder.stop();
+
+    File[] files = RecordingWriter.listRecordingFiles(directory);
+    assertTrue(files.length > 1);
+    assertTrue(files.length < 20);
+    long totalSize = 0;
+    for (File file : files) {
+      totalSize += file.length();
+    }
+    long lastFileSize = files[files.length - 1].length();
+    assertTrue("Total size " + totalSize, totalSize <= maxTotalSize + lastFileSize);
+    //the newest samples are kept
+    List<Sample> samples = new ArrayList<>();
+    RecordingReader.read(files[files.length - 1], (t, m, v) -> samples.add(new Sample(t, m, v)));
+    assertEquals(clock.time - INTERVAL, samples.get(samples.size() - 1).timestamp);
+  }
+
+  @Test
+  public void testDayOfHistoryInFewMegabytes() throws Exception {
+    Random random = new Random(42);
+    Counter[] counters = new Counter[250];
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = registry.counter("counter" + i);
+      int value = random.nextInt(1000);
+      registry.register("gauge" + i, (Gauge<Integer>) () -> value);
+    }
+    MetricRecorder recorder = newRecorder(64 * 1024 * 1024, 64 * 1024 * 1024);
+    int samplesPerDay = 8640;
+    for (int i = 0; i < samplesPerDay; i++) {
+      //a tenth of the counters are busy
+      for (int j = 0; j < counters.length / 10; j++) {
+        counters[random.nextInt(counters.length)].inc(1 + random.nextInt(10));
+      }
+      recorder.report();
+      clock.time += INTERVAL + random.nextInt(5);
+    }
+    recorder.stop();
+
+    long size = RecordingWriter.listRecordingFiles(directory)[0].length();
+    double bytesPerSample = size / (500.0 * samplesPerDay);
+    assertTrue("Size " + size + ", bytes per sample " + bytesPerSample, bytesPerSample < 1);
+  }
+
+  @Test
+  public void testUnwritableDirectoryDoesNotFailReporting() throws Exception {
+    File notADirectory = File.createTempFile("jinsight", ".tmp");
+    try {
+      MetricRecorder recorder = new MetricRecorder(registry,
+          new RecordingWriter(new File(notADirectory, "recording"), 1024, 1024), clock);
+      registry.counter("counter");
+      for (int i = 0; i < MetricRecorder.CHUNK_SAMPLES; i++) {
+        recorder.report();
+      }
+      recorder.stop();
+      assertFalse(new File(notADirectory, "recording").exists());
+    } finally {
+      notADirectory.delete();
+    }
+  }
+
+  private MetricRecorder newRecorder(long maxFileSize, long maxTotalSize) {
+    return new MetricRecorder(registry, new RecordingWriter(directory, maxFileSize,
+        maxTotalSize), clock);
+  }
+
+  private List<Sample> readAll() throws IOException {
+    List<Sample> samples = new ArrayList<>();
+    for (File file : RecordingWriter.listRecordingFiles(directory)) {
+      RecordingReader.read(file, (t, m, v) -> samples.add(new Sample(t, m, v)));
+    }
+    return samples;
+  }
+
+  private static List<Sample> filter(List<Sample> samples, String metric) {
+    List<Sample> filtered = new ArrayList<>();
+    for (Sample sample : samples) {
+      if (sample.metric.equals(metric)) {
+        filtered.add(sample);
+      }
+    }
+    return filtered;
+  }
+
+  private static class Sample {
+
+    private final long timestamp;
+    private final String metric;
+    private final double value;
+
+    Sample(long timestamp, String metric, double value) {
+      this.timestamp = timestamp;
+      this.metric = metric;
+      this.value = value;
+    }
+  }
+
+  private static class ManualClock extends Clock {
+
+    private long time = START;
+
+    void advance() {
+      time += INTERVAL;
+    }
+
+    @Override
+    public long getTick() {
+      return TimeUnit.MILLISECONDS.toNanos(time);
+    }
+
+    @Override
+    public long getTime() {
+      return time;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import static org.junit.Assert.assertEquals;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class RecordingReaderTest {
+
+  private File directory;
+  private MetricRegistry registry;
+  private long time = 1500000000000L;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("jinsight-recording").toFile();
+    registry = new MetricRegistry();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (File file : RecordingWriter.listRecordingFiles(directory)) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testCsv() throws Exception {
+    registry.counter("requests[method:GET,status:200]").inc(3);
+    record(2);
+
+    StringWriter csv = new StringWriter();
+    RecordingReader.writeCsv(getRecordingFile(), csv);
+    assertEquals("1500000000000,\"requests.count[method:GET,status:200]\",3.0\n"
+        + "1500000010000,\"requests.count[method:GET,status:200]\",3.0\n", csv.toString());
+  }
+
+  @Test
+  public void testCsvEscaping() throws Exception {
+    assertEquals("plain", RecordingReader.escapeCsv("plain"));
+    assertEquals("\"a,b\"", RecordingReader.escapeCsv("a,b"));
+    assertEquals("\"say \"\"hi\"\"\"", RecordingReader.escapeCsv("say \"hi\""));
+  }
+
+  @Test
+  public void testIncompleteChunkEndsFile() throws Exception {
+    registry.counter("counter").inc();
+    record(MetricRecorder.CHUNK_SAMPLES + 5);
+    File file = getRecordingFile();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    int[] count = new int[1];
+    RecordingReader.read(file, (t, m, v) -> count[0]++);
+    assertEquals(MetricRecorder.CHUNK_SAMPLES, count[0]);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotARecordingFile() throws Exception {
+    File file = new File(directory, "metrics.csv");
+    Files.write(file.toPath(), "timestamp,metric,value".getBytes());
+    RecordingReader.read(file, (t, m, v) -> {
+    });
+  }
+
+  private void record(int samples) {
+    MetricRecorder recorder = new MetricRecorder(registry,
+        new RecordingWriter(directory, 1024 * 1024, 10 * 1024 * 1024), new Clock() {
+          @Override
+          public long getTick() {
+            return time * 1_000_000;
+          }
+
+          @Override
+          public long getTime() {
+            return time;
+          }
+        });
+    for (int i = 0; i < samples; i++) {
+      recorder.report();
+      time += 10_000;
+    }
+    recorder.stop();
+  }
+
+  private File getRecordingFile() {
+    File[] files = RecordingWriter.listRecordingFiles(directory);
+    assertEquals(1, files.length);
+    return files[0];
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class TimestampColumnTest {
+
+  private TimestampColumn column;
+
+  @Before
+  public void setUp() throws Exception {
+    column = new TimestampColumn();
+  }
+
+  @Test
+  public void testRegularIntervalTakesOneBit() throws Exception {
+    long[] timestamps = new long[100];
+    for (int i = 0; i < timestamps.length; i++) {
+      timestamps[i] = 1500000000000L + i * 10_000;
+    }
+    appendAll(timestamps);
+    //first timestamp, first delta, and a bit for each of the rest
+    assertEquals(64 + 68 + 98, column.getWriter().getBitCount());
+    assertArrayEquals(timestamps, decode());
+  }
+
+  @Test
+  public void testJitterAndGaps() throws Exception {
+    Random random = new Random(42);
+    long[] timestamps = new long[1000];
+    long timestamp = 1500000000000L;
+    for (int i = 0; i < timestamps.length; i++) {
+      //jitter of all sizes, and an occasional long pause
+      int bound = 1 << (1 + random.nextInt(14));
+      timestamp += 10_000 + random.nextInt(bound) - bound / 2;
+      if (i % 100 == 99) {
+        timestamp += 3_600_000_000L;
+      }
+      timestamps[i] = timestamp;
+    }
+    appendAll(timestamps);
+    assertArrayEquals(timestamps, decode());
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    appendAll(new long[]{100, 200, 300});
+    column.reset();
+    appendAll(new long[]{5, 10});
+    assertEquals(5, column.getFirst());
+    assertArrayEquals(new long[]{5, 10}, decode());
+  }
+
+  private void appendAll(long[] timestamps) {
+    for (long timestamp : timestamps) {
+      column.append(timestamp);
+    }
+  }
+
+  private long[] decode() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    column.getWriter().writeTo(new DataOutputStream(bytes));
+    return TimestampColumn.decode(new BitReader(bytes.toByteArray()), column.size());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Agilx, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.apptuit.metrics.jinsight.recording;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Rajiv Shivane
+ */
+public class ValueColumnTest {
+
+  private ValueColumn column;
+
+  @Before
+  public void setUp() throws Exception {
+    column = new ValueColumn();
+  }
+
+  @Test
+  public void testRepeatedValueTakesOneBit() throws Exception {
+    double[] values = new double[100];
+    Arrays.fill(values, 42.5);
+    appendAll(values);
+    assertEquals(64 + 99, column.getWriter().getBitCount());
+    assertArrayEquals(values, decode(), 0);
+  }
+
+  @Test
+  public void testSpecialValues() throws Exception {
+    double[] values = {0, -0.0, Double.NaN, Double.NaN, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE, -1, 1, Long.MAX_VALUE};
+    appendAll(values);
+    double[] decoded = decode();
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(Double.doubleToLongBits(values[i]), Double.doubleToLongBits(decoded[i]));
+    }
+  }
+
+  @Test
+  public void testRandomValues() throws Exception {
+    Random random = new Random(42);
+    double[] values = new double[10_000];
+    for (int i = 0; i < values.length; i++) {
+      switch (random.nextInt(3)) {
+        case 0:
+          values[i] = random.nextDouble() * random.nextInt();
+          break;
+        case 1:
+          values[i] = i > 0 ? values[i - 1] : 0;
+          break;
+        default:
+          values[i] = random.nextInt(1000);
+      }
+    }
+    appendAll(values);
+    assertArrayEquals(values, decode(), 0);
+  }
+
+  @Test
+  public void testSlowlyGrowingCounterCompresses() throws Exception {
+    double[] values = new double[1000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 1_000_000 + i * 7;
+    }
+    appendAll(values);
+    double bitsPerValue = column.getWriter().getBitCount() / (double) values.length;
+    assertTrue("Bits per value: " + bitsPerValue, bitsPerValue < 32);
+    assertArrayEquals(values, decode(), 0);
+  }
+
+  private void appendAll(double[] values) {
+    for (double value : values) {
+      column.append(value);
+    }
+  }
+
+  private double[] decode() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    column.getWriter().writeTo(new DataOutputStream(bytes));
+    return ValueColumn.decode(new BitReader(bytes.toByteArray()), column.size());
+  }
+}